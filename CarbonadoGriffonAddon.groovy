@@ -18,21 +18,28 @@ import griffon.core.GriffonClass
 import griffon.core.GriffonApplication
 import griffon.plugins.carbonado.CarbonadoConnector
 import griffon.plugins.carbonado.CarbonadoEnhancer
+import griffon.plugins.carbonado.CarbonadoExecutors
+import griffon.plugins.carbonado.CarbonadoMetrics
+import griffon.plugins.carbonado.CarbonadoProvider
 import griffon.plugins.carbonado.CarbonadoContributionHandler
 
 import static griffon.util.ConfigUtils.getConfigValueAsBoolean
+import static griffon.util.ConfigUtils.getConfigValueAsInt
 
 /**
  * @author Andres Almiray
  */
 class CarbonadoGriffonAddon {
     void addonPostInit(GriffonApplication app) {
-        CarbonadoConnector.instance.createConfig(app)
+        ConfigObject config = CarbonadoConnector.instance.createConfig(app)
+        CarbonadoConnector.instance.configureMetrics(app, config)
+        CarbonadoConnector.instance.configureEviction(app, config)
+        CarbonadoProvider provider = CarbonadoConnector.instance.resolveCarbonadoProvider(app)
         def types = app.config.griffon?.carbonado?.injectInto ?: ['controller']
         for(String type : types) {
             for(GriffonClass gc : app.artifactManager.getClassesOfType(type)) {
                 if (CarbonadoContributionHandler.isAssignableFrom(gc.clazz)) continue
-                CarbonadoEnhancer.enhance(gc.metaClass)
+                CarbonadoEnhancer.enhance(gc.metaClass, provider)
             }
         }
     }
@@ -41,12 +48,20 @@ class CarbonadoGriffonAddon {
         LoadAddonsEnd: { app, addons ->
             if (getConfigValueAsBoolean(app.config, 'griffon.carbonado.connect.onstartup', true)) {
                 ConfigObject config = CarbonadoConnector.instance.createConfig(app)
-                CarbonadoConnector.instance.connect(app, config)
+                if (getConfigValueAsBoolean(app.config, 'griffon.carbonado.connect.all', false)) {
+                    CarbonadoConnector.instance.connectAll(app, config)
+                } else {
+                    CarbonadoConnector.instance.connect(app, config)
+                }
             }
         },
         ShutdownStart: { app ->
             ConfigObject config = CarbonadoConnector.instance.createConfig(app)
-            CarbonadoConnector.instance.disconnect(app, config)
+            long timeout = getConfigValueAsInt(app.config, 'griffon.carbonado.disconnect.timeout', 30000)
+            CarbonadoConnector.instance.stopEviction()
+            CarbonadoExecutors.instance.shutdownAll()
+            CarbonadoConnector.instance.disconnectAll(app, config, timeout)
+            CarbonadoMetrics.instance.shutdown()
         }
     ]
 }
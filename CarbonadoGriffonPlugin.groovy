@@ -85,6 +85,150 @@ The following list enumerates all the variants of the injected method
  * `<R> R withCarbonado(CallableWithArgs<R> stmts)`
  * `<R> R withCarbonado(String repositoryName, Closure<R> stmts)`
  * `<R> R withCarbonado(String repositoryName, CallableWithArgs<R> stmts)`
+ * `<R> R withCarbonado(RepositoryCallback<R> stmts)`
+ * `<R> R withCarbonado(String repositoryName, RepositoryCallback<R> stmts)`
+
+`griffon.plugins.carbonado.RepositoryCallback` receives the repository name and
+repository as plain arguments. Unlike `CallableWithArgs` it does not allocate an
+argument array nor mutate the callback on each call, thus a single stateless
+instance can be safely shared between threads.
+
+Calls can also be made off the calling thread with `withCarbonadoAsync`, which
+returns a `java.util.concurrent.Future`
+
+ * `<R> Future<R> withCarbonadoAsync(Closure<R> stmts)`
+ * `<R> Future<R> withCarbonadoAsync(String repositoryName, Closure<R> stmts)`
+ * `<R> Future<R> withCarbonadoAsync(RepositoryCallback<R> stmts)`
+ * `<R> Future<R> withCarbonadoAsync(String repositoryName, RepositoryCallback<R> stmts)`
+ * `<R> Future<R> withCarbonadoAsync(String repositoryName, RepositoryCallback<R> stmts, AsyncResultHandler<R> handler)`
+
+Every repository gets its own bounded executor, thus a slow repository does not
+starve the others. The executor is configured with an `async` block inside the
+repository definition
+
+    async {
+        poolSize = 8          // defaults to jdbc.pool.maxActive for jdbc repositories,
+                              // the number of processors otherwise
+        queueSize = 100
+        rejection = 'abort'   // one of ['abort', 'callerRuns']
+    }
+
+Once `queueSize` calls are pending further calls are either rejected with a
+`RejectedExecutionException` or run on the calling thread. Calls made from the
+UI thread are always rejected rather than run there. An `AsyncResultHandler`
+receives the result (or failure) of the call inside the UI thread. Calls still
+queued when a repository disconnects are cancelled.
+
+`withCarbonadoTransaction` runs the supplied code inside a single transaction
+with the given `com.amazon.carbonado.IsolationLevel` (`null` selects the
+repository's default). The transaction is committed when the code completes
+normally, and rolled back otherwise
+
+ * `<R> R withCarbonadoTransaction(IsolationLevel isolationLevel, Closure<R> stmts)`
+ * `<R> R withCarbonadoTransaction(String repositoryName, IsolationLevel isolationLevel, Closure<R> stmts)`
+ * `<R> R withCarbonadoTransaction(IsolationLevel isolationLevel, RepositoryCallback<R> stmts)`
+ * `<R> R withCarbonadoTransaction(String repositoryName, IsolationLevel isolationLevel, RepositoryCallback<R> stmts)`
+
+`withCarbonadoReadOnly` runs the supplied code against one of the read replicas
+of a `jdbc` repository (see [Read replicas](#read-replicas)), or against the
+repository itself when it has none. Only use it for work that does not write and
+that can tolerate replication lag
+
+ * `<R> R withCarbonadoReadOnly(Closure<R> stmts)`
+ * `<R> R withCarbonadoReadOnly(String repositoryName, Closure<R> stmts)`
+ * `<R> R withCarbonadoReadOnly(RepositoryCallback<R> stmts)`
+ * `<R> R withCarbonadoReadOnly(String repositoryName, RepositoryCallback<R> stmts)`
+
+`withCarbonadoStream` reads large results without loading them in memory at
+once. The callback runs off the UI thread and returns a cursor, whose contents
+are handed to a `griffon.plugins.carbonado.PageHandler` inside the UI thread in
+pages of `pageSize` storables. The reader stays at most two pages ahead of the
+UI thread, so memory is bounded whatever the size of the result. Cancelling the
+returned `Future` stops the reader, closes the cursor and discards pages not yet
+handled
+
+ * `<S> Future<Long> withCarbonadoStream(RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler)`
+ * `<S> Future<Long> withCarbonadoStream(String repositoryName, RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler)`
+
+For example
+
+    Future<Long> loading = withCarbonadoStream({ repositoryName, repository ->
+        repository.storageFor(Person).query().orderBy('lastName').fetch()
+    } as RepositoryCallback, 200, new PageHandler<Person>() {
+        void onPage(String repositoryName, List<Person> page) { model.people.addAll(page) }
+        void onComplete(String repositoryName, long count) { model.status = "${count} people" }
+        void onError(String repositoryName, Throwable throwable) { model.status = throwable.message }
+    })
+
+`withQuery` returns a `com.amazon.carbonado.Query` for the given storable type,
+filter and optional orderings, parsing and planning it only the first time. Queries are kept per
+repository, up to `queryCache.maxSize` of them (256 by default); the least
+recently used query is dropped beyond that, and all of them when the repository
+disconnects. They are immutable and may be shared across threads;
+bind values with `with()`
+
+ * `<S extends Storable> Query<S> withQuery(Class<S> type, String filter, String... orderings)`
+ * `<S extends Storable> Query<S> withQuery(String repositoryName, Class<S> type, String filter, String... orderings)`
+ * `<S extends Storable, R> R withQuery(Class<S> type, String filter, String[] orderings, QueryCallback<S, R> callback)`
+ * `<S extends Storable, R> R withQuery(String repositoryName, Class<S> type, String filter, String[] orderings, QueryCallback<S, R> callback)`
+
+The variants returning a `Query` give the repository back before returning: a
+query kept afterwards fails once its repository is disconnected or evicted. The
+variants taking a `griffon.plugins.carbonado.QueryCallback` hold the repository,
+like `withCarbonado` does, until the callback returns
+
+For example
+
+    Query<Person> byName = withQuery(Person, 'lastName = ? & age > ?')
+    List<Person> people = byName.with('Smith').with(21).fetch().toList()
+    Query<Person> oldestFirst = withQuery(Person, 'lastName = ?', '-age', '+firstName')
+    List<Person> smiths = withQuery(Person, 'lastName = ?', ['-age'] as String[], { String repositoryName, Query<Person> query ->
+        query.with('Smith').fetch().toList()
+    } as QueryCallback)
+
+Carbonado keeps parsed filters of its own, so the cache mostly saves building the
+query and its ordering: `QueryPlanningBenchmark` measured 55ns for a cached query
+against 225ns for one obtained from its storage.
+
+Bulk writes should go through `griffon.plugins.carbonado.BulkOperations`, whose
+`insertAll` and `updateAll` methods commit every `chunkSize` storables (500 by
+default) instead of once per storable. Setting `suppressReload = true` in the
+`jdbc` block additionally skips reloading each storable after it has been
+written, at the cost of not seeing values generated by the database.
+
+Whole storable types can be moved between repositories, for example to seed a
+local `bdb` repository from a `jdbc` one, or saved to and restored from files with
+`griffon.plugins.carbonado.BulkTransfer`
+
+    BulkTransfer transfer = new BulkTransfer(1000, 4, new File('checkpoints'), null)
+    withCarbonado('default') { rn, source ->
+        withCarbonado('local') { rn2, target ->
+            transfer.copy(source, target, [Person, Address])
+        }
+    }
+    withCarbonado { rn, source -> transfer.exportTo(source, new File('backup'), [Person]) }
+
+Types are read in primary key order `chunkSize` storables at a time, each chunk
+being written in its own transaction, hence memory use does not depend on the size
+of a type. Up to `parallelism` types are transferred at once; transfer types one at
+a time, in dependency order, when the target enforces foreign keys. Storables that
+already exist in the target are updated. Export files hold one type each, named
+after it with a `.cbt` extension, and are rejected on import if the type's
+properties changed since. When a checkpoint directory is given, progress is saved
+after every chunk and running the same transfer again resumes where it stopped.
+Checkpoints record their source and target, so a transfer between other repositories
+or files starts from the beginning.
+Throughput is logged every 10 seconds per type.
+
+The same can be done from the command line, with the application's configuration
+
+    griffon carbonado-transfer --from=default --to=local --types=sample.Person,sample.Address
+    griffon carbonado-transfer --from=default --export=backup --types=sample.Person
+    griffon carbonado-transfer --import=backup --to=local --types=sample.Person --parallel=2
+
+where `--chunk`, `--parallel` and `--checkpoints` are optional. Checkpoints are only
+recorded when `--checkpoints` is given, in the project's work directory unless it
+names a directory, e.g. `--checkpoints=transfer-progress`.
 
 These methods are also accessible to any component through the singleton
 `griffon.plugins.carbonado.CarbonadoConnector`. You can inject these methods to
@@ -116,6 +260,336 @@ This plugin supports 3 types of repositories: JDBC, BerkeleyDB and in-memory. Yo
 configuring the selected type in the repository configuration (`CarbonadoConfig.groovy`).
 
 This flag accepts the following values: `jdbc`, `bdb` and `map`. The last option is the default if no preference is specified.
+Large throwaway datasets may be kept out of the Java heap with the `scratch` type, and repositories may be layered on top
+of others with the `cached`, `replicated` and `sharded` types described below.
+
+### Map snapshots
+
+A `map` repository starts empty unless it is given a snapshot file, which is
+memory-mapped and loaded when the repository connects
+
+    map {
+        snapshot {
+            file = new File(System.getProperty('user.home'), '.app/reference.snapshot')
+            types = ['com.acme.Country', 'com.acme.Currency']
+            onDisconnect = true // write the snapshot when the repository disconnects
+        }
+    }
+
+Snapshots may also be written on demand; writers are not blocked meanwhile
+
+    withCarbonado { repositoryName, repository ->
+        repository.getCapability(SnapshotCapability).writeSnapshot()
+    }
+
+Each type is stored along with a hash of its properties. Types whose properties
+changed since the snapshot was written are skipped on restore, as is the whole
+file if it cannot be read. `BootstrapCarbonado` can check
+`repository.getCapability(SnapshotCapability).restored` to decide whether data
+must be loaded from elsewhere.
+
+A new snapshot is written next to the current one, which is kept as
+`<file>.bak` until the new one has replaced it; the backup is restored from when
+a write was interrupted in between.
+
+### Scratch repositories
+
+Setting `type = 'scratch'` keeps large throwaway datasets out of the Java heap.
+A scratch repository is a BerkeleyDB JE environment created in a temporary
+directory, with writes that are never synced to disk. Storables are stored
+encoded in its log files, which the OS page cache usually keeps in memory, and
+are decoded when accessed. The JE cache, holding the index and recently used
+records, is the only part taking Java heap. Queries and indexes behave as in a
+`bdb` repository.
+
+    scratch {
+        cacheSize = 32 * 1024 * 1024 // bytes of Java heap used by the JE cache
+        directory = '/dev/shm/app'   // defaults to a new temporary directory
+        deleteOnDisconnect = true    // always true for temporary directories
+    }
+
+Data does not survive a disconnect unless `directory` is set and
+`deleteOnDisconnect` is false. Point `directory` at a RAM-backed filesystem
+such as `/dev/shm` to keep all I/O in memory. BerkeleyDB JE must be in the
+classpath.
+
+### Cached repositories
+
+Setting `type = 'cached'` puts an in-memory, read-through cache in front of a
+`jdbc` or `bdb` repository, configured by the `cached` block
+
+    cached {
+        backing = 'jdbc' // one of ['jdbc', 'bdb'], configured by its own block
+        maxSize = 10000  // storables are evicted beyond this size
+        eviction = 'lru' // evicts the least recently used storables, 'lfu' the least frequently used
+        ttl = 60000      // milliseconds a cached storable remains valid, 0 means forever
+    }
+
+Storables prepared by the storages of the repository, or fetched by its queries,
+load through the cache
+
+    withCarbonado { repositoryName, repository ->
+        Person person = repository.storageFor(Person).prepare()
+        person.id = 42
+        person.load()
+    }
+
+The cache is also reachable through `griffon.plugins.carbonado.CacheCapability`.
+Inserts, updates and deletes made through the repository evict the affected
+storables, again once their transaction commits, and loads inside a transaction
+bypass the cache. Changes made by other processes are only seen once `ttl`
+elapses. `lfu` eviction picks the least frequently used among the 8 least
+recently used storables of a cache segment.
+Hit, miss and size figures are exposed by the capability and by the metrics
+MBeans.
+
+### Replicated repositories
+
+Setting `type = 'replicated'` pairs a master repository with a local replica by
+means of Carbonado's `ReplicatedRepositoryBuilder`. Reads are served by the
+replica while writes go to both. Each side is configured by its own block
+
+    replicated {
+        master = 'jdbc'  // one of ['jdbc', 'bdb']
+        replica = 'bdb'  // one of ['bdb', 'map']
+        resync {
+            types = ['com.acme.Person', 'com.acme.Address']
+            parallelism = 2   // types resynced concurrently
+            throttle = 0.5    // fraction of time spent resyncing
+            interval = 300000 // milliseconds between resyncs, 0 resyncs once after connecting
+        }
+    }
+
+Resyncs bring the replica up to date with writes made to the master by other
+processes. They run in the background at low priority; Carbonado commits the
+replica in batches of its own choosing. `griffon.plugins.carbonado.ReplicationCapability`
+lets you trigger a resync on demand and reports the replication lag, that is, the
+milliseconds elapsed since the oldest successful resync started
+
+    withCarbonado { repositoryName, repository ->
+        ReplicationCapability replication = repository.getCapability(ReplicationCapability)
+        if (replication.replicationLag > 600000) replication.resync()
+    }
+
+The lag and the number of repaired entries are also exposed by the metrics MBeans.
+
+### Sharded repositories
+
+Setting `type = 'sharded'` spreads storables over several repositories, each one
+configured like a regular repository
+
+    sharded {
+        shards {
+            shard0 { type = 'bdb'; bdb { environmentHomeFile = new File('/disk0', 'app') } }
+            shard1 { type = 'bdb'; bdb { environmentHomeFile = new File('/disk1', 'app') } }
+            shard2 { type = 'jdbc'; jdbc { ... } }
+        }
+    }
+
+Every storable is owned by a single shard, chosen by hashing its primary key
+and the position of the shard in the list; do not reorder shards once data is
+stored. The hash works on a stable encoding of the key values, so the same key
+lands on the same shard in every run; data stored by versions of this plugin
+that hashed the keys' `hashCode()` must be copied with `reshard()` once.
+
+Storages of the sharded repository route every storable to its owning shard,
+and their queries run on every shard, merge-sorting the results when orderings
+are given
+
+    withCarbonado { repositoryName, repository ->
+        Person person = repository.storageFor(Person).prepare()
+        person.id = 42
+        person.name = 'Duke'
+        person.insert()
+        println repository.storageFor(Person).query('name >= ?').with('A').orderBy('+name').fetch().toList()
+    }
+
+A transaction entered on the sharded repository is bound to the shard of the
+first storable loaded or written while it is active; touching a storable of
+another shard before it exits throws an `IllegalStateException`. Queries are
+not part of that transaction. Shards themselves are reached through
+`griffon.plugins.carbonado.ShardingCapability`
+
+    withCarbonado { repositoryName, repository ->
+        ShardingCapability sharding = repository.getCapability(ShardingCapability)
+        Person person = sharding.getShard(0).storageFor(Person).prepare()
+        person.id = 42
+        person.name = 'Duke'
+        sharding.route(person).insert()
+
+        Cursor<Person> people = sharding.fetch(Person, 'name >= ?', ['A'] as Object[], '+name')
+        try {
+            people.each { println it }
+        } finally {
+            people.close()
+        }
+    }
+
+`route()` copies a storable into the storage of its owning shard, ready for
+`load()`, `insert()`, `update()` or `delete()`. `fetch()` and `count()` query
+every shard in parallel; fetched results are merge-sorted when orderings are
+given.
+
+Changing the number of shards requires copying data offline into a second
+sharded repository backed by new storage, then switching the configuration
+
+    long copied = source.getCapability(ShardingCapability).reshard(Person,
+        target.getCapability(ShardingCapability), 1000)
+
+Storables already present in the target are skipped, so an interrupted copy
+can be resumed by running it again.
+
+### BerkeleyDB settings
+
+Properties of the `bdb` block are handed to `BDBRepositoryBuilder`. The following
+ones are validated and converted beforehand
+
+ * cacheSize - cache size in bytes, takes precedence over cachePercent
+ * cachePercent - cache size as a percentage of the JVM heap
+ * logFileMaxSize - maximum size of each log file, in bytes
+ * cleanerThreads - number of log cleaner threads (JE only)
+ * checkpointInterval - milliseconds between checkpoints
+ * lockTimeout - lock timeout in seconds
+ * transactionTimeout - transaction timeout in seconds
+
+BerkeleyDB repositories are closed when disconnected. Before closing, the log is
+cleaned and a checkpoint is forced so that the next startup needs little or no
+recovery. This behavior is configured with a nested `shutdown` block
+
+    shutdown {
+        timeout = 30000    // milliseconds to wait for a clean close
+        checkpoint = true
+        cleanLog = true
+    }
+
+A repository that does not close in time is logged and left behind.
+
+### Schema scripts
+
+When `dbCreate = 'create'` JDBC repositories execute the first schema script found
+in the classpath. With `tokenizeddl = true` the script is streamed rather than
+loaded in memory and split into statements, honoring quoted text, comments and
+PostgreSQL dollar quotes. A MySQL style `DELIMITER` line changes the statement
+delimiter, which is useful for procedure bodies. Backslash escaped quotes are
+honored on MySQL and MariaDB. Statements are sent in JDBC
+batches of `schema.batchSize` (100 by default), and the whole script runs in a
+single transaction.
+
+### Write-behind
+
+Bursts of small writes that need not be synchronous, such as progress rows or
+audit entries, can be queued and committed in batches by a background thread.
+Enable the `writeBehind` block of a repository
+
+    writeBehind {
+        enabled = true
+        queueSize = 10000     // pending writes before callers block
+        batchSize = 500       // writes committed per transaction
+        flushInterval = 1000  // milliseconds a write may wait for a full batch
+        drainTimeout = 30000  // milliseconds to wait for queued writes on disconnect
+    }
+
+then queue writes through `griffon.plugins.carbonado.WriteBehindCapability`
+
+    withCarbonado { repositoryName, repository ->
+        WriteBehindCapability writeBehind = repository.getCapability(WriteBehindCapability)
+        AuditEntry entry = repository.storageFor(AuditEntry).prepare()
+        entry.id = nextId()
+        entry.message = 'Saved'
+        writeBehind.insert(entry)
+    }
+
+A copy of the storable is queued. Further updates of the same primary key are
+merged into the queued write, which takes the properties they set, and an insert
+followed by updates is written as a single insert.
+The queue is drained when the repository disconnects; `flush(timeout)` drains
+it on demand. Failed writes are retried one at a time and reported by the
+`CarbonadoWriteBehindFailure` event. Writes still queued when the application
+dies are lost, so at most `queueSize` writes or `flushInterval` milliseconds worth
+of them are at risk. Queued writes may land after writes made directly through
+the repository.
+
+### Change feed
+
+Views can follow changes made anywhere in the application instead of polling.
+Enable the `changeFeed` block of a repository
+
+    changeFeed {
+        enabled = true
+        types = ['sample.Person'] // storable types to follow, all of them if empty
+        window = 250              // milliseconds changes are gathered before publishing
+        maxBatchSize = 1000       // changed storables that publish the batch early
+    }
+
+and listen to the `CarbonadoChanges` event
+
+    def onCarbonadoChanges = { repositoryName, changes ->
+        changes.each { StorableChange change ->
+            println "${change.kind} ${change.storable}"
+        }
+    }
+
+Changes made within a transaction are published once the outermost transaction
+commits and discarded if it exits without committing. Each event carries the
+changes committed during one window, with successive changes to the same primary
+key folded into one: an insert followed by updates is reported as an insert, an
+insert followed by a delete is not reported at all. Each storable is a copy taken
+when it was written; deletions may only have their primary key set. The event is
+published from a background thread, so update views inside the UI thread.
+Pending changes are published before the repository disconnects.
+
+### Health checks
+
+Once connected, a repository is used until it is disconnected, even if its
+database restarts in between. A background health check can watch it instead,
+together with a circuit breaker that stops callers from waiting on a repository
+that is down. Enable the `health` block of a repository
+
+    health {
+        enabled = true
+        interval = 10000      // milliseconds between checks
+        timeout = 5           // seconds a check may take
+        failureThreshold = 5  // consecutive failed calls that open the breaker
+        openTimeout = 30000   // milliseconds before an open breaker lets trial calls through
+        trialCalls = 3        // successful trial calls that close the breaker
+        rebuildAfter = 3      // failed checks before the repository is rebuilt, 0 never
+    }
+
+JDBC repositories are checked by validating a connection, sharded ones by
+checking each shard, and any other by entering a transaction. With a pool built by
+the plugin the check opens its own connection rather than borrowing one, so a pool
+exhausted by a busy application does not open the breaker. A failed check, or
+`failureThreshold` consecutive calls failing because the repository could not be
+reached, opens the breaker: calls then fail right away with a `CarbonadoException`
+rather than waiting for `pool.maxWait`. Once `openTimeout` elapses or a check
+passes, up to `trialCalls` calls at a time are let through; the breaker closes when
+that many succeed and opens again as soon as one fails. Failures such as
+constraint violations or missing rows say nothing about availability and are not
+counted.
+
+Every `rebuildAfter` consecutive failed checks the repository is rebuilt. Idle
+connections of plugin managed pools are discarded, so that no stale connection
+is handed out once the database is back; any other repository, such as a `bdb`
+one whose environment failed, is disconnected and connected again, firing the
+usual events and `BootstrapCarbonado` hooks. Breaker state changes are published
+with the `CarbonadoCircuitChange` event.
+
+### Warm-up
+
+Carbonado generates the implementation of each storable type the first time the
+type is used in a repository, which may take a few hundred milliseconds. List the
+types a repository needs early in its `warmup` block
+
+    warmup {
+        types = ['sample.Person', 'sample.Address']
+        threads = 2 // threads opening storages in parallel
+    }
+
+and their storages are opened in the background as soon as the repository
+connects, so that the first query of a screen does not pay for it. Each type's
+timing is logged, and the `CarbonadoWarmupEnd` event reports all of them once done.
+Generated classes only live for the duration of the application, hence the
+warm-up runs again on every start.
 
 ### Events
 
@@ -123,8 +597,42 @@ The following events will be triggered by this addon
 
  * CarbonadoConnectStart[config, repositoryName] - triggered before connecting to the repository
  * CarbonadoConnectEnd[repositoryName, repository] - triggered after connecting to the repository
+ * CarbonadoConnectTime[repositoryName, time] - triggered after connecting to the repository, `time` is the number of milliseconds spent connecting
+ * CarbonadoConnectFailed[repositoryName, exception] - triggered when a repository connected by the startup hook fails to connect, including `lazy` ones
  * CarbonadoDisconnectStart[config, repositoryName, repository] - triggered before disconnecting from the repository
  * CarbonadoDisconnectEnd[config, repositoryName] - triggered after disconnecting from the repository
+ * CarbonadoWriteBehindFailure[repositoryName, storable, exception] - triggered when a queued write fails
+ * CarbonadoChanges[repositoryName, changes] - triggered with the changes committed during a change feed window
+ * CarbonadoCircuitChange[repositoryName, from, to] - triggered when the circuit breaker of a repository changes state, one of `CLOSED`, `OPEN` or `HALF_OPEN`
+ * CarbonadoWarmupEnd[repositoryName, timings, time] - triggered once the `warmup` types of a repository are ready, `timings` maps each type name to the milliseconds it took
+
+### Metrics
+
+Call counts, error counts, in-flight calls and latencies (mean, p50, p99 and max,
+in milliseconds) can be recorded for every repository by enabling the `metrics`
+block in `CarbonadoConfig.groovy`
+
+    metrics {
+        enabled = true
+        jmx = true
+        publishInterval = 60000
+    }
+
+JDBC repositories additionally report the number of active and idle pooled
+connections and the time spent waiting for one. Counts cover the whole life of a
+repository, while latencies and wait times cover the last completed window of
+`window` milliseconds: the `publishInterval` when events are published, a minute
+otherwise, and every call when set to `0`. Figures are registered as MBeans
+named `griffon.plugins.carbonado:type=Repository,name="<repositoryName>"` and,
+when `publishInterval` is greater than zero, published periodically with the
+following event
+
+ * CarbonadoMetrics[metrics] - a list with one map of figures per repository
+
+Metrics are gathered by `griffon.plugins.carbonado.InstrumentedCarbonadoProvider`,
+which is injected automatically into artifacts enhanced by the plugin. Classes
+annotated with `@CarbonadoAware` must be handed the provider returned by
+`CarbonadoConnector.instance.resolveCarbonadoProvider(app)` explicitly.
 
 ### Multiple Stores
 
@@ -142,6 +650,28 @@ can be done in this way
 This block can be used inside the `environments()` block in the same way as the
 default repository block is used.
 
+Named repositories stay connected once used. Applications that open many of them,
+such as one per tenant, can have idle ones closed with the top level `eviction`
+block
+
+    eviction {
+        maxRepositories = 50  // named repositories kept connected, 0 for no limit
+        idleTimeout = 600000  // milliseconds a named repository may stay unused, 0 for no limit
+        interval = 60000      // milliseconds between eviction runs
+    }
+
+Repositories unused for longer than `idleTimeout` are disconnected, as are the
+least recently used ones once more than `maxRepositories` are connected. Eviction
+goes through the regular disconnection, hence `BootstrapCarbonado.destroy` runs and
+the disconnect events fire; the repository connects again the next time it is used.
+A repository is in use from the moment a `withCarbonado` style call obtains it until
+the call returns, for the duration of a stream, and is never evicted meanwhile.
+Disconnecting a repository, evicted or not, drops everything kept for its name:
+cached queries, metrics and their MBeans, and its usage count.
+The default repository is never evicted, nor is any repository whose block sets
+`evictable = false`. Queries returned by `withQuery` and repositories kept beyond
+the call that obtained them are closed along with an evicted repository.
+
 ### Configuration Storage
 
 The plugin will load and store the contents of `CarbonadoConfig.groovy` inside the
@@ -158,6 +688,95 @@ behavior is not desired then specify the following configuration flag in
 
     griffon.carbonado.connect.onstartup = false
 
+Only the default repository is connected at startup; named repositories connect
+the first time they are used. Every configured repository can be connected in
+parallel at startup instead, by specifying
+
+    griffon.carbonado.connect.all = true
+
+Startup waits for all repositories to connect and run their `BootstrapCarbonado.init`
+hook, except for those flagged with `lazy = true` in their configuration block,
+which connect in the background. A lazy repository that fails to connect is
+logged and reported with a `CarbonadoConnectFailed` event. JDBC connection pools can be filled up to
+`pool.maxIdle` while connecting by setting `pool.prefill = true`.
+
+### Connection pools
+
+JDBC repositories pool their connections with commons-dbcp, configured by the
+`pool` block
+
+    pool {
+        maxWait = 60000
+        maxIdle = 5
+        maxActive = 8
+        minIdle = 2                      // kept open, opened when the repository connects
+        prefill = false                  // open maxIdle connections when the repository connects
+        validationQuery = 'SELECT 1'     // validates connections on borrow
+        testWhileIdle = true             // validate idle connections while evicting
+        evictionInterval = 60000         // milliseconds between eviction runs
+        minEvictableIdleTime = 1800000   // milliseconds a connection may stay idle
+        maxOpenPreparedStatements = 50   // prepared statements cached per connection
+        removeAbandoned = true           // reclaim connections not returned in time
+        removeAbandonedTimeout = 300     // seconds
+        logAbandoned = true              // log where leaked connections were borrowed
+    }
+
+A different pool can be plugged in by setting `jdbc.dataSourceFactory` to a class,
+class name or instance implementing `griffon.plugins.carbonado.DataSourceFactory`.
+An application that already manages a `javax.sql.DataSource` may set it as
+`jdbc.dataSource` instead; it is used as is and never closed by the plugin. Pool
+figures in the metrics MBeans are only reported for the default pool.
+
+commons-dbcp remains the default as measured by `PoolContentionBenchmark`, which
+borrows connections and loads storables through an H2 backed repository with 16
+pooled connections, comparing it with HikariCP (its Java 6 build) set as
+`jdbc.dataSource`. On a single CPU machine HikariCP borrowed a connection in
+0.46µs against 1.1µs for commons-dbcp from one thread, a gap a single query
+hides (2.4µs against 4.0µs per load). With 32 threads sharing the 16 connections
+commons-dbcp kept steady at 240µs per borrow and 460µs per load, while HikariCP
+varied between 1ms and over 40ms. Desktop applications seldom run many more
+database threads than connections, so the default favours predictable waits
+under contention and no additional dependency; run the benchmark on the target
+hardware before plugging in another pool.
+
+### Read replicas
+
+Reads that can tolerate replication lag can be moved off the primary database by
+listing its replicas in the `jdbc` block. Each entry is either a URL or a map of
+settings; replicas take every setting of the primary, including the `pool` block,
+unless overridden, and get a connection pool of their own
+
+    jdbc {
+        url = 'jdbc:postgresql://primary/app'
+        replicas = [
+            'jdbc:postgresql://replica1/app',
+            [url: 'jdbc:postgresql://replica2/app', username: 'reader']
+        ]
+        replicaSelection = 'roundRobin' // one of ['roundRobin', 'leastLatency']
+        replicaCheckInterval = 5000     // milliseconds between health checks
+        replicaCheckTimeout = 2         // seconds a health check may take
+    }
+
+`withCarbonado`, `withCarbonadoTransaction` and every other method keep using the
+primary, so writes and transactions that must read their own writes are not
+affected. Only `withCarbonadoReadOnly` is routed to replicas, picked in turn or by
+the lowest latency observed. A replica whose health check fails, or that failed a
+read and then fails a check made right away, is left out until it passes a check
+again; reads go to the primary while no replica is healthy. With `health` enabled
+the circuit breaker of the repository guards reads too: an open breaker fails them
+right away, and only reads served by the primary count towards its state. Schema scripts only run
+against the primary. The replicas are available to code through
+`griffon.plugins.carbonado.ReadReplicaCapability`.
+
+### Disconnect at Shutdown
+
+Every connected repository is disconnected in parallel when the application
+shuts down. Repositories that take longer than 30 seconds are logged and left
+behind so that they cannot stall the application's exit. The time limit can be
+changed in `Config.groovy`
+
+    griffon.carbonado.disconnect.timeout = 10000 // milliseconds
+
 ### Example
 
 A trivial sample application can be found at [https://github.com/aalmiray/griffon_sample_apps/tree/master/persistence/carbonado][2]
@@ -176,6 +795,27 @@ The contract for this interface looks like this
         <R> R withCarbonado(CallableWithArgs<R> callable);
         <R> R withCarbonado(String repositoryName, Closure<R> closure);
         <R> R withCarbonado(String repositoryName, CallableWithArgs<R> callable);
+        <R> R withCarbonado(RepositoryCallback<R> callback);
+        <R> R withCarbonado(String repositoryName, RepositoryCallback<R> callback);
+        <R> Future<R> withCarbonadoAsync(Closure<R> closure);
+        <R> Future<R> withCarbonadoAsync(String repositoryName, Closure<R> closure);
+        <R> Future<R> withCarbonadoAsync(RepositoryCallback<R> callback);
+        <R> Future<R> withCarbonadoAsync(String repositoryName, RepositoryCallback<R> callback);
+        <R> Future<R> withCarbonadoAsync(String repositoryName, RepositoryCallback<R> callback, AsyncResultHandler<R> handler);
+        <R> R withCarbonadoTransaction(IsolationLevel isolationLevel, Closure<R> closure);
+        <R> R withCarbonadoTransaction(String repositoryName, IsolationLevel isolationLevel, Closure<R> closure);
+        <R> R withCarbonadoTransaction(IsolationLevel isolationLevel, RepositoryCallback<R> callback);
+        <R> R withCarbonadoTransaction(String repositoryName, IsolationLevel isolationLevel, RepositoryCallback<R> callback);
+        <R> R withCarbonadoReadOnly(Closure<R> closure);
+        <R> R withCarbonadoReadOnly(String repositoryName, Closure<R> closure);
+        <R> R withCarbonadoReadOnly(RepositoryCallback<R> callback);
+        <R> R withCarbonadoReadOnly(String repositoryName, RepositoryCallback<R> callback);
+        <S> Future<Long> withCarbonadoStream(RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler);
+        <S> Future<Long> withCarbonadoStream(String repositoryName, RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler);
+        <S extends Storable> Query<S> withQuery(Class<S> type, String filter, String... orderings);
+        <S extends Storable> Query<S> withQuery(String repositoryName, Class<S> type, String filter, String... orderings);
+        <S extends Storable, R> R withQuery(Class<S> type, String filter, String[] orderings, QueryCallback<S, R> callback);
+        <S extends Storable, R> R withQuery(String repositoryName, Class<S> type, String filter, String[] orderings, QueryCallback<S, R> callback);
     }
 
 It's up to you define how these methods need to be implemented for your tests.
@@ -187,6 +827,27 @@ arguments it receives
         public <R> R withCarbonado(CallableWithArgs<R> callable) { null }
         public <R> R withCarbonado(String repositoryName, Closure<R> closure) { null }
         public <R> R withCarbonado(String repositoryName, CallableWithArgs<R> callable) { null }
+        public <R> R withCarbonado(RepositoryCallback<R> callback) { null }
+        public <R> R withCarbonado(String repositoryName, RepositoryCallback<R> callback) { null }
+        public <R> Future<R> withCarbonadoAsync(Closure<R> closure) { null }
+        public <R> Future<R> withCarbonadoAsync(String repositoryName, Closure<R> closure) { null }
+        public <R> Future<R> withCarbonadoAsync(RepositoryCallback<R> callback) { null }
+        public <R> Future<R> withCarbonadoAsync(String repositoryName, RepositoryCallback<R> callback) { null }
+        public <R> Future<R> withCarbonadoAsync(String repositoryName, RepositoryCallback<R> callback, AsyncResultHandler<R> handler) { null }
+        public <R> R withCarbonadoTransaction(IsolationLevel isolationLevel, Closure<R> closure) { null }
+        public <R> R withCarbonadoTransaction(String repositoryName, IsolationLevel isolationLevel, Closure<R> closure) { null }
+        public <R> R withCarbonadoTransaction(IsolationLevel isolationLevel, RepositoryCallback<R> callback) { null }
+        public <R> R withCarbonadoTransaction(String repositoryName, IsolationLevel isolationLevel, RepositoryCallback<R> callback) { null }
+        public <R> R withCarbonadoReadOnly(Closure<R> closure) { null }
+        public <R> R withCarbonadoReadOnly(String repositoryName, Closure<R> closure) { null }
+        public <R> R withCarbonadoReadOnly(RepositoryCallback<R> callback) { null }
+        public <R> R withCarbonadoReadOnly(String repositoryName, RepositoryCallback<R> callback) { null }
+        public <S> Future<Long> withCarbonadoStream(RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler) { null }
+        public <S> Future<Long> withCarbonadoStream(String repositoryName, RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler) { null }
+        public <S extends Storable> Query<S> withQuery(Class<S> type, String filter, String... orderings) { null }
+        public <S extends Storable> Query<S> withQuery(String repositoryName, Class<S> type, String filter, String... orderings) { null }
+        public <S extends Storable, R> R withQuery(Class<S> type, String filter, String[] orderings, QueryCallback<S, R> callback) { null }
+        public <S extends Storable, R> R withQuery(String repositoryName, Class<S> type, String filter, String[] orderings, QueryCallback<S, R> callback) { null }
     }
 
 This implementation may be used in the following way
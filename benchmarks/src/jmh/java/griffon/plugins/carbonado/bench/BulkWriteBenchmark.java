@@ -0,0 +1,97 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado.bench;
+
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storage;
+import griffon.plugins.carbonado.BulkOperations;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time taken to insert {@value #ROWS} rows into an H2 jdbc repository, one
+ * transaction per row against {@code BulkOperations.insertAll} with one
+ * transaction per chunk, with and without {@code suppressReload}.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BulkWriteBenchmark {
+    private static final int ROWS = 1000;
+
+    @Param({"false", "true"})
+    public boolean suppressReload;
+
+    @Param({"100", "500"})
+    public int chunkSize;
+
+    private BenchmarkApplication application;
+    private Repository repository;
+    private Storage<BenchRecord> storage;
+    private long nextId;
+
+    @Setup
+    public void setUp() throws RepositoryException {
+        String name = "bulk-" + suppressReload + "-" + chunkSize;
+        application = new BenchmarkApplication("repositories {\n" +
+            BenchmarkApplication.repositoryConfig(name, "jdbc", "jdbc.suppressReload = " + suppressReload) + "\n}");
+        repository = application.connect(name);
+        storage = repository.storageFor(BenchRecord.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.disconnectAll();
+    }
+
+    @Benchmark
+    public int rowAtATime() throws PersistException {
+        List<BenchRecord> records = nextRecords();
+        for (BenchRecord record : records) {
+            record.insert();
+        }
+        return records.size();
+    }
+
+    @Benchmark
+    public int insertAll() throws PersistException {
+        return BulkOperations.insertAll(repository, nextRecords(), chunkSize);
+    }
+
+    private List<BenchRecord> nextRecords() {
+        List<BenchRecord> records = new ArrayList<BenchRecord>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            long id = nextId++;
+            BenchRecord record = storage.prepare();
+            record.setId(id);
+            record.setCategory((int) (id % 100));
+            record.setName("record-" + id);
+            records.add(record);
+        }
+        return records;
+    }
+}
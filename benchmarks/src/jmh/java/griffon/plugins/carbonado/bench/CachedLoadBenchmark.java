@@ -0,0 +1,79 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado.bench;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load latency of an H2 backed jdbc repository against the same database
+ * behind a {@code cached} repository holding 10000 storables, for working
+ * sets that fit in the cache and one ten times larger.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CachedLoadBenchmark {
+    private static final int CACHE_SIZE = 10000;
+
+    @Param({"jdbc", "cached"})
+    public String type;
+
+    @Param({"1000", "100000"})
+    public int workingSet;
+
+    private BenchmarkApplication application;
+    private Storage<BenchRecord> storage;
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private final Random random = new Random();
+    }
+
+    @Setup
+    public void setUp() throws RepositoryException {
+        String name = "load-" + type + "-" + workingSet;
+        String extra = "cached { backing = 'jdbc'; maxSize = " + CACHE_SIZE + " }";
+        application = new BenchmarkApplication("repositories {\n" + BenchmarkApplication.repositoryConfig(name, type, extra) + "\n}");
+        Repository repository = application.connect(name);
+        BenchmarkApplication.populate(repository, 0L, workingSet, 100);
+        storage = repository.storageFor(BenchRecord.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.disconnectAll();
+    }
+
+    @Benchmark
+    public BenchRecord load(Keys keys) throws FetchException {
+        BenchRecord record = storage.prepare();
+        record.setId(keys.random.nextInt(workingSet));
+        record.load();
+        return record;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado.bench;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storage;
+import com.amazon.carbonado.repo.jdbc.JDBCConnectionCapability;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import groovy.util.ConfigObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection pool contention of an H2 backed jdbc repository: the default
+ * commons-dbcp pool against HikariCP supplied as {@code jdbc.dataSource},
+ * both holding 16 connections. Connections are borrowed and returned
+ * through the repository, and storables loaded, from one thread and from
+ * 32 threads, twice the pool size.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PoolContentionBenchmark {
+    private static final int POOL_SIZE = 16;
+    private static final int RECORDS = 10000;
+
+    @Param({"dbcp", "hikari"})
+    public String pool;
+
+    private BenchmarkApplication application;
+    private HikariDataSource hikari;
+    private JDBCConnectionCapability connections;
+    private Storage<BenchRecord> storage;
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private final Random random = new Random();
+    }
+
+    @Setup
+    public void setUp() throws RepositoryException {
+        String name = "pool-" + pool;
+        application = new BenchmarkApplication("repositories {\n" + BenchmarkApplication.repositoryConfig(name, "jdbc") + "\n}");
+        if ("hikari".equals(pool)) {
+            HikariConfig config = new HikariConfig();
+            config.setDriverClassName("org.h2.Driver");
+            config.setJdbcUrl("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+            config.setUsername("sa");
+            config.setPassword("");
+            config.setMaximumPoolSize(POOL_SIZE);
+            config.setMinimumIdle(POOL_SIZE);
+            hikari = new HikariDataSource(config);
+            ConfigObject repositories = (ConfigObject) application.getConfig().getProperty("pluginConfig");
+            repositories = (ConfigObject) ((ConfigObject) repositories.getProperty("carbonado")).getProperty("repositories");
+            ConfigObject jdbc = (ConfigObject) ((ConfigObject) repositories.getProperty(name)).getProperty("jdbc");
+            jdbc.put("dataSource", hikari);
+        }
+        Repository repository = application.connect(name);
+        BenchmarkApplication.populate(repository, 0L, RECORDS, 100);
+        connections = repository.getCapability(JDBCConnectionCapability.class);
+        storage = repository.storageFor(BenchRecord.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.disconnectAll();
+        if (hikari != null) hikari.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Connection borrowUncontended() throws FetchException {
+        return borrow();
+    }
+
+    @Benchmark
+    @Threads(32)
+    public Connection borrowContended() throws FetchException {
+        return borrow();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public BenchRecord loadUncontended(Keys keys) throws FetchException {
+        return load(keys);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public BenchRecord loadContended(Keys keys) throws FetchException {
+        return load(keys);
+    }
+
+    private Connection borrow() throws FetchException {
+        Connection connection = connections.getConnection();
+        connections.yieldConnection(connection);
+        return connection;
+    }
+
+    private BenchRecord load(Keys keys) throws FetchException {
+        BenchRecord record = storage.prepare();
+        record.setId(keys.random.nextInt(RECORDS));
+        record.load();
+        return record;
+    }
+}
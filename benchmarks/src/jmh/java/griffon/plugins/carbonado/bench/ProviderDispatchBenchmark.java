@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado.bench;
+
+import com.amazon.carbonado.Repository;
+import griffon.plugins.carbonado.CarbonadoProvider;
+import griffon.plugins.carbonado.DefaultCarbonadoProvider;
+import griffon.plugins.carbonado.RepositoryCallback;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reaching a repository through each way the plugin offers: the
+ * provider itself, the metaclass methods added by {@code CarbonadoEnhancer}
+ * and the methods injected by {@code @CarbonadoAware}.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProviderDispatchBenchmark {
+    private static final RepositoryCallback<Integer> CALLBACK = new RepositoryCallback<Integer>() {
+        public Integer call(String repositoryName, Repository repository) {
+            return repositoryName.length();
+        }
+    };
+
+    private BenchmarkApplication application;
+    private CarbonadoProvider provider;
+    private EnhancedController enhanced;
+    private AwareController aware;
+
+    @Setup
+    public void setUp() {
+        application = new BenchmarkApplication(BenchmarkApplication.repositoryConfig("repository", "map", ""));
+        application.connect("default");
+        provider = DefaultCarbonadoProvider.getInstance();
+        EnhancedController.enhance(provider);
+        enhanced = new EnhancedController();
+        aware = new AwareController();
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.disconnectAll();
+    }
+
+    @Benchmark
+    public Integer provider() {
+        return provider.withCarbonado(CALLBACK);
+    }
+
+    @Benchmark
+    public int enhancer() {
+        return enhanced.ping();
+    }
+
+    @Benchmark
+    public int carbonadoAware() {
+        return aware.ping();
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado.bench;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storage;
+import griffon.plugins.carbonado.QueryCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of obtaining an ordered query from its storage on every call against
+ * taking it from {@link QueryCache}, as {@code withQuery} does, on its own
+ * and followed by fetching a range of 10 storables.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryPlanningBenchmark {
+    private static final int RECORDS = 10000;
+    private static final int RANGE = 10;
+    private static final String FILTER = "id >= ? & id < ? & name != ?";
+    private static final String[] ORDERINGS = {"-id"};
+
+    @Param({"map", "jdbc"})
+    public String type;
+
+    private BenchmarkApplication application;
+    private String name;
+    private Repository repository;
+    private Storage<BenchRecord> storage;
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private final Random random = new Random();
+    }
+
+    @Setup
+    public void setUp() throws RepositoryException {
+        name = "planning-" + type;
+        application = new BenchmarkApplication("repositories {\n" + BenchmarkApplication.repositoryConfig(name, type) + "\n}");
+        repository = application.connect(name);
+        BenchmarkApplication.populate(repository, 0L, RECORDS, 100);
+        storage = repository.storageFor(BenchRecord.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        QueryCache.getInstance().clear(name);
+        application.disconnectAll();
+    }
+
+    @Benchmark
+    public Query<BenchRecord> plan() throws FetchException {
+        return storage.query(FILTER).orderBy(ORDERINGS);
+    }
+
+    @Benchmark
+    public Query<BenchRecord> cached() throws RepositoryException {
+        return QueryCache.getInstance().queryFor(name, repository, BenchRecord.class, FILTER, ORDERINGS);
+    }
+
+    @Benchmark
+    public List<BenchRecord> planAndFetch(Keys keys) throws FetchException {
+        return fetch(plan(), keys);
+    }
+
+    @Benchmark
+    public List<BenchRecord> cachedAndFetch(Keys keys) throws RepositoryException {
+        return fetch(cached(), keys);
+    }
+
+    private static List<BenchRecord> fetch(Query<BenchRecord> query, Keys keys) throws FetchException {
+        long start = keys.random.nextInt(RECORDS - RANGE);
+        return query.with(start).with(start + RANGE).with("").fetch().toList();
+    }
+}
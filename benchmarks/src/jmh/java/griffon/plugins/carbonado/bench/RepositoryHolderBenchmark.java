@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado.bench;
+
+import com.amazon.carbonado.Repository;
+import griffon.plugins.carbonado.RepositoryHolder;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository lookups from many threads at once, as done on every
+ * {@code withCarbonado} call.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(8)
+public class RepositoryHolderBenchmark {
+    private BenchmarkApplication application;
+    private RepositoryHolder holder;
+
+    @Setup
+    public void setUp() {
+        application = new BenchmarkApplication(
+            "repositories {\n" +
+            BenchmarkApplication.repositoryConfig("first", "map", "") + "\n" +
+            BenchmarkApplication.repositoryConfig("second", "map", "") + "\n" +
+            "}");
+        holder = RepositoryHolder.getInstance();
+        holder.fetchRepository("first");
+        holder.fetchRepository("second");
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.disconnectAll();
+    }
+
+    @Benchmark
+    public Repository fetch() {
+        return holder.fetchRepository("first");
+    }
+
+    @Benchmark
+    public Repository acquireAndRelease() {
+        Repository repository = holder.acquireRepository("second");
+        holder.releaseRepository("second");
+        return repository;
+    }
+}
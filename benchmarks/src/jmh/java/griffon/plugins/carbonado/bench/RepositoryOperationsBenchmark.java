@@ -0,0 +1,109 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado.bench;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storage;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Insert, load and query throughput of map, BerkeleyDB and H2 backed jdbc
+ * repositories, each connected through {@code CarbonadoConnector}.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryOperationsBenchmark {
+    private static final int RECORDS = 10000;
+    private static final int CATEGORIES = 100;
+    private static final int RANGE = 100;
+
+    @Param({"map", "bdb", "jdbc"})
+    public String type;
+
+    private BenchmarkApplication application;
+    private Storage<BenchRecord> storage;
+    private Query<BenchRecord> range;
+    private final AtomicLong nextId = new AtomicLong(RECORDS);
+
+    @State(Scope.Thread)
+    public static class Keys {
+        private final Random random = new Random();
+
+        long nextId() {
+            return random.nextInt(RECORDS);
+        }
+
+        long nextRangeStart() {
+            return random.nextInt(RECORDS - RANGE);
+        }
+    }
+
+    @Setup
+    public void setUp() throws RepositoryException {
+        String name = "operations-" + type;
+        application = new BenchmarkApplication("repositories {\n" + BenchmarkApplication.repositoryConfig(name, type, "") + "\n}");
+        Repository repository = application.connect(name);
+        BenchmarkApplication.populate(repository, 0L, RECORDS, CATEGORIES);
+        storage = repository.storageFor(BenchRecord.class);
+        range = storage.query("id >= ? & id < ?");
+    }
+
+    @TearDown
+    public void tearDown() {
+        application.disconnectAll();
+    }
+
+    @Benchmark
+    public BenchRecord insert() throws PersistException {
+        long id = nextId.getAndIncrement();
+        BenchRecord record = storage.prepare();
+        record.setId(id);
+        record.setCategory((int) (id % CATEGORIES));
+        record.setName("record-" + id);
+        record.insert();
+        return record;
+    }
+
+    @Benchmark
+    public BenchRecord load(Keys keys) throws FetchException {
+        BenchRecord record = storage.prepare();
+        record.setId(keys.nextId());
+        record.load();
+        return record;
+    }
+
+    @Benchmark
+    public List<BenchRecord> query(Keys keys) throws FetchException {
+        long start = keys.nextRangeStart();
+        return range.with(start).with(start + RANGE).fetch().toList();
+    }
+}
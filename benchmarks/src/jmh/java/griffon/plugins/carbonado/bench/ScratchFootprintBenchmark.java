@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado.bench;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Java heap taken by {@code map} and {@code scratch} repositories holding
+ * 100 thousand and one million rows. Each iteration populates a new
+ * repository, one transaction per {@value #CHUNK} rows, and reports through
+ * auxiliary counters the heap still used once populated, after a full
+ * collection, together with the number of collections and the milliseconds
+ * they took while populating. The reported time includes that final
+ * collection.
+ *
+ * @author Andres Almiray
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ScratchFootprintBenchmark {
+    private static final int CHUNK = 10000;
+
+    @Param({"map", "scratch"})
+    public String type;
+
+    @Param({"100000", "1000000"})
+    public int rows;
+
+    private BenchmarkApplication application;
+    private Repository repository;
+    private long baseline;
+    private int iteration;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public double retainedMegabytes;
+        public long gcCount;
+        public long gcMillis;
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() throws RepositoryException {
+        String name = "footprint-" + type + "-" + rows + "-" + iteration++;
+        application = new BenchmarkApplication("repositories {\n" +
+            BenchmarkApplication.repositoryConfig(name, type) + "\n}");
+        repository = application.connect(name);
+        // generates the storable classes before taking the baseline
+        repository.storageFor(BenchRecord.class).prepare();
+        baseline = usedHeapAfterCollection();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        repository = null;
+        application.disconnectAll();
+    }
+
+    @Benchmark
+    public void populate(Footprint footprint) {
+        long collections = collectionCount();
+        long collectionMillis = collectionMillis();
+        for (long id = 0; id < rows; id += CHUNK) {
+            BenchmarkApplication.populate(repository, id, (int) Math.min(CHUNK, rows - id), 100);
+        }
+        footprint.gcCount = collectionCount() - collections;
+        footprint.gcMillis = collectionMillis() - collectionMillis;
+        footprint.retainedMegabytes = (usedHeapAfterCollection() - baseline) / (1024d * 1024d);
+    }
+
+    private static long usedHeapAfterCollection() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100L);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long collectionCount() {
+        long count = 0L;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0L, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long collectionMillis() {
+        long millis = 0L;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0L, collector.getCollectionTime());
+        }
+        return millis;
+    }
+}
@@ -0,0 +1,8 @@
+import com.amazon.carbonado.Repository
+
+class BootstrapCarbonado {
+    def init = { String repositoryName, Repository repository ->
+    }
+    def destroy = { String repositoryName, Repository repository ->
+    }
+}
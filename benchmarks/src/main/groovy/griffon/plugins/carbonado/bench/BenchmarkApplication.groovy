@@ -0,0 +1,149 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado.bench
+
+import com.amazon.carbonado.Repository
+import com.amazon.carbonado.Storage
+import griffon.core.GriffonApplication
+import griffon.plugins.carbonado.CarbonadoConnector
+import griffon.util.ApplicationHolder
+
+import java.sql.Connection
+import java.sql.DriverManager
+
+/**
+ * Connects repositories the same way an application does, through
+ * {@code CarbonadoConnector}, without a running Griffon application.
+ *
+ * @author Andres Almiray
+ */
+class BenchmarkApplication {
+    static final String SCHEMA = '''
+        CREATE TABLE IF NOT EXISTS BENCH_RECORD (
+            ID BIGINT NOT NULL PRIMARY KEY,
+            CATEGORY INT,
+            NAME VARCHAR(64)
+        )
+    '''
+
+    final ConfigObject config = new ConfigObject()
+    final GriffonApplication app
+    // BerkeleyDB environments created by repositoryConfig()
+    private static final List<File> DIRECTORIES = []
+
+    /**
+     * @param carbonadoConfig the contents of a CarbonadoConfig.groovy file
+     */
+    BenchmarkApplication(String carbonadoConfig) {
+        config.pluginConfig.carbonado = new ConfigSlurper().parse(carbonadoConfig)
+        app = [
+            getConfig: { config },
+            event: { String name, List args = [] -> },
+            eventAsync: { String name, List args = [] -> },
+            isUIThread: { false },
+            execInsideUIAsync: { Runnable r -> r.run() },
+            execOutsideUI: { Runnable r -> r.run() }
+        ] as GriffonApplication
+        ApplicationHolder.application = app
+    }
+
+    /**
+     * Returns the configuration of a single repository of the given type,
+     * with an in-memory H2 database or a temporary BerkeleyDB environment.
+     * {@code cached} repositories are backed by H2. {@code extra} settings are added to the repository block.
+     */
+    static String repositoryConfig(String repositoryName, String type, String extra = '') {
+        switch (type) {
+            case 'jdbc':
+            case 'cached':
+                String url = "jdbc:h2:mem:${repositoryName};DB_CLOSE_DELAY=-1"
+                createSchema(url)
+                return """'${repositoryName}' {
+                    type = '${type}'
+                    jdbc {
+                        driverClassName = 'org.h2.Driver'
+                        url = '${url}'
+                        username = 'sa'
+                        password = ''
+                        pool { maxActive = 16; maxIdle = 16 }
+                    }
+                    ${extra}
+                }"""
+            case 'bdb':
+                File directory = File.createTempFile("carbonado-bench-${repositoryName}-", '')
+                directory.delete()
+                directory.mkdirs()
+                synchronized (DIRECTORIES) { DIRECTORIES << directory }
+                return """'${repositoryName}' {
+                    type = 'bdb'
+                    bdb {
+                        product = 'JE'
+                        environmentHome = '${directory.absolutePath.replace('\\', '/')}'
+                        transactionNoSync = true
+                    }
+                    ${extra}
+                }"""
+            default:
+                return """'${repositoryName}' {
+                    type = '${type}'
+                    ${extra}
+                }"""
+        }
+    }
+
+    static void createSchema(String url) {
+        Connection connection = DriverManager.getConnection(url, 'sa', '')
+        try {
+            connection.createStatement().execute(SCHEMA)
+        } finally {
+            connection.close()
+        }
+    }
+
+    Repository connect(String repositoryName) {
+        CarbonadoConnector.instance.connect(app, config.pluginConfig.carbonado, repositoryName)
+    }
+
+    void disconnectAll() {
+        CarbonadoConnector.instance.disconnectAll(app, config.pluginConfig.carbonado, 60000L)
+        synchronized (DIRECTORIES) {
+            DIRECTORIES.each { it.deleteDir() }
+            DIRECTORIES.clear()
+        }
+    }
+
+    /**
+     * Inserts {@code count} records with ids starting at {@code firstId},
+     * spread over {@code categories} categories.
+     */
+    static void populate(Repository repository, long firstId, int count, int categories) {
+        Storage<BenchRecord> storage = repository.storageFor(BenchRecord)
+        def txn = repository.enterTransaction()
+        try {
+            for (long id = firstId; id < firstId + count; id++) {
+                BenchRecord record = storage.prepare()
+                record.id = id
+                record.category = (int) (id % categories)
+                record.name = "record-${id}"
+                record.insert()
+            }
+            txn.commit()
+        } finally {
+            txn.exit()
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado.bench
+
+import griffon.plugins.carbonado.CarbonadoEnhancer
+import griffon.plugins.carbonado.CarbonadoProvider
+
+/**
+ * Calls the provider through the methods {@code CarbonadoEnhancer} injects
+ * into a controller's metaclass.
+ *
+ * @author Andres Almiray
+ */
+class EnhancedController {
+    static void enhance(CarbonadoProvider provider) {
+        CarbonadoEnhancer.enhance(EnhancedController.metaClass, provider)
+    }
+
+    int ping() {
+        withCarbonado { String repositoryName, repository -> repositoryName.length() }
+    }
+}
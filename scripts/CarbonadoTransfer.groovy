@@ -0,0 +1,83 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ */
+
+
+/**
+ * Copies storables between configured repositories, or to and from transfer
+ * files, using griffon.plugins.carbonado.BulkTransfer
+ *
+ *     griffon carbonado-transfer --from=default --to=local --types=sample.Person,sample.Address
+ *     griffon carbonado-transfer --from=default --export=backup --types=sample.Person
+ *     griffon carbonado-transfer --import=backup --to=local --types=sample.Person
+ *
+ * Optional arguments: --chunk=500 --parallel=1 --checkpoints[=<directory>]
+ *
+ * @author Andres Almiray
+ */
+
+includeTargets << griffonScript('_GriffonBootstrap')
+
+target(name: 'carbonadoTransfer', description: 'Copies storables between repositories and transfer files', prehook: null, posthook: null) {
+    depends(checkVersion, parseArguments)
+
+    List<String> typeNames = (argsMap.types ?: '').toString().split(',')*.trim().findAll { it }
+    String from = argsMap.from ? argsMap.from.toString() : null
+    String to = argsMap.to ? argsMap.to.toString() : null
+    File exportDir = argsMap.export ? new File(argsMap.export.toString()) : null
+    File importDir = argsMap['import'] ? new File(argsMap['import'].toString()) : null
+    if (!typeNames || !(from ? (to || exportDir) && !importDir : importDir && to && !exportDir)) {
+        println '''Usage: griffon carbonado-transfer --types=<type>[,<type>...] <source> <target>
+    <source> is one of --from=<repository> or --import=<directory>
+    <target> is one of --to=<repository> or --export=<directory>
+    --chunk=<n>          storables per transaction, 500 by default
+    --parallel=<n>       types transferred at once, 1 by default
+    --checkpoints[=<dir>] records progress to resume an interrupted transfer, in the
+                          project's work directory unless a directory is given'''
+        exit(1)
+    }
+
+    depends(bootstrap)
+
+    ClassLoader loader = griffonApp.class.classLoader
+    def connector = loader.loadClass('griffon.plugins.carbonado.CarbonadoConnector').instance
+    ConfigObject config = connector.createConfig(griffonApp)
+    List types = typeNames.collect { Class.forName(it, true, loader) }
+    int chunkSize = (argsMap.chunk ?: 500) as int
+    int parallelism = (argsMap.parallel ?: 1) as int
+    File checkpoints = null
+    if (argsMap.checkpoints) {
+        checkpoints = new File((argsMap.checkpoints instanceof Boolean ? "${projectWorkDir}/carbonado-transfer" : argsMap.checkpoints).toString())
+    }
+    def listener = [progress: { String typeName, long count, long elapsed, boolean done ->
+        if (done) println "Transferred ${count} ${typeName} storables in ${elapsed}ms"
+    }].asType(loader.loadClass('griffon.plugins.carbonado.BulkTransfer$Listener'))
+    def transfer = loader.loadClass('griffon.plugins.carbonado.BulkTransfer').newInstance(chunkSize, parallelism, checkpoints, listener)
+
+    try {
+        Map counts
+        if (exportDir) {
+            counts = transfer.exportTo(connector.connect(griffonApp, config, from), exportDir, types)
+        } else if (importDir) {
+            counts = transfer.importFrom(importDir, connector.connect(griffonApp, config, to), types)
+        } else {
+            counts = transfer.copy(connector.connect(griffonApp, config, from), connector.connect(griffonApp, config, to), types)
+        }
+        printFramed(counts.collect { typeName, count -> "${typeName}: ${count}" }.join('\n'))
+    } finally {
+        connector.disconnectAll(griffonApp, config, 30000L)
+    }
+}
+
+setDefaultTarget(carbonadoTransfer)
@@ -30,10 +30,25 @@ public interface CarbonadoAwareConstants extends BaseConstants {
     String CARBONADO_PROVIDER_TYPE = "griffon.plugins.carbonado.CarbonadoProvider";
     String DEFAULT_CARBONADO_PROVIDER_TYPE = "griffon.plugins.carbonado.DefaultCarbonadoProvider";
     String CARBONADO_CONTRIBUTION_HANDLER_TYPE = "griffon.plugins.carbonado.CarbonadoContributionHandler";
+    String REPOSITORY_CALLBACK_TYPE = "griffon.plugins.carbonado.RepositoryCallback";
+    String ASYNC_RESULT_HANDLER_TYPE = "griffon.plugins.carbonado.AsyncResultHandler";
+    String JAVA_UTIL_CONCURRENT_FUTURE = "java.util.concurrent.Future";
+    String ISOLATION_LEVEL_TYPE = "com.amazon.carbonado.IsolationLevel";
+    String QUERY_TYPE = "com.amazon.carbonado.Query";
+    String PAGE_HANDLER_TYPE = "griffon.plugins.carbonado.PageHandler";
+    String QUERY_CALLBACK_TYPE = "griffon.plugins.carbonado.QueryCallback";
+    String JAVA_LANG_LONG = "java.lang.Long";
+    String JAVA_LANG_CLASS = "java.lang.Class";
+    String JAVA_LANG_STRING_ARRAY = "java.lang.String[]";
     String CARBONADO_PROVIDER_FIELD_NAME = "this$carbonadoProvider";
     String METHOD_GET_CARBONADO_PROVIDER = "getCarbonadoProvider";
     String METHOD_SET_CARBONADO_PROVIDER = "setCarbonadoProvider";
     String METHOD_WITH_CARBONADO = "withCarbonado";
+    String METHOD_WITH_CARBONADO_ASYNC = "withCarbonadoAsync";
+    String METHOD_WITH_CARBONADO_TRANSACTION = "withCarbonadoTransaction";
+    String METHOD_WITH_CARBONADO_READ_ONLY = "withCarbonadoReadOnly";
+    String METHOD_WITH_CARBONADO_STREAM = "withCarbonadoStream";
+    String METHOD_WITH_QUERY = "withQuery";
     String PROVIDER = "provider";
 
     MethodDescriptor[] METHODS = new MethodDescriptor[] {
@@ -64,6 +79,179 @@ public interface CarbonadoAwareConstants extends BaseConstants {
             args(
                 type(JAVA_LANG_STRING),
                 type(GRIFFON_UTIL_CALLABLEWITHARGS, R))
+        ),
+        MethodDescriptor.method(
+            type(R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO,
+            args(type(REPOSITORY_CALLBACK_TYPE, R))
+        ),
+        MethodDescriptor.method(
+            type(R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO,
+            args(
+                type(JAVA_LANG_STRING),
+                type(REPOSITORY_CALLBACK_TYPE, R))
+        ),
+        MethodDescriptor.method(
+            type(JAVA_UTIL_CONCURRENT_FUTURE, R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_ASYNC,
+            args(type(GROOVY_LANG_CLOSURE, R))
+        ),
+        MethodDescriptor.method(
+            type(JAVA_UTIL_CONCURRENT_FUTURE, R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_ASYNC,
+            args(
+                type(JAVA_LANG_STRING),
+                type(GROOVY_LANG_CLOSURE, R))
+        ),
+        MethodDescriptor.method(
+            type(JAVA_UTIL_CONCURRENT_FUTURE, R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_ASYNC,
+            args(type(REPOSITORY_CALLBACK_TYPE, R))
+        ),
+        MethodDescriptor.method(
+            type(JAVA_UTIL_CONCURRENT_FUTURE, R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_ASYNC,
+            args(
+                type(JAVA_LANG_STRING),
+                type(REPOSITORY_CALLBACK_TYPE, R))
+        ),
+        MethodDescriptor.method(
+            type(JAVA_UTIL_CONCURRENT_FUTURE, R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_ASYNC,
+            args(
+                type(JAVA_LANG_STRING),
+                type(REPOSITORY_CALLBACK_TYPE, R),
+                type(ASYNC_RESULT_HANDLER_TYPE, R))
+        ),
+        MethodDescriptor.method(
+            type(R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_TRANSACTION,
+            args(
+                type(ISOLATION_LEVEL_TYPE),
+                type(GROOVY_LANG_CLOSURE, R))
+        ),
+        MethodDescriptor.method(
+            type(R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_TRANSACTION,
+            args(
+                type(JAVA_LANG_STRING),
+                type(ISOLATION_LEVEL_TYPE),
+                type(GROOVY_LANG_CLOSURE, R))
+        ),
+        MethodDescriptor.method(
+            type(R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_TRANSACTION,
+            args(
+                type(ISOLATION_LEVEL_TYPE),
+                type(REPOSITORY_CALLBACK_TYPE, R))
+        ),
+        MethodDescriptor.method(
+            type(R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_TRANSACTION,
+            args(
+                type(JAVA_LANG_STRING),
+                type(ISOLATION_LEVEL_TYPE),
+                type(REPOSITORY_CALLBACK_TYPE, R))
+        ),
+        MethodDescriptor.method(
+            type(R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_READ_ONLY,
+            args(type(GROOVY_LANG_CLOSURE, R))
+        ),
+        MethodDescriptor.method(
+            type(R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_READ_ONLY,
+            args(
+                type(JAVA_LANG_STRING),
+                type(GROOVY_LANG_CLOSURE, R))
+        ),
+        MethodDescriptor.method(
+            type(R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_READ_ONLY,
+            args(type(REPOSITORY_CALLBACK_TYPE, R))
+        ),
+        MethodDescriptor.method(
+            type(R),
+            typeParams(R),
+            METHOD_WITH_CARBONADO_READ_ONLY,
+            args(
+                type(JAVA_LANG_STRING),
+                type(REPOSITORY_CALLBACK_TYPE, R))
+        ),
+        // raw types, as nested and bounded type arguments cannot be described; they erase to the generic signature
+        MethodDescriptor.method(
+            type(JAVA_UTIL_CONCURRENT_FUTURE, JAVA_LANG_LONG),
+            typeParams(),
+            METHOD_WITH_CARBONADO_STREAM,
+            args(
+                type(REPOSITORY_CALLBACK_TYPE),
+                type("int"),
+                type(PAGE_HANDLER_TYPE))
+        ),
+        MethodDescriptor.method(
+            type(JAVA_UTIL_CONCURRENT_FUTURE, JAVA_LANG_LONG),
+            typeParams(),
+            METHOD_WITH_CARBONADO_STREAM,
+            args(
+                type(JAVA_LANG_STRING),
+                type(REPOSITORY_CALLBACK_TYPE),
+                type("int"),
+                type(PAGE_HANDLER_TYPE))
+        ),
+        MethodDescriptor.method(
+            type(QUERY_TYPE),
+            typeParams(),
+            METHOD_WITH_QUERY,
+            args(
+                type(JAVA_LANG_CLASS),
+                type(JAVA_LANG_STRING),
+                type(JAVA_LANG_STRING_ARRAY))
+        ),
+        MethodDescriptor.method(
+            type(QUERY_TYPE),
+            typeParams(),
+            METHOD_WITH_QUERY,
+            args(
+                type(JAVA_LANG_STRING),
+                type(JAVA_LANG_CLASS),
+                type(JAVA_LANG_STRING),
+                type(JAVA_LANG_STRING_ARRAY))
+        ),
+        MethodDescriptor.method(
+            type(R),
+            typeParams(R),
+            METHOD_WITH_QUERY,
+            args(
+                type(JAVA_LANG_CLASS),
+                type(JAVA_LANG_STRING),
+                type(JAVA_LANG_STRING_ARRAY),
+                type(QUERY_CALLBACK_TYPE))
+        ),
+        MethodDescriptor.method(
+            type(R),
+            typeParams(R),
+            METHOD_WITH_QUERY,
+            args(
+                type(JAVA_LANG_STRING),
+                type(JAVA_LANG_CLASS),
+                type(JAVA_LANG_STRING),
+                type(JAVA_LANG_STRING_ARRAY),
+                type(QUERY_CALLBACK_TYPE))
         )
     };
 }
@@ -52,7 +52,12 @@ public class CarbonadoAwareASTTransformation extends AbstractASTTransformation i
     private static final ClassNode DEFAULT_CARBONADO_PROVIDER_CNODE = makeClassSafe(DefaultCarbonadoProvider.class);
 
     private static final String[] DELEGATING_METHODS = new String[] {
-        METHOD_WITH_CARBONADO
+        METHOD_WITH_CARBONADO,
+        METHOD_WITH_CARBONADO_ASYNC,
+        METHOD_WITH_CARBONADO_TRANSACTION,
+        METHOD_WITH_CARBONADO_READ_ONLY,
+        METHOD_WITH_CARBONADO_STREAM,
+        METHOD_WITH_QUERY
     };
 
     static {
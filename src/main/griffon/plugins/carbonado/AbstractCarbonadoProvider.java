@@ -21,7 +21,17 @@ import groovy.lang.Closure;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.IsolationLevel;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Query;
 import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Transaction;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import static griffon.util.GriffonNameUtils.isBlank;
 
@@ -36,32 +46,261 @@ public abstract class AbstractCarbonadoProvider implements CarbonadoProvider {
         return withCarbonado(DEFAULT, closure);
     }
 
-    public <R> R withCarbonado(String repositoryName, Closure<R> closure) {
+    public <R> R withCarbonado(String repositoryName, final Closure<R> closure) {
+        if (closure == null) return null;
+        return withCarbonado(repositoryName, new RepositoryCallback<R>() {
+            public R call(String repositoryName, Repository repository) {
+                return closure.call(repositoryName, repository);
+            }
+        });
+    }
+
+    public <R> R withCarbonado(CallableWithArgs<R> callable) {
+        return withCarbonado(DEFAULT, callable);
+    }
+
+    public <R> R withCarbonado(String repositoryName, final CallableWithArgs<R> callable) {
+        if (callable == null) return null;
+        return withCarbonado(repositoryName, new RepositoryCallback<R>() {
+            public R call(String repositoryName, Repository repository) {
+                callable.setArgs(new Object[]{repositoryName, repository});
+                return callable.call();
+            }
+        });
+    }
+
+    public <R> R withCarbonado(RepositoryCallback<R> callback) {
+        return withCarbonado(DEFAULT, callback);
+    }
+
+    public <R> R withCarbonado(String repositoryName, RepositoryCallback<R> callback) {
         if (isBlank(repositoryName)) repositoryName = DEFAULT;
-        if (closure != null) {
+        if (callback != null) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Executing statement on repositoryName '" + repositoryName + "'");
             }
-            return closure.call(repositoryName, getRepository(repositoryName));
+            CircuitBreaker breaker = CircuitBreakers.getInstance().breakerFor(repositoryName);
+            if (breaker == null) return call(repositoryName, callback);
+
+            boolean trial = breaker.acquire();
+            R result;
+            try {
+                result = call(repositoryName, callback);
+            } catch (Throwable t) {
+                // Groovy code may throw checked exceptions too
+                breaker.failure(trial, t);
+                throw AbstractCarbonadoProvider.<RuntimeException>rethrow(t);
+            }
+            breaker.success(trial);
+            return result;
         }
         return null;
     }
 
-    public <R> R withCarbonado(CallableWithArgs<R> callable) {
-        return withCarbonado(DEFAULT, callable);
+    public <R> Future<R> withCarbonadoAsync(Closure<R> closure) {
+        return withCarbonadoAsync(DEFAULT, closure);
+    }
+
+    public <R> Future<R> withCarbonadoAsync(String repositoryName, final Closure<R> closure) {
+        final String name = isBlank(repositoryName) ? DEFAULT : repositoryName;
+        return CarbonadoExecutors.getInstance().submit(name, new Callable<R>() {
+            public R call() {
+                return withCarbonado(name, closure);
+            }
+        });
+    }
+
+    public <R> Future<R> withCarbonadoAsync(RepositoryCallback<R> callback) {
+        return withCarbonadoAsync(DEFAULT, callback);
+    }
+
+    public <R> Future<R> withCarbonadoAsync(String repositoryName, RepositoryCallback<R> callback) {
+        return withCarbonadoAsync(repositoryName, callback, null);
+    }
+
+    public <R> Future<R> withCarbonadoAsync(String repositoryName, final RepositoryCallback<R> callback, AsyncResultHandler<R> handler) {
+        final String name = isBlank(repositoryName) ? DEFAULT : repositoryName;
+        return CarbonadoExecutors.getInstance().submit(name, new Callable<R>() {
+            public R call() {
+                return withCarbonado(name, callback);
+            }
+        }, handler);
+    }
+
+    public <R> R withCarbonadoTransaction(IsolationLevel isolationLevel, Closure<R> closure) {
+        return withCarbonadoTransaction(DEFAULT, isolationLevel, closure);
     }
 
-    public <R> R withCarbonado(String repositoryName, CallableWithArgs<R> callable) {
+    public <R> R withCarbonadoTransaction(String repositoryName, IsolationLevel isolationLevel, final Closure<R> closure) {
+        if (closure == null) return null;
+        return withCarbonadoTransaction(repositoryName, isolationLevel, new RepositoryCallback<R>() {
+            public R call(String repositoryName, Repository repository) {
+                return closure.call(repositoryName, repository);
+            }
+        });
+    }
+
+    public <R> R withCarbonadoTransaction(IsolationLevel isolationLevel, RepositoryCallback<R> callback) {
+        return withCarbonadoTransaction(DEFAULT, isolationLevel, callback);
+    }
+
+    public <R> R withCarbonadoTransaction(String repositoryName, final IsolationLevel isolationLevel, final RepositoryCallback<R> callback) {
+        if (callback == null) return null;
+        return withCarbonado(repositoryName, new RepositoryCallback<R>() {
+            public R call(String repositoryName, Repository repository) {
+                Transaction txn = repository.enterTransaction(isolationLevel);
+                try {
+                    R result = callback.call(repositoryName, repository);
+                    txn.commit();
+                    return result;
+                } catch (PersistException e) {
+                    throw new CarbonadoException("Could not commit transaction on repositoryName '" + repositoryName + "'", e);
+                } finally {
+                    exitQuietly(repositoryName, txn);
+                }
+            }
+        });
+    }
+
+    public <R> R withCarbonadoReadOnly(Closure<R> closure) {
+        return withCarbonadoReadOnly(DEFAULT, closure);
+    }
+
+    public <R> R withCarbonadoReadOnly(String repositoryName, final Closure<R> closure) {
+        if (closure == null) return null;
+        return withCarbonadoReadOnly(repositoryName, new RepositoryCallback<R>() {
+            public R call(String repositoryName, Repository repository) {
+                return closure.call(repositoryName, repository);
+            }
+        });
+    }
+
+    public <R> R withCarbonadoReadOnly(RepositoryCallback<R> callback) {
+        return withCarbonadoReadOnly(DEFAULT, callback);
+    }
+
+    public <R> R withCarbonadoReadOnly(String repositoryName, RepositoryCallback<R> callback) {
         if (isBlank(repositoryName)) repositoryName = DEFAULT;
-        if (callable != null) {
+        if (callback == null) return null;
+        Repository repository = getRepository(repositoryName);
+        try {
+            ReadReplicaCapability replicas = repository.getCapability(ReadReplicaCapability.class);
+            if (replicas == null) return withCarbonado(repositoryName, callback);
+
+            // an open breaker fails reads fast too, but only the primary records outcomes
+            CircuitBreaker breaker = CircuitBreakers.getInstance().breakerFor(repositoryName);
+            boolean trial = breaker != null && breaker.acquire();
+            Repository replica = replicas.selectReplica();
+            boolean primary = !replicas.isReplica(replica);
             if (LOG.isDebugEnabled()) {
-                LOG.debug("Executing statement on repositoryName '" + repositoryName + "'");
+                LOG.debug("Executing read-only statement on repositoryName '" + repositoryName + "' using " + replica.getName());
+            }
+            long start = System.nanoTime();
+            R result;
+            try {
+                result = callback.call(repositoryName, replica);
+            } catch (Throwable t) {
+                replicas.release(replica, System.nanoTime() - start, t);
+                if (breaker != null) {
+                    if (primary) {
+                        breaker.failure(trial, t);
+                    } else {
+                        breaker.release(trial);
+                    }
+                }
+                throw AbstractCarbonadoProvider.<RuntimeException>rethrow(t);
+            }
+            replicas.release(replica, System.nanoTime() - start, null);
+            if (breaker != null) {
+                if (primary) {
+                    breaker.success(trial);
+                } else {
+                    breaker.release(trial);
+                }
             }
-            callable.setArgs(new Object[]{repositoryName, getRepository(repositoryName)});
-            return callable.call();
+            return result;
+        } finally {
+            releaseRepository(repositoryName, repository);
+        }
+    }
+
+    public <S> Future<Long> withCarbonadoStream(RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler) {
+        return withCarbonadoStream(DEFAULT, callback, pageSize, handler);
+    }
+
+    public <S> Future<Long> withCarbonadoStream(String repositoryName, RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT;
+        if (callback == null || handler == null) return null;
+        CursorStream<S> stream = new CursorStream<S>(this, repositoryName, callback, pageSize, handler);
+        CarbonadoExecutors.getInstance().stream(repositoryName, stream);
+        return stream;
+    }
+
+    public <S extends Storable> Query<S> withQuery(Class<S> type, String filter, String... orderings) {
+        return withQuery(DEFAULT, type, filter, orderings);
+    }
+
+    public <S extends Storable> Query<S> withQuery(String repositoryName, Class<S> type, String filter, String... orderings) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT;
+        Repository repository = getRepository(repositoryName);
+        try {
+            return QueryCache.getInstance().queryFor(repositoryName, repository, type, filter, orderings != null ? orderings : new String[0]);
+        } catch (RepositoryException e) {
+            throw new CarbonadoException("Could not prepare query on repositoryName '" + repositoryName + "'", e);
+        } finally {
+            releaseRepository(repositoryName, repository);
+        }
+    }
+
+    public <S extends Storable, R> R withQuery(Class<S> type, String filter, String[] orderings, QueryCallback<S, R> callback) {
+        return withQuery(DEFAULT, type, filter, orderings, callback);
+    }
+
+    public <S extends Storable, R> R withQuery(String repositoryName, final Class<S> type, final String filter, final String[] orderings, final QueryCallback<S, R> callback) {
+        if (callback == null) return null;
+        // the repository stays held, hence connected, while the callback runs the query
+        return withCarbonado(repositoryName, new RepositoryCallback<R>() {
+            public R call(String repositoryName, Repository repository) {
+                Query<S> query;
+                try {
+                    query = QueryCache.getInstance().queryFor(repositoryName, repository, type, filter, orderings != null ? orderings : new String[0]);
+                } catch (RepositoryException e) {
+                    throw new CarbonadoException("Could not prepare query on repositoryName '" + repositoryName + "'", e);
+                }
+                return callback.call(repositoryName, query);
+            }
+        });
+    }
+
+    private static void exitQuietly(String repositoryName, Transaction txn) {
+        try {
+            txn.exit();
+        } catch (PersistException e) {
+            LOG.warn("Could not exit transaction on repositoryName '" + repositoryName + "'", e);
+        }
+    }
+
+    // throws checked exceptions unchanged, as Groovy code does
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> T rethrow(Throwable t) throws T {
+        throw (T) t;
+    }
+
+    private <R> R call(String repositoryName, RepositoryCallback<R> callback) {
+        Repository repository = getRepository(repositoryName);
+        try {
+            return callback.call(repositoryName, repository);
+        } finally {
+            releaseRepository(repositoryName, repository);
         }
-        return null;
     }
 
     protected abstract Repository getRepository(String repositoryName);
+
+    /**
+     * Called once the work done on a repository returned by
+     * {@link #getRepository(String)} completes.
+     */
+    protected void releaseRepository(String repositoryName, Repository repository) {
+    }
 }
\ No newline at end of file
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Transaction;
+
+/**
+ * Bulk write helpers. Writes are grouped in chunks, each chunk being
+ * committed in its own transaction, which trades one commit per row for
+ * one commit per chunk. Should a chunk fail, previously committed chunks
+ * remain in place.
+ *
+ * @author Andres Almiray
+ */
+public final class BulkOperations {
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private BulkOperations() {}
+
+    public static <S extends Storable<S>> int insertAll(Repository repository, Iterable<S> storables) throws PersistException {
+        return insertAll(repository, storables, DEFAULT_CHUNK_SIZE);
+    }
+
+    public static <S extends Storable<S>> int insertAll(Repository repository, Iterable<S> storables, int chunkSize) throws PersistException {
+        return write(repository, storables, chunkSize, true);
+    }
+
+    public static <S extends Storable<S>> int updateAll(Repository repository, Iterable<S> storables) throws PersistException {
+        return updateAll(repository, storables, DEFAULT_CHUNK_SIZE);
+    }
+
+    public static <S extends Storable<S>> int updateAll(Repository repository, Iterable<S> storables, int chunkSize) throws PersistException {
+        return write(repository, storables, chunkSize, false);
+    }
+
+    private static <S extends Storable<S>> int write(Repository repository, Iterable<S> storables, int chunkSize, boolean insert) throws PersistException {
+        if (chunkSize < 1) chunkSize = DEFAULT_CHUNK_SIZE;
+        int count = 0;
+        int pending = 0;
+        Transaction txn = repository.enterTransaction();
+        try {
+            for (S storable : storables) {
+                if (insert) {
+                    storable.insert();
+                } else {
+                    storable.update();
+                }
+                count++;
+                if (++pending == chunkSize) {
+                    txn.commit();
+                    txn.exit();
+                    txn = repository.enterTransaction();
+                    pending = 0;
+                }
+            }
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+        return count;
+    }
+}
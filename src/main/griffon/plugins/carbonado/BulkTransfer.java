@@ -0,0 +1,547 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.*;
+import com.amazon.carbonado.info.StorableIntrospector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Copies storables from one repository to another, or to and from files.
+ * <p>
+ * Each type is read in primary key order, {@code chunkSize} storables at a
+ * time, and each chunk is written in its own transaction, so memory does not
+ * grow with the size of a type. Up to {@code parallelism} types are
+ * transferred at once; types whose target enforces references between them
+ * should be transferred one at a time, in dependency order. Storables that
+ * already exist in the target are updated.
+ * <p>
+ * Exported files hold one type each: a header with the type name and a hash
+ * of its properties, then the storables serialized with
+ * {@link Storable#writeTo(OutputStream)}, each one prefixed by its length.
+ * Files whose hash no longer matches the type are rejected on import.
+ * <p>
+ * Given a checkpoint directory, progress is recorded after every chunk and an
+ * interrupted transfer resumes after the last committed chunk when run again
+ * with the same arguments. Checkpoints record the source and the target, by
+ * repository name or file path, and are ignored when either one differs.
+ * Checkpoints are deleted once every type is done.
+ *
+ * @author Andres Almiray
+ */
+public final class BulkTransfer {
+    private static final Logger LOG = LoggerFactory.getLogger(BulkTransfer.class);
+    public static final String FILE_EXTENSION = ".cbt";
+    private static final int MAGIC = 0x43424c4b;
+    private static final int CHECKPOINT_MAGIC = 0x4342434b;
+    private static final int FORMAT_VERSION = 1;
+    private static final int CHECKPOINT_VERSION = 2;
+    private static final int END_OF_TYPE = -1;
+    private static final long REPORT_INTERVAL = 10000L;
+
+    /**
+     * Receives progress once per chunk, on the thread transferring the type.
+     */
+    public interface Listener {
+        void progress(String typeName, long count, long elapsed, boolean done);
+    }
+
+    private final int chunkSize;
+    private final int parallelism;
+    private final File checkpointDirectory;
+    private final Listener listener;
+
+    public BulkTransfer() {
+        this(BulkOperations.DEFAULT_CHUNK_SIZE, 1, null, null);
+    }
+
+    /**
+     * @param chunkSize           storables per transaction
+     * @param parallelism         types transferred at once
+     * @param checkpointDirectory where progress is recorded, {@code null} to start over every time
+     * @param listener            receives progress, may be {@code null}
+     */
+    public BulkTransfer(int chunkSize, int parallelism, File checkpointDirectory, Listener listener) {
+        this.chunkSize = chunkSize < 1 ? BulkOperations.DEFAULT_CHUNK_SIZE : chunkSize;
+        this.parallelism = Math.max(1, parallelism);
+        this.checkpointDirectory = checkpointDirectory;
+        this.listener = listener;
+    }
+
+    /**
+     * @return the number of storables of each type held by the target once done
+     */
+    public Map<String, Long> copy(final Repository source, final Repository target, List<Class<? extends Storable>> types) throws RepositoryException, IOException {
+        return run("copy", identify(source), identify(target), types, new Transfer() {
+            public <S extends Storable> long transfer(Class<S> type, Checkpoint checkpoint, Meter meter) throws RepositoryException, IOException {
+                return copyType(source, target, type, checkpoint, meter);
+            }
+        });
+    }
+
+    /**
+     * Writes each type to {@code <directory>/<type name>.cbt}.
+     */
+    public Map<String, Long> exportTo(final Repository source, final File directory, List<Class<? extends Storable>> types) throws RepositoryException, IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create directory " + directory);
+        }
+        return run("export", identify(source), identify(directory), types, new Transfer() {
+            public <S extends Storable> long transfer(Class<S> type, Checkpoint checkpoint, Meter meter) throws RepositoryException, IOException {
+                return exportType(source, fileFor(directory, type), type, checkpoint, meter);
+            }
+        });
+    }
+
+    /**
+     * Reads each type from {@code <directory>/<type name>.cbt}.
+     */
+    public Map<String, Long> importFrom(final File directory, final Repository target, List<Class<? extends Storable>> types) throws RepositoryException, IOException {
+        return run("import", identifyFiles(directory, types), identify(target), types, new Transfer() {
+            public <S extends Storable> long transfer(Class<S> type, Checkpoint checkpoint, Meter meter) throws RepositoryException, IOException {
+                return importType(fileFor(directory, type), target, type, checkpoint, meter);
+            }
+        });
+    }
+
+    public static File fileFor(File directory, Class<? extends Storable> type) {
+        return new File(directory, type.getName() + FILE_EXTENSION);
+    }
+
+    private static String identify(Repository repository) {
+        return "repository " + repository.getName();
+    }
+
+    private static String identify(File directory) throws IOException {
+        return "directory " + directory.getCanonicalPath();
+    }
+
+    // files exported again since the checkpoint differ in size or modification time
+    private static String identifyFiles(File directory, List<Class<? extends Storable>> types) throws IOException {
+        StringBuilder id = new StringBuilder(identify(directory));
+        for (Class<? extends Storable> type : types) {
+            File file = fileFor(directory, type);
+            id.append(' ').append(file.getName()).append(':').append(file.length()).append(':').append(file.lastModified());
+        }
+        return id.toString();
+    }
+
+    private Map<String, Long> run(String operation, String sourceId, String targetId, List<Class<? extends Storable>> types, final Transfer transfer) throws RepositoryException, IOException {
+        if (checkpointDirectory != null && !checkpointDirectory.isDirectory() && !checkpointDirectory.mkdirs()) {
+            throw new IOException("Cannot create directory " + checkpointDirectory);
+        }
+        long start = System.currentTimeMillis();
+        Map<String, Future<Long>> futures = new LinkedHashMap<String, Future<Long>>();
+        final List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, types.size())), new ThreadFactory() {
+            private int count;
+
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "carbonado-transfer-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        try {
+            for (final Class<? extends Storable> type : types) {
+                final Checkpoint checkpoint = Checkpoint.load(checkpointDirectory, operation, type, sourceId, targetId);
+                checkpoints.add(checkpoint);
+                futures.put(type.getName(), executor.submit(new Callable<Long>() {
+                    public Long call() throws Exception {
+                        if (checkpoint.done) {
+                            LOG.info("Skipping " + type.getName() + ", already transferred " + checkpoint.count + " storables");
+                            return checkpoint.count;
+                        }
+                        Meter meter = new Meter(type.getName(), checkpoint.count);
+                        long count = transfer.transfer(type, checkpoint, meter);
+                        checkpoint.done(count);
+                        meter.done(count);
+                        return count;
+                    }
+                }));
+            }
+
+            Map<String, Long> counts = new LinkedHashMap<String, Long>();
+            Throwable failure = null;
+            for (Map.Entry<String, Future<Long>> entry : futures.entrySet()) {
+                try {
+                    counts.put(entry.getKey(), entry.getValue().get());
+                } catch (ExecutionException e) {
+                    LOG.error("Could not transfer " + entry.getKey(), e.getCause());
+                    if (failure == null) failure = e.getCause();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while transferring " + entry.getKey());
+                }
+            }
+            if (failure instanceof RepositoryException) throw (RepositoryException) failure;
+            if (failure instanceof IOException) throw (IOException) failure;
+            if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+            if (failure instanceof Error) throw (Error) failure;
+
+            for (Checkpoint checkpoint : checkpoints) checkpoint.delete();
+            long total = 0L;
+            for (Long count : counts.values()) total += count;
+            long elapsed = System.currentTimeMillis() - start;
+            LOG.info("Finished " + operation + " of " + total + " storables in " + elapsed + "ms (" + rate(total, elapsed) + "/s)");
+            return counts;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <S extends Storable> long copyType(Repository source, Repository target, Class<S> type, Checkpoint checkpoint, Meter meter) throws RepositoryException, IOException {
+        Storage<S> from = source.storageFor(type);
+        Storage<S> to = target.storageFor(type);
+        Query<S> query = from.query().orderBy(primaryKey(type));
+        S last = checkpoint.lastKey(from);
+        long count = checkpoint.count;
+        while (true) {
+            int read = 0;
+            Cursor<S> cursor = (last == null ? query : query.after(last)).fetchSlice(0L, (long) chunkSize);
+            try {
+                Transaction txn = target.enterTransaction();
+                try {
+                    while (cursor.hasNext()) {
+                        S storable = cursor.next();
+                        S copy = to.prepare();
+                        storable.copyAllProperties(copy);
+                        write(copy);
+                        last = storable;
+                        read++;
+                    }
+                    txn.commit();
+                } finally {
+                    txn.exit();
+                }
+            } finally {
+                cursor.close();
+            }
+            if (read == 0) break;
+            count += read;
+            checkpoint.save(count, 0L, last);
+            meter.update(count);
+            if (read < chunkSize) break;
+        }
+        return count;
+    }
+
+    private <S extends Storable> long exportType(Repository source, File file, Class<S> type, Checkpoint checkpoint, Meter meter) throws RepositoryException, IOException {
+        Storage<S> from = source.storageFor(type);
+        Query<S> query = from.query().orderBy(primaryKey(type));
+        S last = checkpoint.lastKey(from);
+        long count = checkpoint.count;
+        long offset = checkpoint.offset;
+
+        if (offset > 0L) {
+            // drops whatever was written after the last checkpoint
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(offset);
+            } finally {
+                raf.close();
+            }
+        }
+        CountingOutputStream counter = new CountingOutputStream(new FileOutputStream(file, offset > 0L), offset);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(counter, 64 * 1024));
+        try {
+            if (offset == 0L) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(type.getName());
+                out.writeLong(SnapshotRepository.schemaHash(type));
+            }
+            ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+            while (true) {
+                int read = 0;
+                Cursor<S> cursor = (last == null ? query : query.after(last)).fetchSlice(0L, (long) chunkSize);
+                try {
+                    while (cursor.hasNext()) {
+                        S storable = cursor.next();
+                        record.reset();
+                        storable.writeTo(record);
+                        out.writeInt(record.size());
+                        record.writeTo(out);
+                        last = storable;
+                        read++;
+                    }
+                } finally {
+                    cursor.close();
+                }
+                if (read == 0) break;
+                out.flush();
+                count += read;
+                checkpoint.save(count, counter.count, last);
+                meter.update(count);
+                if (read < chunkSize) break;
+            }
+            out.writeInt(END_OF_TYPE);
+        } finally {
+            out.close();
+        }
+        return count;
+    }
+
+    private <S extends Storable> long importType(File file, Repository target, Class<S> type, Checkpoint checkpoint, Meter meter) throws RepositoryException, IOException {
+        Storage<S> to = target.storageFor(type);
+        long count = checkpoint.count;
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            DataInputStream header = new DataInputStream(fis);
+            if (header.readInt() != MAGIC || header.readInt() != FORMAT_VERSION) {
+                throw new IOException(file + " is not a transfer file");
+            }
+            String typeName = header.readUTF();
+            if (!type.getName().equals(typeName)) {
+                throw new IOException(file + " holds " + typeName + " rather than " + type.getName());
+            }
+            if (header.readLong() != SnapshotRepository.schemaHash(type)) {
+                throw new IOException(file + " was written for different properties of " + typeName);
+            }
+            long offset = checkpoint.offset > 0L ? checkpoint.offset : fis.getChannel().position();
+            fis.getChannel().position(offset);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(fis, 64 * 1024));
+
+            byte[] bytes = new byte[256];
+            boolean done = false;
+            while (!done) {
+                int read = 0;
+                Transaction txn = target.enterTransaction();
+                try {
+                    while (read < chunkSize) {
+                        int length = in.readInt();
+                        if (length == END_OF_TYPE) {
+                            done = true;
+                            break;
+                        }
+                        if (bytes.length < length) bytes = new byte[Math.max(length, bytes.length * 2)];
+                        in.readFully(bytes, 0, length);
+                        S storable = to.prepare();
+                        storable.readFrom(new ByteArrayInputStream(bytes, 0, length));
+                        write(storable);
+                        offset += 4 + length;
+                        read++;
+                    }
+                    txn.commit();
+                } finally {
+                    txn.exit();
+                }
+                if (read == 0) break;
+                count += read;
+                checkpoint.save(count, offset, null);
+                meter.update(count);
+            }
+        } catch (EOFException e) {
+            throw new IOException(file + " is incomplete, its export did not finish");
+        } finally {
+            fis.close();
+        }
+        return count;
+    }
+
+    // inserts the storable, or updates it when a previous run already did
+    private static void write(Storable storable) throws PersistException {
+        if (!storable.tryInsert()) storable.update();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static String[] primaryKey(Class<? extends Storable> type) {
+        Set<String> names = StorableIntrospector.examine((Class) type).getPrimaryKeyProperties().keySet();
+        return names.toArray(new String[names.size()]);
+    }
+
+    private static long rate(long count, long elapsed) {
+        return elapsed > 0L ? count * 1000L / elapsed : count;
+    }
+
+    private interface Transfer {
+        <S extends Storable> long transfer(Class<S> type, Checkpoint checkpoint, Meter meter) throws RepositoryException, IOException;
+    }
+
+    private final class Meter {
+        private final String typeName;
+        private final long initialCount;
+        private final long start = System.currentTimeMillis();
+        private long lastReport = start;
+
+        private Meter(String typeName, long initialCount) {
+            this.typeName = typeName;
+            this.initialCount = initialCount;
+        }
+
+        private void update(long count) {
+            long now = System.currentTimeMillis();
+            if (now - lastReport >= REPORT_INTERVAL) {
+                lastReport = now;
+                LOG.info("Transferred " + count + " " + typeName + " storables (" + rate(count - initialCount, now - start) + "/s)");
+            }
+            if (listener != null) listener.progress(typeName, count, now - start, false);
+        }
+
+        private void done(long count) {
+            long elapsed = System.currentTimeMillis() - start;
+            LOG.info("Transferred " + count + " " + typeName + " storables in " + elapsed + "ms (" + rate(count - initialCount, elapsed) + "/s)");
+            if (listener != null) listener.progress(typeName, count, elapsed, true);
+        }
+    }
+
+    /**
+     * Progress of one type between a given source and target: storables
+     * done, the file offset reached and the last storable read, which
+     * resumes the primary key ordered scan.
+     */
+    private static final class Checkpoint {
+        private final File file;
+        private final long schemaHash;
+        private final String sourceId;
+        private final String targetId;
+        private boolean done;
+        private long count;
+        private long offset;
+        private byte[] lastKey;
+
+        private Checkpoint(File file, long schemaHash, String sourceId, String targetId) {
+            this.file = file;
+            this.schemaHash = schemaHash;
+            this.sourceId = sourceId;
+            this.targetId = targetId;
+        }
+
+        static Checkpoint load(File directory, String operation, Class<? extends Storable> type, String sourceId, String targetId) throws IOException {
+            long schemaHash = SnapshotRepository.schemaHash(type);
+            File file = directory == null ? null : new File(directory, operation + "-" + type.getName() + ".checkpoint");
+            Checkpoint checkpoint = new Checkpoint(file, schemaHash, sourceId, targetId);
+            if (file == null || !file.isFile()) return checkpoint;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION) {
+                    LOG.warn("Ignoring checkpoint " + file + " as it was written by another version");
+                    return checkpoint;
+                }
+                if (in.readLong() != schemaHash) {
+                    LOG.warn("Ignoring checkpoint " + file + " as " + type.getName() + " has changed");
+                    return checkpoint;
+                }
+                String checkpointSource = in.readUTF();
+                String checkpointTarget = in.readUTF();
+                if (!sourceId.equals(checkpointSource) || !targetId.equals(checkpointTarget)) {
+                    LOG.warn("Ignoring checkpoint " + file + " as it was recorded from " + checkpointSource + " to " + checkpointTarget);
+                    return checkpoint;
+                }
+                boolean done = in.readBoolean();
+                long count = in.readLong();
+                long offset = in.readLong();
+                int length = in.readInt();
+                byte[] lastKey = null;
+                if (length >= 0) {
+                    lastKey = new byte[length];
+                    in.readFully(lastKey);
+                }
+                checkpoint.done = done;
+                checkpoint.count = count;
+                checkpoint.offset = offset;
+                checkpoint.lastKey = lastKey;
+                LOG.info("Resuming " + type.getName() + " after " + count + " storables");
+                return checkpoint;
+            } catch (EOFException e) {
+                LOG.warn("Ignoring checkpoint " + file + " as it is incomplete");
+                return checkpoint;
+            } finally {
+                in.close();
+            }
+        }
+
+        <S extends Storable> S lastKey(Storage<S> storage) throws RepositoryException, IOException {
+            if (lastKey == null) return null;
+            S storable = storage.prepare();
+            storable.readFrom(new ByteArrayInputStream(lastKey));
+            return storable;
+        }
+
+        void save(long count, long offset, Storable last) throws IOException, RepositoryException {
+            this.count = count;
+            this.offset = offset;
+            if (last != null) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+                last.writeTo(bytes);
+                lastKey = bytes.toByteArray();
+            }
+            write();
+        }
+
+        void done(long count) throws IOException {
+            this.done = true;
+            this.count = count;
+            write();
+        }
+
+        void delete() {
+            if (file != null && file.exists() && !file.delete()) {
+                LOG.warn("Could not delete checkpoint " + file);
+            }
+        }
+
+        private void write() throws IOException {
+            if (file == null) return;
+            File temp = new File(file.getPath() + ".tmp");
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(CHECKPOINT_MAGIC);
+                out.writeInt(CHECKPOINT_VERSION);
+                out.writeLong(schemaHash);
+                out.writeUTF(sourceId);
+                out.writeUTF(targetId);
+                out.writeBoolean(done);
+                out.writeLong(count);
+                out.writeLong(offset);
+                out.writeInt(lastKey == null ? -1 : lastKey.length);
+                if (lastKey != null) out.write(lastKey);
+            } finally {
+                out.close();
+            }
+            if (file.exists() && !file.delete() || !temp.renameTo(file)) {
+                throw new IOException("Cannot replace checkpoint " + file);
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        private CountingOutputStream(OutputStream out, long count) {
+            super(out);
+            this.count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.capability.Capability;
+
+/**
+ * Read-through cache offered by repositories of type {@code cached}.
+ * Obtain it with {@code repository.getCapability(CacheCapability)}.
+ * <p>
+ * Cached entries are invalidated whenever a storable of the same type and
+ * primary key is inserted, updated or deleted through the repository.
+ * Writes made by other processes are only noticed once entries expire.
+ *
+ * @author Andres Almiray
+ */
+public interface CacheCapability extends Capability {
+    /**
+     * Loads the storable identified by the primary key of {@code key},
+     * serving it from the cache when possible. The returned instance is a
+     * copy that may be freely modified.
+     *
+     * @return the loaded storable, or {@code null} if none exists
+     */
+    <S extends Storable> S tryLoad(S key) throws FetchException;
+
+    void invalidate(Storable storable);
+
+    void invalidateAll();
+
+    int getSize();
+
+    long getHitCount();
+
+    long getMissCount();
+
+    long getEvictionCount();
+}
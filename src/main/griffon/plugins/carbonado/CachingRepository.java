@@ -0,0 +1,345 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.*;
+import com.amazon.carbonado.capability.Capability;
+import com.amazon.carbonado.filter.Filter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository of type {@code cached}. Wraps a {@code jdbc} or {@code bdb}
+ * repository and offers a {@link CacheCapability}. Storables of its
+ * storages, whether prepared or fetched by queries, load through the cache.
+ * <p>
+ * Writes evict the affected storables through triggers, and once more
+ * when they complete outside a transaction. Inside a
+ * transaction entered through this repository loads bypass the cache, and
+ * the storables written are evicted once more when the outermost
+ * transaction commits or exits, so that a concurrent load of the state
+ * preceding the commit cannot linger in the cache.
+ *
+ * @author Andres Almiray
+ */
+public class CachingRepository extends DelegatingRepository {
+    private final StorableCache cache;
+    private final ConcurrentMap<Class<?>, Storage<?>> storages = new ConcurrentHashMap<Class<?>, Storage<?>>();
+    private final ThreadLocal<Scope> scopes = new ThreadLocal<Scope>();
+
+    public CachingRepository(Repository delegate, int maxSize, long ttl) {
+        this(delegate, maxSize, ttl, false);
+    }
+
+    /**
+     * @param lfu evict the least frequently used storables rather than the least recently used ones
+     */
+    public CachingRepository(Repository delegate, int maxSize, long ttl, boolean lfu) {
+        super(delegate);
+        this.cache = new StorableCache(maxSize, ttl, lfu ? StorableCache.Eviction.LFU : StorableCache.Eviction.LRU, new StorableCache.Loader() {
+            public <S extends Storable> S tryLoad(S key) throws FetchException {
+                return loadFromDelegate(key);
+            }
+        });
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <S extends Storable> Storage<S> storageFor(Class<S> type) throws SupportException, RepositoryException {
+        Storage<S> storage = (Storage<S>) storages.get(type);
+        if (storage == null) {
+            Storage<S> backing = super.storageFor(type);
+            storage = new CachingStorage<S>(type, backing);
+            Storage<S> previous = (Storage<S>) storages.putIfAbsent(type, storage);
+            if (previous != null) {
+                storage = previous;
+            } else {
+                backing.addTrigger(new InvalidationTrigger<S>());
+            }
+        }
+        return storage;
+    }
+
+    @Override
+    public Transaction enterTransaction() {
+        return new ScopedTransaction(super.enterTransaction(), false);
+    }
+
+    @Override
+    public Transaction enterTransaction(IsolationLevel level) {
+        return new ScopedTransaction(super.enterTransaction(level), false);
+    }
+
+    @Override
+    public Transaction enterTopTransaction(IsolationLevel level) {
+        return new ScopedTransaction(super.enterTopTransaction(level), true);
+    }
+
+    @Override
+    public <C extends Capability> C getCapability(Class<C> capabilityType) {
+        if (capabilityType.isInstance(cache)) return capabilityType.cast(cache);
+        return super.getCapability(capabilityType);
+    }
+
+    @Override
+    public void close() {
+        cache.invalidateAll();
+        super.close();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <S extends Storable> S loadFromDelegate(S key) throws FetchException {
+        S loaded;
+        try {
+            loaded = (S) delegate.storageFor(key.storableType()).prepare();
+        } catch (RepositoryException e) {
+            throw e.toFetchException();
+        }
+        key.copyPrimaryKeyProperties(loaded);
+        return loaded.tryLoad() ? loaded : null;
+    }
+
+    private void written(Storable storable) {
+        cache.invalidate(storable);
+        Scope scope = scopes.get();
+        if (scope != null) scope.written.add(storable.copy());
+    }
+
+    private final class CachingStorage<S extends Storable> extends DelegatingStorage<S> {
+        private final Storage<S> backing;
+
+        private CachingStorage(Class<S> type, Storage<S> backing) throws SupportException {
+            super(CachingRepository.this, type);
+            this.backing = backing;
+        }
+
+        @Override
+        protected Storage<S> storageOf(S storable) {
+            return backing;
+        }
+
+        @Override
+        public boolean doTryLoad(S storable) throws FetchException {
+            S loaded = scopes.get() != null ? cache.tryLoadUncached(storable) : cache.tryLoad(storable);
+            if (loaded == null) return false;
+            loaded(storable, loaded);
+            return true;
+        }
+
+        // outside transactions the write has committed by now, evicting
+        // again discards what was loaded between the trigger and the commit
+
+        @Override
+        public boolean doTryInsert(S storable) throws PersistException {
+            try {
+                return super.doTryInsert(storable);
+            } finally {
+                committed(storable);
+            }
+        }
+
+        @Override
+        public boolean doTryUpdate(S storable) throws PersistException {
+            try {
+                return super.doTryUpdate(storable);
+            } finally {
+                committed(storable);
+            }
+        }
+
+        @Override
+        public boolean doTryDelete(S storable) throws PersistException {
+            try {
+                return super.doTryDelete(storable);
+            } finally {
+                committed(storable);
+            }
+        }
+
+        @Override
+        protected void deletedAll() {
+            cache.invalidateAll();
+        }
+
+        public Query<S> query() throws FetchException {
+            return query(backing.query());
+        }
+
+        public Query<S> query(String filter) throws FetchException {
+            return query(backing.query(filter));
+        }
+
+        public Query<S> query(Filter<S> filter) throws FetchException {
+            return query(backing.query(filter));
+        }
+
+        public void truncate() throws PersistException {
+            // truncation runs no delete triggers
+            try {
+                backing.truncate();
+            } finally {
+                cache.invalidateAll();
+            }
+        }
+
+        private Query<S> query(Query<S> query) {
+            return new DelegatingQuery<S>(this, Collections.singletonList(query), null);
+        }
+
+        private void committed(S storable) {
+            if (scopes.get() == null) cache.invalidate(storable);
+        }
+
+        public boolean addTrigger(Trigger<? super S> trigger) {
+            return backing.addTrigger(trigger);
+        }
+
+        public boolean removeTrigger(Trigger<? super S> trigger) {
+            return backing.removeTrigger(trigger);
+        }
+    }
+
+    private static final class Scope {
+        private final Scope parent;
+        private final List<Storable> written = new ArrayList<Storable>();
+
+        private Scope(Scope parent) {
+            this.parent = parent;
+        }
+    }
+
+    private final class ScopedTransaction implements Transaction {
+        private final Transaction delegate;
+        private final Scope scope;
+        private final boolean top;
+
+        private ScopedTransaction(Transaction delegate, boolean top) {
+            this.delegate = delegate;
+            this.top = top;
+            this.scope = new Scope(scopes.get());
+            scopes.set(scope);
+        }
+
+        public void commit() throws PersistException {
+            delegate.commit();
+            // a nested transaction is only committed along with the enclosing one
+            if (scope.parent != null && !top) {
+                scope.parent.written.addAll(scope.written);
+            } else {
+                invalidateWritten();
+            }
+            scope.written.clear();
+        }
+
+        public void exit() throws PersistException {
+            try {
+                delegate.exit();
+            } finally {
+                if (scopes.get() == scope) {
+                    if (scope.parent != null) {
+                        scopes.set(scope.parent);
+                    } else {
+                        scopes.remove();
+                    }
+                }
+                // rolled back, or committed with the enclosing transaction
+                invalidateWritten();
+                scope.written.clear();
+            }
+        }
+
+        private void invalidateWritten() {
+            for (Storable storable : scope.written) {
+                cache.invalidate(storable);
+            }
+        }
+
+        public void setForUpdate(boolean forUpdate) {
+            delegate.setForUpdate(forUpdate);
+        }
+
+        public boolean isForUpdate() {
+            return delegate.isForUpdate();
+        }
+
+        public void setDesiredLockTimeout(int timeout, TimeUnit unit) {
+            delegate.setDesiredLockTimeout(timeout, unit);
+        }
+
+        public IsolationLevel getIsolationLevel() {
+            return delegate.getIsolationLevel();
+        }
+
+        public void detach() {
+            delegate.detach();
+        }
+
+        public void attach() {
+            delegate.attach();
+        }
+
+        public boolean preCommit() throws PersistException {
+            return delegate.preCommit();
+        }
+    }
+
+    private class InvalidationTrigger<S extends Storable> extends Trigger<S> {
+        @Override
+        public void afterInsert(S storable, Object state) {
+            written(storable);
+        }
+
+        @Override
+        public void afterTryInsert(S storable, Object state) {
+            written(storable);
+        }
+
+        @Override
+        public void afterUpdate(S storable, Object state) {
+            written(storable);
+        }
+
+        @Override
+        public void afterTryUpdate(S storable, Object state) {
+            written(storable);
+        }
+
+        @Override
+        public void afterDelete(S storable, Object state) {
+            written(storable);
+        }
+
+        @Override
+        public void afterTryDelete(S storable, Object state) {
+            written(storable);
+        }
+
+        @Override
+        public void failedUpdate(S storable, Object state) {
+            written(storable);
+        }
+
+        @Override
+        public void failedDelete(S storable, Object state) {
+            written(storable);
+        }
+    }
+}
@@ -24,21 +24,22 @@ import org.slf4j.Logger
 import org.slf4j.LoggerFactory
 
 import groovy.sql.Sql
+import java.security.SecureRandom
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
 import java.sql.Connection
 import javax.sql.DataSource
 
-import org.apache.commons.pool.ObjectPool
-import org.apache.commons.pool.impl.GenericObjectPool
-import org.apache.commons.dbcp.ConnectionFactory
-import org.apache.commons.dbcp.PoolingDataSource
-import org.apache.commons.dbcp.PoolableConnectionFactory
-import org.apache.commons.dbcp.DriverManagerConnectionFactory
-
 import com.amazon.carbonado.Repository
+import com.amazon.carbonado.RepositoryBuilder
+import com.amazon.carbonado.Storable
 import com.amazon.carbonado.repo.jdbc.JDBCRepositoryBuilder
 import com.amazon.carbonado.repo.jdbc.JDBCConnectionCapability
 import com.amazon.carbonado.repo.map.MapRepositoryBuilder
+import com.amazon.carbonado.repo.replicated.ReplicatedRepositoryBuilder
 import com.amazon.carbonado.repo.sleepycat.BDBRepositoryBuilder
+import com.amazon.carbonado.repo.sleepycat.CheckpointCapability
+import com.amazon.carbonado.repo.sleepycat.EnvironmentCapability
 
 /**
  * @author Andres Almiray
@@ -47,7 +48,20 @@ import com.amazon.carbonado.repo.sleepycat.BDBRepositoryBuilder
 final class CarbonadoConnector {
     private static final String DEFAULT = 'default'
     private static final Logger LOG = LoggerFactory.getLogger(CarbonadoConnector)
-    private bootstrap
+    private static final Random RANDOM = new SecureRandom()
+    // bdb settings that are validated and converted before reaching the builder
+    private static final List<String> BDB_SETTINGS = [
+        'cacheSize', 'cachePercent', 'logFileMaxSize', 'cleanerThreads',
+        'checkpointInterval', 'lockTimeout', 'transactionTimeout'
+    ]
+    private final Map<String, Object> bootstraps = new ConcurrentHashMap<String, Object>()
+    // environment directories of scratch repositories, deleted on disconnect
+    private final Map<String, File> scratchDirectories = new ConcurrentHashMap<String, File>()
+    // factories of the connection pools created by this plugin
+    private final Map<String, DataSourceFactory> dataSourceFactories = new ConcurrentHashMap<String, DataSourceFactory>()
+    private final Map<String, HealthChecker> healthCheckers = new ConcurrentHashMap<String, HealthChecker>()
+    private ScheduledExecutorService evictor
+    private Runnable evictionPass
 
     ConfigObject createConfig(GriffonApplication app) {
         if (!app.config.pluginConfig.carbonado) {
@@ -56,7 +70,46 @@ final class CarbonadoConnector {
         app.config.pluginConfig.carbonado
     }
 
-    private ConfigObject narrowConfig(ConfigObject config, String repositoryName) {
+    void configureMetrics(GriffonApplication app, ConfigObject config) {
+        if (!config.metrics?.enabled) return
+        CarbonadoMetrics metrics = CarbonadoMetrics.instance
+        long publishInterval = (config.metrics.publishInterval ?: 0L) as long
+        // by default each event reports the latencies of the calls made since the previous one
+        def window = config.metrics.window
+        if (!(window instanceof Number)) window = publishInterval > 0 ? publishInterval : CarbonadoMetrics.DEFAULT_WINDOW
+        metrics.enable(config.metrics.jmx instanceof Boolean ? config.metrics.jmx : true, window as long)
+        metrics.startPublishing(app, publishInterval)
+    }
+
+    /**
+     * Starts closing named repositories that stay idle longer than
+     * {@code eviction.idleTimeout}, or the least recently used idle ones
+     * once more than {@code eviction.maxRepositories} are connected.
+     * Evicted repositories connect again the next time they are used.
+     */
+    synchronized void configureEviction(final GriffonApplication app, final ConfigObject config) {
+        long idleTimeout = (config.eviction?.idleTimeout ?: 0L) as long
+        int maxRepositories = (config.eviction?.maxRepositories ?: 0) as int
+        if (evictor != null || (idleTimeout <= 0 && maxRepositories <= 0)) return
+        long interval = (config.eviction.interval ?: 60000L) as long
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, 'carbonado-eviction')
+                thread.daemon = true
+                thread
+            }
+        })
+        evictionPass = { evictIdleRepositories(app, config, idleTimeout, maxRepositories) } as Runnable
+        evictor.scheduleWithFixedDelay(evictionPass, interval, interval, TimeUnit.MILLISECONDS)
+    }
+
+    synchronized void stopEviction() {
+        evictor?.shutdownNow()
+        evictor = null
+        evictionPass = null
+    }
+
+    ConfigObject narrowConfig(ConfigObject config, String repositoryName) {
         if (config.containsKey('repository') && repositoryName == DEFAULT) {
             return config.repository
         } else if (config.containsKey('repositories')) {
@@ -66,30 +119,213 @@ final class CarbonadoConnector {
     }
 
     Repository connect(GriffonApplication app, ConfigObject config, String repositoryName = DEFAULT) {
-        if (RepositoryHolder.instance.isRepositoryConnected(repositoryName)) {
-            return RepositoryHolder.instance.getRepository(repositoryName)
+        Repository repository = RepositoryHolder.instance.getRepository(repositoryName)
+        if (repository != null) return repository
+
+        RepositoryHolder.instance.withLock(repositoryName) {
+            // another thread may have connected while we were waiting for the lock
+            repository = RepositoryHolder.instance.getRepository(repositoryName)
+            if (repository != null) return repository
+
+            long start = System.currentTimeMillis()
+            config = narrowConfig(config, repositoryName)
+            List<Class<? extends Storable>> warmupTypes = loadStorableTypes(config.warmup?.types, repositoryName, 'warmup.types')
+            app.event('CarbonadoConnectStart', [config, repositoryName])
+            Repository started = startCarbonado(config, repositoryName)
+            repository = started
+            try {
+                if (config.changeFeed?.enabled) repository = createChangeFeedRepository(app, config.changeFeed, repositoryName, repository)
+                if (config.writeBehind?.enabled) repository = createWriteBehindRepository(app, config.writeBehind, repositoryName, repository)
+                def maxQueries = config.queryCache?.maxSize
+                QueryCache.instance.setMaxSize(repositoryName, maxQueries instanceof Number ? maxQueries as int : QueryCache.DEFAULT_MAX_SIZE)
+                // other threads keep waiting on the lock until BootstrapCarbonado.init completes
+                RepositoryHolder.instance.setConnectingRepository(repositoryName, repository)
+                if (config.health?.enabled) startHealthChecks(app, config.health, repositoryName, repository)
+                def bootstrap = app.class.classLoader.loadClass('BootstrapCarbonado').newInstance()
+                bootstrap.metaClass.app = app
+                bootstraps[repositoryName] = bootstrap
+                runBootstrap(app, repositoryName, repository) { rn, r -> bootstrap.init(rn, r) }
+            } catch (Throwable t) {
+                abortConnect(config, repositoryName, repository, started)
+                throw t
+            } finally {
+                RepositoryHolder.instance.setConnectingRepository(repositoryName, null)
+            }
+            RepositoryHolder.instance.setRepository(repositoryName, repository)
+            app.event('CarbonadoConnectEnd', [repositoryName, repository])
+            app.event('CarbonadoConnectTime', [repositoryName, System.currentTimeMillis() - start])
+            warmUp(app, repositoryName, warmupTypes, (config.warmup?.threads ?: 2) as int)
+            scheduleEviction()
+            repository
         }
+    }
 
-        config = narrowConfig(config, repositoryName)
-        app.event('CarbonadoConnectStart', [config, repositoryName])
-        Repository repository = startCarbonado(config, repositoryName)
-        RepositoryHolder.instance.setRepository(repositoryName, repository)
-        bootstrap = app.class.classLoader.loadClass('BootstrapCarbonado').newInstance()
-        bootstrap.metaClass.app = app
-        resolveCarbonadoProvider(app).withCarbonado { rn, r -> bootstrap.init(rn, r) }
-        app.event('CarbonadoConnectEnd', [repositoryName, repository])
-        repository
+    /**
+     * Returns the names of all repositories defined in the configuration.
+     */
+    List<String> getConfiguredRepositoryNames(ConfigObject config) {
+        List<String> repositoryNames = [DEFAULT]
+        if (config.containsKey('repositories')) {
+            config.repositories.each { name, value ->
+                if (name != DEFAULT && value instanceof ConfigObject) repositoryNames << name
+            }
+        }
+        repositoryNames
+    }
+
+    /**
+     * Connects every configured repository in parallel. The call returns once
+     * all repositories have connected, except for those flagged as
+     * {@code lazy}, which keep connecting in the background. A failed lazy
+     * connection is logged and reported with a {@code CarbonadoConnectFailed}
+     * event, like any other failure.
+     */
+    void connectAll(final GriffonApplication app, final ConfigObject config) {
+        List<String> eager = []
+        List<String> lazy = []
+        for (String repositoryName : getConfiguredRepositoryNames(config)) {
+            ConfigObject repositoryConfig = narrowConfig(config, repositoryName)
+            (repositoryConfig?.lazy ? lazy : eager) << repositoryName
+        }
+
+        int poolSize = Math.max(1, Math.min(eager.size() + lazy.size(), Runtime.runtime.availableProcessors() * 2))
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger()
+
+            Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "carbonado-connect-${count.incrementAndGet()}")
+                thread.daemon = true
+                thread
+            }
+        })
+        try {
+            Map<String, Future> futures = [:]
+            for (String repositoryName : eager + lazy) {
+                final String name = repositoryName
+                final boolean background = repositoryName in lazy
+                futures[name] = executor.submit({
+                    try {
+                        connect(app, config, name)
+                    } catch (Throwable t) {
+                        // nobody waits on a lazy connection
+                        if (background) LOG.error("Could not connect to repository '${name}'", t)
+                        app.event('CarbonadoConnectFailed', [name, t])
+                        throw t
+                    }
+                } as Callable)
+            }
+
+            Throwable failure = null
+            for (String repositoryName : eager) {
+                try {
+                    futures[repositoryName].get()
+                } catch (ExecutionException e) {
+                    LOG.error("Could not connect to repository '${repositoryName}'", e.cause)
+                    if (failure == null) failure = e.cause
+                }
+            }
+            if (failure != null) throw failure
+        } finally {
+            // lets lazy connections finish, then releases the threads
+            executor.shutdown()
+        }
     }
 
     void disconnect(GriffonApplication app, ConfigObject config, String repositoryName = DEFAULT) {
-        if (RepositoryHolder.instance.isRepositoryConnected(repositoryName)) {
-            config = narrowConfig(config, repositoryName)
-            Repository repository = RepositoryHolder.instance.getRepository(repositoryName)
-            app.event('CarbonadoDisconnectStart', [config, repositoryName, repository])
-            resolveCarbonadoProvider(app).withCarbonado { rn, r -> bootstrap.destroy(rn, r) }
+        disconnectRepository(app, config, repositoryName, false)
+    }
+
+    private void disconnectRepository(GriffonApplication app, ConfigObject config, String repositoryName, boolean rebuilding) {
+        RepositoryHolder.instance.withLock(repositoryName) {
+            if (RepositoryHolder.instance.isRepositoryConnected(repositoryName)) {
+                config = narrowConfig(config, repositoryName)
+                Repository repository = RepositoryHolder.instance.getRepository(repositoryName)
+                app.event('CarbonadoDisconnectStart', [config, repositoryName, repository])
+                // queued asynchronous calls would connect the repository again
+                CarbonadoExecutors.instance.shutdown(repositoryName)
+                healthCheckers.remove(repositoryName)?.stop()
+                // the breaker keeps failing calls fast while the repository is rebuilt
+                if (!rebuilding) CircuitBreakers.instance.remove(repositoryName)
+                def bootstrap = bootstraps.remove(repositoryName)
+                if (bootstrap) runBootstrap(app, repositoryName, repository) { rn, r -> bootstrap.destroy(rn, r) }
+                stopCarbonado(config, repositoryName, repository)
+                app.event('CarbonadoDisconnectEnd', [config, repositoryName])
+                RepositoryHolder.instance.disconnectRepository(repositoryName)
+                forget(repositoryName, rebuilding)
+            }
+        }
+    }
+
+    // drops what is kept per repository name, so that names connected once leave nothing behind
+    private void forget(String repositoryName, boolean rebuilding) {
+        QueryCache.instance.remove(repositoryName)
+        // metrics, like the breaker, carry over a rebuild
+        if (!rebuilding) CarbonadoMetrics.instance.remove(repositoryName)
+        RepositoryHolder.instance.forget(repositoryName)
+    }
+
+    /*
+     * Releases a repository that failed to connect, it was never published.
+     * The repository is wrapped in the change feed and write-behind layers
+     * that could be created, started is the one they wrap.
+     */
+    private void abortConnect(ConfigObject config, String repositoryName, Repository repository, Repository started) {
+        healthCheckers.remove(repositoryName)?.stop()
+        bootstraps.remove(repositoryName)
+        try {
             stopCarbonado(config, repositoryName, repository)
-            app.event('CarbonadoDisconnectEnd', [config, repositoryName])
-            RepositoryHolder.instance.disconnectRepository(repositoryName)
+        } catch (Exception e) {
+            LOG.warn("Repository[${repositoryName}] could not be released after a failed connect", e)
+            // the wrapping layers failed to stop, the repository underneath must not leak
+            if (!repository.is(started)) {
+                try {
+                    stopCarbonado(config.type, config, repositoryName, started)
+                } catch (Exception again) {
+                    LOG.warn("Repository[${repositoryName}] could not be closed after a failed connect", again)
+                }
+            }
+        }
+        QueryCache.instance.remove(repositoryName)
+    }
+
+    /**
+     * Disconnects every connected repository in parallel, waiting at most
+     * {@code timeout} milliseconds for each one. Repositories that do not
+     * disconnect in time are logged and abandoned.
+     */
+    void disconnectAll(final GriffonApplication app, final ConfigObject config, long timeout) {
+        String[] repositoryNames = RepositoryHolder.instance.repositoryNames
+        if (!repositoryNames) return
+
+        ExecutorService executor = Executors.newFixedThreadPool(repositoryNames.length, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger()
+
+            Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "carbonado-disconnect-${count.incrementAndGet()}")
+                thread.daemon = true
+                thread
+            }
+        })
+        try {
+            Map<String, Future> futures = [:]
+            for (String repositoryName : repositoryNames) {
+                final String name = repositoryName
+                futures[name] = executor.submit({ disconnect(app, config, name) } as Callable)
+            }
+
+            // all repositories share the same deadline as they are stopped concurrently
+            long deadline = System.currentTimeMillis() + timeout
+            futures.each { String repositoryName, Future future ->
+                try {
+                    future.get(Math.max(0L, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)
+                } catch (TimeoutException e) {
+                    LOG.warn("Repository '${repositoryName}' did not disconnect within ${timeout}ms")
+                } catch (ExecutionException e) {
+                    LOG.error("Could not disconnect repository '${repositoryName}'", e.cause)
+                }
+            }
+        } finally {
+            executor.shutdownNow()
         }
     }
 
@@ -102,6 +338,10 @@ final class CarbonadoConnector {
             carbonadoProvider = DefaultCarbonadoProvider.instance
             app.config.carbonadoProvider = carbonadoProvider
         }
+        if (CarbonadoMetrics.instance.enabled && !(carbonadoProvider instanceof InstrumentedCarbonadoProvider)) {
+            carbonadoProvider = new InstrumentedCarbonadoProvider(carbonadoProvider)
+            app.config.carbonadoProvider = carbonadoProvider
+        }
         carbonadoProvider
     }
 
@@ -111,75 +351,599 @@ final class CarbonadoConnector {
                 return createJDBCRepository(config.jdbc, repositoryName)
             case 'bdb':
                 return createBDBRepository(config.bdb, repositoryName)
+            case 'cached':
+                return createCachedRepository(config, repositoryName)
+            case 'replicated':
+                return createReplicatedRepository(config, repositoryName)
+            case 'sharded':
+                return createShardedRepository(config, repositoryName)
+            case 'scratch':
+                return createScratchRepository(config.scratch, repositoryName)
         }
         return createMapRepository(config.map, repositoryName)
     }
 
+    /*
+     * A scratch repository is a BerkeleyDB JE environment in a temporary
+     * directory whose writes are never synced. Storables live encoded in its
+     * log files; only the JE cache, sized by cacheSize, takes Java heap.
+     */
+    private Repository createScratchRepository(ConfigObject config, String repositoryName) {
+        File directory
+        if (config.directory) {
+            directory = config.directory instanceof File ? config.directory : new File(config.directory.toString())
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IllegalArgumentException("Repository[${repositoryName}].scratch.directory ${directory} cannot be created")
+            }
+        } else {
+            directory = createTempDirectory("carbonado-${repositoryName}-")
+        }
+        if (!config.directory || config.deleteOnDisconnect) scratchDirectories[repositoryName] = directory
+
+        BDBRepositoryBuilder builder = new BDBRepositoryBuilder()
+        builder.name = repositoryName
+        builder.product = 'JE'
+        builder.environmentHomeFile = directory
+        builder.transactionNoSync = true
+        builder.cacheSize = (config.cacheSize ?: 32L * 1024L * 1024L) as long
+        if (config.logFileMaxSize) builder.logFileMaxSize = config.logFileMaxSize as int
+        try {
+            builder.build()
+        } catch (Exception e) {
+            File created = scratchDirectories.remove(repositoryName)
+            created?.deleteDir()
+            throw e
+        }
+    }
+
+    private static File createTempDirectory(String prefix) {
+        File parent = new File(System.getProperty('java.io.tmpdir'))
+        // mkdir fails when the directory exists, so no other process can claim it in between
+        for (int attempt = 0; attempt < 100; attempt++) {
+            File directory = new File(parent, prefix + Long.toHexString(RANDOM.nextLong() & Long.MAX_VALUE))
+            if (directory.mkdir()) return directory
+        }
+        throw new IllegalStateException("Cannot create a temporary directory in ${parent}")
+    }
+
+    private Repository createShardedRepository(ConfigObject config, String repositoryName) {
+        List<Repository> shards = []
+        try {
+            shardConfigs(config, repositoryName).each { String shardName, ConfigObject shardConfig ->
+                shards << startCarbonado(shardConfig, "${repositoryName}.${shardName}".toString())
+            }
+        } catch (Exception e) {
+            shards.each { it.close() }
+            throw e
+        }
+        new ShardedRepository(repositoryName, shards)
+    }
+
+    // shard order determines routing, hence it must not change once data is stored
+    private Map<String, ConfigObject> shardConfigs(ConfigObject config, String repositoryName) {
+        Map<String, ConfigObject> shardConfigs = [:]
+        config.sharded.shards.each { shardName, shardConfig ->
+            if (!(shardConfig instanceof ConfigObject)) return
+            if (shardConfig.type == 'sharded') {
+                throw new IllegalArgumentException("Repository[${repositoryName}].sharded.shards.${shardName} cannot be sharded itself")
+            }
+            shardConfigs[shardName] = shardConfig
+        }
+        if (!shardConfigs) {
+            throw new IllegalArgumentException("Repository[${repositoryName}].sharded.shards must define at least one shard")
+        }
+        shardConfigs
+    }
+
+    private Repository createReplicatedRepository(ConfigObject config, String repositoryName) {
+        String master = replicatedType(config, repositoryName, 'master', 'jdbc', ['jdbc', 'bdb'])
+        String replica = replicatedType(config, repositoryName, 'replica', 'bdb', ['bdb', 'map'])
+        if (master == replica) {
+            throw new IllegalArgumentException("Repository[${repositoryName}].replicated master and replica must be of different types")
+        }
+
+        ReplicatedRepositoryBuilder builder = new ReplicatedRepositoryBuilder()
+        builder.name = repositoryName
+        builder.masterRepositoryBuilder = createRepositoryBuilder(master, config, repositoryName)
+        builder.replicaRepositoryBuilder = createRepositoryBuilder(replica, config, repositoryName)
+        Repository repository = builder.build()
+
+        ConfigObject resync = config.replicated.resync
+        List<Class<? extends Storable>> types
+        try {
+            types = loadStorableTypes(resync.types, repositoryName, 'replicated.resync.types')
+        } catch (IllegalArgumentException e) {
+            repository.close()
+            throw e
+        }
+        int parallelism = (resync.parallelism ?: 1) as int
+        double throttle = (resync.throttle ?: 1.0d) as double
+        long interval = (resync.interval ?: 0L) as long
+        ReplicatingRepository replicatingRepository = new ReplicatingRepository(repository, types, parallelism, throttle, interval)
+        CarbonadoMetrics.instance.metricsFor(repositoryName).replication = replicatingRepository
+        replicatingRepository
+    }
+
+    private List<Class<? extends Storable>> loadStorableTypes(typeNames, String repositoryName, String setting) {
+        List<Class<? extends Storable>> types = []
+        for (String typeName : typeNames ?: []) {
+            try {
+                Class type = Class.forName(typeName, true, getClass().classLoader)
+                if (!Storable.isAssignableFrom(type)) {
+                    throw new IllegalArgumentException("Repository[${repositoryName}].${setting} refers to ${typeName} which is not a Storable")
+                }
+                types << type
+            } catch (ClassNotFoundException e) {
+                throw new IllegalArgumentException("Repository[${repositoryName}].${setting} refers to unknown type ${typeName}", e)
+            }
+        }
+        types
+    }
+
+    private String replicatedType(ConfigObject config, String repositoryName, String role, String defaultType, List<String> types) {
+        String type = config.replicated[role] ?: defaultType
+        if (!(type in types)) {
+            throw new IllegalArgumentException("Repository[${repositoryName}].replicated.${role} must be one of ${types} but was '${type}'")
+        }
+        type
+    }
+
+    private RepositoryBuilder createRepositoryBuilder(String type, ConfigObject config, String repositoryName) {
+        switch(type) {
+            case 'jdbc':
+                return createJDBCRepositoryBuilder(config.jdbc, repositoryName)
+            case 'bdb':
+                return createBDBRepositoryBuilder(config.bdb, repositoryName)
+        }
+        return createMapRepositoryBuilder(config.map, repositoryName)
+    }
+
+    private Repository createCachedRepository(ConfigObject config, String repositoryName) {
+        String backing = cachedBackingType(config, repositoryName)
+        Repository repository = backing == 'bdb' ? createBDBRepository(config.bdb, repositoryName) : createJDBCRepository(config.jdbc, repositoryName)
+        int maxSize = (config.cached.maxSize ?: 10000) as int
+        long ttl = (config.cached.ttl ?: 0L) as long
+        String eviction = config.cached.eviction ?: 'lru'
+        if (!(eviction in ['lru', 'lfu'])) {
+            repository.close()
+            throw new IllegalArgumentException("Repository[${repositoryName}].cached.eviction must be one of 'lru' or 'lfu' but was '${eviction}'")
+        }
+        CachingRepository cachingRepository = new CachingRepository(repository, maxSize, ttl, eviction == 'lfu')
+        CarbonadoMetrics.instance.metricsFor(repositoryName).cache = cachingRepository.getCapability(CacheCapability)
+        cachingRepository
+    }
+
+    private String cachedBackingType(ConfigObject config, String repositoryName) {
+        String backing = config.cached.backing ?: 'jdbc'
+        if (!(backing in ['jdbc', 'bdb'])) {
+            throw new IllegalArgumentException("Repository[${repositoryName}].cached.backing must be one of 'jdbc' or 'bdb' but was '${backing}'")
+        }
+        backing
+    }
+
     private Repository createJDBCRepository(ConfigObject config, String repositoryName) {
-        DataSource dataSource = createDataSource(config)
+        Repository repository = createJDBCRepositoryBuilder(config, repositoryName).build()
+        config.replicas ? createReadReplicaRepository(config, repositoryName, repository) : repository
+    }
+
+    private Repository createReadReplicaRepository(ConfigObject config, String repositoryName, Repository primary) {
+        String selection = config.replicaSelection ?: 'roundRobin'
+        if (!(selection in ['roundRobin', 'leastLatency'])) {
+            throw new IllegalArgumentException("Repository[${repositoryName}].jdbc.replicaSelection must be one of 'roundRobin' or 'leastLatency' but was '${selection}'")
+        }
+        List<Repository> replicas = []
+        List<DataSource> dataSources = []
+        try {
+            replicaConfigs(config).eachWithIndex { ConfigObject replicaConfig, int index ->
+                JDBCRepositoryBuilder builder = createJDBCRepositoryBuilder(replicaConfig, replicaName(repositoryName, index))
+                dataSources << builder.dataSource
+                replicas << builder.build()
+            }
+        } catch (Exception e) {
+            replicas.each { it.close() }
+            dataSources.eachWithIndex { DataSource dataSource, int index -> destroyDataSource(replicaName(repositoryName, index), dataSource) }
+            disconnectJDBCRepository(config, repositoryName, primary)
+            throw e
+        }
+        long checkInterval = (config.replicaCheckInterval ?: 5000L) as long
+        int checkTimeout = (config.replicaCheckTimeout ?: 2) as int
+        new ReadReplicaRepository(primary, replicas, dataSources, selection == 'leastLatency', checkInterval, checkTimeout)
+    }
+
+    // each replica takes the primary's settings, overridden by its own
+    private List<ConfigObject> replicaConfigs(ConfigObject config) {
+        config.replicas.collect { replica ->
+            ConfigObject replicaConfig = new ConfigObject()
+            config.each { propName, propValue ->
+                if (!(propName in ['replicas', 'dataSource']) && !propName.startsWith('replica')) replicaConfig[propName] = propValue
+            }
+            // replicas receive their schema from the primary
+            replicaConfig.dbCreate = 'skip'
+            if (replica instanceof Map) {
+                replicaConfig.putAll(replica)
+            } else {
+                replicaConfig.url = replica.toString()
+            }
+            replicaConfig
+        }
+    }
+
+    private String replicaName(String repositoryName, int index) {
+        "${repositoryName}.replica-${index + 1}".toString()
+    }
+
+    private JDBCRepositoryBuilder createJDBCRepositoryBuilder(ConfigObject config, String repositoryName) {
+        DataSource dataSource = createDataSource(config, repositoryName)
         def skipSchema = config.schema?.skip ?: false
         if (!skipSchema) createSchema(config, repositoryName, dataSource)
         
         JDBCRepositoryBuilder builder = new JDBCRepositoryBuilder()
         builder.name = repositoryName
         builder.dataSource = dataSource
-        builder.build()
+        if (config.suppressReload) builder.setSuppressReload(true, null)
+        builder
     }
 
     private Repository createBDBRepository(ConfigObject config, String repositoryName) {
+        createBDBRepositoryBuilder(config, repositoryName).build()
+    }
+
+    private BDBRepositoryBuilder createBDBRepositoryBuilder(ConfigObject config, String repositoryName) {
         BDBRepositoryBuilder builder = new BDBRepositoryBuilder()
         builder.name = repositoryName
         config.each { propName, propValue ->
-            builder[propName] = propValue
+            if (!(propName in BDB_SETTINGS) && propName != 'shutdown') builder[propName] = propValue
+        }
+        // typed settings go last as some refine an initialEnvironmentConfig set above
+        config.each { propName, propValue ->
+            if (propName in BDB_SETTINGS) applyBDBSetting(builder, repositoryName, propName, propValue)
+        }
+        builder
+    }
+
+    private void applyBDBSetting(BDBRepositoryBuilder builder, String repositoryName, String propName, propValue) {
+        if (propValue == null || propValue instanceof ConfigObject) return
+        try {
+            switch (propName) {
+                case 'cacheSize':          // bytes
+                    builder.cacheSize = propValue as long
+                    break
+                case 'cachePercent':       // percentage of the JVM heap, ignored if cacheSize is set
+                    builder.cachePercent = propValue as int
+                    break
+                case 'logFileMaxSize':     // bytes per log file
+                    builder.logFileMaxSize = propValue as int
+                    break
+                case 'checkpointInterval': // milliseconds
+                    builder.checkpointInterval = propValue as int
+                    break
+                case 'lockTimeout':        // seconds
+                    builder.lockTimeout = propValue as double
+                    break
+                case 'transactionTimeout': // seconds
+                    builder.transactionTimeout = propValue as double
+                    break
+                case 'cleanerThreads':
+                    def environmentConfig = builder.initialEnvironmentConfig ?: Class.forName('com.sleepycat.je.EnvironmentConfig').newInstance()
+                    environmentConfig.setConfigParam('je.cleaner.threads', String.valueOf(propValue as int))
+                    builder.initialEnvironmentConfig = environmentConfig
+                    break
+            }
+        } catch (ClassNotFoundException e) {
+            LOG.warn("Repository[${repositoryName}].bdb.${propName} is only supported by BerkeleyDB JE, ignoring it")
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Invalid value '${propValue}' for repository[${repositoryName}].bdb.${propName}", e)
         }
-        builder.build()
     }
 
     private Repository createMapRepository(ConfigObject config, String repositoryName) {
+        Repository repository = createMapRepositoryBuilder(config, repositoryName).build()
+        if (!config.snapshot?.file) return repository
+
+        File file = config.snapshot.file instanceof File ? config.snapshot.file : new File(config.snapshot.file.toString())
+        boolean onDisconnect = config.snapshot.onDisconnect instanceof Boolean ? config.snapshot.onDisconnect : true
+        List<Class<? extends Storable>> types
+        try {
+            types = loadStorableTypes(config.snapshot.types, repositoryName, 'map.snapshot.types')
+        } catch (IllegalArgumentException e) {
+            repository.close()
+            throw e
+        }
+
+        SnapshotRepository snapshotRepository = new SnapshotRepository(repository, file, types, onDisconnect)
+        try {
+            snapshotRepository.restore()
+        } catch (Exception e) {
+            // starts empty rather than half restored, BootstrapCarbonado can repopulate it
+            LOG.error("Repository[${repositoryName}] could not restore snapshot ${file}, starting empty", e)
+            repository.close()
+            repository = createMapRepositoryBuilder(config, repositoryName).build()
+            snapshotRepository = new SnapshotRepository(repository, file, types, onDisconnect)
+        }
+        snapshotRepository
+    }
+
+    private MapRepositoryBuilder createMapRepositoryBuilder(ConfigObject config, String repositoryName) {
         MapRepositoryBuilder builder = new MapRepositoryBuilder()
         builder.name = repositoryName
         config.each { propName, propValue ->
-            builder[propName] = propValue
+            if (propName != 'snapshot') builder[propName] = propValue
+        }
+        builder
+    }
+
+    private Repository createWriteBehindRepository(GriffonApplication app, ConfigObject config, String repositoryName, Repository repository) {
+        int queueSize = (config.queueSize ?: 10000) as int
+        int batchSize = (config.batchSize ?: 500) as int
+        long flushInterval = (config.flushInterval ?: 1000L) as long
+        long drainTimeout = (config.drainTimeout ?: 30000L) as long
+        new WriteBehindRepository(repository, queueSize, batchSize, flushInterval, drainTimeout, { Storable storable, Throwable cause ->
+            app.event('CarbonadoWriteBehindFailure', [repositoryName, storable, cause])
+        } as WriteBehindRepository.FailureListener)
+    }
+
+    /**
+     * Opens the storage of each type on a short lived pool, so that the
+     * classes Carbonado generates for them are ready before the first query.
+     */
+    private void warmUp(final GriffonApplication app, final String repositoryName, List<Class<? extends Storable>> types, int threads) {
+        if (!types) return
+        final long start = System.currentTimeMillis()
+        final Map<String, Long> timings = new ConcurrentHashMap<String, Long>()
+        final AtomicInteger pending = new AtomicInteger(types.size())
+        final CarbonadoProvider provider = resolveCarbonadoProvider(app)
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, types.size())), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger()
+
+            Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "carbonado-${repositoryName}-warmup-${count.incrementAndGet()}")
+                thread.daemon = true
+                thread
+            }
+        })
+        for (Class<? extends Storable> storableType : types) {
+            final Class<? extends Storable> type = storableType
+            pool.execute({
+                long typeStart = System.nanoTime()
+                try {
+                    // preparing an instance also loads the generated class
+                    provider.withCarbonado(repositoryName) { rn, r -> r.storageFor(type).prepare() }
+                    long elapsed = ((System.nanoTime() - typeStart) / 1000000L) as long
+                    timings[type.name] = elapsed
+                    LOG.info("Repository[${repositoryName}] warmed up ${type.name} in ${elapsed}ms")
+                } catch (Exception e) {
+                    LOG.warn("Repository[${repositoryName}] could not warm up ${type.name}", e)
+                } finally {
+                    if (pending.decrementAndGet() == 0) {
+                        app.event('CarbonadoWarmupEnd', [repositoryName, timings, System.currentTimeMillis() - start])
+                    }
+                }
+            } as Runnable)
+        }
+        pool.shutdown()
+    }
+
+    // makes room right away when a new connection exceeds eviction.maxRepositories
+    private synchronized void scheduleEviction() {
+        if (evictor == null) return
+        try {
+            evictor.execute(evictionPass)
+        } catch (RejectedExecutionException e) {
+            // shutting down
+        }
+    }
+
+    private void evictIdleRepositories(GriffonApplication app, ConfigObject config, long idleTimeout, int maxRepositories) {
+        List<String> candidates = RepositoryHolder.instance.repositoryNames.findAll { String repositoryName ->
+            // the default repository is shared by the whole application
+            repositoryName != DEFAULT && narrowConfig(config, repositoryName)?.evictable != false
+        }
+        if (idleTimeout > 0) {
+            long idleSince = System.currentTimeMillis() - idleTimeout
+            candidates.removeAll { String repositoryName -> evict(app, config, repositoryName, idleSince) }
+        }
+        int excess = RepositoryHolder.instance.repositoryNames.length - maxRepositories
+        if (maxRepositories <= 0 || excess <= 0) return
+        for (String repositoryName : candidates.sort { RepositoryHolder.instance.getLastUsed(it) }) {
+            if (evict(app, config, repositoryName, Long.MAX_VALUE) && --excess == 0) break
+        }
+    }
+
+    private boolean evict(GriffonApplication app, ConfigObject config, String repositoryName, long idleSince) {
+        try {
+            // eviction forgets the name, so read when it was last used beforehand
+            long lastUsed = RepositoryHolder.instance.getLastUsed(repositoryName)
+            boolean evicted = RepositoryHolder.instance.evictIfIdle(repositoryName, idleSince) { String rn ->
+                disconnect(app, config, rn)
+            }
+            if (evicted) LOG.info("Repository[${repositoryName}] evicted after being idle since ${new Date(lastUsed)}")
+            evicted
+        } catch (Exception e) {
+            LOG.error("Could not evict repository '${repositoryName}'", e)
+            false
+        }
+    }
+
+    private void runBootstrap(GriffonApplication app, String repositoryName, Repository repository, Closure hook) {
+        if (CircuitBreakers.instance.breakerFor(repositoryName)) {
+            // an open breaker would reject the hook while a broken repository is rebuilt
+            hook(repositoryName, repository)
+        } else {
+            resolveCarbonadoProvider(app).withCarbonado(repositoryName, hook)
+        }
+    }
+
+    private void startHealthChecks(GriffonApplication app, ConfigObject config, String repositoryName, Repository repository) {
+        CircuitBreaker breaker = CircuitBreakers.instance.configure(repositoryName,
+            (config.failureThreshold ?: 5) as int,
+            (config.openTimeout ?: 30000L) as long,
+            (config.trialCalls ?: 3) as int,
+            { String rn, CircuitBreaker.State from, CircuitBreaker.State to ->
+                app.event('CarbonadoCircuitChange', [rn, from, to])
+            } as CircuitBreaker.Listener)
+        long interval = (config.interval ?: 10000L) as long
+        int timeout = (config.timeout ?: 5) as int
+        int rebuildAfter = config.rebuildAfter instanceof Number ? config.rebuildAfter as int : 3
+        healthCheckers[repositoryName] = new HealthChecker(repositoryName, repository, pluginPools(repository), breaker, interval, timeout, rebuildAfter, { String rn ->
+            rebuild(app, rn)
+        } as HealthChecker.Rebuilder)
+    }
+
+    // health checks bypass the pools built by the plugin, see HealthChecker
+    private Map<Repository, MeteredPoolingDataSource> pluginPools(Repository repository) {
+        Map<Repository, MeteredPoolingDataSource> pools = new IdentityHashMap<Repository, MeteredPoolingDataSource>()
+        ShardingCapability sharding = repository.getCapability(ShardingCapability)
+        List<Repository> repositories = sharding ? (0..<sharding.shardCount).collect { sharding.getShard(it) } : [repository]
+        for (Repository candidate : repositories) {
+            Repository target = candidate
+            while (target instanceof DelegatingRepository) target = target.delegate
+            if (target.metaClass.respondsTo(target, 'getDataSource') && target.dataSource instanceof MeteredPoolingDataSource) {
+                pools[candidate] = target.dataSource
+            }
         }
-        builder.build()
+        pools
+    }
+
+    // discards the idle connections of plugin managed pools, reconnects any other repository
+    private void rebuild(GriffonApplication app, String repositoryName) {
+        Repository repository = RepositoryHolder.instance.getRepository(repositoryName)
+        if (repository == null) return
+        Repository target = repository
+        while (target instanceof DelegatingRepository) target = target.delegate
+        if (target.metaClass.respondsTo(target, 'getDataSource')) {
+            DataSource dataSource = target.dataSource
+            if (dataSource instanceof MeteredPoolingDataSource) {
+                LOG.info("Repository[${repositoryName}] discarding idle pooled connections")
+                dataSource.clear()
+                return
+            }
+            if (!dataSourceFactories.containsKey(repositoryName)) return
+        }
+        LOG.warn("Repository[${repositoryName}] keeps failing its health checks, reconnecting")
+        ConfigObject config = createConfig(app)
+        try {
+            disconnectRepository(app, config, repositoryName, true)
+        } catch (Exception e) {
+            LOG.warn("Repository[${repositoryName}] did not disconnect cleanly", e)
+            RepositoryHolder.instance.disconnectRepository(repositoryName)
+        }
+        try {
+            connect(app, config, repositoryName)
+        } catch (Exception e) {
+            // the next call let through by the breaker connects again
+            LOG.error("Repository[${repositoryName}] could not reconnect", e)
+        }
+    }
+
+    private Repository createChangeFeedRepository(GriffonApplication app, ConfigObject config, String repositoryName, Repository repository) {
+        List<Class<? extends Storable>> types = loadStorableTypes(config.types, repositoryName, 'changeFeed.types')
+        long window = (config.window ?: 250L) as long
+        int maxBatchSize = (config.maxBatchSize ?: 1000) as int
+        new ChangeFeedRepository(repository, types, window, maxBatchSize, { String rn, List<StorableChange> changes ->
+            app.event('CarbonadoChanges', [rn, changes])
+        } as ChangeFeedRepository.Listener)
     }
 
     private void stopCarbonado(ConfigObject config, String repositoryName, Repository repository) {
-        switch(config.type) {
+        if (repository instanceof WriteBehindRepository) {
+            repository.drain((config.writeBehind.drainTimeout ?: 30000L) as long)
+            repository = repository.delegate
+        }
+        if (repository instanceof ChangeFeedRepository) {
+            repository.stopPublishing()
+            repository = repository.delegate
+        }
+        stopCarbonado(config.type, config, repositoryName, repository)
+    }
+
+    private void stopCarbonado(String type, ConfigObject config, String repositoryName, Repository repository) {
+        switch(type) {
+            case 'cached':
+                CacheCapability cache = repository.getCapability(CacheCapability)
+                LOG.info("Repository[${repositoryName}] cache hits: ${cache.hitCount}, misses: ${cache.missCount}, evictions: ${cache.evictionCount}")
+                cache.invalidateAll()
+                stopCarbonado(cachedBackingType(config, repositoryName), config, repositoryName, repository.delegate)
+                break
+            case 'replicated':
+                LOG.info("Repository[${repositoryName}] resync repairs: ${repository.repairCount}, failures: ${repository.failureCount}, lag: ${repository.replicationLag}ms")
+                repository.stopResync((config.replicated.resync.stopTimeout ?: 10000L) as long)
+                Repository master = repository.masterRepository
+                // closes the replica along with the master, then releases the master's resources
+                repository.delegate.close()
+                if (replicatedType(config, repositoryName, 'master', 'jdbc', ['jdbc', 'bdb']) == 'jdbc') {
+                    destroyDataSource(repositoryName, master.dataSource)
+                }
+                break
+            case 'sharded':
+                int index = 0
+                shardConfigs(config, repositoryName).each { String shardName, ConfigObject shardConfig ->
+                    Repository shard = repository.getShard(index++)
+                    try {
+                        stopCarbonado(shardConfig, "${repositoryName}.${shardName}".toString(), shard)
+                    } catch (Exception e) {
+                        LOG.error("Could not disconnect shard '${shardName}' of repository '${repositoryName}'", e)
+                    }
+                }
+                // the shards have been closed above
+                repository.stopQuerying()
+                break
+            case 'scratch':
+                repository.close()
+                File directory = scratchDirectories.remove(repositoryName)
+                if (directory && !directory.deleteDir()) {
+                    LOG.warn("Repository[${repositoryName}] could not delete ${directory}")
+                }
+                break
             case 'jdbc':
+                if (repository instanceof ReadReplicaRepository) {
+                    repository.stopChecking()
+                    List<ConfigObject> replicaConfigs = replicaConfigs(config.jdbc)
+                    repository.replicas.eachWithIndex { Repository replica, int index ->
+                        try {
+                            disconnectJDBCRepository(replicaConfigs[index], replicaName(repositoryName, index), replica)
+                        } catch (Exception e) {
+                            LOG.error("Could not disconnect replica ${index + 1} of repository '${repositoryName}'", e)
+                        }
+                    }
+                    repository = repository.delegate
+                }
                 disconnectJDBCRepository(config.jdbc, repositoryName, repository)
                 break
-            /*    
             case 'bdb':
-                disconnectBDBRepository(config, repositoryName, repository)
+                disconnectBDBRepository(config.bdb, repositoryName, repository)
                 break
-            case 'map':
             default:
-                disconnectMapRepository(config, repositoryName, repository)
-            */
+                repository.close()
         }
     }
 
-    private DataSource createDataSource(ConfigObject config) {
-        Class.forName(config.driverClassName.toString())
-        ObjectPool connectionPool = new GenericObjectPool(null)
-        if (config.pool) {
-            if (config.pool.maxWait != null) connectionPool.maxWait = config.pool.maxWait
-            if (config.pool.maxIdle != null) connectionPool.maxIdle = config.pool.maxIdle
-            if (config.pool.maxActive != null) connectionPool.maxActive = config.pool.maxActive
+    private DataSource createDataSource(ConfigObject config, String repositoryName) {
+        // a data source supplied by the application is neither pooled nor closed by this plugin
+        if (config.dataSource instanceof DataSource) return config.dataSource
+        DataSourceFactory factory = resolveDataSourceFactory(config, repositoryName)
+        DataSource dataSource = factory.createDataSource(repositoryName, config)
+        dataSourceFactories[repositoryName] = factory
+        dataSource
+    }
+
+    private DataSourceFactory resolveDataSourceFactory(ConfigObject config, String repositoryName) {
+        def factory = config.dataSourceFactory
+        if (factory instanceof CharSequence) factory = Class.forName(factory.toString(), true, getClass().classLoader)
+        if (factory instanceof Class) factory = factory.newInstance()
+        if (factory instanceof DataSourceFactory) return factory
+        if (factory) {
+            throw new IllegalArgumentException("Repository[${repositoryName}].jdbc.dataSourceFactory must implement ${DataSourceFactory.name}")
         }
+        DefaultDataSourceFactory.instance
+    }
 
-        String url = config.url.toString()
-        String username = config.username.toString()
-        String password = config.password.toString()
-        ConnectionFactory connectionFactory = null
-        if (username) {
-            connectionFactory = new DriverManagerConnectionFactory(url, username, password)
-        } else {
-            connectionFactory = new DriverManagerConnectionFactory(url, null)
+    private void destroyDataSource(String repositoryName, DataSource dataSource) {
+        DataSourceFactory factory = dataSourceFactories.remove(repositoryName)
+        try {
+            factory?.destroyDataSource(repositoryName, dataSource)
+        } catch (Exception e) {
+            LOG.warn("Repository[${repositoryName}] could not close its connection pool", e)
         }
-        PoolableConnectionFactory poolableConnectionFactory = new PoolableConnectionFactory(connectionFactory, connectionPool, null, null, false, true)
-        new PoolingDataSource(connectionPool)
     }
 
     private void createSchema(ConfigObject config, String repositoryName, DataSource dataSource) {
@@ -202,14 +966,22 @@ final class CarbonadoConnector {
         }
 
         boolean tokenizeddl = config.tokenizeddl ?: false
-        withSql(dataSource) { sql ->
-            if (!tokenizeddl) {
-                sql.execute(ddl.text)
-            } else {
-                ddl.text.split(';').each { stmnt ->
-                    if (stmnt?.trim()) sql.execute(stmnt + ';')
-                }
+        if (!tokenizeddl) {
+            withSql(dataSource) { sql -> sql.execute(ddl.text) }
+            return
+        }
+
+        int batchSize = (config.schema?.batchSize ?: DDLExecutor.DEFAULT_BATCH_SIZE) as int
+        DDLExecutor executor = new DDLExecutor(batchSize, { long count ->
+            LOG.info("DataSource[${repositoryName}] executed ${count} statements from ${ddl}")
+        } as DDLExecutor.ProgressListener)
+        Connection connection = dataSource.getConnection()
+        try {
+            ddl.withReader('UTF-8') { Reader reader ->
+                executor.execute(connection, new BufferedReader(reader))
             }
+        } finally {
+            connection.close()
         }
     }
 
@@ -231,15 +1003,58 @@ final class CarbonadoConnector {
         }
     }
 
+    private void disconnectBDBRepository(ConfigObject config, String repositoryName, Repository repository) {
+        long timeout = (config.shutdown?.timeout ?: 30000L) as long
+        boolean checkpoint = config.shutdown?.checkpoint instanceof Boolean ? config.shutdown.checkpoint : true
+        boolean cleanLog = config.shutdown?.cleanLog instanceof Boolean ? config.shutdown.cleanLog : true
+
+        Throwable failure = null
+        Thread closer = new Thread({
+            try {
+                CheckpointCapability checkpointer = repository.getCapability(CheckpointCapability)
+                if (cleanLog) {
+                    def environment = repository.getCapability(EnvironmentCapability)?.environment
+                    if (environment?.respondsTo('cleanLog')) {
+                        int cleaned = 0
+                        while (environment.cleanLog() > 0) cleaned++
+                        if (LOG.debugEnabled) LOG.debug("Repository[${repositoryName}] cleaned log in ${cleaned} passes")
+                    }
+                }
+                // a checkpoint after cleaning lets obsolete log files be deleted
+                // and saves recovery work on the next startup
+                if (checkpoint || cleanLog) checkpointer?.forceCheckpoint()
+                repository.close()
+            } catch (Throwable t) {
+                failure = t
+            }
+        } as Runnable, "carbonado-${repositoryName}-shutdown")
+        closer.daemon = true
+        closer.start()
+        closer.join(timeout)
+        if (closer.alive) {
+            LOG.warn("Repository[${repositoryName}] did not shut down within ${timeout}ms, recovery may be needed on next startup")
+        } else if (failure) {
+            LOG.error("Repository[${repositoryName}] failed to shut down cleanly", failure)
+        }
+    }
+
     private void disconnectJDBCRepository(ConfigObject config, String repositoryName, Repository repository) {
+        DataSource dataSource = repository.dataSource
+        if (!dataSourceFactories.containsKey(repositoryName)) {
+            // the application owns both the data source and the database
+            repository.close()
+            return
+        }
         Connection connection = null
         try {
-            connection = repository.dataSource.getConnection()
+            connection = dataSource.getConnection()
             if (connection.metaData.databaseProductName == 'HSQL Database Engine') {
                 connection.createStatement().executeUpdate('SHUTDOWN')
             }
         } finally {
             connection?.close()
+            repository.close()
+            destroyDataSource(repositoryName, dataSource)
         }
     }
 }
\ No newline at end of file
@@ -16,10 +16,15 @@
 
 package griffon.plugins.carbonado;
 
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.IsolationLevel;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Storable;
 import griffon.util.CallableWithArgs;
 import groovy.lang.Closure;
 
 import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * @author Andres Almiray
@@ -52,4 +57,88 @@ public class CarbonadoContributionAdapter implements CarbonadoContributionHandle
     public <R> R withCarbonado(String repositoryName, CallableWithArgs<R> callable) {
         return provider.withCarbonado(repositoryName, callable);
     }
-}
\ No newline at end of file
+
+    public <R> R withCarbonado(RepositoryCallback<R> callback) {
+        return withCarbonado(DEFAULT, callback);
+    }
+
+    public <R> R withCarbonado(String repositoryName, RepositoryCallback<R> callback) {
+        return provider.withCarbonado(repositoryName, callback);
+    }
+
+    public <R> Future<R> withCarbonadoAsync(Closure<R> closure) {
+        return withCarbonadoAsync(DEFAULT, closure);
+    }
+
+    public <R> Future<R> withCarbonadoAsync(String repositoryName, Closure<R> closure) {
+        return provider.withCarbonadoAsync(repositoryName, closure);
+    }
+
+    public <R> Future<R> withCarbonadoAsync(RepositoryCallback<R> callback) {
+        return withCarbonadoAsync(DEFAULT, callback);
+    }
+
+    public <R> Future<R> withCarbonadoAsync(String repositoryName, RepositoryCallback<R> callback) {
+        return provider.withCarbonadoAsync(repositoryName, callback);
+    }
+
+    public <R> Future<R> withCarbonadoAsync(String repositoryName, RepositoryCallback<R> callback, AsyncResultHandler<R> handler) {
+        return provider.withCarbonadoAsync(repositoryName, callback, handler);
+    }
+
+    public <R> R withCarbonadoTransaction(IsolationLevel isolationLevel, Closure<R> closure) {
+        return withCarbonadoTransaction(DEFAULT, isolationLevel, closure);
+    }
+
+    public <R> R withCarbonadoTransaction(String repositoryName, IsolationLevel isolationLevel, Closure<R> closure) {
+        return provider.withCarbonadoTransaction(repositoryName, isolationLevel, closure);
+    }
+
+    public <R> R withCarbonadoTransaction(IsolationLevel isolationLevel, RepositoryCallback<R> callback) {
+        return withCarbonadoTransaction(DEFAULT, isolationLevel, callback);
+    }
+
+    public <R> R withCarbonadoTransaction(String repositoryName, IsolationLevel isolationLevel, RepositoryCallback<R> callback) {
+        return provider.withCarbonadoTransaction(repositoryName, isolationLevel, callback);
+    }
+
+    public <R> R withCarbonadoReadOnly(Closure<R> closure) {
+        return withCarbonadoReadOnly(DEFAULT, closure);
+    }
+
+    public <R> R withCarbonadoReadOnly(String repositoryName, Closure<R> closure) {
+        return provider.withCarbonadoReadOnly(repositoryName, closure);
+    }
+
+    public <R> R withCarbonadoReadOnly(RepositoryCallback<R> callback) {
+        return withCarbonadoReadOnly(DEFAULT, callback);
+    }
+
+    public <R> R withCarbonadoReadOnly(String repositoryName, RepositoryCallback<R> callback) {
+        return provider.withCarbonadoReadOnly(repositoryName, callback);
+    }
+
+    public <S> Future<Long> withCarbonadoStream(RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler) {
+        return withCarbonadoStream(DEFAULT, callback, pageSize, handler);
+    }
+
+    public <S> Future<Long> withCarbonadoStream(String repositoryName, RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler) {
+        return provider.withCarbonadoStream(repositoryName, callback, pageSize, handler);
+    }
+
+    public <S extends Storable> Query<S> withQuery(Class<S> type, String filter, String... orderings) {
+        return withQuery(DEFAULT, type, filter, orderings);
+    }
+
+    public <S extends Storable> Query<S> withQuery(String repositoryName, Class<S> type, String filter, String... orderings) {
+        return provider.withQuery(repositoryName, type, filter, orderings);
+    }
+
+    public <S extends Storable, R> R withQuery(Class<S> type, String filter, String[] orderings, QueryCallback<S, R> callback) {
+        return withQuery(DEFAULT, type, filter, orderings, callback);
+    }
+
+    public <S extends Storable, R> R withQuery(String repositoryName, Class<S> type, String filter, String[] orderings, QueryCallback<S, R> callback) {
+        return provider.withQuery(repositoryName, type, filter, orderings, callback);
+    }
+}
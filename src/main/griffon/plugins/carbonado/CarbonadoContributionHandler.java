@@ -16,9 +16,15 @@
 
 package griffon.plugins.carbonado;
 
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.IsolationLevel;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Storable;
 import griffon.util.CallableWithArgs;
 import groovy.lang.Closure;
 
+import java.util.concurrent.Future;
+
 /**
  * @author Andres Almiray
  */
@@ -34,4 +40,46 @@ public interface CarbonadoContributionHandler {
     <R> R withCarbonado(CallableWithArgs<R> callable);
 
     <R> R withCarbonado(String repositoryName, CallableWithArgs<R> callable);
-}
\ No newline at end of file
+
+    <R> R withCarbonado(RepositoryCallback<R> callback);
+
+    <R> R withCarbonado(String repositoryName, RepositoryCallback<R> callback);
+
+    <R> Future<R> withCarbonadoAsync(Closure<R> closure);
+
+    <R> Future<R> withCarbonadoAsync(String repositoryName, Closure<R> closure);
+
+    <R> Future<R> withCarbonadoAsync(RepositoryCallback<R> callback);
+
+    <R> Future<R> withCarbonadoAsync(String repositoryName, RepositoryCallback<R> callback);
+
+    <R> Future<R> withCarbonadoAsync(String repositoryName, RepositoryCallback<R> callback, AsyncResultHandler<R> handler);
+
+    <R> R withCarbonadoTransaction(IsolationLevel isolationLevel, Closure<R> closure);
+
+    <R> R withCarbonadoTransaction(String repositoryName, IsolationLevel isolationLevel, Closure<R> closure);
+
+    <R> R withCarbonadoTransaction(IsolationLevel isolationLevel, RepositoryCallback<R> callback);
+
+    <R> R withCarbonadoTransaction(String repositoryName, IsolationLevel isolationLevel, RepositoryCallback<R> callback);
+
+    <R> R withCarbonadoReadOnly(Closure<R> closure);
+
+    <R> R withCarbonadoReadOnly(String repositoryName, Closure<R> closure);
+
+    <R> R withCarbonadoReadOnly(RepositoryCallback<R> callback);
+
+    <R> R withCarbonadoReadOnly(String repositoryName, RepositoryCallback<R> callback);
+
+    <S> Future<Long> withCarbonadoStream(RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler);
+
+    <S> Future<Long> withCarbonadoStream(String repositoryName, RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler);
+
+    <S extends Storable> Query<S> withQuery(Class<S> type, String filter, String... orderings);
+
+    <S extends Storable> Query<S> withQuery(String repositoryName, Class<S> type, String filter, String... orderings);
+
+    <S extends Storable, R> R withQuery(Class<S> type, String filter, String[] orderings, QueryCallback<S, R> callback);
+
+    <S extends Storable, R> R withQuery(String repositoryName, Class<S> type, String filter, String[] orderings, QueryCallback<S, R> callback);
+}
@@ -16,6 +16,7 @@
 
 package griffon.plugins.carbonado
 
+import com.amazon.carbonado.IsolationLevel
 import griffon.util.CallableWithArgs
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
@@ -43,5 +44,68 @@ final class CarbonadoEnhancer {
         mc.withCarbonado << {String repositoryName, CallableWithArgs callable ->
             provider.withCarbonado(repositoryName, callable)
         }
+        mc.withCarbonado << {RepositoryCallback callback ->
+            provider.withCarbonado(DEFAULT, callback)
+        }
+        mc.withCarbonado << {String repositoryName, RepositoryCallback callback ->
+            provider.withCarbonado(repositoryName, callback)
+        }
+        mc.withCarbonadoAsync = {Closure closure ->
+            provider.withCarbonadoAsync(DEFAULT, closure)
+        }
+        mc.withCarbonadoAsync << {String repositoryName, Closure closure ->
+            provider.withCarbonadoAsync(repositoryName, closure)
+        }
+        mc.withCarbonadoAsync << {RepositoryCallback callback ->
+            provider.withCarbonadoAsync(DEFAULT, callback)
+        }
+        mc.withCarbonadoAsync << {String repositoryName, RepositoryCallback callback ->
+            provider.withCarbonadoAsync(repositoryName, callback)
+        }
+        mc.withCarbonadoAsync << {String repositoryName, RepositoryCallback callback, AsyncResultHandler handler ->
+            provider.withCarbonadoAsync(repositoryName, callback, handler)
+        }
+        mc.withCarbonadoTransaction = {IsolationLevel isolationLevel, Closure closure ->
+            provider.withCarbonadoTransaction(DEFAULT, isolationLevel, closure)
+        }
+        mc.withCarbonadoTransaction << {String repositoryName, IsolationLevel isolationLevel, Closure closure ->
+            provider.withCarbonadoTransaction(repositoryName, isolationLevel, closure)
+        }
+        mc.withCarbonadoTransaction << {IsolationLevel isolationLevel, RepositoryCallback callback ->
+            provider.withCarbonadoTransaction(DEFAULT, isolationLevel, callback)
+        }
+        mc.withCarbonadoTransaction << {String repositoryName, IsolationLevel isolationLevel, RepositoryCallback callback ->
+            provider.withCarbonadoTransaction(repositoryName, isolationLevel, callback)
+        }
+        mc.withCarbonadoReadOnly = {Closure closure ->
+            provider.withCarbonadoReadOnly(DEFAULT, closure)
+        }
+        mc.withCarbonadoReadOnly << {String repositoryName, Closure closure ->
+            provider.withCarbonadoReadOnly(repositoryName, closure)
+        }
+        mc.withCarbonadoReadOnly << {RepositoryCallback callback ->
+            provider.withCarbonadoReadOnly(DEFAULT, callback)
+        }
+        mc.withCarbonadoReadOnly << {String repositoryName, RepositoryCallback callback ->
+            provider.withCarbonadoReadOnly(repositoryName, callback)
+        }
+        mc.withCarbonadoStream = {RepositoryCallback callback, int pageSize, PageHandler handler ->
+            provider.withCarbonadoStream(DEFAULT, callback, pageSize, handler)
+        }
+        mc.withCarbonadoStream << {String repositoryName, RepositoryCallback callback, int pageSize, PageHandler handler ->
+            provider.withCarbonadoStream(repositoryName, callback, pageSize, handler)
+        }
+        mc.withQuery = {Class type, String filter, String... orderings ->
+            provider.withQuery(DEFAULT, type, filter, orderings)
+        }
+        mc.withQuery << {String repositoryName, Class type, String filter, String... orderings ->
+            provider.withQuery(repositoryName, type, filter, orderings)
+        }
+        mc.withQuery << {Class type, String filter, String[] orderings, QueryCallback callback ->
+            provider.withQuery(DEFAULT, type, filter, orderings, callback)
+        }
+        mc.withQuery << {String repositoryName, Class type, String filter, String[] orderings, QueryCallback callback ->
+            provider.withQuery(repositoryName, type, filter, orderings, callback)
+        }
     }
 }
\ No newline at end of file
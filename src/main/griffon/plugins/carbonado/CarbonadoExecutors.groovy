@@ -0,0 +1,181 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import griffon.core.GriffonApplication
+import griffon.core.UIThreadManager
+import griffon.util.ApplicationHolder
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+
+import static griffon.util.GriffonNameUtils.isBlank
+
+/**
+ * Holds one bounded executor per repository, used by the
+ * {@code withCarbonadoAsync} family of methods. Executors are sized from the
+ * {@code async} block of each repository configuration; a full queue either
+ * rejects new work or runs it on the submitting thread, unless that thread
+ * is the UI thread. Cursor streams are always rejected rather than run on
+ * the submitting thread.
+ *
+ * @author Andres Almiray
+ */
+class CarbonadoExecutors {
+    private static final String DEFAULT = 'default'
+    private static final Logger LOG = LoggerFactory.getLogger(CarbonadoExecutors)
+    private static final int DEFAULT_QUEUE_SIZE = 100
+    private final ConcurrentMap<String, ThreadPoolExecutor> executors = new ConcurrentHashMap<String, ThreadPoolExecutor>()
+    private volatile boolean closed
+
+    private static final CarbonadoExecutors INSTANCE
+
+    static {
+        INSTANCE = new CarbonadoExecutors()
+    }
+
+    static CarbonadoExecutors getInstance() {
+        INSTANCE
+    }
+
+    private CarbonadoExecutors() {}
+
+    ExecutorService executorFor(String repositoryName) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT
+        ThreadPoolExecutor executor = executors.get(repositoryName)
+        if (executor == null) {
+            if (closed) throw new RejectedExecutionException("Executors are shut down, refusing work for repository '$repositoryName'")
+            // threads are started lazily, losing a race costs nothing
+            ThreadPoolExecutor newExecutor = createExecutor(repositoryName)
+            executor = executors.putIfAbsent(repositoryName, newExecutor)
+            if (executor == null) {
+                executor = newExecutor
+            } else {
+                newExecutor.shutdown()
+            }
+        }
+        executor
+    }
+
+    public <R> Future<R> submit(String repositoryName, Callable<R> callable) {
+        executorFor(repositoryName).submit(callable)
+    }
+
+    public <R> Future<R> submit(final String repositoryName, final Callable<R> callable, final AsyncResultHandler<R> handler) {
+        if (handler == null) return submit(repositoryName, callable)
+        executorFor(repositoryName).submit(new Callable<R>() {
+            R call() {
+                try {
+                    final R result = callable.call()
+                    UIThreadManager.instance.executeAsync { handler.onResult(repositoryName, result) }
+                    return result
+                } catch (Throwable t) {
+                    UIThreadManager.instance.executeAsync { handler.onError(repositoryName, t) }
+                    throw t
+                }
+            }
+        })
+    }
+
+    /**
+     * Starts reading a cursor stream on the executor of the given repository.
+     * A full queue rejects the stream whatever the rejection policy: a stream
+     * waits on the UI thread to handle its pages, so running it on the
+     * submitting thread could block that thread for good.
+     */
+    void stream(String repositoryName, CursorStream<?> stream) {
+        executorFor(repositoryName).execute(stream)
+    }
+
+    /**
+     * Stops accepting work for the given repository and cancels the work
+     * still queued, which would otherwise connect the repository again.
+     * Work already running is left to complete.
+     */
+    void shutdown(String repositoryName) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT
+        ThreadPoolExecutor executor = executors.remove(repositoryName)
+        if (executor == null) return
+        executor.shutdown()
+        List<Runnable> pending = []
+        executor.queue.drainTo(pending)
+        for (Runnable runnable : pending) {
+            if (runnable instanceof Future) runnable.cancel(false)
+        }
+        if (pending && LOG.debugEnabled) LOG.debug("Cancelled ${pending.size()} pending calls of repository '$repositoryName'")
+    }
+
+    /**
+     * Shuts down every executor. Further asynchronous calls are rejected.
+     */
+    void shutdownAll() {
+        closed = true
+        for (String repositoryName : new ArrayList<String>(executors.keySet())) {
+            shutdown(repositoryName)
+        }
+    }
+
+    private ThreadPoolExecutor createExecutor(final String repositoryName) {
+        GriffonApplication app = ApplicationHolder.application
+        ConfigObject config = CarbonadoConnector.instance.narrowConfig(CarbonadoConnector.instance.createConfig(app), repositoryName) ?: new ConfigObject()
+
+        int poolSize = (config.async?.poolSize ?: defaultPoolSize(config)) as int
+        int queueSize = (config.async?.queueSize ?: DEFAULT_QUEUE_SIZE) as int
+        RejectedExecutionHandler rejectionHandler = config.async?.rejection == 'callerRuns' ?
+            new CallerRunsPolicy() : new ThreadPoolExecutor.AbortPolicy()
+        if (LOG.debugEnabled) LOG.debug("Creating executor for repository '$repositoryName' with poolSize=$poolSize, queueSize=$queueSize")
+
+        final AtomicInteger threadCount = new AtomicInteger()
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(queueSize),
+            new ThreadFactory() {
+                Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "carbonado-${repositoryName}-${threadCount.incrementAndGet()}")
+                    thread.daemon = true
+                    thread
+                }
+            },
+            rejectionHandler)
+        executor.allowCoreThreadTimeOut(true)
+        executor
+    }
+
+    /**
+     * Runs rejected work on the submitting thread, unless that thread is the
+     * UI thread, which must never wait on a repository, or the work is a
+     * cursor stream, which waits on the UI thread.
+     */
+    private static class CallerRunsPolicy implements RejectedExecutionHandler {
+        void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            if (runnable instanceof CursorStream) {
+                throw new RejectedExecutionException('Executor queue is full, refusing to read a cursor stream on the calling thread')
+            }
+            if (UIThreadManager.instance.isUIThread()) {
+                throw new RejectedExecutionException('Executor queue is full, refusing to run a repository call on the UI thread')
+            }
+            if (!executor.isShutdown()) runnable.run()
+        }
+    }
+
+    private int defaultPoolSize(ConfigObject config) {
+        // match the connection pool so queued work waits here rather than on the pool
+        if (config.type == 'jdbc') return (config.jdbc?.pool?.maxActive ?: 8) as int
+        Runtime.runtime.availableProcessors()
+    }
+}
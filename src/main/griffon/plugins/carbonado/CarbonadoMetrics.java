@@ -0,0 +1,195 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import griffon.core.GriffonApplication;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@link RepositoryMetrics} per repository name, optionally
+ * registering each one as an MBean and publishing periodic
+ * {@code CarbonadoMetrics} application events.
+ *
+ * @author Andres Almiray
+ */
+public final class CarbonadoMetrics {
+    private static final Logger LOG = LoggerFactory.getLogger(CarbonadoMetrics.class);
+    private static final String JMX_DOMAIN = "griffon.plugins.carbonado";
+    /**
+     * Milliseconds of calls reported latencies cover when neither a window
+     * nor a publishing interval is configured.
+     */
+    public static final long DEFAULT_WINDOW = 60000L;
+    private static final CarbonadoMetrics INSTANCE;
+
+    static {
+        INSTANCE = new CarbonadoMetrics();
+    }
+
+    public static CarbonadoMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentMap<String, RepositoryMetrics> metrics = new ConcurrentHashMap<String, RepositoryMetrics>();
+    private volatile boolean enabled;
+    private volatile boolean jmx;
+    private volatile long window = DEFAULT_WINDOW;
+    private ScheduledExecutorService publisher;
+
+    private CarbonadoMetrics() {}
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public synchronized void enable(boolean registerMBeans) {
+        enable(registerMBeans, DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window milliseconds of calls the latencies of repositories
+     *               measured from now on cover, 0 to cover every call
+     */
+    public synchronized void enable(boolean registerMBeans, long window) {
+        enabled = true;
+        this.window = window;
+        jmx = registerMBeans;
+        if (jmx) {
+            for (RepositoryMetrics m : metrics.values()) {
+                registerMBean(m);
+            }
+        }
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    public RepositoryMetrics metricsFor(String repositoryName) {
+        RepositoryMetrics m = metrics.get(repositoryName);
+        if (m == null) {
+            RepositoryMetrics newMetrics = new RepositoryMetrics(repositoryName, window);
+            m = metrics.putIfAbsent(repositoryName, newMetrics);
+            if (m == null) {
+                m = newMetrics;
+                if (jmx) registerMBean(m);
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Drops the metrics of a disconnected repository, along with those of
+     * its shards and replicas, whose names extend its own with a dot, and
+     * unregisters their MBeans.
+     */
+    public void remove(String repositoryName) {
+        String prefix = repositoryName + ".";
+        for (RepositoryMetrics m : metrics.values()) {
+            String name = m.getRepositoryName();
+            if (name.equals(repositoryName) || name.startsWith(prefix)) {
+                // unregistered first, so that metrics created again for the name can register
+                if (jmx) unregisterMBean(m);
+                metrics.remove(name, m);
+            }
+        }
+    }
+
+    public List<RepositoryMetrics> getAllMetrics() {
+        return Collections.unmodifiableList(new ArrayList<RepositoryMetrics>(metrics.values()));
+    }
+
+    /**
+     * Publishes a {@code CarbonadoMetrics} event every {@code interval}
+     * milliseconds. The single event argument is a list with one map per
+     * repository, see {@link RepositoryMetrics#toMap()}. Latencies cover the
+     * window given to {@link #enable(boolean, long)}, which is best set to
+     * the interval so that each event reports the calls since the previous one.
+     */
+    public synchronized void startPublishing(final GriffonApplication app, long interval) {
+        if (publisher != null || interval <= 0) return;
+        publisher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "carbonado-metrics");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        publisher.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                List<Map<String, Object>> snapshot = new ArrayList<Map<String, Object>>();
+                for (RepositoryMetrics m : metrics.values()) {
+                    snapshot.add(m.toMap());
+                }
+                List<Object> args = new ArrayList<Object>();
+                args.add(snapshot);
+                app.event("CarbonadoMetrics", args);
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (publisher != null) {
+            publisher.shutdownNow();
+            publisher = null;
+        }
+        if (jmx) {
+            for (RepositoryMetrics m : metrics.values()) {
+                unregisterMBean(m);
+            }
+        }
+        enabled = false;
+    }
+
+    private static ObjectName objectNameFor(RepositoryMetrics m) throws Exception {
+        return new ObjectName(JMX_DOMAIN + ":type=Repository,name=" + ObjectName.quote(m.getRepositoryName()));
+    }
+
+    private static void registerMBean(RepositoryMetrics m) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectNameFor(m);
+            if (!server.isRegistered(name)) server.registerMBean(m, name);
+        } catch (Exception e) {
+            LOG.warn("Could not register metrics MBean for repository '" + m.getRepositoryName() + "'", e);
+        }
+    }
+
+    private static void unregisterMBean(RepositoryMetrics m) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = objectNameFor(m);
+            if (server.isRegistered(name)) server.unregisterMBean(name);
+        } catch (Exception e) {
+            LOG.warn("Could not unregister metrics MBean for repository '" + m.getRepositoryName() + "'", e);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.*;
+import com.amazon.carbonado.filter.Filter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Repository decorator that records inserts, updates and deletes of
+ * selected storable types and hands them to a {@link Listener} in batches.
+ * <p>
+ * Changes made inside a transaction entered through this repository are
+ * held until the outermost transaction commits and dropped if it exits
+ * without committing. Changes made outside transactions are held until
+ * the write, and the transaction Carbonado runs it in, has committed.
+ * Writes made on the wrapped repository itself are recorded as their
+ * triggers run, before that transaction commits. Committed changes are gathered for {@code window}
+ * milliseconds, or until {@code maxBatchSize} storables have changed, with
+ * successive changes to the same primary key folded into one.
+ *
+ * @author Andres Almiray
+ */
+public class ChangeFeedRepository extends DelegatingRepository {
+    private static final Logger LOG = LoggerFactory.getLogger(ChangeFeedRepository.class);
+
+    public interface Listener {
+        void changed(String repositoryName, List<StorableChange> changes);
+    }
+
+    private final Set<Class<?>> types;
+    private final int maxBatchSize;
+    private final Listener listener;
+    private final ConcurrentMap<Class<?>, Storage<?>> storages = new ConcurrentHashMap<Class<?>, Storage<?>>();
+    private final ThreadLocal<Scope> scopes = new ThreadLocal<Scope>();
+    private final ScheduledExecutorService publisher;
+    private LinkedHashMap<StorableKey, StorableChange> window = new LinkedHashMap<StorableKey, StorableChange>();
+    private boolean earlyPublishScheduled;
+
+    /**
+     * @param types        storable types to record, all of them if empty
+     * @param window       milliseconds changes are gathered before being published
+     * @param maxBatchSize changed storables that cause an early publication
+     */
+    public ChangeFeedRepository(Repository delegate, Collection<Class<? extends Storable>> types, long window, int maxBatchSize, Listener listener) {
+        super(delegate);
+        this.types = new HashSet<Class<?>>(types);
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.listener = listener;
+        this.publisher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "carbonado-" + getName() + "-changes");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long interval = Math.max(1L, window);
+        publisher.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                publish();
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <S extends Storable> Storage<S> storageFor(Class<S> type) throws SupportException, RepositoryException {
+        if (!types.isEmpty() && !types.contains(type)) return super.storageFor(type);
+        Storage<S> storage = (Storage<S>) storages.get(type);
+        if (storage == null) {
+            Storage<S> backing = super.storageFor(type);
+            storage = new ChangeFeedStorage<S>(type, backing);
+            Storage<S> previous = (Storage<S>) storages.putIfAbsent(type, storage);
+            if (previous != null) {
+                storage = previous;
+            } else {
+                backing.addTrigger(new ChangeTrigger<S>());
+            }
+        }
+        return storage;
+    }
+
+    @Override
+    public Transaction enterTransaction() {
+        return new ScopedTransaction(super.enterTransaction());
+    }
+
+    @Override
+    public Transaction enterTransaction(IsolationLevel level) {
+        return new ScopedTransaction(super.enterTransaction(level));
+    }
+
+    @Override
+    public Transaction enterTopTransaction(IsolationLevel level) {
+        return new ScopedTransaction(super.enterTopTransaction(level), true);
+    }
+
+    /**
+     * Publishes pending changes and stops publishing. The wrapped repository
+     * is left open.
+     */
+    public void stopPublishing() {
+        publisher.shutdown();
+        try {
+            publisher.awaitTermination(5L, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        publish();
+    }
+
+    @Override
+    public void close() {
+        stopPublishing();
+        super.close();
+    }
+
+    private void record(StorableChange change) {
+        Scope scope = scopes.get();
+        if (scope != null) {
+            scope.record(change);
+        } else {
+            committed(Collections.singletonMap(StorableKey.of(change.getStorable()), change));
+        }
+    }
+
+    /**
+     * Starts gathering the changes of a write made outside transactions,
+     * returning {@code null} when inside one.
+     */
+    private Scope enterImplicit() {
+        if (scopes.get() != null) return null;
+        Scope scope = new Scope(null);
+        scopes.set(scope);
+        return scope;
+    }
+
+    // the write has returned, so its implicit transaction has committed
+    private boolean implicitCommit(Scope scope, boolean written) {
+        if (scope != null && !scope.changes.isEmpty()) {
+            committed(new LinkedHashMap<StorableKey, StorableChange>(scope.changes));
+        }
+        return written;
+    }
+
+    private void exitImplicit(Scope scope) {
+        if (scope != null) scopes.remove();
+    }
+
+    private void committed(Map<StorableKey, StorableChange> changes) {
+        boolean publishEarly = false;
+        synchronized (this) {
+            fold(window, changes);
+            if (window.size() >= maxBatchSize && !earlyPublishScheduled) {
+                earlyPublishScheduled = true;
+                publishEarly = true;
+            }
+        }
+        if (publishEarly) {
+            try {
+                publisher.execute(new Runnable() {
+                    public void run() {
+                        publish();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // stopping, the final publication takes care of it
+            }
+        }
+    }
+
+    private void publish() {
+        List<StorableChange> changes;
+        synchronized (this) {
+            earlyPublishScheduled = false;
+            if (window.isEmpty()) return;
+            changes = new ArrayList<StorableChange>(window.values());
+            window = new LinkedHashMap<StorableKey, StorableChange>();
+        }
+        try {
+            listener.changed(getName(), Collections.unmodifiableList(changes));
+        } catch (RuntimeException e) {
+            LOG.warn("Repository[" + getName() + "] change listener failed", e);
+        }
+    }
+
+    private static void fold(Map<StorableKey, StorableChange> into, Map<StorableKey, StorableChange> changes) {
+        for (Map.Entry<StorableKey, StorableChange> entry : changes.entrySet()) {
+            StorableChange previous = into.remove(entry.getKey());
+            StorableChange folded = previous != null ? previous.then(entry.getValue()) : entry.getValue();
+            if (folded != null) into.put(entry.getKey(), folded);
+        }
+    }
+
+    private static final class Scope {
+        private final Scope parent;
+        private final LinkedHashMap<StorableKey, StorableChange> changes = new LinkedHashMap<StorableKey, StorableChange>();
+
+        private Scope(Scope parent) {
+            this.parent = parent;
+        }
+
+        private void record(StorableChange change) {
+            fold(changes, Collections.singletonMap(StorableKey.of(change.getStorable()), change));
+        }
+    }
+
+    private final class ScopedTransaction implements Transaction {
+        private final Transaction delegate;
+        private final Scope scope;
+        private final boolean top;
+
+        private ScopedTransaction(Transaction delegate) {
+            this(delegate, false);
+        }
+
+        private ScopedTransaction(Transaction delegate, boolean top) {
+            this.delegate = delegate;
+            this.top = top;
+            this.scope = new Scope(scopes.get());
+            scopes.set(scope);
+        }
+
+        public void commit() throws PersistException {
+            delegate.commit();
+            if (scope.changes.isEmpty()) return;
+            // a top transaction commits independently of the enclosing one
+            if (scope.parent != null && !top) {
+                fold(scope.parent.changes, scope.changes);
+            } else {
+                committed(new LinkedHashMap<StorableKey, StorableChange>(scope.changes));
+            }
+            scope.changes.clear();
+        }
+
+        public void exit() throws PersistException {
+            try {
+                delegate.exit();
+            } finally {
+                if (scopes.get() == scope) {
+                    if (scope.parent != null) {
+                        scopes.set(scope.parent);
+                    } else {
+                        scopes.remove();
+                    }
+                }
+                scope.changes.clear();
+            }
+        }
+
+        public void setForUpdate(boolean forUpdate) {
+            delegate.setForUpdate(forUpdate);
+        }
+
+        public boolean isForUpdate() {
+            return delegate.isForUpdate();
+        }
+
+        public void setDesiredLockTimeout(int timeout, TimeUnit unit) {
+            delegate.setDesiredLockTimeout(timeout, unit);
+        }
+
+        public IsolationLevel getIsolationLevel() {
+            return delegate.getIsolationLevel();
+        }
+
+        public void detach() {
+            delegate.detach();
+        }
+
+        public void attach() {
+            delegate.attach();
+        }
+
+        public boolean preCommit() throws PersistException {
+            return delegate.preCommit();
+        }
+    }
+
+    private final class ChangeFeedStorage<S extends Storable> extends DelegatingStorage<S> {
+        private final Storage<S> backing;
+
+        private ChangeFeedStorage(Class<S> type, Storage<S> backing) throws SupportException {
+            super(ChangeFeedRepository.this, type);
+            this.backing = backing;
+        }
+
+        @Override
+        protected Storage<S> storageOf(S storable) {
+            return backing;
+        }
+
+        @Override
+        public boolean doTryInsert(S storable) throws PersistException {
+            Scope scope = enterImplicit();
+            try {
+                return implicitCommit(scope, super.doTryInsert(storable));
+            } finally {
+                exitImplicit(scope);
+            }
+        }
+
+        @Override
+        public boolean doTryUpdate(S storable) throws PersistException {
+            Scope scope = enterImplicit();
+            try {
+                return implicitCommit(scope, super.doTryUpdate(storable));
+            } finally {
+                exitImplicit(scope);
+            }
+        }
+
+        @Override
+        public boolean doTryDelete(S storable) throws PersistException {
+            Scope scope = enterImplicit();
+            try {
+                return implicitCommit(scope, super.doTryDelete(storable));
+            } finally {
+                exitImplicit(scope);
+            }
+        }
+
+        @Override
+        protected void deleteAll(List<Query<S>> queries) throws PersistException {
+            Scope scope = enterImplicit();
+            try {
+                super.deleteAll(queries);
+                implicitCommit(scope, true);
+            } finally {
+                exitImplicit(scope);
+            }
+        }
+
+        public Query<S> query() throws FetchException {
+            return query(backing.query());
+        }
+
+        public Query<S> query(String filter) throws FetchException {
+            return query(backing.query(filter));
+        }
+
+        public Query<S> query(Filter<S> filter) throws FetchException {
+            return query(backing.query(filter));
+        }
+
+        public void truncate() throws PersistException {
+            Scope scope = enterImplicit();
+            try {
+                backing.truncate();
+                implicitCommit(scope, true);
+            } finally {
+                exitImplicit(scope);
+            }
+        }
+
+        public boolean addTrigger(Trigger<? super S> trigger) {
+            return backing.addTrigger(trigger);
+        }
+
+        public boolean removeTrigger(Trigger<? super S> trigger) {
+            return backing.removeTrigger(trigger);
+        }
+
+        private Query<S> query(Query<S> query) {
+            return new DelegatingQuery<S>(this, Collections.singletonList(query), null);
+        }
+    }
+
+    private final class ChangeTrigger<S extends Storable> extends Trigger<S> {
+        @Override
+        public void afterInsert(S storable, Object state) {
+            record(new StorableChange(StorableChange.Kind.INSERTED, storable.copy()));
+        }
+
+        @Override
+        public void afterTryInsert(S storable, Object state) {
+            record(new StorableChange(StorableChange.Kind.INSERTED, storable.copy()));
+        }
+
+        @Override
+        public void afterUpdate(S storable, Object state) {
+            record(new StorableChange(StorableChange.Kind.UPDATED, storable.copy()));
+        }
+
+        @Override
+        public void afterTryUpdate(S storable, Object state) {
+            record(new StorableChange(StorableChange.Kind.UPDATED, storable.copy()));
+        }
+
+        @Override
+        public void afterDelete(S storable, Object state) {
+            record(new StorableChange(StorableChange.Kind.DELETED, storable.copy()));
+        }
+
+        @Override
+        public void afterTryDelete(S storable, Object state) {
+            record(new StorableChange(StorableChange.Kind.DELETED, storable.copy()));
+        }
+    }
+}
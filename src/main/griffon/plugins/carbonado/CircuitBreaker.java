@@ -0,0 +1,221 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.FetchTimeoutException;
+import com.amazon.carbonado.PersistException;
+import com.amazon.carbonado.PersistTimeoutException;
+import com.amazon.carbonado.RepositoryException;
+
+import java.sql.SQLException;
+
+/**
+ * Guards calls to a repository that may become unreachable.
+ * <p>
+ * While {@code CLOSED} calls go through and consecutive failures are counted;
+ * reaching {@code failureThreshold} opens the breaker, as does a failed
+ * health check. While {@code OPEN} calls fail right away with a
+ * {@link CarbonadoException}. After {@code openTimeout} milliseconds, or as
+ * soon as a health check passes, the breaker turns {@code HALF_OPEN} and lets
+ * up to {@code trialCalls} calls through at a time; that many successful
+ * trials close it, a single failed one opens it again.
+ * <p>
+ * Only failures that point at the repository being unreachable are counted:
+ * SQL errors and plain fetch or persist exceptions, including timeouts.
+ * Constraint violations, missing rows and the like are not.
+ *
+ * @author Andres Almiray
+ */
+public final class CircuitBreaker {
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    public interface Listener {
+        void stateChanged(String repositoryName, State from, State to);
+    }
+
+    private final String repositoryName;
+    private final int failureThreshold;
+    private final long openTimeout;
+    private final int trialCalls;
+    private final Listener listener;
+
+    private volatile State state = State.CLOSED;
+    private volatile int failures;
+    private long openedAt;
+    private int trialsInFlight;
+    private int trialSuccesses;
+
+    CircuitBreaker(String repositoryName, int failureThreshold, long openTimeout, int trialCalls, Listener listener) {
+        this.repositoryName = repositoryName;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openTimeout = openTimeout;
+        this.trialCalls = Math.max(1, trialCalls);
+        this.listener = listener;
+    }
+
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Admits a call, failing fast if the breaker is open.
+     *
+     * @return whether the call is a trial, to be passed back to
+     *         {@link #success(boolean)} or {@link #failure(boolean, Throwable)}
+     */
+    public boolean acquire() {
+        if (state == State.CLOSED) return false;
+        State from = null;
+        try {
+            synchronized (this) {
+                if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openTimeout) {
+                    from = transition(State.HALF_OPEN);
+                }
+                switch (state) {
+                    case CLOSED:
+                        return false;
+                    case HALF_OPEN:
+                        if (trialsInFlight < trialCalls) {
+                            trialsInFlight++;
+                            return true;
+                        }
+                        // falls through when every trial slot is taken
+                    default:
+                        throw new CarbonadoException("Repository '" + repositoryName + "' is unavailable");
+                }
+            }
+        } finally {
+            fire(from, State.HALF_OPEN);
+        }
+    }
+
+    public void success(boolean trial) {
+        if (!trial) {
+            if (failures != 0) failures = 0;
+            return;
+        }
+        State from = null;
+        synchronized (this) {
+            releaseTrial();
+            if (state == State.HALF_OPEN && ++trialSuccesses >= trialCalls) {
+                from = transition(State.CLOSED);
+            }
+        }
+        fire(from, State.CLOSED);
+    }
+
+    /**
+     * Gives back an admitted call that did not reach the guarded repository,
+     * such as a read served by one of its replicas, without recording an
+     * outcome.
+     */
+    public void release(boolean trial) {
+        if (!trial) return;
+        synchronized (this) {
+            releaseTrial();
+        }
+    }
+
+    /**
+     * Records the outcome of a call that threw.
+     *
+     * @param cause the exception thrown, {@code null} if it could not be
+     *              captured, in which case it is counted
+     */
+    public void failure(boolean trial, Throwable cause) {
+        boolean counted = cause == null || isUnavailable(cause);
+        State from = null;
+        State to = State.OPEN;
+        synchronized (this) {
+            if (trial) releaseTrial();
+            if (counted) {
+                if (state == State.HALF_OPEN || (state == State.CLOSED && ++failures >= failureThreshold)) {
+                    from = transition(State.OPEN);
+                }
+            } else if (trial && state == State.HALF_OPEN && ++trialSuccesses >= trialCalls) {
+                // the repository answered, it just did not like the call
+                from = transition(State.CLOSED);
+                to = State.CLOSED;
+            }
+        }
+        fire(from, to);
+    }
+
+    /**
+     * Opens the breaker after a failed health check.
+     */
+    void trip() {
+        State from = null;
+        synchronized (this) {
+            if (state != State.OPEN) {
+                from = transition(State.OPEN);
+            } else {
+                openedAt = System.currentTimeMillis();
+            }
+        }
+        fire(from, State.OPEN);
+    }
+
+    /**
+     * Lets trial calls through after a passed health check.
+     */
+    void probeSucceeded() {
+        State from = null;
+        synchronized (this) {
+            if (state == State.OPEN) from = transition(State.HALF_OPEN);
+        }
+        fire(from, State.HALF_OPEN);
+    }
+
+    private State transition(State to) {
+        State from = state;
+        state = to;
+        failures = 0;
+        trialsInFlight = 0;
+        trialSuccesses = 0;
+        if (to == State.OPEN) openedAt = System.currentTimeMillis();
+        return from;
+    }
+
+    private void fire(State from, State to) {
+        if (from != null && listener != null) listener.stateChanged(repositoryName, from, to);
+    }
+
+    // trials admitted before the last transition no longer hold a slot
+    private void releaseTrial() {
+        if (trialsInFlight > 0) trialsInFlight--;
+    }
+
+    static boolean isUnavailable(Throwable cause) {
+        for (Throwable t = cause; t != null; t = t.getCause()) {
+            if (t instanceof RepositoryException) {
+                Class<?> type = t.getClass();
+                return type == FetchException.class || type == PersistException.class
+                    || t instanceof FetchTimeoutException || t instanceof PersistTimeoutException;
+            }
+            if (t instanceof SQLException) return true;
+            if (t.getCause() == t) break;
+        }
+        return false;
+    }
+}
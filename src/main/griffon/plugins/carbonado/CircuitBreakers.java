@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the {@link CircuitBreaker} of every repository with health checks
+ * enabled. A breaker outlives reconnections of its repository, so that calls
+ * keep failing fast while a broken repository is being rebuilt.
+ *
+ * @author Andres Almiray
+ */
+public final class CircuitBreakers {
+    private static final CircuitBreakers INSTANCE;
+
+    static {
+        INSTANCE = new CircuitBreakers();
+    }
+
+    public static CircuitBreakers getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    private CircuitBreakers() {}
+
+    /**
+     * Returns the breaker guarding the given repository, or {@code null} if
+     * it has no health checks.
+     */
+    public CircuitBreaker breakerFor(String repositoryName) {
+        return breakers.get(repositoryName);
+    }
+
+    /**
+     * Returns the breaker of the given repository, creating it if needed.
+     */
+    CircuitBreaker configure(String repositoryName, int failureThreshold, long openTimeout, int trialCalls, CircuitBreaker.Listener listener) {
+        CircuitBreaker breaker = breakers.get(repositoryName);
+        if (breaker == null) {
+            CircuitBreaker created = new CircuitBreaker(repositoryName, failureThreshold, openTimeout, trialCalls, listener);
+            breaker = breakers.putIfAbsent(repositoryName, created);
+            if (breaker == null) breaker = created;
+        }
+        return breaker;
+    }
+
+    void remove(String repositoryName) {
+        breakers.remove(repositoryName);
+    }
+}
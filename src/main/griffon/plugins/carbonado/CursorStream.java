@@ -0,0 +1,154 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.Repository;
+import griffon.core.UIThreadManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads a cursor on a background thread and hands its contents to a
+ * {@link PageHandler} in the UI thread. At most {@code maxPendingPages}
+ * pages may wait for the UI thread; the reader blocks until one of them has
+ * been handled, which bounds memory regardless of the size of the result.
+ * Cancelling the task interrupts the reader, closes the cursor and
+ * discards pages not yet handled.
+ *
+ * @author Andres Almiray
+ */
+final class CursorStream<S> extends FutureTask<Long> {
+    static final int DEFAULT_MAX_PENDING_PAGES = 2;
+
+    CursorStream(CarbonadoProvider provider, String repositoryName, RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler) {
+        this(new Reader<S>(provider, repositoryName, callback, pageSize, handler, DEFAULT_MAX_PENDING_PAGES));
+    }
+
+    private CursorStream(Reader<S> reader) {
+        super(reader);
+        reader.stream = this;
+    }
+
+    private static final class Reader<S> implements Callable<Long> {
+        private final CarbonadoProvider provider;
+        private final String repositoryName;
+        private final RepositoryCallback<Cursor<S>> callback;
+        private final int pageSize;
+        private final PageHandler<S> handler;
+        private final Semaphore pendingPages;
+        private CursorStream<S> stream;
+        private long count;
+
+        private Reader(CarbonadoProvider provider, String repositoryName, RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler, int maxPendingPages) {
+            this.provider = provider;
+            this.repositoryName = repositoryName;
+            this.callback = callback;
+            this.pageSize = Math.max(1, pageSize);
+            this.handler = handler;
+            this.pendingPages = new Semaphore(maxPendingPages);
+        }
+
+        public Long call() throws Exception {
+            try {
+                // reading within the callback keeps the repository in use until the cursor is exhausted
+                provider.withCarbonado(repositoryName, new RepositoryCallback<Object>() {
+                    public Object call(String repositoryName, Repository repository) {
+                        try {
+                            read(callback.call(repositoryName, repository));
+                        } catch (RuntimeException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            throw new Escape(e);
+                        }
+                        return null;
+                    }
+                });
+            } catch (Escape e) {
+                // cancelled while waiting for the UI thread
+                if (e.getCause() instanceof InterruptedException) return count;
+                fail(e.getCause());
+                throw (Exception) e.getCause();
+            } catch (Exception e) {
+                fail(e);
+                throw e;
+            }
+            complete(count);
+            return count;
+        }
+
+        private void read(Cursor<S> cursor) throws Exception {
+            try {
+                List<S> page = new ArrayList<S>(pageSize);
+                while (!stream.isCancelled() && cursor.hasNext()) {
+                    page.add(cursor.next());
+                    if (page.size() == pageSize) {
+                        deliver(page);
+                        count += page.size();
+                        page = new ArrayList<S>(pageSize);
+                    }
+                }
+                if (!page.isEmpty()) {
+                    deliver(page);
+                    count += page.size();
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        private void deliver(final List<S> page) throws InterruptedException {
+            pendingPages.acquire();
+            UIThreadManager.getInstance().executeAsync(new Runnable() {
+                public void run() {
+                    try {
+                        if (!stream.isCancelled()) handler.onPage(repositoryName, page);
+                    } finally {
+                        pendingPages.release();
+                    }
+                }
+            });
+        }
+
+        private void complete(final long count) {
+            UIThreadManager.getInstance().executeAsync(new Runnable() {
+                public void run() {
+                    if (!stream.isCancelled()) handler.onComplete(repositoryName, count);
+                }
+            });
+        }
+
+        private void fail(final Throwable throwable) {
+            if (stream.isCancelled()) return;
+            UIThreadManager.getInstance().executeAsync(new Runnable() {
+                public void run() {
+                    if (!stream.isCancelled()) handler.onError(repositoryName, throwable);
+                }
+            });
+        }
+    }
+
+    // carries checked exceptions out of the repository callback
+    private static final class Escape extends RuntimeException {
+        private Escape(Exception cause) {
+            super(cause);
+        }
+    }
+}
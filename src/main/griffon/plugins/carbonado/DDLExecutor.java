@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Executes a SQL script read from a stream. Statements are sent in JDBC
+ * batches and the whole script runs inside a single transaction, which is
+ * rolled back if any statement fails. Memory use is bounded by the size of
+ * the largest statement, not by the size of the script.
+ *
+ * @author Andres Almiray
+ */
+public class DDLExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(DDLExecutor.class);
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * Notified after every executed batch.
+     */
+    public interface ProgressListener {
+        void onProgress(long statementCount);
+    }
+
+    private final int batchSize;
+    private final ProgressListener listener;
+
+    public DDLExecutor() {
+        this(DEFAULT_BATCH_SIZE, null);
+    }
+
+    public DDLExecutor(int batchSize, ProgressListener listener) {
+        this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+        this.listener = listener;
+    }
+
+    /**
+     * Executes every statement read from {@code reader}.
+     *
+     * @return the number of executed statements
+     */
+    public long execute(Connection connection, Reader reader) throws IOException, SQLException {
+        SqlStatementReader statements = new SqlStatementReader(reader, usesBackslashEscapes(connection));
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        Statement statement = connection.createStatement();
+        long count = 0;
+        int pending = 0;
+        try {
+            String sql;
+            while ((sql = statements.next()) != null) {
+                statement.addBatch(sql);
+                count++;
+                if (++pending == batchSize) {
+                    statement.executeBatch();
+                    pending = 0;
+                    progress(count);
+                }
+            }
+            if (pending > 0) {
+                statement.executeBatch();
+                progress(count);
+            }
+            connection.commit();
+            return count;
+        } catch (SQLException e) {
+            rollback(connection);
+            throw e;
+        } catch (IOException e) {
+            rollback(connection);
+            throw e;
+        } catch (RuntimeException e) {
+            rollback(connection);
+            throw e;
+        } finally {
+            statement.close();
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private static boolean usesBackslashEscapes(Connection connection) throws SQLException {
+        String product = connection.getMetaData().getDatabaseProductName();
+        return product != null && (product.contains("MySQL") || product.contains("MariaDB"));
+    }
+
+    private void progress(long count) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Executed " + count + " statements");
+        }
+        if (listener != null) listener.onProgress(count);
+    }
+
+    private static void rollback(Connection connection) {
+        try {
+            connection.rollback();
+        } catch (SQLException e) {
+            LOG.warn("Could not rollback DDL transaction", e);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import javax.sql.DataSource;
+import java.util.Map;
+
+/**
+ * Creates the connection pools of {@code jdbc} repositories. Set
+ * {@code jdbc.dataSourceFactory} to a class implementing this interface, or
+ * to an instance of it, to replace {@link DefaultDataSourceFactory}.
+ *
+ * @author Andres Almiray
+ */
+public interface DataSourceFactory {
+    /**
+     * @param config the {@code jdbc} block of the repository configuration
+     */
+    DataSource createDataSource(String repositoryName, Map<String, Object> config) throws Exception;
+
+    /**
+     * Releases every connection held by a data source created by this factory.
+     */
+    void destroyDataSource(String repositoryName, DataSource dataSource) throws Exception;
+}
@@ -36,6 +36,11 @@ public class DefaultCarbonadoProvider extends AbstractCarbonadoProvider {
 
     @Override
     protected Repository getRepository(String repositoryName) {
-        return RepositoryHolder.getInstance().fetchRepository(repositoryName);
+        return RepositoryHolder.getInstance().acquireRepository(repositoryName);
+    }
+
+    @Override
+    protected void releaseRepository(String repositoryName, Repository repository) {
+        RepositoryHolder.getInstance().releaseRepository(repositoryName);
     }
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado
+
+import org.slf4j.Logger
+import org.slf4j.LoggerFactory
+
+import javax.sql.DataSource
+
+import org.apache.commons.pool.KeyedObjectPoolFactory
+import org.apache.commons.pool.impl.GenericKeyedObjectPool
+import org.apache.commons.pool.impl.GenericKeyedObjectPoolFactory
+import org.apache.commons.pool.impl.GenericObjectPool
+import org.apache.commons.dbcp.AbandonedConfig
+import org.apache.commons.dbcp.AbandonedObjectPool
+import org.apache.commons.dbcp.ConnectionFactory
+import org.apache.commons.dbcp.DriverManagerConnectionFactory
+import org.apache.commons.dbcp.PoolableConnectionFactory
+
+/**
+ * Builds commons-dbcp pools configured by the {@code pool} block of each
+ * {@code jdbc} repository. Besides sizing, pools may validate connections,
+ * evict idle ones, cache prepared statements per connection and reclaim
+ * connections that were not returned in time.
+ *
+ * @author Andres Almiray
+ */
+@Singleton
+class DefaultDataSourceFactory implements DataSourceFactory {
+    private static final Logger LOG = LoggerFactory.getLogger(DefaultDataSourceFactory)
+
+    DataSource createDataSource(String repositoryName, Map<String, Object> config) {
+        Class.forName(config.driverClassName.toString())
+        Map pool = config.pool instanceof Map ? config.pool : [:]
+
+        AbandonedConfig abandonedConfig = null
+        if (setting(pool, 'removeAbandoned')) {
+            abandonedConfig = new AbandonedConfig()
+            abandonedConfig.removeAbandoned = true
+            abandonedConfig.removeAbandonedTimeout = (setting(pool, 'removeAbandonedTimeout') ?: 300) as int
+            abandonedConfig.logAbandoned = setting(pool, 'logAbandoned') ?: false
+        }
+        GenericObjectPool connectionPool = abandonedConfig ? new AbandonedObjectPool(null, abandonedConfig) : new GenericObjectPool(null)
+        configurePool(connectionPool, pool)
+
+        KeyedObjectPoolFactory statementPoolFactory = null
+        int maxOpenPreparedStatements = (setting(pool, 'maxOpenPreparedStatements') ?: 0) as int
+        if (maxOpenPreparedStatements > 0) {
+            statementPoolFactory = new GenericKeyedObjectPoolFactory(null, -1, GenericKeyedObjectPool.WHEN_EXHAUSTED_FAIL, 0L, 1, maxOpenPreparedStatements)
+        }
+
+        String url = config.url.toString()
+        String username = config.username?.toString()
+        String password = config.password?.toString()
+        ConnectionFactory connectionFactory = null
+        if (username) {
+            connectionFactory = new DriverManagerConnectionFactory(url, username, password)
+        } else {
+            connectionFactory = new DriverManagerConnectionFactory(url, null)
+        }
+        String validationQuery = setting(pool, 'validationQuery')?.toString()
+        PoolableConnectionFactory poolableConnectionFactory = new PoolableConnectionFactory(connectionFactory, connectionPool,
+            statementPoolFactory, validationQuery, false, true, abandonedConfig)
+        if (validationQuery && setting(pool, 'validationTimeout') != null) {
+            poolableConnectionFactory.validationQueryTimeout = setting(pool, 'validationTimeout') as int
+        }
+
+        int size = Math.max((setting(pool, 'minIdle') ?: 0) as int, setting(pool, 'prefill') ? connectionPool.maxIdle : 0)
+        if (size > 0) {
+            if (LOG.debugEnabled) LOG.debug("Prefilling pool of repository '${repositoryName}' with ${size} connections")
+            size.times { connectionPool.addObject() }
+        }
+        MeteredPoolingDataSource dataSource = new MeteredPoolingDataSource(connectionPool, connectionFactory)
+        CarbonadoMetrics.instance.metricsFor(repositoryName).dataSource = dataSource
+        dataSource
+    }
+
+    void destroyDataSource(String repositoryName, DataSource dataSource) {
+        if (dataSource instanceof MeteredPoolingDataSource) dataSource.close()
+    }
+
+    private void configurePool(GenericObjectPool connectionPool, Map pool) {
+        if (setting(pool, 'maxWait') != null) connectionPool.maxWait = setting(pool, 'maxWait') as long
+        if (setting(pool, 'maxIdle') != null) connectionPool.maxIdle = setting(pool, 'maxIdle') as int
+        if (setting(pool, 'minIdle') != null) connectionPool.minIdle = setting(pool, 'minIdle') as int
+        if (setting(pool, 'maxActive') != null) connectionPool.maxActive = setting(pool, 'maxActive') as int
+        if (setting(pool, 'lifo') != null) connectionPool.lifo = setting(pool, 'lifo') as boolean
+        if (setting(pool, 'validationQuery')) {
+            connectionPool.testOnBorrow = setting(pool, 'testOnBorrow') != null ? setting(pool, 'testOnBorrow') as boolean : true
+            connectionPool.testWhileIdle = setting(pool, 'testWhileIdle') ?: false
+        }
+        // the evictor closes idle connections beyond their age limit and tops the pool up to minIdle
+        if (setting(pool, 'evictionInterval')) {
+            connectionPool.timeBetweenEvictionRunsMillis = setting(pool, 'evictionInterval') as long
+            connectionPool.minEvictableIdleTimeMillis = (setting(pool, 'minEvictableIdleTime') ?: 1800000L) as long
+            connectionPool.numTestsPerEvictionRun = (setting(pool, 'numTestsPerEvictionRun') ?: 3) as int
+        }
+    }
+
+    // missing keys of a ConfigObject resolve to empty ConfigObjects rather than null
+    private static setting(Map pool, String name) {
+        def value = pool.get(name)
+        value instanceof Map ? null : value
+    }
+}
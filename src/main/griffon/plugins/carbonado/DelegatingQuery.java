@@ -0,0 +1,365 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.*;
+import com.amazon.carbonado.cursor.LimitCursor;
+import com.amazon.carbonado.cursor.SkipCursor;
+import com.amazon.carbonado.cursor.SortedCursor;
+import com.amazon.carbonado.cursor.TransformedCursor;
+import com.amazon.carbonado.filter.Filter;
+import com.amazon.carbonado.filter.FilterValues;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Query of a {@link DelegatingStorage}, run against one query per backing
+ * storage. Results of several queries are fetched concurrently and merged
+ * following the orderings, if any. Every fetched storable is handed out as
+ * a storable of the delegating storage.
+ * <p>
+ * Controllers are only honored when there is a single backing query.
+ *
+ * @author Andres Almiray
+ */
+final class DelegatingQuery<S extends Storable> implements Query<S> {
+    private static final int PREFETCH = 256;
+
+    private final DelegatingStorage<S> storage;
+    private final List<Query<S>> queries;
+    private final String[] orderings;
+    private final ExecutorService executor;
+
+    /**
+     * @param executor runs the queries when there are several of them, unless
+     *                 the storage fetches them on the calling thread
+     */
+    DelegatingQuery(DelegatingStorage<S> storage, List<Query<S>> queries, ExecutorService executor) {
+        this(storage, queries, new String[0], executor);
+    }
+
+    private DelegatingQuery(DelegatingStorage<S> storage, List<Query<S>> queries, String[] orderings, ExecutorService executor) {
+        this.storage = storage;
+        this.queries = queries;
+        this.orderings = orderings;
+        this.executor = executor;
+    }
+
+    public Class<S> getStorableType() {
+        return storage.getStorableType();
+    }
+
+    public Filter<S> getFilter() {
+        return first().getFilter();
+    }
+
+    public FilterValues<S> getFilterValues() {
+        return first().getFilterValues();
+    }
+
+    public int getBlankParameterCount() {
+        return first().getBlankParameterCount();
+    }
+
+    public Query<S> with(int value) {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.with(value));
+        return derive(result);
+    }
+
+    public Query<S> with(long value) {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.with(value));
+        return derive(result);
+    }
+
+    public Query<S> with(float value) {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.with(value));
+        return derive(result);
+    }
+
+    public Query<S> with(double value) {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.with(value));
+        return derive(result);
+    }
+
+    public Query<S> with(boolean value) {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.with(value));
+        return derive(result);
+    }
+
+    public Query<S> with(char value) {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.with(value));
+        return derive(result);
+    }
+
+    public Query<S> with(byte value) {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.with(value));
+        return derive(result);
+    }
+
+    public Query<S> with(short value) {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.with(value));
+        return derive(result);
+    }
+
+    public Query<S> with(Object value) {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.with(value));
+        return derive(result);
+    }
+
+    public Query<S> withValues(Object... values) {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.withValues(values));
+        return derive(result);
+    }
+
+    public Query<S> and(String filter) throws FetchException {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.and(filter));
+        return derive(result);
+    }
+
+    public Query<S> and(Filter<S> filter) throws FetchException {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.and(filter));
+        return derive(result);
+    }
+
+    public Query<S> or(String filter) throws FetchException {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.or(filter));
+        return derive(result);
+    }
+
+    public Query<S> or(Filter<S> filter) throws FetchException {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.or(filter));
+        return derive(result);
+    }
+
+    public Query<S> not() throws FetchException {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.not());
+        return derive(result);
+    }
+
+    public Query<S> orderBy(String property) throws FetchException {
+        return orderBy(new String[]{property});
+    }
+
+    public Query<S> orderBy(String... properties) throws FetchException {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.orderBy(properties));
+        return new DelegatingQuery<S>(storage, result, properties == null ? new String[0] : properties, executor);
+    }
+
+    public <T extends S> Query<S> after(T start) throws FetchException {
+        List<Query<S>> result = new ArrayList<Query<S>>(queries.size());
+        for (Query<S> query : queries) result.add(query.after(start));
+        return derive(result);
+    }
+
+    public Cursor<S> fetch() throws FetchException {
+        if (queries.size() == 1) return wrap(first().fetch());
+        Comparator<S> comparator = orderings.length > 0 ? SortedCursor.createComparator(getStorableType(), orderings) : null;
+        return wrap(new MergeCursor<S>(queries, comparator, PREFETCH, storage.fetchesOnCallingThread() ? null : executor));
+    }
+
+    public Cursor<S> fetch(Query.Controller controller) throws FetchException {
+        if (queries.size() == 1) return wrap(first().fetch(controller));
+        return fetch();
+    }
+
+    public Cursor<S> fetchSlice(long from, Long to) throws FetchException {
+        if (queries.size() == 1) return wrap(first().fetchSlice(from, to));
+        // the slice is taken from the merged results
+        Cursor<S> cursor = fetch();
+        if (from > 0) cursor = new SkipCursor<S>(cursor, from);
+        if (to != null) cursor = new LimitCursor<S>(cursor, to - from);
+        return cursor;
+    }
+
+    public Cursor<S> fetchSlice(long from, Long to, Query.Controller controller) throws FetchException {
+        if (queries.size() == 1) return wrap(first().fetchSlice(from, to, controller));
+        return fetchSlice(from, to);
+    }
+
+    public <T extends S> Cursor<S> fetchAfter(T start) throws FetchException {
+        return after(start).fetch();
+    }
+
+    public <T extends S> Cursor<S> fetchAfter(T start, Query.Controller controller) throws FetchException {
+        return after(start).fetch(controller);
+    }
+
+    public S loadOne() throws FetchException {
+        S storable = tryLoadOne();
+        if (storable == null) throw new FetchNoneException(toString());
+        return storable;
+    }
+
+    public S loadOne(Query.Controller controller) throws FetchException {
+        return loadOne();
+    }
+
+    public S tryLoadOne() throws FetchException {
+        Cursor<S> cursor = fetch();
+        try {
+            if (!cursor.hasNext()) return null;
+            S storable = cursor.next();
+            if (cursor.hasNext()) throw new FetchMultipleException(toString());
+            return storable;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    public S tryLoadOne(Query.Controller controller) throws FetchException {
+        return tryLoadOne();
+    }
+
+    public void deleteOne() throws PersistException {
+        if (!tryDeleteOne()) throw new PersistNoneException(toString());
+    }
+
+    public void deleteOne(Query.Controller controller) throws PersistException {
+        deleteOne();
+    }
+
+    public boolean tryDeleteOne() throws PersistException {
+        S storable;
+        try {
+            storable = tryLoadOne();
+        } catch (FetchMultipleException e) {
+            throw new PersistMultipleException(toString());
+        } catch (FetchException e) {
+            throw e.toPersistException();
+        }
+        return storable != null && storable.tryDelete();
+    }
+
+    public boolean tryDeleteOne(Query.Controller controller) throws PersistException {
+        return tryDeleteOne();
+    }
+
+    public void deleteAll() throws PersistException {
+        storage.deleteAll(queries);
+    }
+
+    public void deleteAll(Query.Controller controller) throws PersistException {
+        deleteAll();
+    }
+
+    public long count() throws FetchException {
+        long count = 0L;
+        for (Query<S> query : queries) count += query.count();
+        return count;
+    }
+
+    public long count(Query.Controller controller) throws FetchException {
+        if (queries.size() == 1) return first().count(controller);
+        return count();
+    }
+
+    public boolean exists() throws FetchException {
+        for (Query<S> query : queries) {
+            if (query.exists()) return true;
+        }
+        return false;
+    }
+
+    public boolean exists(Query.Controller controller) throws FetchException {
+        if (queries.size() == 1) return first().exists(controller);
+        return exists();
+    }
+
+    public boolean printNative() {
+        boolean printed = false;
+        for (Query<S> query : queries) printed |= query.printNative();
+        return printed;
+    }
+
+    public boolean printNative(Appendable app) throws IOException {
+        return printNative(app, 0);
+    }
+
+    public boolean printNative(Appendable app, int indentLevel) throws IOException {
+        boolean printed = false;
+        for (Query<S> query : queries) printed |= query.printNative(app, indentLevel);
+        return printed;
+    }
+
+    public boolean printPlan() {
+        boolean printed = false;
+        for (Query<S> query : queries) printed |= query.printPlan();
+        return printed;
+    }
+
+    public boolean printPlan(Appendable app) throws IOException {
+        return printPlan(app, 0);
+    }
+
+    public boolean printPlan(Appendable app, int indentLevel) throws IOException {
+        boolean printed = false;
+        for (Query<S> query : queries) printed |= query.printPlan(app, indentLevel);
+        return printed;
+    }
+
+    @Override
+    public int hashCode() {
+        return queries.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DelegatingQuery)) return false;
+        return queries.equals(((DelegatingQuery) o).queries);
+    }
+
+    @Override
+    public String toString() {
+        return first().toString();
+    }
+
+    private Query<S> first() {
+        return queries.get(0);
+    }
+
+    private DelegatingQuery<S> derive(List<Query<S>> result) {
+        return new DelegatingQuery<S>(storage, result, orderings, executor);
+    }
+
+    private Cursor<S> wrap(Cursor<S> cursor) {
+        return new TransformedCursor<S, S>(cursor) {
+            protected S transform(S backing) {
+                return storage.wrap(backing);
+            }
+        };
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.*;
+import com.amazon.carbonado.capability.Capability;
+
+/**
+ * Repository that forwards every call to another repository. Subclasses
+ * override the calls they need to decorate.
+ *
+ * @author Andres Almiray
+ */
+public class DelegatingRepository implements Repository {
+    protected final Repository delegate;
+
+    public DelegatingRepository(Repository delegate) {
+        this.delegate = delegate;
+    }
+
+    public Repository getDelegate() {
+        return delegate;
+    }
+
+    public String getName() {
+        return delegate.getName();
+    }
+
+    public <S extends Storable> Storage<S> storageFor(Class<S> type) throws SupportException, RepositoryException {
+        return delegate.storageFor(type);
+    }
+
+    public Transaction enterTransaction() {
+        return delegate.enterTransaction();
+    }
+
+    public Transaction enterTransaction(IsolationLevel level) {
+        return delegate.enterTransaction(level);
+    }
+
+    public Transaction enterTopTransaction(IsolationLevel level) {
+        return delegate.enterTopTransaction(level);
+    }
+
+    public IsolationLevel getTransactionIsolationLevel() {
+        return delegate.getTransactionIsolationLevel();
+    }
+
+    public <C extends Capability> C getCapability(Class<C> capabilityType) {
+        return delegate.getCapability(capabilityType);
+    }
+
+    public void close() {
+        delegate.close();
+    }
+}
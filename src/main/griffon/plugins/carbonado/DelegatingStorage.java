@@ -0,0 +1,202 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.*;
+import com.amazon.carbonado.gen.DelegateStorableGenerator;
+import com.amazon.carbonado.gen.DelegateSupport;
+import com.amazon.carbonado.gen.MasterFeature;
+import com.amazon.carbonado.sequence.SequenceValueProducer;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Storage of a decorating repository. Its storables hold no data of their
+ * own storage: loads, inserts, updates and deletes are carried out on a
+ * storable of the backing storage returned by {@link #storageOf}, whose
+ * triggers run as usual. Queries and triggers are left to subclasses,
+ * which forward them to the backing storages.
+ *
+ * @author Andres Almiray
+ */
+abstract class DelegatingStorage<S extends Storable> implements Storage<S>, DelegateSupport<S> {
+    private final Repository repository;
+    private final Class<S> type;
+    private final Constructor<? extends S> constructor;
+
+    DelegatingStorage(Repository repository, Class<S> type) throws SupportException {
+        this.repository = repository;
+        this.type = type;
+        Class<? extends S> delegateClass = DelegateStorableGenerator.getDelegateClass(type, EnumSet.noneOf(MasterFeature.class));
+        try {
+            this.constructor = delegateClass.getConstructor(DelegateSupport.class);
+        } catch (NoSuchMethodException e) {
+            throw new SupportException(e);
+        }
+    }
+
+    /**
+     * Returns the backing storage holding the primary key of {@code storable}.
+     */
+    protected abstract Storage<S> storageOf(S storable) throws RepositoryException;
+
+    public Class<S> getStorableType() {
+        return type;
+    }
+
+    public S prepare() {
+        try {
+            return constructor.newInstance(this);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException(e.getCause());
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public boolean doTryLoad(S storable) throws FetchException {
+        S backing;
+        try {
+            backing = storageOf(storable).prepare();
+        } catch (RepositoryException e) {
+            throw e.toFetchException();
+        }
+        storable.copyPrimaryKeyProperties(backing);
+        if (!backing.tryLoad()) return false;
+        loaded(storable, backing);
+        return true;
+    }
+
+    public boolean doTryInsert(S storable) throws PersistException {
+        S backing = backingOf(storable);
+        storable.copyAllProperties(backing);
+        if (!backing.tryInsert()) return false;
+        // sequences and versions are assigned by the backing storage
+        backing.copyUnequalProperties(storable);
+        storable.markAllPropertiesClean();
+        return true;
+    }
+
+    public boolean doTryUpdate(S storable) throws PersistException {
+        S backing = backingOf(storable);
+        storable.copyPrimaryKeyProperties(backing);
+        storable.copyVersionProperty(backing);
+        storable.copyDirtyProperties(backing);
+        if (!backing.tryUpdate()) return false;
+        backing.copyUnequalProperties(storable);
+        storable.markAllPropertiesClean();
+        return true;
+    }
+
+    public boolean doTryDelete(S storable) throws PersistException {
+        S backing = backingOf(storable);
+        storable.copyPrimaryKeyProperties(backing);
+        storable.copyVersionProperty(backing);
+        return backing.tryDelete();
+    }
+
+    /**
+     * Returns a storable of this storage holding the state of {@code backing}.
+     */
+    S wrap(S backing) {
+        S storable = prepare();
+        backing.copyPrimaryKeyProperties(storable);
+        loaded(storable, backing);
+        return storable;
+    }
+
+    /**
+     * Tells whether queries of this storage must fetch their backing queries
+     * on the calling thread, rather than concurrently.
+     */
+    protected boolean fetchesOnCallingThread() {
+        return false;
+    }
+
+    /**
+     * Deletes the storables matched by the backing queries of a query of this
+     * storage.
+     */
+    protected void deleteAll(List<Query<S>> queries) throws PersistException {
+        try {
+            for (Query<S> query : queries) query.deleteAll();
+        } finally {
+            deletedAll();
+        }
+    }
+
+    /**
+     * Called once a query has deleted storables, which runs no delete triggers.
+     */
+    protected void deletedAll() {
+    }
+
+    /**
+     * Copies a storable loaded from a backing storage into {@code storable}.
+     */
+    protected void loaded(S storable, S backing) {
+        // leaves the primary key alone, it cannot be set again once loaded
+        backing.copyUnequalProperties(storable);
+        storable.markAllPropertiesClean();
+    }
+
+    public Repository getRootRepository() {
+        return repository;
+    }
+
+    public boolean isPropertySupported(String propertyName) {
+        return true;
+    }
+
+    // triggers are registered on, and run by, the backing storages
+
+    public Trigger<? super S> getInsertTrigger() {
+        return null;
+    }
+
+    public Trigger<? super S> getUpdateTrigger() {
+        return null;
+    }
+
+    public Trigger<? super S> getDeleteTrigger() {
+        return null;
+    }
+
+    public Trigger<? super S> getLoadTrigger() {
+        return null;
+    }
+
+    public void locallyDisableLoadTrigger() {
+    }
+
+    public void locallyEnableLoadTrigger() {
+    }
+
+    public SequenceValueProducer getSequenceValueProducer(String name) throws PersistException {
+        throw new PersistException("Sequences are assigned by the backing storage of " + type.getName());
+    }
+
+    private S backingOf(S storable) throws PersistException {
+        try {
+            return storageOf(storable).prepare();
+        } catch (RepositoryException e) {
+            throw e.toPersistException();
+        }
+    }
+}
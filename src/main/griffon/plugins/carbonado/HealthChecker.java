@@ -0,0 +1,185 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Transaction;
+import com.amazon.carbonado.repo.jdbc.JDBCConnectionCapability;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Periodically checks that a repository can still reach its storage and
+ * drives its {@link CircuitBreaker} accordingly.
+ * <p>
+ * JDBC repositories are checked by validating a connection, sharded ones by
+ * checking every shard, any other by entering and exiting a transaction.
+ * Repositories backed by a plugin managed pool are checked on a connection
+ * opened outside of it: a pool exhausted by a busy application would
+ * otherwise time the check out and open the breaker on a healthy database.
+ * Checks that take longer than {@code timeout} seconds fail. Every
+ * {@code rebuildAfter} consecutive failures the repository is handed to a
+ * {@link Rebuilder}.
+ *
+ * @author Andres Almiray
+ */
+public final class HealthChecker {
+    private static final Logger LOG = LoggerFactory.getLogger(HealthChecker.class);
+
+    public interface Rebuilder {
+        void rebuild(String repositoryName);
+    }
+
+    private final String repositoryName;
+    private final Repository repository;
+    private final Map<Repository, MeteredPoolingDataSource> pools;
+    private final CircuitBreaker breaker;
+    private final int timeout;
+    private final int rebuildAfter;
+    private final Rebuilder rebuilder;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService prober;
+    private int failedChecks;
+
+    /**
+     * @param pools the plugin managed pool of the repository or of its shards, if any
+     */
+    HealthChecker(String repositoryName, Repository repository, Map<Repository, MeteredPoolingDataSource> pools,
+                  CircuitBreaker breaker, long interval, int timeout, int rebuildAfter, Rebuilder rebuilder) {
+        this.repositoryName = repositoryName;
+        this.repository = repository;
+        this.pools = pools != null ? pools : Collections.<Repository, MeteredPoolingDataSource>emptyMap();
+        this.breaker = breaker;
+        this.timeout = Math.max(1, timeout);
+        this.rebuildAfter = rebuildAfter;
+        this.rebuilder = rebuilder;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(daemon("carbonado-" + repositoryName + "-health"));
+        this.prober = Executors.newSingleThreadExecutor(daemon("carbonado-" + repositoryName + "-probe"));
+        long delay = Math.max(1L, interval);
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                check();
+            }
+        }, delay, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops checking. May be called from the rebuilder.
+     */
+    void stop() {
+        scheduler.shutdown();
+        prober.shutdownNow();
+    }
+
+    private void check() {
+        Future<?> probe = null;
+        Throwable failure = null;
+        try {
+            probe = prober.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    probe(repository, pools, timeout);
+                    return null;
+                }
+            });
+            probe.get(timeout, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            failure = e.getCause();
+        } catch (TimeoutException e) {
+            probe.cancel(true);
+            failure = e;
+        } catch (RejectedExecutionException e) {
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        if (failure == null) {
+            if (failedChecks > 0) {
+                LOG.info("Repository[" + repositoryName + "] passed its health check after " + failedChecks + " failures");
+                failedChecks = 0;
+            }
+            breaker.probeSucceeded();
+            return;
+        }
+
+        if (failedChecks++ == 0) {
+            LOG.warn("Repository[" + repositoryName + "] failed its health check", failure);
+        }
+        breaker.trip();
+        if (rebuildAfter > 0 && failedChecks % rebuildAfter == 0) {
+            try {
+                rebuilder.rebuild(repositoryName);
+            } catch (RuntimeException e) {
+                LOG.error("Repository[" + repositoryName + "] could not be rebuilt", e);
+            }
+        }
+    }
+
+    static void probe(Repository repository, Map<Repository, MeteredPoolingDataSource> pools, int timeout) throws Exception {
+        ShardingCapability sharding = repository.getCapability(ShardingCapability.class);
+        if (sharding != null) {
+            for (int i = 0; i < sharding.getShardCount(); i++) {
+                probe(sharding.getShard(i), pools, timeout);
+            }
+            return;
+        }
+        MeteredPoolingDataSource pool = pools.get(repository);
+        if (pool != null) {
+            Connection connection = pool.openUnpooledConnection();
+            try {
+                validate(connection, timeout, connection.getMetaData().getDatabaseProductName());
+            } finally {
+                connection.close();
+            }
+            return;
+        }
+        JDBCConnectionCapability jdbc = repository.getCapability(JDBCConnectionCapability.class);
+        if (jdbc != null) {
+            Connection connection = jdbc.getConnection();
+            try {
+                validate(connection, timeout, jdbc.getDatabaseProductName());
+            } finally {
+                jdbc.yieldConnection(connection);
+            }
+            return;
+        }
+        Transaction txn = repository.enterTransaction();
+        txn.exit();
+    }
+
+    private static void validate(Connection connection, int timeout, String productName) throws SQLException {
+        if (!connection.isValid(timeout)) {
+            throw new SQLException("Connection to " + productName + " is no longer valid");
+        }
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+}
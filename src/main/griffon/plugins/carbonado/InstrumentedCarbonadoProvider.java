@@ -0,0 +1,262 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.IsolationLevel;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.Storable;
+import griffon.util.CallableWithArgs;
+import groovy.lang.Closure;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+
+import static griffon.util.GriffonNameUtils.isBlank;
+
+/**
+ * Decorates a {@link CarbonadoProvider}, recording the latency and outcome
+ * of every call in {@link CarbonadoMetrics}.
+ *
+ * @author Andres Almiray
+ */
+public class InstrumentedCarbonadoProvider implements CarbonadoProvider {
+    private static final String DEFAULT = "default";
+
+    private final CarbonadoProvider delegate;
+    private final CarbonadoMetrics metrics;
+
+    public InstrumentedCarbonadoProvider(CarbonadoProvider delegate) {
+        this(delegate, CarbonadoMetrics.getInstance());
+    }
+
+    public InstrumentedCarbonadoProvider(CarbonadoProvider delegate, CarbonadoMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    public CarbonadoProvider getDelegate() {
+        return delegate;
+    }
+
+    public <R> R withCarbonado(Closure<R> closure) {
+        return withCarbonado(DEFAULT, closure);
+    }
+
+    public <R> R withCarbonado(String repositoryName, Closure<R> closure) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT;
+        RepositoryMetrics m = metrics.metricsFor(repositoryName);
+        long start = m.start();
+        boolean failed = true;
+        try {
+            R result = delegate.withCarbonado(repositoryName, closure);
+            failed = false;
+            return result;
+        } finally {
+            m.stop(start, failed);
+        }
+    }
+
+    public <R> R withCarbonado(CallableWithArgs<R> callable) {
+        return withCarbonado(DEFAULT, callable);
+    }
+
+    public <R> R withCarbonado(String repositoryName, CallableWithArgs<R> callable) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT;
+        RepositoryMetrics m = metrics.metricsFor(repositoryName);
+        long start = m.start();
+        boolean failed = true;
+        try {
+            R result = delegate.withCarbonado(repositoryName, callable);
+            failed = false;
+            return result;
+        } finally {
+            m.stop(start, failed);
+        }
+    }
+
+    public <R> R withCarbonado(RepositoryCallback<R> callback) {
+        return withCarbonado(DEFAULT, callback);
+    }
+
+    public <R> R withCarbonado(String repositoryName, RepositoryCallback<R> callback) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT;
+        RepositoryMetrics m = metrics.metricsFor(repositoryName);
+        long start = m.start();
+        boolean failed = true;
+        try {
+            R result = delegate.withCarbonado(repositoryName, callback);
+            failed = false;
+            return result;
+        } finally {
+            m.stop(start, failed);
+        }
+    }
+
+    public <R> Future<R> withCarbonadoAsync(Closure<R> closure) {
+        return withCarbonadoAsync(DEFAULT, closure);
+    }
+
+    public <R> Future<R> withCarbonadoAsync(String repositoryName, final Closure<R> closure) {
+        final String name = isBlank(repositoryName) ? DEFAULT : repositoryName;
+        return CarbonadoExecutors.getInstance().submit(name, new Callable<R>() {
+            public R call() {
+                return withCarbonado(name, closure);
+            }
+        });
+    }
+
+    public <R> Future<R> withCarbonadoAsync(RepositoryCallback<R> callback) {
+        return withCarbonadoAsync(DEFAULT, callback);
+    }
+
+    public <R> Future<R> withCarbonadoAsync(String repositoryName, RepositoryCallback<R> callback) {
+        return withCarbonadoAsync(repositoryName, callback, null);
+    }
+
+    public <R> Future<R> withCarbonadoAsync(String repositoryName, final RepositoryCallback<R> callback, AsyncResultHandler<R> handler) {
+        final String name = isBlank(repositoryName) ? DEFAULT : repositoryName;
+        return CarbonadoExecutors.getInstance().submit(name, new Callable<R>() {
+            public R call() {
+                return withCarbonado(name, callback);
+            }
+        }, handler);
+    }
+
+    public <R> R withCarbonadoTransaction(IsolationLevel isolationLevel, Closure<R> closure) {
+        return withCarbonadoTransaction(DEFAULT, isolationLevel, closure);
+    }
+
+    public <R> R withCarbonadoTransaction(String repositoryName, IsolationLevel isolationLevel, Closure<R> closure) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT;
+        RepositoryMetrics m = metrics.metricsFor(repositoryName);
+        long start = m.start();
+        boolean failed = true;
+        try {
+            R result = delegate.withCarbonadoTransaction(repositoryName, isolationLevel, closure);
+            failed = false;
+            return result;
+        } finally {
+            m.stop(start, failed);
+        }
+    }
+
+    public <R> R withCarbonadoTransaction(IsolationLevel isolationLevel, RepositoryCallback<R> callback) {
+        return withCarbonadoTransaction(DEFAULT, isolationLevel, callback);
+    }
+
+    public <R> R withCarbonadoTransaction(String repositoryName, IsolationLevel isolationLevel, RepositoryCallback<R> callback) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT;
+        RepositoryMetrics m = metrics.metricsFor(repositoryName);
+        long start = m.start();
+        boolean failed = true;
+        try {
+            R result = delegate.withCarbonadoTransaction(repositoryName, isolationLevel, callback);
+            failed = false;
+            return result;
+        } finally {
+            m.stop(start, failed);
+        }
+    }
+
+    public <R> R withCarbonadoReadOnly(Closure<R> closure) {
+        return withCarbonadoReadOnly(DEFAULT, closure);
+    }
+
+    public <R> R withCarbonadoReadOnly(String repositoryName, Closure<R> closure) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT;
+        RepositoryMetrics m = metrics.metricsFor(repositoryName);
+        long start = m.start();
+        boolean failed = true;
+        try {
+            R result = delegate.withCarbonadoReadOnly(repositoryName, closure);
+            failed = false;
+            return result;
+        } finally {
+            m.stop(start, failed);
+        }
+    }
+
+    public <R> R withCarbonadoReadOnly(RepositoryCallback<R> callback) {
+        return withCarbonadoReadOnly(DEFAULT, callback);
+    }
+
+    public <R> R withCarbonadoReadOnly(String repositoryName, RepositoryCallback<R> callback) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT;
+        RepositoryMetrics m = metrics.metricsFor(repositoryName);
+        long start = m.start();
+        boolean failed = true;
+        try {
+            R result = delegate.withCarbonadoReadOnly(repositoryName, callback);
+            failed = false;
+            return result;
+        } finally {
+            m.stop(start, failed);
+        }
+    }
+
+    public <S> Future<Long> withCarbonadoStream(RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler) {
+        return withCarbonadoStream(DEFAULT, callback, pageSize, handler);
+    }
+
+    public <S> Future<Long> withCarbonadoStream(String repositoryName, RepositoryCallback<Cursor<S>> callback, int pageSize, PageHandler<S> handler) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT;
+        final RepositoryCallback<Cursor<S>> fetch = callback;
+        final RepositoryMetrics m = metrics.metricsFor(repositoryName);
+        // records the time taken to open the cursor, pages are read afterwards
+        return delegate.withCarbonadoStream(repositoryName, new RepositoryCallback<Cursor<S>>() {
+            public Cursor<S> call(String repositoryName, Repository repository) {
+                long start = m.start();
+                boolean failed = true;
+                try {
+                    Cursor<S> cursor = fetch.call(repositoryName, repository);
+                    failed = false;
+                    return cursor;
+                } finally {
+                    m.stop(start, failed);
+                }
+            }
+        }, pageSize, handler);
+    }
+
+    public <S extends Storable> Query<S> withQuery(Class<S> type, String filter, String... orderings) {
+        return withQuery(DEFAULT, type, filter, orderings);
+    }
+
+    // preparing a query does not run it, hence it is not recorded
+    public <S extends Storable> Query<S> withQuery(String repositoryName, Class<S> type, String filter, String... orderings) {
+        return delegate.withQuery(repositoryName, type, filter, orderings);
+    }
+
+    public <S extends Storable, R> R withQuery(Class<S> type, String filter, String[] orderings, QueryCallback<S, R> callback) {
+        return withQuery(DEFAULT, type, filter, orderings, callback);
+    }
+
+    public <S extends Storable, R> R withQuery(String repositoryName, Class<S> type, String filter, String[] orderings, QueryCallback<S, R> callback) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT;
+        RepositoryMetrics m = metrics.metricsFor(repositoryName);
+        long start = m.start();
+        boolean failed = true;
+        try {
+            R result = delegate.withQuery(repositoryName, type, filter, orderings, callback);
+            failed = false;
+            return result;
+        } finally {
+            m.stop(start, failed);
+        }
+    }
+}
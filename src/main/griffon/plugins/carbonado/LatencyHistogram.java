@@ -0,0 +1,168 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free latency histogram with log-linear buckets (four sub-buckets per
+ * power of two), which keeps percentile estimates within 25% of the actual
+ * value regardless of magnitude.
+ * <p>
+ * Samples are recorded into the current window while figures are read from
+ * the last completed one, so that they describe recent calls rather than
+ * the whole life of the process. Windows roll over on the first record or
+ * read past their end; no figures are reported until the first window
+ * completes, nor after a window without samples. A window of 0 never rolls
+ * over, making the histogram cumulative.
+ *
+ * @author Andres Almiray
+ */
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+    private static final Interval EMPTY = new Interval(0L);
+
+    private final long windowNanos;
+    private final AtomicReference<Interval> current;
+    private volatile Interval completed = EMPTY;
+
+    LatencyHistogram(long windowMillis) {
+        windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0L, windowMillis));
+        current = new AtomicReference<Interval>(new Interval(System.nanoTime()));
+    }
+
+    long getWindowMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(windowNanos);
+    }
+
+    void record(long nanos) {
+        current().record(nanos < 0 ? 0 : nanos);
+    }
+
+    long getCount() {
+        return reported().count.sum();
+    }
+
+    double getMeanMillis() {
+        Interval interval = reported();
+        long n = interval.count.sum();
+        return n == 0 ? 0d : toMillis(interval.total.sum() / n);
+    }
+
+    double getMaxMillis() {
+        return toMillis(reported().max.get());
+    }
+
+    /**
+     * Returns the estimated latency, in milliseconds, below which the given
+     * fraction (0..1) of the samples of the reported window falls.
+     */
+    double getPercentileMillis(double fraction) {
+        Interval interval = reported();
+        long[] snapshot = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = interval.buckets.get(i);
+            n += snapshot[i];
+        }
+        if (n == 0) return 0d;
+        long rank = (long) Math.ceil(fraction * n);
+        if (rank < 1) rank = 1;
+        long seen = 0;
+        long max = interval.max.get();
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return toMillis(Math.min(upperBound(i), max));
+            }
+        }
+        return toMillis(max);
+    }
+
+    void reset() {
+        current.set(new Interval(System.nanoTime()));
+        completed = EMPTY;
+    }
+
+    private Interval reported() {
+        if (windowNanos == 0) return current.get();
+        current();
+        return completed;
+    }
+
+    private Interval current() {
+        Interval interval = current.get();
+        if (windowNanos == 0) return interval;
+        long now = System.nanoTime();
+        long elapsed = now - interval.start;
+        if (elapsed < windowNanos) return interval;
+        // windows keep their cadence unless a whole window went by without a sample
+        boolean consecutive = elapsed < 2 * windowNanos;
+        Interval next = new Interval(consecutive ? interval.start + windowNanos : now);
+        if (current.compareAndSet(interval, next)) {
+            completed = consecutive ? interval : EMPTY;
+            return next;
+        }
+        // another thread rolled over first, samples still being added to the old window are few
+        return current.get();
+    }
+
+    private static int indexFor(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) ((value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+        return exponent * SUB_BUCKETS + subBucket;
+    }
+
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int exponent = index / SUB_BUCKETS;
+        int subBucket = index % SUB_BUCKETS;
+        int shift = exponent - SUB_BUCKET_BITS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+
+    private static final class Interval {
+        private final long start;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final StripedCounter count = new StripedCounter();
+        private final StripedCounter total = new StripedCounter();
+        private final AtomicLong max = new AtomicLong();
+
+        private Interval(long start) {
+            this.start = start;
+        }
+
+        private void record(long nanos) {
+            buckets.incrementAndGet(indexFor(nanos));
+            count.increment();
+            total.add(nanos);
+            long current = max.get();
+            while (nanos > current && !max.compareAndSet(current, nanos)) {
+                current = max.get();
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Cursor;
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.FetchInterruptedException;
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.cursor.AbstractCursor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Cursor over several queries fetched concurrently. Each query is drained
+ * by its own task into a bounded buffer. With a comparator the buffers are
+ * merged in order, assuming each query is sorted the same way; without one
+ * results are returned as they arrive.
+ * <p>
+ * Without an executor the queries are fetched on the calling thread instead,
+ * one cursor per query, so that they take part in its transactions.
+ *
+ * @author Andres Almiray
+ */
+final class MergeCursor<S extends Storable> extends AbstractCursor<S> {
+    private static final Object END = new Object();
+
+    private final Comparator<? super S> comparator;
+    private final List<Source> sources = new ArrayList<Source>();
+    private final List<Future<?>> producers = new ArrayList<Future<?>>();
+    private final Object[] heads;
+    private int remaining;
+    private boolean started;
+    private volatile boolean closed;
+
+    /**
+     * @param comparator order shared by all queries, or {@code null} if unordered
+     * @param prefetch   storables buffered per query
+     * @param executor   fetches the queries, or {@code null} to fetch them on the calling thread
+     */
+    MergeCursor(List<Query<S>> queries, Comparator<? super S> comparator, int prefetch, ExecutorService executor) {
+        this.comparator = comparator;
+        this.remaining = queries.size();
+        this.heads = new Object[queries.size()];
+        if (executor == null) {
+            for (Query<S> query : queries) sources.add(new CursorSource(query));
+            return;
+        }
+        BlockingQueue<Object> shared = comparator == null ? new ArrayBlockingQueue<Object>(prefetch * queries.size()) : null;
+        for (Query<S> query : queries) {
+            BlockingQueue<Object> buffer = shared != null ? shared : new ArrayBlockingQueue<Object>(prefetch);
+            sources.add(new BufferSource(buffer));
+            producers.add(executor.submit(new Producer(query, buffer)));
+        }
+    }
+
+    public boolean hasNext() throws FetchException {
+        if (closed) return false;
+        if (comparator == null) {
+            while (heads[0] == null && remaining > 0) {
+                // a shared buffer serves every index, cursors are drained one after the other
+                Object item = take(heads.length - remaining);
+                if (item == END) {
+                    remaining--;
+                } else {
+                    heads[0] = item;
+                }
+            }
+            return heads[0] != null;
+        }
+
+        if (!started) {
+            for (int i = 0; i < heads.length; i++) fill(i);
+            started = true;
+        }
+        return remaining > 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public S next() throws FetchException {
+        if (!hasNext()) throw new NoSuchElementException();
+        if (comparator == null) {
+            Object item = heads[0];
+            heads[0] = null;
+            return (S) item;
+        }
+
+        int min = -1;
+        for (int i = 0; i < heads.length; i++) {
+            if (heads[i] == null) continue;
+            if (min < 0 || comparator.compare((S) heads[i], (S) heads[min]) < 0) min = i;
+        }
+        Object item = heads[min];
+        fill(min);
+        return (S) item;
+    }
+
+    public void close() {
+        if (closed) return;
+        closed = true;
+        for (Future<?> producer : producers) {
+            producer.cancel(true);
+        }
+        for (Source source : sources) {
+            source.close();
+        }
+    }
+
+    private void fill(int index) throws FetchException {
+        Object item = take(index);
+        if (item == END) {
+            heads[index] = null;
+            remaining--;
+        } else {
+            heads[index] = item;
+        }
+    }
+
+    private Object take(int index) throws FetchException {
+        try {
+            return sources.get(index).take();
+        } catch (FetchException e) {
+            close();
+            throw e;
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private interface Source {
+        Object take() throws FetchException;
+
+        void close();
+    }
+
+    private static final class BufferSource implements Source {
+        private final BlockingQueue<Object> buffer;
+
+        private BufferSource(BlockingQueue<Object> buffer) {
+            this.buffer = buffer;
+        }
+
+        public Object take() throws FetchException {
+            try {
+                Object item = buffer.take();
+                if (item instanceof Failure) {
+                    Throwable cause = ((Failure) item).cause;
+                    if (cause instanceof FetchException) throw (FetchException) cause;
+                    throw new FetchException(cause);
+                }
+                return item;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new FetchInterruptedException(e);
+            }
+        }
+
+        public void close() {
+        }
+    }
+
+    private final class CursorSource implements Source {
+        private final Query<S> query;
+        private Cursor<S> cursor;
+        private boolean done;
+
+        private CursorSource(Query<S> query) {
+            this.query = query;
+        }
+
+        public Object take() throws FetchException {
+            if (done) return END;
+            if (cursor == null) cursor = query.fetch();
+            if (cursor.hasNext()) return cursor.next();
+            close();
+            return END;
+        }
+
+        public void close() {
+            done = true;
+            if (cursor == null) return;
+            try {
+                cursor.close();
+            } catch (FetchException e) {
+                // nothing left to read from it
+            }
+            cursor = null;
+        }
+    }
+
+    private static final class Failure {
+        private final Throwable cause;
+
+        private Failure(Throwable cause) {
+            this.cause = cause;
+        }
+    }
+
+    private final class Producer implements Runnable {
+        private final Query<S> query;
+        private final BlockingQueue<Object> buffer;
+
+        private Producer(Query<S> query, BlockingQueue<Object> buffer) {
+            this.query = query;
+            this.buffer = buffer;
+        }
+
+        public void run() {
+            try {
+                Cursor<S> cursor = query.fetch();
+                try {
+                    while (!closed && cursor.hasNext()) {
+                        buffer.put(cursor.next());
+                    }
+                } finally {
+                    cursor.close();
+                }
+                buffer.put(END);
+            } catch (InterruptedException e) {
+                // closed by the consumer
+            } catch (Throwable t) {
+                try {
+                    if (!closed) buffer.put(new Failure(t));
+                } catch (InterruptedException e) {
+                    // closed by the consumer
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import org.apache.commons.dbcp.ConnectionFactory;
+import org.apache.commons.dbcp.PoolingDataSource;
+import org.apache.commons.pool.ObjectPool;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * {@code PoolingDataSource} that keeps track of how long callers wait for a
+ * pooled connection.
+ *
+ * @author Andres Almiray
+ */
+final class MeteredPoolingDataSource extends PoolingDataSource {
+    private final ObjectPool pool;
+    private final ConnectionFactory connectionFactory;
+    private final LatencyHistogram waitTimes = new LatencyHistogram(CarbonadoMetrics.getInstance().getWindow());
+
+    MeteredPoolingDataSource(ObjectPool pool, ConnectionFactory connectionFactory) {
+        super(pool);
+        this.pool = pool;
+        this.connectionFactory = connectionFactory;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            return super.getConnection();
+        } finally {
+            waitTimes.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Opens a connection that is not taken from the pool, so that health
+     * checks neither wait for nor hold a pooled connection. Closing it
+     * closes the physical connection.
+     */
+    Connection openUnpooledConnection() throws SQLException {
+        return connectionFactory.createConnection();
+    }
+
+    int getNumActive() {
+        return pool.getNumActive();
+    }
+
+    int getNumIdle() {
+        return pool.getNumIdle();
+    }
+
+    LatencyHistogram getWaitTimes() {
+        return waitTimes;
+    }
+
+    /**
+     * Closes idle connections, so that connections broken by an outage are
+     * not handed out once the database is back.
+     */
+    void clear() throws Exception {
+        pool.clear();
+    }
+
+    void close() throws Exception {
+        pool.close();
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import java.util.List;
+
+/**
+ * Receives the results of {@code withCarbonadoStream} inside the UI thread,
+ * one page at a time. No further calls are made once the stream has been
+ * cancelled.
+ *
+ * @author Andres Almiray
+ */
+public interface PageHandler<S> {
+    void onPage(String repositoryName, List<S> page);
+
+    /**
+     * @param count total number of results delivered
+     */
+    void onComplete(String repositoryName, long count);
+
+    void onError(String repositoryName, Throwable throwable);
+}
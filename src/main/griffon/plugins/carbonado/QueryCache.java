@@ -0,0 +1,205 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Query;
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.Storage;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds parsed and planned {@link Query} instances per repository, keyed by
+ * storable type, filter and orderings. Carbonado queries are immutable, so
+ * a cached query may be shared by any number of threads; binding values with
+ * {@code with()} returns a new query that keeps the cached plan.
+ * <p>
+ * Each repository holds at most {@code maxSize} queries, dropping the least
+ * recently used one for every new query beyond that. Queries are spread over
+ * independently locked segments, each one bounded by its share of
+ * {@code maxSize}, so that concurrent lookups seldom contend.
+ *
+ * @author Andres Almiray
+ */
+public final class QueryCache {
+    public static final int DEFAULT_MAX_SIZE = 256;
+    private static final int SEGMENTS = 8;
+    private static final int MIN_SEGMENT_SIZE = 32;
+
+    private static final QueryCache INSTANCE;
+
+    static {
+        INSTANCE = new QueryCache();
+    }
+
+    public static QueryCache getInstance() {
+        return INSTANCE;
+    }
+
+    private final ConcurrentMap<String, Queries> queries = new ConcurrentHashMap<String, Queries>();
+    private final ConcurrentMap<String, Integer> maxSizes = new ConcurrentHashMap<String, Integer>();
+
+    private QueryCache() {}
+
+    public void setMaxSize(String repositoryName, int maxSize) {
+        maxSizes.put(repositoryName, maxSize);
+        queries.remove(repositoryName);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <S extends Storable> Query<S> queryFor(String repositoryName, Repository repository, Class<S> type, String filter, String... orderings) throws RepositoryException {
+        Queries cache = queries.get(repositoryName);
+        if (cache == null || cache.repository != repository) {
+            Integer maxSize = maxSizes.get(repositoryName);
+            Queries created = new Queries(repository, maxSize != null ? maxSize : DEFAULT_MAX_SIZE);
+            if (cache == null) {
+                Queries existing = queries.putIfAbsent(repositoryName, created);
+                cache = existing != null ? existing : created;
+            } else {
+                // drops queries left over by a previous connection of the same name
+                queries.replace(repositoryName, cache, created);
+                cache = created;
+            }
+        }
+
+        Key key = new Key(type, filter, orderings);
+        Segment segment = cache.segmentFor(key);
+        if (segment != null) {
+            Query<S> query = (Query<S>) segment.get(key);
+            if (query != null) return query;
+        }
+
+        // planned outside the lock, a concurrent miss on the same key plans it twice
+        Storage<S> storage = repository.storageFor(type);
+        Query<S> query = filter != null ? storage.query(filter) : storage.query();
+        if (orderings.length > 0) query = query.orderBy(orderings);
+        return segment != null ? (Query<S>) segment.putIfAbsent(key, query) : query;
+    }
+
+    public int size(String repositoryName) {
+        Queries cache = queries.get(repositoryName);
+        return cache != null ? cache.size() : 0;
+    }
+
+    public void clear(String repositoryName) {
+        queries.remove(repositoryName);
+    }
+
+    /**
+     * Drops the queries and the size limit of a disconnected repository.
+     */
+    public void remove(String repositoryName) {
+        queries.remove(repositoryName);
+        maxSizes.remove(repositoryName);
+    }
+
+    public void clearAll() {
+        queries.clear();
+    }
+
+    private static final class Queries {
+        private final Repository repository;
+        private final Segment[] segments;
+
+        private Queries(Repository repository, int maxSize) {
+            this.repository = repository;
+            // small caches keep a single, strictly LRU, segment; the sizes add up to maxSize
+            int count = maxSize < 1 ? 0 : Math.max(1, Math.min(SEGMENTS, maxSize / MIN_SEGMENT_SIZE));
+            this.segments = new Segment[count];
+            for (int i = 0; i < count; i++) {
+                segments[i] = new Segment(maxSize / count + (i < maxSize % count ? 1 : 0));
+            }
+        }
+
+        private Segment segmentFor(Key key) {
+            if (segments.length == 0) return null;
+            int h = key.hashCode();
+            h ^= (h >>> 16);
+            return segments[(h & 0x7fffffff) % segments.length];
+        }
+
+        private int size() {
+            int size = 0;
+            for (Segment segment : segments) size += segment.size();
+            return size;
+        }
+    }
+
+    private static final class Segment {
+        private final LinkedHashMap<Key, Query<?>> entries;
+
+        private Segment(final int maxSize) {
+            this.entries = new LinkedHashMap<Key, Query<?>>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Query<?>> eldest) {
+                    return size() > maxSize;
+                }
+            };
+        }
+
+        synchronized Query<?> get(Key key) {
+            return entries.get(key);
+        }
+
+        synchronized Query<?> putIfAbsent(Key key, Query<?> query) {
+            Query<?> existing = entries.get(key);
+            if (existing != null) return existing;
+            entries.put(key, query);
+            return query;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+    }
+
+    private static final class Key {
+        private final Class<?> type;
+        private final String filter;
+        private final String[] orderings;
+        private final int hash;
+
+        private Key(Class<?> type, String filter, String[] orderings) {
+            this.type = type;
+            this.filter = filter;
+            this.orderings = orderings.clone();
+            int h = type.hashCode();
+            h = 31 * h + (filter != null ? filter.hashCode() : 0);
+            this.hash = 31 * h + Arrays.hashCode(orderings);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return type == other.type &&
+                (filter != null ? filter.equals(other.filter) : other.filter == null) &&
+                Arrays.equals(orderings, other.orderings);
+        }
+    }
+}
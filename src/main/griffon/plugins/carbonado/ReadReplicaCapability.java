@@ -0,0 +1,56 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.capability.Capability;
+
+/**
+ * Read replicas offered by {@code jdbc} repositories configured with
+ * {@code replicas}. {@code withCarbonadoReadOnly} uses it to route work
+ * away from the primary database.
+ * <p>
+ * Replicas failing their health check are left out of the selection until
+ * they pass it again. The primary is selected when no replica is healthy.
+ *
+ * @author Andres Almiray
+ */
+public interface ReadReplicaCapability extends Capability {
+    /**
+     * Selects a healthy replica, falling back to the primary repository.
+     */
+    Repository selectReplica();
+
+    /**
+     * Tells whether a repository returned by {@link #selectReplica()} is a
+     * replica rather than the primary.
+     */
+    boolean isReplica(Repository repository);
+
+    /**
+     * Reports the outcome of work done on a repository returned by
+     * {@link #selectReplica()}. A failure causes the replica to be checked
+     * right away.
+     *
+     * @param elapsedNanos time spent by the work
+     * @param failure      the exception thrown by the work, or {@code null}
+     */
+    void release(Repository replica, long elapsedNanos, Throwable failure);
+
+    int getReplicaCount();
+
+    int getHealthyReplicaCount();
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.capability.Capability;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Wraps the primary {@code jdbc} repository and the repositories built for
+ * each of its read replicas, offering a {@link ReadReplicaCapability}. All
+ * work done through this repository goes to the primary.
+ * <p>
+ * A background thread checks every replica by validating one of its pooled
+ * connections, which also feeds the latency used by the
+ * {@code leastLatency} selection.
+ *
+ * @author Andres Almiray
+ */
+public class ReadReplicaRepository extends DelegatingRepository implements ReadReplicaCapability {
+    private static final Logger LOG = LoggerFactory.getLogger(ReadReplicaRepository.class);
+    // weight given to the newest latency sample
+    private static final double SMOOTHING = 0.2d;
+
+    private final List<Replica> replicas;
+    private final boolean leastLatency;
+    private final int checkTimeout;
+    private final AtomicInteger next = new AtomicInteger();
+    private final ScheduledExecutorService checker;
+
+    /**
+     * @param replicas      replica repositories, in the order they were configured
+     * @param dataSources   the data source of each replica
+     * @param leastLatency  select the replica with the lowest latency instead of round-robin
+     * @param checkInterval milliseconds between health checks
+     * @param checkTimeout  seconds a health check may take
+     */
+    public ReadReplicaRepository(Repository primary, List<Repository> replicas, List<DataSource> dataSources,
+                                 boolean leastLatency, long checkInterval, int checkTimeout) {
+        super(primary);
+        List<Replica> list = new ArrayList<Replica>(replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            list.add(new Replica(replicas.get(i), dataSources.get(i)));
+        }
+        this.replicas = Collections.unmodifiableList(list);
+        this.leastLatency = leastLatency;
+        this.checkTimeout = checkTimeout;
+        this.checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "carbonado-" + getName() + "-replicas");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        checker.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                for (Replica replica : ReadReplicaRepository.this.replicas) {
+                    check(replica);
+                }
+            }
+        }, 0L, Math.max(1L, checkInterval), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public <C extends Capability> C getCapability(Class<C> capabilityType) {
+        if (capabilityType.isInstance(this)) return capabilityType.cast(this);
+        return super.getCapability(capabilityType);
+    }
+
+    public Repository selectReplica() {
+        Replica selected = null;
+        if (leastLatency) {
+            for (Replica replica : replicas) {
+                if (replica.healthy && (selected == null || replica.latency < selected.latency)) {
+                    selected = replica;
+                }
+            }
+        } else {
+            int size = replicas.size();
+            int start = next.getAndIncrement() & Integer.MAX_VALUE;
+            for (int i = 0; i < size && selected == null; i++) {
+                Replica replica = replicas.get((start + i) % size);
+                if (replica.healthy) selected = replica;
+            }
+        }
+        return selected != null ? selected.repository : getDelegate();
+    }
+
+    public boolean isReplica(Repository repository) {
+        return replicaFor(repository) != null;
+    }
+
+    public void release(Repository repository, long elapsedNanos, Throwable failure) {
+        final Replica replica = replicaFor(repository);
+        if (replica == null) return;
+        if (failure == null) {
+            replica.sample(elapsedNanos);
+            return;
+        }
+        try {
+            checker.execute(new Runnable() {
+                public void run() {
+                    check(replica);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // closing
+        }
+    }
+
+    public int getReplicaCount() {
+        return replicas.size();
+    }
+
+    public int getHealthyReplicaCount() {
+        int count = 0;
+        for (Replica replica : replicas) {
+            if (replica.healthy) count++;
+        }
+        return count;
+    }
+
+    public List<Repository> getReplicas() {
+        List<Repository> list = new ArrayList<Repository>(replicas.size());
+        for (Replica replica : replicas) {
+            list.add(replica.repository);
+        }
+        return list;
+    }
+
+    /**
+     * Stops checking replicas. Neither the replicas nor the primary are
+     * closed, so that their data sources can be released first.
+     */
+    public void stopChecking() {
+        checker.shutdownNow();
+    }
+
+    @Override
+    public void close() {
+        stopChecking();
+        for (Replica replica : replicas) {
+            replica.repository.close();
+        }
+        super.close();
+    }
+
+    private Replica replicaFor(Repository repository) {
+        for (Replica replica : replicas) {
+            if (replica.repository == repository) return replica;
+        }
+        return null;
+    }
+
+    private void check(Replica replica) {
+        long start = System.nanoTime();
+        boolean valid = false;
+        Connection connection = null;
+        try {
+            connection = replica.dataSource.getConnection();
+            valid = connection.isValid(checkTimeout);
+        } catch (Throwable t) {
+            // anything escaping would cancel the periodic checks for good
+            if (replica.healthy) {
+                LOG.warn("Repository[" + getName() + "] replica " + replica.repository.getName() + " failed its health check", t);
+            }
+        } finally {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (Throwable t) {
+                    // ignore
+                }
+            }
+        }
+        if (valid) replica.sample(System.nanoTime() - start);
+        if (valid != replica.healthy) {
+            LOG.info("Repository[" + getName() + "] replica " + replica.repository.getName() + (valid ? " is back" : " dropped"));
+            replica.healthy = valid;
+        }
+    }
+
+    private static final class Replica {
+        private final Repository repository;
+        private final DataSource dataSource;
+        private volatile boolean healthy = true;
+        private volatile double latency;
+
+        private Replica(Repository repository, DataSource dataSource) {
+            this.repository = repository;
+            this.dataSource = dataSource;
+        }
+
+        private void sample(long nanos) {
+            // racy updates only lose samples, which is fine for a moving average
+            double current = latency;
+            latency = current == 0d ? nanos : current + SMOOTHING * (nanos - current);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Repository;
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.capability.Capability;
+import com.amazon.carbonado.capability.ResyncCapability;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Repository of type {@code replicated}. Wraps a Carbonado replicated
+ * repository, which reads from the replica and writes through to the
+ * master, and resyncs the configured storable types in the background.
+ * Each type is resynced by one task; {@code parallelism} bounds how many
+ * of them run at the same time.
+ *
+ * @author Andres Almiray
+ */
+public class ReplicatingRepository extends DelegatingRepository implements ReplicationCapability {
+    private static final Logger LOG = LoggerFactory.getLogger(ReplicatingRepository.class);
+
+    private final List<Class<? extends Storable>> types;
+    private final double throttle;
+    private final ScheduledExecutorService executor;
+    private final Map<Class<?>, Long> lastResyncs = new ConcurrentHashMap<Class<?>, Long>();
+    private final StripedCounter repairs = new StripedCounter();
+    private final StripedCounter failures = new StripedCounter();
+    private final ResyncCapability.Listener<Storable> listener = new ResyncCapability.Listener<Storable>() {
+        @Override
+        public void afterInsert(Storable newStorable, Object state) {
+            repairs.increment();
+        }
+
+        @Override
+        public void afterUpdate(Storable newStorable, Object state) {
+            repairs.increment();
+        }
+
+        @Override
+        public void afterDelete(Storable oldStorable, Object state) {
+            repairs.increment();
+        }
+    };
+
+    /**
+     * @param delegate    a repository built by {@code ReplicatedRepositoryBuilder}
+     * @param types       storable types to resync
+     * @param parallelism maximum number of types resynced concurrently
+     * @param throttle    fraction of time spent resyncing, 1.0 for full speed
+     * @param interval    milliseconds between resyncs of a type, 0 to resync once
+     */
+    public ReplicatingRepository(Repository delegate, List<Class<? extends Storable>> types, int parallelism, double throttle, long interval) {
+        super(delegate);
+        if (delegate.getCapability(ResyncCapability.class) == null) {
+            throw new IllegalArgumentException("Repository " + delegate.getName() + " does not support resync");
+        }
+        this.types = new ArrayList<Class<? extends Storable>>(types);
+        this.throttle = throttle;
+        this.executor = Executors.newScheduledThreadPool(Math.max(1, parallelism), new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "carbonado-" + getName() + "-resync-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+
+        for (Class<? extends Storable> type : this.types) {
+            if (interval > 0) {
+                executor.scheduleWithFixedDelay(new ResyncTask(type), 0L, interval, TimeUnit.MILLISECONDS);
+            } else {
+                executor.execute(new ResyncTask(type));
+            }
+        }
+    }
+
+    public Repository getMasterRepository() {
+        return delegate.getCapability(ResyncCapability.class).getMasterRepository();
+    }
+
+    public void resync() {
+        for (Class<? extends Storable> type : types) {
+            executor.execute(new ResyncTask(type));
+        }
+    }
+
+    public long getReplicationLag() {
+        if (types.isEmpty()) return 0L;
+        long oldest = Long.MAX_VALUE;
+        for (Class<? extends Storable> type : types) {
+            long time = getLastResyncTime(type);
+            if (time < 0L) return -1L;
+            oldest = Math.min(oldest, time);
+        }
+        return System.currentTimeMillis() - oldest;
+    }
+
+    public long getLastResyncTime(Class<? extends Storable> type) {
+        Long time = lastResyncs.get(type);
+        return time != null ? time : -1L;
+    }
+
+    public long getRepairCount() {
+        return repairs.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    @Override
+    public <C extends Capability> C getCapability(Class<C> capabilityType) {
+        if (capabilityType.isInstance(this)) return capabilityType.cast(this);
+        return super.getCapability(capabilityType);
+    }
+
+    /**
+     * Stops resyncing, waiting at most {@code timeout} milliseconds for
+     * running resyncs to notice. The wrapped repository is left open.
+     */
+    public void stopResync(long timeout) {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                LOG.warn("Repository[" + getName() + "] resync did not stop within " + timeout + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        stopResync(0L);
+        super.close();
+    }
+
+    private class ResyncTask implements Runnable {
+        private final Class<? extends Storable> type;
+
+        private ResyncTask(Class<? extends Storable> type) {
+            this.type = type;
+        }
+
+        public void run() {
+            long start = System.currentTimeMillis();
+            long repaired = repairs.sum();
+            try {
+                delegate.getCapability(ResyncCapability.class).resync(type, listener, throttle, null);
+                lastResyncs.put(type, start);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug("Repository[" + getName() + "] resynced " + type.getName() + " in " +
+                        (System.currentTimeMillis() - start) + "ms, repairing " + (repairs.sum() - repaired) + " entries");
+                }
+            } catch (RepositoryException e) {
+                failures.increment();
+                LOG.warn("Repository[" + getName() + "] could not resync " + type.getName(), e);
+            } catch (RuntimeException e) {
+                failures.increment();
+                LOG.warn("Repository[" + getName() + "] could not resync " + type.getName(), e);
+            }
+        }
+    }
+}
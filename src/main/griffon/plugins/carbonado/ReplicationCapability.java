@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.capability.Capability;
+
+/**
+ * Background resync offered by repositories of type {@code replicated}.
+ * Obtain it with {@code repository.getCapability(ReplicationCapability)}.
+ * <p>
+ * Writes made through the repository reach master and replica together.
+ * Resyncs repair the replica after writes made to the master by other
+ * processes, hence the lag reported here is the age of the oldest
+ * successful resync among the configured types.
+ *
+ * @author Andres Almiray
+ */
+public interface ReplicationCapability extends Capability {
+    /**
+     * Schedules a resync of every configured type, without waiting for it
+     * to complete.
+     */
+    void resync();
+
+    /**
+     * Returns the milliseconds elapsed since the start of the oldest
+     * successful resync, or {@code -1} if some type has never been resynced.
+     */
+    long getReplicationLag();
+
+    /**
+     * Returns the time the last successful resync of {@code type} started,
+     * or {@code -1} if it has never completed.
+     */
+    long getLastResyncTime(Class<? extends Storable> type);
+
+    /**
+     * Returns the number of replica entries inserted, updated or deleted by
+     * all resyncs so far.
+     */
+    long getRepairCount();
+
+    long getFailureCount();
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2012-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Repository;
+
+/**
+ * Typed alternative to {@code Closure} and {@code CallableWithArgs} for
+ * working with a repository. Arguments are passed directly, which means no
+ * argument array is allocated per call and a single instance may be shared
+ * between threads as long as the implementation itself is stateless.
+ *
+ * @author Andres Almiray
+ */
+public interface RepositoryCallback<R> {
+    R call(String repositoryName, Repository repository);
+}
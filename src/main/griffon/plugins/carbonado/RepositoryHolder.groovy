@@ -22,13 +22,25 @@ import griffon.core.GriffonApplication
 import griffon.util.ApplicationHolder
 import static griffon.util.GriffonNameUtils.isBlank
 
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.atomic.AtomicInteger
+
 /**
+ * Registry of connected repositories. Lookups are lock-free; connecting a
+ * repository is serialized per repository name, see {@link #withLock(String, Closure)}.
+ * <p>
+ * Repositories obtained with {@link #acquireRepository(String)} are counted
+ * as in use until released, and are never evicted while in use.
+ *
  * @author Andres Almiray
  */
 class RepositoryHolder {
     private static final String DEFAULT = 'default'
-    private static final Object[] LOCK = new Object[0]
-    private final Map<String, Repository> repositories = [:]
+    private final ConcurrentMap<String, Repository> repositories = new ConcurrentHashMap<String, Repository>()
+    private final ConcurrentMap<String, Repository> connecting = new ConcurrentHashMap<String, Repository>()
+    private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<String, Object>()
+    private final ConcurrentMap<String, Usage> usages = new ConcurrentHashMap<String, Usage>()
 
     private static final RepositoryHolder INSTANCE
 
@@ -43,34 +55,60 @@ class RepositoryHolder {
     private RepositoryHolder() {}
 
     String[] getRepositoryNames() {
-        List<String> repositoryNames = new ArrayList().addAll(repositories.keySet())
+        List<String> repositoryNames = new ArrayList<String>(repositories.keySet())
         repositoryNames.toArray(new String[repositoryNames.size()])
     }
 
     Repository getRepository(String repositoryName = DEFAULT) {
         if (isBlank(repositoryName)) repositoryName = DEFAULT
-        retrieveRepository(repositoryName)
+        Repository repository = repositories.get(repositoryName)
+        if (repository == null) {
+            // a repository being initialized is only visible to the thread connecting it
+            repository = connecting.get(repositoryName)
+            if (repository != null && !Thread.holdsLock(getLock(repositoryName))) repository = null
+        }
+        repository
     }
 
     void setRepository(String repositoryName = DEFAULT, Repository repository) {
         if (isBlank(repositoryName)) repositoryName = DEFAULT
-        storeRepository(repositoryName, repository)
+        if (repository == null) {
+            repositories.remove(repositoryName)
+        } else {
+            repositories.put(repositoryName, repository)
+        }
+    }
+
+    /**
+     * Makes a repository that is not published yet available to the thread
+     * connecting it, which holds the lock returned by {@link #getLock(String)},
+     * so that BootstrapCarbonado can use it. Pass {@code null} once done.
+     */
+    void setConnectingRepository(String repositoryName, Repository repository) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT
+        if (repository == null) {
+            connecting.remove(repositoryName)
+        } else {
+            connecting.put(repositoryName, repository)
+        }
     }
 
     boolean isRepositoryConnected(String repositoryName) {
         if (isBlank(repositoryName)) repositoryName = DEFAULT
-        retrieveRepository(repositoryName) != null
+        repositories.containsKey(repositoryName)
     }
     
     void disconnectRepository(String repositoryName) {
         if (isBlank(repositoryName)) repositoryName = DEFAULT
-        storeRepository(repositoryName, null)
+        repositories.remove(repositoryName)
     }
 
     Repository fetchRepository(String repositoryName) {
         if (isBlank(repositoryName)) repositoryName = DEFAULT
-        Repository repository = retrieveRepository(repositoryName)
+        Repository repository = getRepository(repositoryName)
         if (repository == null) {
+            // CarbonadoConnector.connect() re-checks under the per-name lock,
+            // so concurrent misses result in a single connection
             GriffonApplication app = ApplicationHolder.application
             ConfigObject config = CarbonadoConnector.instance.createConfig(app)
             repository = CarbonadoConnector.instance.connect(app, config, repositoryName)
@@ -82,15 +120,141 @@ class RepositoryHolder {
         repository
     }
 
-    private Repository retrieveRepository(String repositoryName) {
-        synchronized(LOCK) {
-            repositories[repositoryName]
+    /**
+     * Fetches a repository, connecting it if needed, and counts it as in use
+     * until {@link #releaseRepository(String)} is called.
+     */
+    Repository acquireRepository(String repositoryName) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT
+        Usage usage
+        while (true) {
+            usage = usageFor(repositoryName)
+            int refs = usage.refs.get()
+            if (refs < 0) {
+                Object lock = getLock(repositoryName)
+                // the eviction itself may use the repository, as BootstrapCarbonado.destroy does
+                if (Thread.holdsLock(lock)) return getRepository(repositoryName)
+                // wait for the eviction or disconnection to complete, then connect again
+                synchronized (lock) {}
+                continue
+            }
+            if (!usage.refs.compareAndSet(refs, refs + 1)) continue
+            if (usage.is(usages.get(repositoryName))) break
+            // dropped by a disconnection in the meantime
+            usage.refs.decrementAndGet()
+        }
+        usage.lastUsed = System.currentTimeMillis()
+        try {
+            fetchRepository(repositoryName)
+        } catch (Throwable t) {
+            usage.refs.decrementAndGet()
+            throw t
+        }
+    }
+
+    void releaseRepository(String repositoryName) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT
+        Usage usage = usages.get(repositoryName)
+        if (usage == null) return
+        if (usage.refs.get() < 0 && Thread.holdsLock(getLock(repositoryName))) return
+        usage.lastUsed = System.currentTimeMillis()
+        usage.refs.decrementAndGet()
+    }
+
+    /**
+     * Returns the time a connected repository was last acquired or released,
+     * or {@code -1} if it never was.
+     */
+    long getLastUsed(String repositoryName) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT
+        Usage usage = usages.get(repositoryName)
+        usage != null ? usage.lastUsed : -1L
+    }
+
+    /**
+     * Runs {@code eviction} if the repository is not in use and has not been
+     * used since {@code idleSince}. Acquiring the repository blocks until the
+     * eviction completes.
+     *
+     * @return whether the eviction ran
+     */
+    boolean evictIfIdle(String repositoryName, long idleSince, Closure eviction) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT
+        withLock(repositoryName) {
+            if (!isRepositoryConnected(repositoryName)) return false
+            Usage usage = usageFor(repositoryName)
+            if (usage.lastUsed > idleSince || !usage.refs.compareAndSet(0, -1)) return false
+            try {
+                eviction(repositoryName)
+                return true
+            } finally {
+                // a no-op once the disconnection has dropped the usage
+                usage.refs.compareAndSet(-1, 0)
+            }
+        }
+    }
+
+    /**
+     * Drops the usage count and the lock of a repository that has just been
+     * disconnected, so that nothing is left behind for its name. The count
+     * stays while calls still hold the repository, they release it later.
+     * Must be called from {@link #withLock(String, Closure)}.
+     */
+    void forget(String repositoryName) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT
+        Usage usage = usages.get(repositoryName)
+        if (usage != null) {
+            int refs = usage.refs.get()
+            // a negative count is the eviction running on this thread
+            if (refs <= 0 && usage.refs.compareAndSet(refs, Integer.MIN_VALUE)) usages.remove(repositoryName, usage)
         }
+        locks.remove(repositoryName)
     }
 
-    private void storeRepository(String repositoryName, Repository repository) {
-        synchronized(LOCK) {
-            repositories[repositoryName] = repository
+    private Usage usageFor(String repositoryName) {
+        Usage usage = usages.get(repositoryName)
+        if (usage == null) {
+            Usage newUsage = new Usage()
+            usage = usages.putIfAbsent(repositoryName, newUsage)
+            if (usage == null) usage = newUsage
+        }
+        usage
+    }
+
+    private static class Usage {
+        final AtomicInteger refs = new AtomicInteger()
+        volatile long lastUsed = System.currentTimeMillis()
+    }
+
+    /**
+     * Runs {@code action} holding the monitor that guards connecting and
+     * disconnecting the given repository, and returns its result.
+     */
+    def withLock(String repositoryName, Closure action) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT
+        while (true) {
+            Object lock = getLock(repositoryName)
+            synchronized (lock) {
+                // a disconnection drops the lock, waiters take the next one
+                if (lock.is(locks.get(repositoryName))) return action()
+            }
+        }
+    }
+
+    /**
+     * Returns the monitor that guards connecting and disconnecting the
+     * given repository. The same instance is returned for a given name
+     * until the repository is disconnected; use {@link #withLock(String, Closure)}
+     * to hold it.
+     */
+    Object getLock(String repositoryName) {
+        if (isBlank(repositoryName)) repositoryName = DEFAULT
+        Object lock = locks.get(repositoryName)
+        if (lock == null) {
+            Object newLock = new Object()
+            lock = locks.putIfAbsent(repositoryName, newLock)
+            if (lock == null) lock = newLock
         }
+        lock
     }
 }
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Call statistics of a single repository. Recording is lock-free; see
+ * {@link InstrumentedCarbonadoProvider} for the code that feeds it. Call and
+ * error counts cover the whole life of the repository, latencies the last
+ * completed window, see {@link LatencyHistogram}.
+ *
+ * @author Andres Almiray
+ */
+public class RepositoryMetrics implements RepositoryMetricsMBean {
+    private final String repositoryName;
+    private final StripedCounter calls = new StripedCounter();
+    private final StripedCounter errors = new StripedCounter();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LatencyHistogram latency;
+    private volatile MeteredPoolingDataSource dataSource;
+    private volatile CacheCapability cache;
+    private volatile ReplicationCapability replication;
+
+    public RepositoryMetrics(String repositoryName) {
+        this(repositoryName, CarbonadoMetrics.DEFAULT_WINDOW);
+    }
+
+    /**
+     * @param window milliseconds of calls the reported latencies cover, 0 to cover every call
+     */
+    public RepositoryMetrics(String repositoryName, long window) {
+        this.repositoryName = repositoryName;
+        this.latency = new LatencyHistogram(window);
+    }
+
+    public String getRepositoryName() {
+        return repositoryName;
+    }
+
+    /**
+     * Marks the beginning of a call.
+     *
+     * @return the start timestamp to be handed back to {@link #stop(long, boolean)}
+     */
+    public long start() {
+        inFlight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    public void stop(long startTime, boolean failed) {
+        latency.record(System.nanoTime() - startTime);
+        calls.increment();
+        inFlight.decrementAndGet();
+        if (failed) errors.increment();
+    }
+
+    void setDataSource(MeteredPoolingDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    void setCache(CacheCapability cache) {
+        this.cache = cache;
+    }
+
+    void setReplication(ReplicationCapability replication) {
+        this.replication = replication;
+    }
+
+    public long getCallCount() {
+        return calls.sum();
+    }
+
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getLatencyWindow() {
+        return latency.getWindowMillis();
+    }
+
+    public double getMeanLatency() {
+        return latency.getMeanMillis();
+    }
+
+    public double getLatencyP50() {
+        return latency.getPercentileMillis(0.50d);
+    }
+
+    public double getLatencyP99() {
+        return latency.getPercentileMillis(0.99d);
+    }
+
+    public double getMaxLatency() {
+        return latency.getMaxMillis();
+    }
+
+    public int getPoolActive() {
+        MeteredPoolingDataSource ds = dataSource;
+        return ds != null ? ds.getNumActive() : -1;
+    }
+
+    public int getPoolIdle() {
+        MeteredPoolingDataSource ds = dataSource;
+        return ds != null ? ds.getNumIdle() : -1;
+    }
+
+    public double getPoolMeanWait() {
+        MeteredPoolingDataSource ds = dataSource;
+        return ds != null ? ds.getWaitTimes().getMeanMillis() : -1d;
+    }
+
+    public double getPoolMaxWait() {
+        MeteredPoolingDataSource ds = dataSource;
+        return ds != null ? ds.getWaitTimes().getMaxMillis() : -1d;
+    }
+
+    public long getCacheHitCount() {
+        CacheCapability c = cache;
+        return c != null ? c.getHitCount() : -1L;
+    }
+
+    public long getCacheMissCount() {
+        CacheCapability c = cache;
+        return c != null ? c.getMissCount() : -1L;
+    }
+
+    public int getCacheSize() {
+        CacheCapability c = cache;
+        return c != null ? c.getSize() : -1;
+    }
+
+    public long getReplicationLag() {
+        ReplicationCapability r = replication;
+        return r != null ? r.getReplicationLag() : -1L;
+    }
+
+    public long getResyncRepairCount() {
+        ReplicationCapability r = replication;
+        return r != null ? r.getRepairCount() : -1L;
+    }
+
+    public void reset() {
+        calls.reset();
+        errors.reset();
+        latency.reset();
+        MeteredPoolingDataSource ds = dataSource;
+        if (ds != null) ds.getWaitTimes().reset();
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("repositoryName", repositoryName);
+        map.put("callCount", getCallCount());
+        map.put("errorCount", getErrorCount());
+        map.put("inFlight", getInFlight());
+        map.put("latencyWindow", getLatencyWindow());
+        map.put("meanLatency", getMeanLatency());
+        map.put("latencyP50", getLatencyP50());
+        map.put("latencyP99", getLatencyP99());
+        map.put("maxLatency", getMaxLatency());
+        map.put("poolActive", getPoolActive());
+        map.put("poolIdle", getPoolIdle());
+        map.put("poolMeanWait", getPoolMeanWait());
+        map.put("poolMaxWait", getPoolMaxWait());
+        map.put("cacheHitCount", getCacheHitCount());
+        map.put("cacheMissCount", getCacheMissCount());
+        map.put("cacheSize", getCacheSize());
+        map.put("replicationLag", getReplicationLag());
+        map.put("resyncRepairCount", getResyncRepairCount());
+        return map;
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+/**
+ * Management interface of {@link RepositoryMetrics}. Latencies are reported
+ * in milliseconds and cover the last completed window of
+ * {@link #getLatencyWindow()} milliseconds, as do pool wait times. Pool figures are only available for {@code jdbc}
+ * repositories, cache figures for {@code cached} repositories and
+ * replication figures for {@code replicated} repositories; other
+ * repository types report {@code -1}.
+ *
+ * @author Andres Almiray
+ */
+public interface RepositoryMetricsMBean {
+    String getRepositoryName();
+
+    long getCallCount();
+
+    long getErrorCount();
+
+    int getInFlight();
+
+    long getLatencyWindow();
+
+    double getMeanLatency();
+
+    double getLatencyP50();
+
+    double getLatencyP99();
+
+    double getMaxLatency();
+
+    int getPoolActive();
+
+    int getPoolIdle();
+
+    double getPoolMeanWait();
+
+    double getPoolMaxWait();
+
+    long getCacheHitCount();
+
+    long getCacheMissCount();
+
+    int getCacheSize();
+
+    long getReplicationLag();
+
+    long getResyncRepairCount();
+
+    void reset();
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.*;
+import com.amazon.carbonado.capability.Capability;
+import com.amazon.carbonado.cursor.SortedCursor;
+import com.amazon.carbonado.filter.Filter;
+import com.amazon.carbonado.info.StorableIntrospector;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Repository of type {@code sharded}. Spreads storables over several
+ * underlying repositories; see {@link ShardingCapability} for the way they
+ * are accessed.
+ * <p>
+ * Its storages route loads, inserts, updates and deletes to the owning
+ * shard and run queries on every shard. A transaction entered on the
+ * sharded repository is bound to the shard of the first storable written
+ * or loaded through these storages while it is active, and touching
+ * another shard before it exits fails with an {@link IllegalStateException}.
+ * Queries span every shard, so they bind no shard; outside transactions the
+ * shards are queried concurrently, while inside one they are queried one
+ * after the other on the calling thread. The bound shard is then read
+ * within the transaction, seeing its uncommitted writes, and the other
+ * shards are read outside of any transaction.
+ *
+ * @author Andres Almiray
+ */
+public class ShardedRepository implements Repository, ShardingCapability {
+    private static final int PREFETCH = 256;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String name;
+    private final List<Repository> shards;
+    private final ExecutorService executor;
+    private final ConcurrentMap<Class<?>, String[]> primaryKeys = new ConcurrentHashMap<Class<?>, String[]>();
+    private final ConcurrentMap<Class<?>, Storage<?>> storages = new ConcurrentHashMap<Class<?>, Storage<?>>();
+    private final ThreadLocal<ShardTransaction> transactions = new ThreadLocal<ShardTransaction>();
+
+    public ShardedRepository(String name, List<Repository> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("Repository " + name + " requires at least one shard");
+        }
+        this.name = name;
+        this.shards = new ArrayList<Repository>(shards);
+        this.executor = Executors.newCachedThreadPool(new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "carbonado-" + ShardedRepository.this.name + "-shard-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <S extends Storable> Storage<S> storageFor(Class<S> type) throws SupportException, RepositoryException {
+        Storage<S> storage = (Storage<S>) storages.get(type);
+        if (storage == null) {
+            List<Storage<S>> shardStorages = new ArrayList<Storage<S>>(shards.size());
+            for (Repository shard : shards) {
+                shardStorages.add(shard.storageFor(type));
+            }
+            storage = new ShardedStorage<S>(type, shardStorages);
+            Storage<S> previous = (Storage<S>) storages.putIfAbsent(type, storage);
+            if (previous != null) storage = previous;
+        }
+        return storage;
+    }
+
+    public Transaction enterTransaction() {
+        return new ShardTransaction(null, false);
+    }
+
+    public Transaction enterTransaction(IsolationLevel level) {
+        return new ShardTransaction(level, false);
+    }
+
+    public Transaction enterTopTransaction(IsolationLevel level) {
+        return new ShardTransaction(level, true);
+    }
+
+    public IsolationLevel getTransactionIsolationLevel() {
+        ShardTransaction txn = transactions.get();
+        if (txn == null) return null;
+        return txn.delegate != null ? txn.delegate.getIsolationLevel() : txn.level;
+    }
+
+    public <C extends Capability> C getCapability(Class<C> capabilityType) {
+        if (capabilityType.isInstance(this)) return capabilityType.cast(this);
+        return null;
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    public Repository getShard(int index) {
+        return shards.get(index);
+    }
+
+    public int shardIndex(Storable storable) {
+        String[] names = primaryKeyOf(storable.storableType());
+        // hashes a stable encoding of the key, hash codes of enums and
+        // arrays change from one run to the next
+        CRC32 crc = new CRC32();
+        for (String name : names) {
+            byte[] bytes = encode(storable.getPropertyValue(name)).getBytes(UTF8);
+            crc.update(bytes, 0, bytes.length);
+            crc.update(1);
+        }
+        return (int) (crc.getValue() % shards.size());
+    }
+
+    @SuppressWarnings("unchecked")
+    public <S extends Storable> S route(S storable) throws RepositoryException {
+        Class<S> type = (Class<S>) storable.storableType();
+        S routed = getShard(shardIndex(storable)).storageFor(type).prepare();
+        storable.copyAllProperties(routed);
+        return routed;
+    }
+
+    public <S extends Storable> Cursor<S> fetch(Class<S> type, String filter, Object[] values, String... orderings) throws RepositoryException {
+        List<Query<S>> queries = new ArrayList<Query<S>>(shards.size());
+        for (Repository shard : shards) {
+            Query<S> query = query(shard, type, filter, values);
+            if (orderings.length > 0) query = query.orderBy(orderings);
+            queries.add(query);
+        }
+        Comparator<S> comparator = orderings.length > 0 ? SortedCursor.createComparator(type, orderings) : null;
+        return new MergeCursor<S>(queries, comparator, PREFETCH, inTransaction() ? null : executor);
+    }
+
+    public <S extends Storable> long count(Class<S> type, String filter, Object... values) throws RepositoryException {
+        if (inTransaction()) {
+            long total = 0L;
+            for (Repository shard : shards) total += query(shard, type, filter, values).count();
+            return total;
+        }
+        List<Future<Long>> counts = new ArrayList<Future<Long>>(shards.size());
+        for (Repository shard : shards) {
+            final Query<S> query = query(shard, type, filter, values);
+            counts.add(executor.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    return query.count();
+                }
+            }));
+        }
+        long total = 0L;
+        for (Future<Long> count : counts) {
+            total += this.<Long>await(count);
+        }
+        return total;
+    }
+
+    public <S extends Storable> long reshard(final Class<S> type, final ShardingCapability target, final int chunkSize) throws RepositoryException {
+        List<Future<Long>> copies = new ArrayList<Future<Long>>(shards.size());
+        for (Repository shard : shards) {
+            final Query<S> query = query(shard, type, null, null);
+            copies.add(executor.submit(new Callable<Long>() {
+                public Long call() throws Exception {
+                    return copy(query, target, chunkSize);
+                }
+            }));
+        }
+        long total = 0L;
+        for (Future<Long> copy : copies) {
+            total += this.<Long>await(copy);
+        }
+        return total;
+    }
+
+    /**
+     * Stops the threads querying the shards, leaving the shards open.
+     */
+    public void stopQuerying() {
+        executor.shutdownNow();
+    }
+
+    public void close() {
+        stopQuerying();
+        for (Repository shard : shards) {
+            shard.close();
+        }
+    }
+
+    private <S extends Storable> long copy(Query<S> query, ShardingCapability target, int chunkSize) throws RepositoryException {
+        List<List<S>> chunks = new ArrayList<List<S>>(target.getShardCount());
+        for (int i = 0; i < target.getShardCount(); i++) {
+            chunks.add(new ArrayList<S>(chunkSize));
+        }
+
+        long copied = 0L;
+        Cursor<S> cursor = query.fetch();
+        try {
+            while (cursor.hasNext()) {
+                S storable = cursor.next();
+                int index = target.shardIndex(storable);
+                List<S> chunk = chunks.get(index);
+                chunk.add(target.route(storable));
+                if (chunk.size() >= chunkSize) copied += flush(target.getShard(index), chunk);
+            }
+        } finally {
+            cursor.close();
+        }
+        for (int i = 0; i < chunks.size(); i++) {
+            copied += flush(target.getShard(i), chunks.get(i));
+        }
+        return copied;
+    }
+
+    private <S extends Storable> int flush(Repository shard, List<S> chunk) throws RepositoryException {
+        if (chunk.isEmpty()) return 0;
+        int inserted = 0;
+        Transaction txn = shard.enterTransaction();
+        try {
+            for (S storable : chunk) {
+                if (storable.tryInsert()) inserted++;
+            }
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+        chunk.clear();
+        return inserted;
+    }
+
+    private <S extends Storable> Query<S> query(Repository shard, Class<S> type, String filter, Object[] values) throws RepositoryException {
+        Storage<S> storage = shard.storageFor(type);
+        Query<S> query = filter != null ? storage.query(filter) : storage.query();
+        return values != null && values.length > 0 ? query.withValues(values) : query;
+    }
+
+    private <T> T await(Future<T> future) throws RepositoryException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FetchInterruptedException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RepositoryException) throw (RepositoryException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new RepositoryException(cause);
+        }
+    }
+
+    /**
+     * Encodes a primary key value the same way in every run, whatever its
+     * boxed type: integral numbers by their decimal value, decimals without
+     * trailing zeros and enums by name.
+     */
+    static String encode(Object value) {
+        if (value == null) return "\u0000";
+        if (value instanceof Enum) return ((Enum<?>) value).name();
+        if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            return decimal.signum() == 0 ? "0" : decimal.stripTrailingZeros().toPlainString();
+        }
+        if (value instanceof Byte || value instanceof Short || value instanceof Integer || value instanceof Long || value instanceof BigInteger) {
+            return value.toString();
+        }
+        if (value instanceof byte[]) {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : (byte[]) value) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        }
+        if (value instanceof Date) return String.valueOf(((Date) value).getTime());
+        // strings, characters, booleans, floating point numbers and Joda dates
+        return value.toString();
+    }
+
+    private String[] primaryKeyOf(Class<? extends Storable> type) {
+        String[] names = primaryKeys.get(type);
+        if (names == null) {
+            // sorted so that routing does not depend on declaration order
+            Set<String> keyNames = new TreeSet<String>(StorableIntrospector.examine(type).getPrimaryKeyProperties().keySet());
+            names = keyNames.toArray(new String[keyNames.size()]);
+            primaryKeys.putIfAbsent(type, names);
+        }
+        return names;
+    }
+
+    // threads of the executor do not share the transactions of the caller
+    private boolean inTransaction() {
+        return transactions.get() != null;
+    }
+
+    private void bind(int index) {
+        ShardTransaction txn = transactions.get();
+        if (txn != null) txn.bind(index);
+    }
+
+    private final class ShardedStorage<S extends Storable> extends DelegatingStorage<S> {
+        private final List<Storage<S>> shardStorages;
+
+        private ShardedStorage(Class<S> type, List<Storage<S>> shardStorages) throws SupportException {
+            super(ShardedRepository.this, type);
+            this.shardStorages = shardStorages;
+        }
+
+        @Override
+        protected Storage<S> storageOf(S storable) {
+            int index = shardIndex(storable);
+            bind(index);
+            return shardStorages.get(index);
+        }
+
+        @Override
+        protected boolean fetchesOnCallingThread() {
+            return inTransaction();
+        }
+
+        public Query<S> query() throws FetchException {
+            List<Query<S>> queries = new ArrayList<Query<S>>(shardStorages.size());
+            for (Storage<S> storage : shardStorages) queries.add(storage.query());
+            return new DelegatingQuery<S>(this, queries, executor);
+        }
+
+        public Query<S> query(String filter) throws FetchException {
+            List<Query<S>> queries = new ArrayList<Query<S>>(shardStorages.size());
+            for (Storage<S> storage : shardStorages) queries.add(storage.query(filter));
+            return new DelegatingQuery<S>(this, queries, executor);
+        }
+
+        public Query<S> query(Filter<S> filter) throws FetchException {
+            List<Query<S>> queries = new ArrayList<Query<S>>(shardStorages.size());
+            for (Storage<S> storage : shardStorages) queries.add(storage.query(filter));
+            return new DelegatingQuery<S>(this, queries, executor);
+        }
+
+        public void truncate() throws PersistException {
+            for (Storage<S> storage : shardStorages) storage.truncate();
+        }
+
+        public boolean addTrigger(Trigger<? super S> trigger) {
+            boolean added = false;
+            for (Storage<S> storage : shardStorages) added |= storage.addTrigger(trigger);
+            return added;
+        }
+
+        public boolean removeTrigger(Trigger<? super S> trigger) {
+            boolean removed = false;
+            for (Storage<S> storage : shardStorages) removed |= storage.removeTrigger(trigger);
+            return removed;
+        }
+    }
+
+    /**
+     * Transaction entered on the shard of the first storable it touches.
+     */
+    private final class ShardTransaction implements Transaction {
+        private final ShardTransaction parent;
+        private final IsolationLevel level;
+        private final boolean top;
+        private Transaction delegate;
+        private int index = -1;
+        private boolean forUpdate;
+        private int lockTimeout = -1;
+        private TimeUnit lockTimeoutUnit;
+        private boolean exited;
+
+        private ShardTransaction(IsolationLevel level, boolean top) {
+            this.parent = transactions.get();
+            this.level = level;
+            this.top = top;
+            transactions.set(this);
+        }
+
+        private void bind(int shard) {
+            if (exited) return;
+            if (index == shard) return;
+            if (index >= 0) {
+                throw new IllegalStateException("Repository " + name + " transactions cannot span shards, bound to shard "
+                    + index + " but shard " + shard + " was requested");
+            }
+            // an enclosing transaction must be entered on the shard first
+            if (parent != null && !top) parent.bind(shard);
+            Repository repository = shards.get(shard);
+            delegate = top ? repository.enterTopTransaction(level) : repository.enterTransaction(level);
+            delegate.setForUpdate(forUpdate);
+            if (lockTimeoutUnit != null) delegate.setDesiredLockTimeout(lockTimeout, lockTimeoutUnit);
+            index = shard;
+        }
+
+        public void commit() throws PersistException {
+            if (delegate != null) delegate.commit();
+        }
+
+        public void exit() throws PersistException {
+            if (exited) return;
+            exited = true;
+            try {
+                if (delegate != null) delegate.exit();
+            } finally {
+                if (transactions.get() == this) {
+                    if (parent != null) {
+                        transactions.set(parent);
+                    } else {
+                        transactions.remove();
+                    }
+                }
+            }
+        }
+
+        public void setForUpdate(boolean forUpdate) {
+            this.forUpdate = forUpdate;
+            if (delegate != null) delegate.setForUpdate(forUpdate);
+        }
+
+        public boolean isForUpdate() {
+            return delegate != null ? delegate.isForUpdate() : forUpdate;
+        }
+
+        public void setDesiredLockTimeout(int timeout, TimeUnit unit) {
+            this.lockTimeout = timeout;
+            this.lockTimeoutUnit = unit;
+            if (delegate != null) delegate.setDesiredLockTimeout(timeout, unit);
+        }
+
+        public IsolationLevel getIsolationLevel() {
+            return delegate != null ? delegate.getIsolationLevel() : level;
+        }
+
+        public void detach() {
+            if (delegate != null) delegate.detach();
+        }
+
+        public void attach() {
+            if (delegate != null) delegate.attach();
+        }
+
+        public boolean preCommit() throws PersistException {
+            return delegate == null || delegate.preCommit();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.*;
+import com.amazon.carbonado.capability.Capability;
+
+/**
+ * Routing and fan-out offered by repositories of type {@code sharded}.
+ * Obtain it with {@code repository.getCapability(ShardingCapability)}.
+ * <p>
+ * Every storable lives in exactly one shard, chosen by hashing a stable
+ * encoding of its primary key, so that the same key maps to the same shard
+ * in every run. Transactions never span shards.
+ *
+ * @author Andres Almiray
+ */
+public interface ShardingCapability extends Capability {
+    int getShardCount();
+
+    Repository getShard(int index);
+
+    /**
+     * Returns the index of the shard owning the primary key of {@code storable}.
+     */
+    int shardIndex(Storable storable);
+
+    /**
+     * Returns a copy of {@code storable} prepared by the storage of its
+     * owning shard, ready to be loaded, inserted, updated or deleted.
+     */
+    <S extends Storable> S route(S storable) throws RepositoryException;
+
+    /**
+     * Runs a query on every shard in parallel, or one shard after the other
+     * on the calling thread while a transaction of the sharded repository is
+     * active. When {@code orderings} are given the results of all shards
+     * are merge-sorted accordingly. The returned cursor must be closed.
+     *
+     * @param filter query filter, or {@code null} to fetch every storable
+     */
+    <S extends Storable> Cursor<S> fetch(Class<S> type, String filter, Object[] values, String... orderings) throws RepositoryException;
+
+    <S extends Storable> long count(Class<S> type, String filter, Object... values) throws RepositoryException;
+
+    /**
+     * Copies every storable of {@code type} into the shards of {@code target},
+     * committing every {@code chunkSize} storables. Source shards are read in
+     * parallel. Storables already present in the target are skipped, so an
+     * interrupted copy may be run again. Meant to be run offline, while no
+     * other writes reach either repository.
+     *
+     * @return the number of storables copied
+     */
+    <S extends Storable> long reshard(Class<S> type, ShardingCapability target, int chunkSize) throws RepositoryException;
+}
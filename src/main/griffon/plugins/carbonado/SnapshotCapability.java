@@ -0,0 +1,50 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.RepositoryException;
+import com.amazon.carbonado.capability.Capability;
+
+import java.io.IOException;
+
+/**
+ * Snapshots offered by {@code map} repositories configured with a
+ * {@code snapshot} block. Obtain it with
+ * {@code repository.getCapability(SnapshotCapability)}.
+ *
+ * @author Andres Almiray
+ */
+public interface SnapshotCapability extends Capability {
+    /**
+     * Writes every storable of the configured types to the snapshot file.
+     * Writers are not blocked while the snapshot is taken, hence storables
+     * written meanwhile may or may not be included.
+     *
+     * @return the number of storables written
+     */
+    long writeSnapshot() throws IOException, RepositoryException;
+
+    /**
+     * Returns {@code true} if storables were restored from a snapshot
+     * when the repository connected.
+     */
+    boolean isRestored();
+
+    /**
+     * Returns the number of storables restored when the repository connected.
+     */
+    long getRestoredCount();
+}
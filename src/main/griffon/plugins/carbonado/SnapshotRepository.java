@@ -0,0 +1,363 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.*;
+import com.amazon.carbonado.capability.Capability;
+import com.amazon.carbonado.info.StorableIntrospector;
+import com.amazon.carbonado.info.StorableProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * Map repository that can be saved to and restored from a snapshot file.
+ * <p>
+ * The file starts with a magic number and a format version, followed by one
+ * section per storable type: the type name, a hash of its properties and the
+ * storables serialized with {@link Storable#writeTo(OutputStream)}, each one
+ * prefixed by its length. Sections whose hash no longer matches the type are
+ * skipped on restore. Snapshots are written to a temporary file that replaces
+ * the previous one once complete; the previous snapshot is kept as a backup
+ * file until then, and restored from if the replacement was interrupted.
+ * Files are mapped in windows so that snapshots may exceed 2 GB.
+ *
+ * @author Andres Almiray
+ */
+public class SnapshotRepository extends DelegatingRepository implements SnapshotCapability {
+    private static final Logger LOG = LoggerFactory.getLogger(SnapshotRepository.class);
+    private static final int MAGIC = 0x43534e50;
+    private static final int FORMAT_VERSION = 1;
+    private static final int END_OF_TYPE = -1;
+    private static final int COMMIT_INTERVAL = 1000;
+    private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final File file;
+    private final List<Class<? extends Storable>> types;
+    private final boolean writeOnClose;
+    private final File backup;
+    private final int windowSize;
+    private final Object writeLock = new Object();
+    private volatile long restoredCount = -1L;
+
+    /**
+     * @param file         snapshot file
+     * @param types        storable types included in snapshots
+     * @param writeOnClose whether a snapshot is written when the repository closes
+     */
+    public SnapshotRepository(Repository delegate, File file, List<Class<? extends Storable>> types, boolean writeOnClose) {
+        this(delegate, file, types, writeOnClose, WINDOW_SIZE);
+    }
+
+    /**
+     * @param windowSize bytes of the snapshot file mapped at once
+     */
+    SnapshotRepository(Repository delegate, File file, List<Class<? extends Storable>> types, boolean writeOnClose, int windowSize) {
+        super(delegate);
+        this.file = file;
+        this.backup = new File(file.getPath() + ".bak");
+        this.types = new ArrayList<Class<? extends Storable>>(types);
+        this.writeOnClose = writeOnClose;
+        this.windowSize = windowSize;
+    }
+
+    public boolean isRestored() {
+        return restoredCount >= 0L;
+    }
+
+    public long getRestoredCount() {
+        return Math.max(0L, restoredCount);
+    }
+
+    @Override
+    public <C extends Capability> C getCapability(Class<C> capabilityType) {
+        if (capabilityType.isInstance(this)) return capabilityType.cast(this);
+        return super.getCapability(capabilityType);
+    }
+
+    /**
+     * Loads the snapshot file, if any, into the repository. Meant to be
+     * called once, before the repository is handed out.
+     *
+     * @return the number of storables restored
+     */
+    public long restore() throws IOException, RepositoryException {
+        // a missing snapshot with a backup means the last write stopped halfway through replacing it
+        File source = file.isFile() ? file : backup;
+        if (!source.isFile()) return 0L;
+        long start = System.currentTimeMillis();
+        Map<String, Class<? extends Storable>> typesByName = new HashMap<String, Class<? extends Storable>>();
+        for (Class<? extends Storable> type : types) {
+            typesByName.put(type.getName(), type);
+        }
+
+        RandomAccessFile raf = new RandomAccessFile(source, "r");
+        long count = 0L;
+        try {
+            MappedInput buffer = new MappedInput(raf.getChannel(), windowSize);
+            if (buffer.remaining() < 12 || buffer.getInt() != MAGIC) {
+                throw new IOException("Snapshot " + source + " is not a snapshot file");
+            }
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                LOG.warn("Repository[" + getName() + "] ignoring snapshot " + source + " written in format " + version);
+                return 0L;
+            }
+            int sections = buffer.getInt();
+            for (int i = 0; i < sections; i++) {
+                String typeName = readString(buffer);
+                long schemaHash = buffer.getLong();
+                Class<? extends Storable> type = typesByName.get(typeName);
+                if (type == null) {
+                    LOG.warn("Repository[" + getName() + "] skipping snapshot of " + typeName + " as it is no longer configured");
+                    skipSection(buffer);
+                } else if (schemaHash != schemaHash(type)) {
+                    LOG.warn("Repository[" + getName() + "] skipping snapshot of " + typeName + " as the type has changed");
+                    skipSection(buffer);
+                } else {
+                    count += loadSection(buffer, type);
+                }
+            }
+        } finally {
+            raf.close();
+        }
+        restoredCount = count;
+        LOG.info("Repository[" + getName() + "] restored " + count + " storables from " + source + " in " + (System.currentTimeMillis() - start) + "ms");
+        return count;
+    }
+
+    public long writeSnapshot() throws IOException, RepositoryException {
+        synchronized (writeLock) {
+            long start = System.currentTimeMillis();
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Cannot create directory " + parent);
+            }
+            File temp = new File(file.getPath() + ".tmp");
+            long count = 0L;
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeInt(types.size());
+                ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+                for (Class<? extends Storable> type : types) {
+                    out.writeUTF(type.getName());
+                    out.writeLong(schemaHash(type));
+                    count += writeSection(out, record, type);
+                }
+            } finally {
+                out.close();
+            }
+            replace(temp);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Repository[" + getName() + "] wrote " + count + " storables to " + file + " in " + (System.currentTimeMillis() - start) + "ms");
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Replaces the snapshot with {@code temp}. The previous snapshot is
+     * renamed to the backup file first, and only deleted once {@code temp}
+     * took its place.
+     */
+    private void replace(File temp) throws IOException {
+        if (file.exists()) {
+            if (backup.exists() && !backup.delete()) {
+                throw new IOException("Cannot delete snapshot backup " + backup);
+            }
+            if (!file.renameTo(backup)) {
+                throw new IOException("Cannot move snapshot " + file + " to " + backup);
+            }
+        }
+        if (!temp.renameTo(file)) {
+            if (backup.exists() && !backup.renameTo(file)) {
+                LOG.error("Repository[" + getName() + "] could not move " + backup + " back to " + file + ", it will be restored from the backup");
+            }
+            throw new IOException("Cannot replace snapshot " + file + " with " + temp);
+        }
+        if (backup.exists() && !backup.delete()) {
+            LOG.warn("Repository[" + getName() + "] could not delete snapshot backup " + backup);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (writeOnClose) {
+            try {
+                writeSnapshot();
+            } catch (Exception e) {
+                LOG.error("Repository[" + getName() + "] could not write snapshot " + file, e);
+            }
+        }
+        super.close();
+    }
+
+    private <S extends Storable> long writeSection(DataOutputStream out, ByteArrayOutputStream record, Class<S> type) throws IOException, RepositoryException {
+        long count = 0L;
+        Cursor<S> cursor = delegate.storageFor(type).query().fetch();
+        try {
+            while (cursor.hasNext()) {
+                record.reset();
+                cursor.next().writeTo(record);
+                out.writeInt(record.size());
+                record.writeTo(out);
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+        out.writeInt(END_OF_TYPE);
+        return count;
+    }
+
+    private <S extends Storable> long loadSection(MappedInput buffer, Class<S> type) throws IOException, RepositoryException {
+        Storage<S> storage = delegate.storageFor(type);
+        byte[] bytes = new byte[256];
+        long count = 0L;
+        Transaction txn = delegate.enterTransaction();
+        try {
+            for (int length = buffer.getInt(); length != END_OF_TYPE; length = buffer.getInt()) {
+                if (bytes.length < length) bytes = new byte[Math.max(length, bytes.length * 2)];
+                buffer.get(bytes, 0, length);
+                S storable = storage.prepare();
+                storable.readFrom(new ByteArrayInputStream(bytes, 0, length));
+                storable.tryInsert();
+                if (++count % COMMIT_INTERVAL == 0) txn.commit();
+            }
+            txn.commit();
+        } finally {
+            txn.exit();
+        }
+        return count;
+    }
+
+    private static void skipSection(MappedInput buffer) throws IOException {
+        for (int length = buffer.getInt(); length != END_OF_TYPE; length = buffer.getInt()) {
+            buffer.skip(length);
+        }
+    }
+
+    private static String readString(MappedInput buffer) throws IOException {
+        // written by DataOutput.writeUTF, whose encoding matches UTF-8 for class names
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes, 0, bytes.length);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Hashes the name, type and key membership of every stored property.
+     */
+    @SuppressWarnings("unchecked")
+    static long schemaHash(Class<? extends Storable> type) {
+        Map<String, ? extends StorableProperty<?>> properties = StorableIntrospector.examine((Class) type).getAllProperties();
+        StringBuilder schema = new StringBuilder();
+        for (String name : new TreeSet<String>(properties.keySet())) {
+            StorableProperty<?> property = properties.get(name);
+            if (property.isDerived() || property.isJoin()) continue;
+            schema.append(name).append(':').append(property.getType().getName())
+                .append(property.isNullable() ? "?" : "")
+                .append(property.isPrimaryKeyMember() ? "!" : "")
+                .append(property.isVersion() ? "#" : "")
+                .append(';');
+        }
+        CRC32 crc = new CRC32();
+        try {
+            crc.update(schema.toString().getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Reads a file through read-only mappings of at most {@code windowSize}
+     * bytes, as a single mapping cannot exceed 2 GB. A window is mapped
+     * again, starting at the current position, whenever the next value
+     * does not fit in what remains of it.
+     */
+    private static final class MappedInput {
+        private final FileChannel channel;
+        private final long length;
+        private final int windowSize;
+        private long offset;
+        private MappedByteBuffer window;
+
+        private MappedInput(FileChannel channel, int windowSize) throws IOException {
+            this.channel = channel;
+            this.length = channel.size();
+            this.windowSize = windowSize;
+            map(0L, 0);
+        }
+
+        long remaining() {
+            return length - position();
+        }
+
+        int getInt() throws IOException {
+            ensure(4);
+            return window.getInt();
+        }
+
+        long getLong() throws IOException {
+            ensure(8);
+            return window.getLong();
+        }
+
+        short getShort() throws IOException {
+            ensure(2);
+            return window.getShort();
+        }
+
+        void get(byte[] bytes, int off, int len) throws IOException {
+            ensure(len);
+            window.get(bytes, off, len);
+        }
+
+        void skip(int len) throws IOException {
+            long target = position() + len;
+            if (len < 0 || target > length) throw new EOFException();
+            if (target <= offset + window.limit()) {
+                window.position((int) (target - offset));
+            } else {
+                map(target, 0);
+            }
+        }
+
+        private long position() {
+            return offset + window.position();
+        }
+
+        private void ensure(int len) throws IOException {
+            if (window.remaining() >= len) return;
+            long position = position();
+            if (length - position < len) throw new EOFException();
+            map(position, len);
+        }
+
+        private void map(long position, int atLeast) throws IOException {
+            offset = position;
+            long size = Math.min(length - position, Math.max(windowSize, atLeast));
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        }
+    }
+}
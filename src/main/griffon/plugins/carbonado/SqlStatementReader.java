@@ -0,0 +1,220 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+
+/**
+ * Splits a SQL script into statements while reading it, without holding
+ * more than the current statement in memory.
+ * <p>
+ * Delimiters inside single, double or back quoted text, PostgreSQL dollar
+ * quoted text ({@code $$ ... $$}, {@code $tag$ ... $tag$}) and comments are
+ * ignored. Line ({@code --}) and block comments are dropped. The delimiter
+ * may be changed with a MySQL style {@code DELIMITER} line, which allows
+ * procedure bodies containing semicolons. MySQL also escapes quotes with a
+ * backslash inside quoted text, which is honored when
+ * {@code backslashEscapes} is set.
+ *
+ * @author Andres Almiray
+ */
+final class SqlStatementReader {
+    private static final String DELIMITER_DIRECTIVE = "delimiter";
+
+    private final PushbackReader in;
+    private final boolean backslashEscapes;
+    private String delimiter = ";";
+
+    SqlStatementReader(Reader reader) {
+        this(reader, false);
+    }
+
+    SqlStatementReader(Reader reader, boolean backslashEscapes) {
+        this.in = new PushbackReader(reader, 1);
+        this.backslashEscapes = backslashEscapes;
+    }
+
+    /**
+     * Returns the next statement, without its delimiter, or {@code null}
+     * once the script has been exhausted.
+     */
+    String next() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        // offset of the first character that is not blank or a comment
+        int start = -1;
+        int c;
+        while ((c = in.read()) != -1) {
+            char ch = (char) c;
+            switch (ch) {
+                case '\'':
+                case '"':
+                case '`':
+                    if (start < 0) start = sb.length();
+                    sb.append(ch);
+                    copyQuoted(sb, ch);
+                    continue;
+                case '$':
+                    // a$b$c is an identifier, not a dollar quote
+                    if (sb.length() > 0 && isIdentifierPart(sb.charAt(sb.length() - 1))) break;
+                    if (start < 0) start = sb.length();
+                    copyDollarQuoted(sb);
+                    continue;
+                case '-':
+                    if (peek() == '-') {
+                        skipLine();
+                        sb.append('\n');
+                        continue;
+                    }
+                    break;
+                case '/':
+                    if (peek() == '*') {
+                        in.read();
+                        skipBlockComment();
+                        sb.append(' ');
+                        continue;
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            if (Character.isWhitespace(ch)) {
+                if (isDelimiterDirective(sb, start)) {
+                    String newDelimiter = readLine().trim();
+                    if (newDelimiter.length() > 0) delimiter = newDelimiter;
+                    sb.setLength(0);
+                    start = -1;
+                    continue;
+                }
+            } else if (start < 0) {
+                start = sb.length();
+            }
+
+            sb.append(ch);
+            if (endsWithDelimiter(sb)) {
+                sb.setLength(sb.length() - delimiter.length());
+                String statement = sb.toString().trim();
+                sb.setLength(0);
+                start = -1;
+                if (statement.length() > 0) return statement;
+            }
+        }
+        String statement = sb.toString().trim();
+        return statement.length() > 0 ? statement : null;
+    }
+
+    private static boolean isDelimiterDirective(StringBuilder sb, int start) {
+        // the directive can only be the first word of a statement
+        if (start < 0 || sb.length() - start != DELIMITER_DIRECTIVE.length()) return false;
+        for (int i = 0; i < DELIMITER_DIRECTIVE.length(); i++) {
+            if (Character.toLowerCase(sb.charAt(start + i)) != DELIMITER_DIRECTIVE.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private static boolean isIdentifierPart(char ch) {
+        return Character.isLetterOrDigit(ch) || ch == '_' || ch == '$';
+    }
+
+    private boolean endsWithDelimiter(StringBuilder sb) {
+        int offset = sb.length() - delimiter.length();
+        if (offset < 0) return false;
+        for (int i = 0; i < delimiter.length(); i++) {
+            if (sb.charAt(offset + i) != delimiter.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private void copyQuoted(StringBuilder sb, char quote) throws IOException {
+        int c;
+        while ((c = in.read()) != -1) {
+            sb.append((char) c);
+            if (c == '\\' && backslashEscapes && quote != '`') {
+                // 'it\'s' in MySQL
+                c = in.read();
+                if (c == -1) return;
+                sb.append((char) c);
+            } else if (c == quote) {
+                // a doubled quote is an escaped quote
+                if (peek() != quote) return;
+                sb.append((char) in.read());
+            }
+        }
+    }
+
+    private void copyDollarQuoted(StringBuilder sb) throws IOException {
+        StringBuilder tag = new StringBuilder("$");
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '$') {
+                tag.append('$');
+                break;
+            }
+            if (!Character.isLetterOrDigit(c) && c != '_') {
+                // not a dollar quote, e.g. a $1 positional parameter
+                in.unread(c);
+                sb.append(tag);
+                return;
+            }
+            tag.append((char) c);
+        }
+        sb.append(tag);
+        if (c == -1) return;
+
+        String closingTag = tag.toString();
+        int start = sb.length();
+        while ((c = in.read()) != -1) {
+            sb.append((char) c);
+            if (c == '$' && sb.length() - start >= closingTag.length()
+                && sb.substring(sb.length() - closingTag.length()).equals(closingTag)) {
+                return;
+            }
+        }
+    }
+
+    private void skipLine() throws IOException {
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            // skip
+        }
+    }
+
+    private String readLine() throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    private void skipBlockComment() throws IOException {
+        int previous = -1;
+        int c;
+        while ((c = in.read()) != -1) {
+            if (previous == '*' && c == '/') return;
+            previous = c;
+        }
+    }
+
+    private int peek() throws IOException {
+        int c = in.read();
+        if (c != -1) in.unread(c);
+        return c;
+    }
+}
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.FetchException;
+import com.amazon.carbonado.Storable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of storables keyed by type and primary key, with an
+ * optional time to live. Entries are spread over independently locked
+ * segments so that concurrent readers seldom contend.
+ * <p>
+ * A miss reserves its key before loading, and the loaded storable is only
+ * stored if the reservation survived: an invalidation in the meantime
+ * removes it, so a load racing with a write never caches the old state.
+ *
+ * @author Andres Almiray
+ */
+final class StorableCache implements CacheCapability {
+    /**
+     * Which entry makes room for a new one once a segment is full.
+     */
+    enum Eviction {
+        /** the least recently used entry */
+        LRU,
+        /**
+         * the least frequently used among the {@code LFU_SAMPLE} least
+         * recently used entries, an approximation that keeps eviction O(1)
+         */
+        LFU
+    }
+
+    /**
+     * Loads storables missing from the cache.
+     */
+    interface Loader {
+        /**
+         * @return a storable loaded with the primary key of {@code key}, or {@code null}
+         */
+        <S extends Storable> S tryLoad(S key) throws FetchException;
+    }
+
+    private static final int SEGMENTS = 16;
+    private static final int LFU_SAMPLE = 8;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long ttlNanos;
+    private final Eviction eviction;
+    private final Loader loader;
+    private final StripedCounter hits = new StripedCounter();
+    private final StripedCounter misses = new StripedCounter();
+    private final StripedCounter evictions = new StripedCounter();
+
+    /**
+     * @param maxSize maximum number of cached storables
+     * @param ttl     milliseconds an entry stays valid, 0 for no limit
+     */
+    StorableCache(int maxSize, long ttl, Eviction eviction, Loader loader) {
+        int segmentSize = Math.max(1, maxSize / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(segmentSize);
+        }
+        this.ttlNanos = ttl * 1000000L;
+        this.eviction = eviction;
+        this.loader = loader;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <S extends Storable> S tryLoad(S key) throws FetchException {
+        StorableKey cacheKey = StorableKey.of(key);
+        Segment segment = segmentFor(cacheKey);
+        Object cached = segment.getOrReserve(cacheKey, ttlNanos);
+        if (cached instanceof Storable) {
+            hits.increment();
+            return (S) ((Storable) cached).copy();
+        }
+
+        misses.increment();
+        Entry reservation = (Entry) cached;
+        boolean filled = false;
+        try {
+            S loaded = loader.tryLoad(key);
+            if (loaded != null) {
+                filled = segment.fill(cacheKey, reservation, loaded.copy());
+            }
+            return loaded;
+        } finally {
+            if (!filled) segment.cancel(cacheKey, reservation);
+        }
+    }
+
+    /**
+     * Loads the storable without reading or filling the cache, as needed
+     * inside transactions.
+     */
+    <S extends Storable> S tryLoadUncached(S key) throws FetchException {
+        return loader.tryLoad(key);
+    }
+
+    public void invalidate(Storable storable) {
+        StorableKey cacheKey = StorableKey.of(storable);
+        segmentFor(cacheKey).remove(cacheKey);
+    }
+
+    public void invalidateAll() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    public int getSize() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    private Segment segmentFor(StorableKey key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (SEGMENTS - 1)];
+    }
+
+    private static final class Entry {
+        // null while the storable is being loaded
+        private Storable storable;
+        private long loadedAt;
+        private int frequency;
+    }
+
+    private final class Segment {
+        private final int maxSize;
+        private final LinkedHashMap<StorableKey, Entry> entries = new LinkedHashMap<StorableKey, Entry>(16, 0.75f, true);
+        private int filled;
+
+        private Segment(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        /**
+         * Returns the cached storable, or the reservation to fill once it
+         * has been loaded. Returns {@code null} when another thread is
+         * already loading the same key, in which case nothing is filled.
+         */
+        synchronized Object getOrReserve(StorableKey key, long ttlNanos) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.storable == null) return null;
+                if (ttlNanos <= 0 || System.nanoTime() - entry.loadedAt <= ttlNanos) {
+                    if (entry.frequency < Integer.MAX_VALUE) entry.frequency++;
+                    return entry.storable;
+                }
+                filled--;
+            }
+            entry = new Entry();
+            entries.put(key, entry);
+            return entry;
+        }
+
+        synchronized boolean fill(StorableKey key, Entry reservation, Storable storable) {
+            // an invalidation since the reservation has removed it
+            if (reservation == null || entries.get(key) != reservation) return false;
+            reservation.storable = storable;
+            reservation.loadedAt = System.nanoTime();
+            reservation.frequency = 1;
+            filled++;
+            while (filled > maxSize && evict()) {
+                evictions.increment();
+            }
+            return true;
+        }
+
+        synchronized void cancel(StorableKey key, Entry reservation) {
+            if (reservation != null && entries.get(key) == reservation) entries.remove(key);
+        }
+
+        synchronized void remove(StorableKey key) {
+            Entry entry = entries.remove(key);
+            if (entry != null && entry.storable != null) filled--;
+        }
+
+        synchronized void clear() {
+            entries.clear();
+            filled = 0;
+        }
+
+        synchronized int size() {
+            return filled;
+        }
+
+        private boolean evict() {
+            Map.Entry<StorableKey, Entry> victim = null;
+            int sampled = 0;
+            int sample = eviction == Eviction.LFU ? LFU_SAMPLE : 1;
+            for (Iterator<Map.Entry<StorableKey, Entry>> it = entries.entrySet().iterator(); it.hasNext() && sampled < sample; ) {
+                Map.Entry<StorableKey, Entry> candidate = it.next();
+                Entry entry = candidate.getValue();
+                if (entry.storable == null) continue;
+                sampled++;
+                if (victim == null || entry.frequency < victim.getValue().frequency) {
+                    if (victim != null) age(victim.getValue());
+                    victim = candidate;
+                } else {
+                    age(entry);
+                }
+            }
+            if (victim == null) return false;
+            entries.remove(victim.getKey());
+            filled--;
+            return true;
+        }
+
+        // survivors age, so that formerly popular entries go eventually
+        private void age(Entry entry) {
+            if (entry.frequency > 0) entry.frequency--;
+        }
+    }
+}
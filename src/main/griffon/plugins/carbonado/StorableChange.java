@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Storable;
+
+/**
+ * A committed change to a storable, as published by the change feed in
+ * {@code CarbonadoChanges} events.
+ *
+ * @author Andres Almiray
+ */
+public final class StorableChange {
+    public enum Kind {
+        INSERTED, UPDATED, DELETED
+    }
+
+    private final Kind kind;
+    private final Storable storable;
+
+    StorableChange(Kind kind, Storable storable) {
+        this.kind = kind;
+        this.storable = storable;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns a copy of the storable as written. Only the primary key is
+     * guaranteed to be set for deletions.
+     */
+    public Storable getStorable() {
+        return storable;
+    }
+
+    @SuppressWarnings("unchecked")
+    public Class<? extends Storable> getStorableType() {
+        return storable.storableType();
+    }
+
+    /**
+     * Folds a later change to the same storable into this one.
+     *
+     * @return the combined change, or {@code null} if they cancel each other
+     */
+    StorableChange then(StorableChange next) {
+        switch (kind) {
+            case INSERTED:
+                if (next.kind == Kind.DELETED) return null;
+                return new StorableChange(Kind.INSERTED, next.storable);
+            case DELETED:
+                if (next.kind == Kind.INSERTED) return new StorableChange(Kind.UPDATED, next.storable);
+                return next;
+            default:
+                return next;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + storable;
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.info.StorableIntrospector;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Identity of a storable, made of its type and primary key values.
+ *
+ * @author Andres Almiray
+ */
+final class StorableKey {
+    private static final ConcurrentMap<Class<?>, String[]> PRIMARY_KEYS = new ConcurrentHashMap<Class<?>, String[]>();
+
+    private final Class<?> type;
+    private final Object[] values;
+    private final int hash;
+
+    private StorableKey(Class<?> type, Object[] values) {
+        this.type = type;
+        this.values = values;
+        this.hash = 31 * type.hashCode() + Arrays.deepHashCode(values);
+    }
+
+    @SuppressWarnings("unchecked")
+    static StorableKey of(Storable storable) {
+        Class<? extends Storable> type = storable.storableType();
+        String[] names = PRIMARY_KEYS.get(type);
+        if (names == null) {
+            Set<String> keyNames = StorableIntrospector.examine(type).getPrimaryKeyProperties().keySet();
+            names = keyNames.toArray(new String[keyNames.size()]);
+            PRIMARY_KEYS.putIfAbsent(type, names);
+        }
+        Object[] values = new Object[names.length];
+        for (int i = 0; i < names.length; i++) {
+            values[i] = storable.getPropertyValue(names[i]);
+        }
+        return new StorableKey(type, values);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof StorableKey)) return false;
+        StorableKey other = (StorableKey) o;
+        return type == other.type && Arrays.deepEquals(values, other.values);
+    }
+
+    @Override
+    public String toString() {
+        return type.getName() + Arrays.deepToString(values);
+    }
+}
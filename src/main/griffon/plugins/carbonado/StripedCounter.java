@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Long counter spread over several padded cells so that threads updating it
+ * concurrently seldom touch the same cache line. Reads sum every cell and
+ * are therefore only weakly consistent with concurrent updates.
+ *
+ * @author Andres Almiray
+ */
+final class StripedCounter {
+    private static final int STRIPES = stripes();
+    private static final int MASK = STRIPES - 1;
+    // 8 longs = 64 bytes, one cell per cache line
+    private static final int PADDING = 8;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    void increment() {
+        cells.incrementAndGet(index());
+    }
+
+    void add(long delta) {
+        cells.addAndGet(index(), delta);
+    }
+
+    long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PADDING);
+        }
+        return sum;
+    }
+
+    void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PADDING, 0);
+        }
+    }
+
+    private static int index() {
+        return ((int) Thread.currentThread().getId() & MASK) * PADDING;
+    }
+
+    private static int stripes() {
+        int n = 1;
+        int processors = Runtime.getRuntime().availableProcessors();
+        while (n < processors * 2) n <<= 1;
+        return n;
+    }
+}
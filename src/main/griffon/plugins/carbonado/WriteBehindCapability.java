@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.Storable;
+import com.amazon.carbonado.capability.Capability;
+
+/**
+ * Asynchronous writes offered by repositories configured with an enabled
+ * {@code writeBehind} block. Obtain it with
+ * {@code repository.getCapability(WriteBehindCapability)}.
+ * <p>
+ * Queued writes are committed in batches by a background thread, hence
+ * they may be applied after writes made directly through the repository.
+ * Writes still queued when the application dies are lost.
+ *
+ * @author Andres Almiray
+ */
+public interface WriteBehindCapability extends Capability {
+    /**
+     * Queues an insert of a copy of {@code storable}, blocking while the
+     * queue is full.
+     */
+    void insert(Storable storable) throws InterruptedException;
+
+    /**
+     * Queues an update of a copy of {@code storable}, blocking while the
+     * queue is full. Updates of a storable whose write is still queued are
+     * merged into that write: the properties they set replace the queued
+     * values, the others keep them.
+     */
+    void update(Storable storable) throws InterruptedException;
+
+    /**
+     * Writes every queued storable, waiting at most {@code timeout}
+     * milliseconds.
+     *
+     * @return {@code true} if the queue was emptied in time
+     */
+    boolean flush(long timeout) throws InterruptedException;
+
+    int getQueueSize();
+
+    long getWrittenCount();
+
+    long getCoalescedCount();
+
+    long getFailedCount();
+
+    /**
+     * Number of queued writes dropped because they could not be written
+     * before the repository was disconnected.
+     */
+    long getDroppedCount();
+}
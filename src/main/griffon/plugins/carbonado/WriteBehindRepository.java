@@ -0,0 +1,345 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package griffon.plugins.carbonado;
+
+import com.amazon.carbonado.*;
+import com.amazon.carbonado.capability.Capability;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Repository decorator offering a {@link WriteBehindCapability}. Pending
+ * writes are kept in insertion order, one per primary key, and written by
+ * a single thread in batches of {@code batchSize} whenever a full batch is
+ * available or {@code flushInterval} milliseconds have elapsed.
+ * <p>
+ * Should a batch fail, its storables are retried one at a time so that
+ * only the offending ones are reported to the {@link FailureListener}.
+ *
+ * @author Andres Almiray
+ */
+public class WriteBehindRepository extends DelegatingRepository implements WriteBehindCapability {
+    private static final Logger LOG = LoggerFactory.getLogger(WriteBehindRepository.class);
+
+    public interface FailureListener {
+        void writeFailed(Storable storable, Throwable cause);
+    }
+
+    private final int queueSize;
+    private final int batchSize;
+    private final long flushInterval;
+    private final long drainTimeout;
+    private final FailureListener failureListener;
+    private final LinkedHashMap<StorableKey, Write> pending = new LinkedHashMap<StorableKey, Write>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final Condition batchReady = lock.newCondition();
+    private final Condition drained = lock.newCondition();
+    private final StripedCounter written = new StripedCounter();
+    private final StripedCounter coalesced = new StripedCounter();
+    private final StripedCounter failed = new StripedCounter();
+    private final StripedCounter dropped = new StripedCounter();
+    private final Thread writer;
+    private int inFlight;
+    private boolean flushRequested;
+    private volatile boolean closed;
+
+    public WriteBehindRepository(Repository delegate, int queueSize, int batchSize, long flushInterval, FailureListener failureListener) {
+        this(delegate, queueSize, batchSize, flushInterval, 30000L, failureListener);
+    }
+
+    /**
+     * @param queueSize     maximum number of pending writes
+     * @param batchSize     maximum number of writes per transaction
+     * @param flushInterval maximum milliseconds a write stays queued while the writer is idle
+     * @param drainTimeout  maximum milliseconds {@link #close()} waits for queued writes
+     */
+    public WriteBehindRepository(Repository delegate, int queueSize, int batchSize, long flushInterval, long drainTimeout, FailureListener failureListener) {
+        super(delegate);
+        this.queueSize = Math.max(1, queueSize);
+        this.batchSize = Math.max(1, batchSize);
+        this.flushInterval = Math.max(1L, flushInterval);
+        this.drainTimeout = Math.max(0L, drainTimeout);
+        this.failureListener = failureListener;
+        this.writer = new Thread(new Writer(), "carbonado-" + delegate.getName() + "-write-behind");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public void insert(Storable storable) throws InterruptedException {
+        enqueue(storable, true);
+    }
+
+    public void update(Storable storable) throws InterruptedException {
+        enqueue(storable, false);
+    }
+
+    public boolean flush(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        lock.lock();
+        try {
+            flushRequested = true;
+            batchReady.signal();
+            while (!pending.isEmpty() || inFlight > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0L || !writer.isAlive()) return false;
+                drained.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueueSize() {
+        lock.lock();
+        try {
+            return pending.size() + inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    @Override
+    public <C extends Capability> C getCapability(Class<C> capabilityType) {
+        if (capabilityType.isInstance(this)) return capabilityType.cast(this);
+        return super.getCapability(capabilityType);
+    }
+
+    /**
+     * Writes every queued storable, waiting at most {@code timeout}
+     * milliseconds, then stops the writer thread. The writer is never
+     * interrupted, as an interrupt may invalidate the environment of a
+     * BDB repository; it stops between batches, and the batch under way is
+     * committed or rolled back, which is awaited for another {@code timeout}
+     * milliseconds. Writes still queued are dropped. The wrapped repository
+     * is left open.
+     *
+     * @return the number of queued writes that were dropped
+     */
+    public int drain(long timeout) {
+        try {
+            flush(timeout);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int lost;
+        boolean stopped;
+        lock.lock();
+        try {
+            closed = true;
+            lost = pending.size();
+            pending.clear();
+            dropped.add(lost);
+            batchReady.signal();
+            notFull.signalAll();
+            stopped = awaitBatch(timeout);
+        } finally {
+            lock.unlock();
+        }
+        if (lost > 0) LOG.warn("Repository[" + getName() + "] dropped " + lost + " queued writes");
+        if (!stopped) LOG.warn("Repository[" + getName() + "] is still writing a batch after " + timeout + "ms");
+        return lost;
+    }
+
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    // waits under the lock for the batch being written, if any
+    private boolean awaitBatch(long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+        boolean interrupted = false;
+        try {
+            while (inFlight > 0 && writer.isAlive()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0L) return false;
+                try {
+                    drained.awaitNanos(remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            return true;
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Drains the queue, waiting at most the configured drain timeout, then
+     * closes the wrapped repository.
+     */
+    @Override
+    public void close() {
+        if (!closed) drain(drainTimeout);
+        super.close();
+    }
+
+    private void enqueue(Storable storable, boolean insert) throws InterruptedException {
+        if (closed) throw new IllegalStateException("Repository " + getName() + " is closed");
+        StorableKey key = StorableKey.of(storable);
+        Storable copy = storable.copy();
+        lock.lockInterruptibly();
+        try {
+            Write previous = pending.get(key);
+            if (previous != null) {
+                if (insert) {
+                    previous.storable = copy;
+                    previous.insert = true;
+                } else {
+                    // keeps the properties set by the queued write; an insert
+                    // followed by updates is still an insert
+                    copy.copyDirtyProperties(previous.storable);
+                }
+                coalesced.increment();
+                return;
+            }
+            while (pending.size() + inFlight >= queueSize) {
+                notFull.await();
+                if (closed) throw new IllegalStateException("Repository " + getName() + " is closed");
+            }
+            pending.put(key, new Write(copy, insert));
+            if (pending.size() >= batchSize) batchReady.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private List<Write> takeBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushInterval);
+            while (pending.size() < batchSize && !flushRequested && !closed) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0L) break;
+                batchReady.awaitNanos(remaining);
+            }
+            List<Write> batch = new ArrayList<Write>(Math.min(batchSize, pending.size()));
+            Iterator<Write> writes = pending.values().iterator();
+            while (writes.hasNext() && batch.size() < batchSize) {
+                batch.add(writes.next());
+                writes.remove();
+            }
+            if (pending.isEmpty()) flushRequested = false;
+            inFlight = batch.size();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void completeBatch() {
+        lock.lock();
+        try {
+            inFlight = 0;
+            notFull.signalAll();
+            if (pending.isEmpty() || closed) drained.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void writeBatch(List<Write> batch) {
+        try {
+            Transaction txn = delegate.enterTransaction();
+            try {
+                for (Write write : batch) {
+                    write.apply();
+                }
+                txn.commit();
+            } finally {
+                txn.exit();
+            }
+            written.add(batch.size());
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                reportFailure(batch.get(0).storable, e);
+                return;
+            }
+            for (Write write : batch) {
+                try {
+                    write.apply();
+                    written.increment();
+                } catch (Exception each) {
+                    reportFailure(write.storable, each);
+                }
+            }
+        }
+    }
+
+    private void reportFailure(Storable storable, Throwable cause) {
+        failed.increment();
+        LOG.warn("Repository[" + getName() + "] could not write " + storable, cause);
+        if (failureListener == null) return;
+        try {
+            failureListener.writeFailed(storable, cause);
+        } catch (RuntimeException e) {
+            LOG.warn("Repository[" + getName() + "] write failure listener failed", e);
+        }
+    }
+
+    private static final class Write {
+        private Storable storable;
+        private boolean insert;
+
+        private Write(Storable storable, boolean insert) {
+            this.storable = storable;
+            this.insert = insert;
+        }
+
+        // writes a copy, keeping the dirty state intact should the batch be retried
+        private void apply() throws PersistException {
+            Storable copy = storable.copy();
+            if (insert) {
+                copy.insert();
+            } else {
+                copy.update();
+            }
+        }
+    }
+
+    private final class Writer implements Runnable {
+        public void run() {
+            while (!closed) {
+                try {
+                    List<Write> batch = takeBatch();
+                    if (!batch.isEmpty()) writeBatch(batch);
+                    completeBatch();
+                } catch (InterruptedException e) {
+                    // not interrupted by drain, the flag is checked between batches
+                }
+            }
+        }
+    }
+}
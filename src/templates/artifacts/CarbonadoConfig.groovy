@@ -6,20 +6,135 @@ repository {
         password = ''
         tokenizeddl = false // set this to true if using MySQL or any other
                             // RDBMS that requires execution of DDL statements
-                            // on separate calls
+                            // on separate calls, or to stream large scripts
+        schema {
+            batchSize = 100 // statements per JDBC batch when tokenizeddl = true
+        }
+        suppressReload = false // set this to true to skip reloading storables after
+                               // insert/update, saving one round trip per write
+        // dataSourceFactory = com.acme.MyDataSourceFactory // a griffon.plugins.carbonado.DataSourceFactory
+        // dataSource = myDataSource // a javax.sql.DataSource supplied by the application, used as is
+        // replicas = ['jdbc:h2:tcp://replica/app'] // read replicas used by withCarbonadoReadOnly
+        // replicaSelection = 'roundRobin'           // one of ['roundRobin', 'leastLatency']
+        // replicaCheckInterval = 5000               // milliseconds between replica health checks
         pool {
             maxWait = 60000
             maxIdle = 5
             maxActive = 8
+            minIdle = 0     // connections kept open by the evictor, opened when the repository connects
+            prefill = false // open maxIdle connections when the repository connects
+            // validationQuery = 'SELECT 1' // validates connections on borrow
+            // testOnBorrow = true
+            // testWhileIdle = false        // validate idle connections while evicting
+            // evictionInterval = 60000     // milliseconds between eviction runs, unset disables the evictor
+            // minEvictableIdleTime = 1800000 // milliseconds a connection may stay idle
+            // maxOpenPreparedStatements = 0 // prepared statements cached per connection
+            // removeAbandoned = false      // reclaim connections not returned in time
+            // removeAbandonedTimeout = 300 // seconds
+            // logAbandoned = false         // log where leaked connections were borrowed
         }
     }
     bdb {
         environmentHomeFile = new File('.', 'carbonado-@griffon.project.key@')
         transactionWriteNoSync = true
+        // cacheSize = 64 * 1024 * 1024 // bytes, takes precedence over cachePercent
+        // cachePercent = 60            // percentage of the JVM heap
+        // logFileMaxSize = 10000000    // bytes per log file
+        // cleanerThreads = 1
+        // checkpointInterval = 60000   // milliseconds
+        // lockTimeout = 0.5            // seconds
+        // transactionTimeout = 300     // seconds
+        shutdown {
+            timeout = 30000    // milliseconds to wait for a clean close
+            checkpoint = true  // checkpoint before closing, shortens recovery on next startup
+            cleanLog = true    // clean the log before the final checkpoint
+        }
     }
     map {
-        //
+        snapshot {
+            // file = new File('.', '@griffon.project.key@.snapshot') // restored on connect when set
+            types = []          // fully qualified names of the storable types to snapshot
+            onDisconnect = true // write the snapshot when the repository disconnects
+        }
+    }
+    scratch {
+        cacheSize = 32 * 1024 * 1024 // bytes of Java heap used by the JE cache
+        // directory = '/tmp/carbonado' // defaults to a new temporary directory
+        // deleteOnDisconnect = true    // always true for temporary directories
+        // logFileMaxSize = 10000000    // bytes per log file
+    }
+    cached {
+        backing = 'jdbc' // repository cached when type = 'cached', one of ['jdbc', 'bdb']
+        maxSize = 10000  // maximum number of cached storables
+        eviction = 'lru' // one of ['lru', 'lfu']
+        ttl = 0          // milliseconds a cached storable remains valid, 0 means forever
+    }
+    replicated {
+        master = 'jdbc'  // repository receiving writes when type = 'replicated', one of ['jdbc', 'bdb']
+        replica = 'bdb'  // local repository serving reads, one of ['bdb', 'map']
+        resync {
+            types = []        // fully qualified names of the storable types to resync
+            parallelism = 1   // types resynced concurrently
+            throttle = 1.0    // fraction of time spent resyncing, lower it to leave room for other work
+            interval = 0      // milliseconds between resyncs, 0 resyncs once after connecting
+            stopTimeout = 10000 // milliseconds to wait for running resyncs on disconnect
+        }
+    }
+    sharded {
+        shards {
+            // each shard is configured like a repository when type = 'sharded', for example
+            // shard0 { type = 'bdb'; bdb { environmentHomeFile = new File('.', 'shard0') } }
+            // shard1 { type = 'bdb'; bdb { environmentHomeFile = new File('.', 'shard1') } }
+            // shards must not be reordered once data is stored, storables are routed by position
+        }
+    }
+    async {
+        // poolSize = 8          // threads used by withCarbonadoAsync, defaults to jdbc.pool.maxActive
+        // queueSize = 100       // pending calls accepted before the executor saturates
+        // rejection = 'abort'   // one of ['abort', 'callerRuns']
     }
+    queryCache {
+        maxSize = 256 // queries kept by withQuery, 0 disables caching
+    }
+    writeBehind {
+        enabled = false       // queue writes made through WriteBehindCapability
+        queueSize = 10000     // pending writes before callers block
+        batchSize = 500       // writes committed per transaction
+        flushInterval = 1000  // milliseconds a write may wait for a full batch
+        drainTimeout = 30000  // milliseconds to wait for queued writes on disconnect
+    }
+    changeFeed {
+        enabled = false     // publish CarbonadoChanges events
+        types = []          // storable types to follow, all of them if empty
+        window = 250        // milliseconds changes are gathered before publishing
+        maxBatchSize = 1000 // changed storables that publish the batch early
+    }
+    health {
+        enabled = false       // check the repository and guard calls with a circuit breaker
+        interval = 10000      // milliseconds between checks
+        timeout = 5           // seconds a check may take
+        failureThreshold = 5  // consecutive failed calls that open the breaker
+        openTimeout = 30000   // milliseconds before an open breaker lets trial calls through
+        trialCalls = 3        // successful trial calls that close the breaker
+        rebuildAfter = 3      // failed checks before the repository is rebuilt, 0 never
+    }
+    warmup {
+        types = []            // storable types whose storage is opened in the background on connect
+        threads = 2           // threads opening storages in parallel
+    }
+}
+
+metrics {
+    enabled = false       // record call counts, errors and latencies per repository
+    jmx = true            // register metrics as MBeans in the griffon.plugins.carbonado domain
+    publishInterval = 0   // milliseconds between CarbonadoMetrics events, 0 disables them
+    // window = 60000     // milliseconds of calls latencies cover, publishInterval or 60000 by default, 0 for all calls
+}
+
+eviction {
+    maxRepositories = 0   // named repositories kept connected, 0 for no limit
+    idleTimeout = 0       // milliseconds a named repository may stay unused, 0 for no limit
+    interval = 60000      // milliseconds between eviction runs
 }
 
 environments {
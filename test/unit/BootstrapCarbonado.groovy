@@ -0,0 +1,46 @@
+import com.amazon.carbonado.Repository
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Stands in for the application's BootstrapCarbonado, counting how often
+ * each hook runs per repository.
+ */
+class BootstrapCarbonado {
+    static final ConcurrentMap<String, AtomicInteger> inits = new ConcurrentHashMap<String, AtomicInteger>()
+    static final ConcurrentMap<String, AtomicInteger> destroys = new ConcurrentHashMap<String, AtomicInteger>()
+    static volatile Closure onInit
+    static volatile Closure onDestroy
+
+    static void reset() {
+        inits.clear()
+        destroys.clear()
+        onInit = null
+        onDestroy = null
+    }
+
+    static int initCount(String repositoryName) {
+        inits[repositoryName]?.get() ?: 0
+    }
+
+    static int destroyCount(String repositoryName) {
+        destroys[repositoryName]?.get() ?: 0
+    }
+
+    private static void count(ConcurrentMap<String, AtomicInteger> counts, String repositoryName) {
+        counts.putIfAbsent(repositoryName, new AtomicInteger())
+        counts[repositoryName].incrementAndGet()
+    }
+
+    def init = { String repositoryName, Repository repository ->
+        count(inits, repositoryName)
+        onInit?.call(repositoryName, repository)
+    }
+
+    def destroy = { String repositoryName, Repository repository ->
+        count(destroys, repositoryName)
+        onDestroy?.call(repositoryName, repository)
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.Repository
+import com.amazon.carbonado.repo.sleepycat.EnvironmentCapability
+import com.sleepycat.je.*
+import griffon.test.GriffonUnitTestCase
+
+/**
+ * @author Andres Almiray
+ */
+class BDBRestartTests extends GriffonUnitTestCase {
+    private static final int RECORDS = 100000
+
+    private File home
+    private File crashed
+    private TestApplication application
+
+    protected void setUp() {
+        super.setUp()
+        BootstrapCarbonado.reset()
+        home = temporaryDirectory('home')
+        crashed = temporaryDirectory('crashed')
+        application = new TestApplication("""
+            repositories {
+                restart {
+                    type = 'bdb'
+                    bdb {
+                        environmentHome = '${home.absolutePath}'
+                        transactionNoSync = true
+                        cleanerThreads = 2
+                        initialEnvironmentConfig = new com.sleepycat.je.EnvironmentConfig(['je.lock.nLockTables': '7'] as Properties).setAllowCreate(true).setTransactional(true)
+                    }
+                }
+            }
+        """)
+    }
+
+    protected void tearDown() {
+        application.disconnectAll()
+        [home, crashed]*.deleteDir()
+        super.tearDown()
+    }
+
+    void testCleanerThreadsKeepTheInitialEnvironmentConfig() {
+        def builder = CarbonadoConnector.instance.createBDBRepositoryBuilder(application.carbonadoConfig.repositories.restart.bdb, 'restart')
+        EnvironmentConfig environmentConfig = builder.initialEnvironmentConfig
+        assertEquals '7', environmentConfig.getConfigParam('je.lock.nLockTables')
+        assertEquals '2', environmentConfig.getConfigParam('je.cleaner.threads')
+    }
+
+    void testCleanCloseShortensRestart() {
+        Repository repository = RepositoryHolder.instance.fetchRepository('restart')
+        Environment environment = repository.getCapability(EnvironmentCapability).environment
+        Database database = environment.openDatabase(null, 'restart', new DatabaseConfig(allowCreate: true, transactional: true))
+        try {
+            byte[] value = new byte[100]
+            for (int i = 0; i < RECORDS; i++) {
+                database.put(null, new DatabaseEntry(String.valueOf(i).bytes), new DatabaseEntry(value))
+            }
+        } finally {
+            database.close()
+        }
+
+        // what a crash leaves behind: the log as written, without a final checkpoint
+        environment.flushLog(false)
+        home.eachFile { File file -> new File(crashed, file.name).bytes = file.bytes }
+        new File(crashed, 'je.lck').delete()
+
+        CarbonadoConnector.instance.disconnect(application.app, application.carbonadoConfig, 'restart')
+
+        long recovered = timeToOpen(crashed)
+        long clean = timeToOpen(home)
+        println "BerkeleyDB restart of ${RECORDS} records: ${clean}ms after a clean close, ${recovered}ms after a crash"
+        assert clean < recovered
+    }
+
+    private static long timeToOpen(File directory) {
+        long start = System.nanoTime()
+        Environment environment = new Environment(directory, new EnvironmentConfig(transactional: true))
+        long elapsed = (System.nanoTime() - start) / 1000000L
+        try {
+            Database database = environment.openDatabase(null, 'restart', new DatabaseConfig(transactional: true))
+            assertEquals RECORDS, database.count()
+            database.close()
+        } finally {
+            environment.close()
+        }
+        elapsed
+    }
+
+    private static File temporaryDirectory(String prefix) {
+        File directory = new File(System.getProperty('java.io.tmpdir'), "carbonado-${prefix}-${System.nanoTime()}")
+        assert directory.mkdir()
+        directory
+    }
+}
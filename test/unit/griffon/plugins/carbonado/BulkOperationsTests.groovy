@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.PersistException
+import com.amazon.carbonado.Repository
+import com.amazon.carbonado.Storage
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder
+import griffon.test.GriffonUnitTestCase
+
+/**
+ * @author Andres Almiray
+ */
+class BulkOperationsTests extends GriffonUnitTestCase {
+    private Repository repository
+    private Storage<TestRecord> storage
+
+    protected void setUp() {
+        super.setUp()
+        repository = new MapRepositoryBuilder(name: 'bulk').build()
+        storage = repository.storageFor(TestRecord)
+    }
+
+    protected void tearDown() {
+        repository.close()
+        super.tearDown()
+    }
+
+    void testInsertAllWritesEveryStorable() {
+        assertEquals 1234, BulkOperations.insertAll(repository, records(0..<1234), 100)
+        assertEquals 1234, storage.query().count()
+    }
+
+    void testFailedChunkLeavesPreviousChunksCommitted() {
+        // the 23rd record repeats a key, failing the third chunk
+        List<TestRecord> batch = records(0..<22) + records([5]) + records(22..<25)
+        shouldFail(PersistException) { BulkOperations.insertAll(repository, batch, 10) }
+        assertEquals 20, storage.query().count()
+    }
+
+    void testUpdateAllWritesEveryStorable() {
+        BulkOperations.insertAll(repository, records(0..<50))
+        List<TestRecord> updates = records(0..<50).each { it.name = 'updated' }
+        assertEquals 50, BulkOperations.updateAll(repository, updates, 7)
+        assertEquals 50, storage.query('name = ?').with('updated').count()
+    }
+
+    private List<TestRecord> records(Collection<Integer> ids) {
+        ids.collect { int id ->
+            TestRecord record = storage.prepare()
+            record.id = id
+            record.name = "record-${id}".toString()
+            record
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.Repository
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder
+import griffon.test.GriffonUnitTestCase
+
+/**
+ * @author Andres Almiray
+ */
+class BulkTransferTests extends GriffonUnitTestCase {
+    private File directory
+    private File checkpoints
+    private Repository source
+    private List<Repository> repositories
+
+    protected void setUp() {
+        super.setUp()
+        directory = File.createTempFile('bulk-transfer', '')
+        directory.delete()
+        directory.mkdirs()
+        checkpoints = new File(directory, 'checkpoints')
+        repositories = []
+        source = populated(repositoryNamed('source'))
+    }
+
+    protected void tearDown() {
+        repositories*.close()
+        directory.deleteDir()
+        super.tearDown()
+    }
+
+    void testCopyResumesIntoTheSameTarget() {
+        Repository target = repositoryNamed('target')
+        interruptedAt(20) { BulkTransfer transfer -> transfer.copy(source, target, [TestRecord]) }
+        assertEquals 20L, count(target)
+
+        // progress is reported from the checkpoint on, so only the last chunk is read
+        List<Long> reported = []
+        Map<String, Long> counts = transfer(reported).copy(source, target, [TestRecord])
+        assertEquals 25L, counts[TestRecord.name]
+        assertEquals([25L], reported)
+        assertEquals 25L, count(target)
+        assertEquals 0, checkpoints.listFiles().length
+    }
+
+    void testCheckpointOfAnotherTargetIsIgnored() {
+        interruptedAt(20) { BulkTransfer transfer -> transfer.copy(source, repositoryNamed('target'), [TestRecord]) }
+
+        Repository other = repositoryNamed('other')
+        List<Long> reported = []
+        assertEquals 25L, transfer(reported).copy(source, other, [TestRecord])[TestRecord.name]
+        assertEquals([10L, 20L, 25L], reported)
+        assertEquals 25L, count(other)
+    }
+
+    void testCheckpointOfAnotherSourceIsIgnored() {
+        Repository target = repositoryNamed('target')
+        interruptedAt(20) { BulkTransfer transfer -> transfer.copy(populated(repositoryNamed('elsewhere')), target, [TestRecord]) }
+
+        List<Long> reported = []
+        assertEquals 25L, transfer(reported).copy(source, target, [TestRecord])[TestRecord.name]
+        assertEquals([10L, 20L, 25L], reported)
+        assertEquals 25L, count(target)
+    }
+
+    void testImportCheckpointOfAnotherExportIsIgnored() {
+        File exported = new File(directory, 'exported')
+        new BulkTransfer().exportTo(source, exported, [TestRecord])
+        Repository target = repositoryNamed('target')
+        interruptedAt(20) { BulkTransfer transfer -> transfer.importFrom(exported, target, [TestRecord]) }
+
+        // exporting again replaces the file the checkpoint's offset points into
+        TestRecord record = source.storageFor(TestRecord).prepare()
+        record.id = 26L
+        record.name = 'record 26'
+        record.insert()
+        File file = BulkTransfer.fileFor(exported, TestRecord)
+        new BulkTransfer().exportTo(source, exported, [TestRecord])
+        file.setLastModified(file.lastModified() + 1000L)
+
+        List<Long> reported = []
+        Repository fresh = repositoryNamed('fresh')
+        assertEquals 26L, transfer(reported).importFrom(exported, fresh, [TestRecord])[TestRecord.name]
+        assertEquals([10L, 20L, 26L], reported)
+        assertEquals 26L, count(fresh)
+    }
+
+    void testCheckpointsAreOptional() {
+        Repository target = repositoryNamed('target')
+        BulkTransfer unrecorded = new BulkTransfer(10, 1, null, { String typeName, long count, long elapsed, boolean done ->
+            if (count == 20L && !done) throw new IllegalStateException('interrupted')
+        } as BulkTransfer.Listener)
+        shouldFail(IllegalStateException) { unrecorded.copy(source, target, [TestRecord]) }
+        assert !checkpoints.exists()
+
+        List<Long> reported = []
+        assertEquals 25L, transfer(reported).copy(source, target, [TestRecord])[TestRecord.name]
+        assertEquals([10L, 20L, 25L], reported)
+    }
+
+    private void interruptedAt(long at, Closure work) {
+        BulkTransfer transfer = new BulkTransfer(10, 1, checkpoints, { String typeName, long count, long elapsed, boolean done ->
+            if (count == at && !done) throw new IllegalStateException('interrupted')
+        } as BulkTransfer.Listener)
+        shouldFail(IllegalStateException) { work(transfer) }
+        assertEquals 1, checkpoints.listFiles().length
+    }
+
+    private BulkTransfer transfer(List<Long> reported) {
+        new BulkTransfer(10, 1, checkpoints, { String typeName, long count, long elapsed, boolean done ->
+            if (!done) reported << count
+        } as BulkTransfer.Listener)
+    }
+
+    private Repository repositoryNamed(String name) {
+        Repository repository = new MapRepositoryBuilder(name: name).build()
+        repositories << repository
+        repository
+    }
+
+    private static Repository populated(Repository repository) {
+        (1..25).each { long id ->
+            TestRecord record = repository.storageFor(TestRecord).prepare()
+            record.id = id
+            record.name = "record ${id}"
+            record.insert()
+        }
+        repository
+    }
+
+    private static long count(Repository repository) {
+        repository.storageFor(TestRecord).query().count()
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.*
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder
+import griffon.test.GriffonUnitTestCase
+
+import java.util.concurrent.*
+
+/**
+ * @author Andres Almiray
+ */
+class CachingRepositoryTests extends GriffonUnitTestCase {
+    private Repository backing
+    private CachingRepository repository
+    private CacheCapability cache
+    private Storage<TestRecord> storage
+
+    protected void setUp() {
+        super.setUp()
+        backing = new MapRepositoryBuilder(name: 'cached').build()
+        repository = new CachingRepository(backing, 1000, 0L)
+        cache = repository.getCapability(CacheCapability)
+        storage = repository.storageFor(TestRecord)
+        (1..3).each { insert(it, "record ${it}") }
+    }
+
+    protected void tearDown() {
+        repository.close()
+        super.tearDown()
+    }
+
+    void testPlainLoadsGoThroughTheCache() {
+        assertEquals 'record 1', load(1).name
+        assertEquals 'record 1', load(1).name
+        assertEquals 1L, cache.missCount
+        assertEquals 1L, cache.hitCount
+
+        assertNull tryLoad(42)
+        assertEquals 1, cache.size
+    }
+
+    void testWritesEvict() {
+        load(1)
+        TestRecord record = load(1)
+        record.name = 'changed'
+        record.update()
+        assertEquals 'changed', load(1).name
+
+        TestRecord fetched = storage.query('id = ?').with(2L).loadOne()
+        fetched.name = 'fetched'
+        fetched.update()
+        assertEquals 'fetched', load(2).name
+
+        load(3).delete()
+        assertNull tryLoad(3)
+    }
+
+    void testLoadRacingWithAWriteDoesNotCacheTheOldState() {
+        CountDownLatch loaded = new CountDownLatch(1)
+        CountDownLatch written = new CountDownLatch(1)
+        Thread reader = Thread.currentThread()
+        backing.storageFor(TestRecord).addTrigger(new Trigger<TestRecord>() {
+            void afterLoad(TestRecord storable) {
+                if (Thread.currentThread() != reader && loaded.count > 0) {
+                    loaded.countDown()
+                    assert written.await(10, TimeUnit.SECONDS)
+                }
+            }
+        })
+        ExecutorService pool = Executors.newSingleThreadExecutor()
+        try {
+            reader = null
+            Future<TestRecord> stale = pool.submit({ load(1) } as Callable<TestRecord>)
+            assert loaded.await(10, TimeUnit.SECONDS)
+            reader = Thread.currentThread()
+
+            TestRecord record = storage.prepare()
+            record.id = 1L
+            record.name = 'changed'
+            record.update()
+            written.countDown()
+
+            assertEquals 'record 1', stale.get(10, TimeUnit.SECONDS).name
+            assertEquals 'changed', load(1).name
+        } finally {
+            written.countDown()
+            pool.shutdownNow()
+        }
+    }
+
+    void testTransactionsEvictOnceFinished() {
+        load(1)
+        Transaction txn = repository.enterTransaction()
+        try {
+            TestRecord record = load(1)
+            record.name = 'uncommitted'
+            record.update()
+            // loads inside the transaction see its own writes
+            assertEquals 'uncommitted', load(1).name
+        } finally {
+            txn.exit()
+        }
+        assertEquals 'record 1', load(1).name
+
+        txn = repository.enterTransaction()
+        try {
+            TestRecord record = load(1)
+            record.name = 'committed'
+            record.update()
+            txn.commit()
+        } finally {
+            txn.exit()
+        }
+        assertEquals 'committed', load(1).name
+    }
+
+    void testLfuKeepsFrequentlyUsedStorables() {
+        assertFalse survivesScan(new CachingRepository(new MapRepositoryBuilder(name: 'lru').build(), 160, 0L, false))
+        assertTrue survivesScan(new CachingRepository(new MapRepositoryBuilder(name: 'lfu').build(), 160, 0L, true))
+    }
+
+    void testTtlExpiresEntries() {
+        CachingRepository expiring = new CachingRepository(backing, 1000, 1L)
+        TestRecord key = expiring.storageFor(TestRecord).prepare()
+        key.id = 1L
+        key.load()
+        Thread.sleep(5L)
+        key.load()
+        assertEquals 2L, expiring.getCapability(CacheCapability).missCount
+    }
+
+    private static boolean survivesScan(CachingRepository cached) {
+        try {
+            Storage<TestRecord> records = cached.storageFor(TestRecord)
+            (0..<500).each { long id ->
+                TestRecord record = records.prepare()
+                record.id = id
+                record.insert()
+            }
+            TestRecord hot = records.prepare()
+            hot.id = 0L
+            100.times { hot.load() }
+            (1..<500).each { long id ->
+                TestRecord record = records.prepare()
+                record.id = id
+                record.load()
+            }
+            long misses = cached.getCapability(CacheCapability).missCount
+            hot.load()
+            cached.getCapability(CacheCapability).missCount == misses
+        } finally {
+            cached.close()
+        }
+    }
+
+    private void insert(long id, String name) {
+        TestRecord record = storage.prepare()
+        record.id = id
+        record.name = name
+        record.insert()
+    }
+
+    private TestRecord load(long id) {
+        TestRecord record = tryLoad(id)
+        assertNotNull record
+        record
+    }
+
+    private TestRecord tryLoad(long id) {
+        TestRecord record = storage.prepare()
+        record.id = id
+        record.tryLoad() ? record : null
+    }
+}
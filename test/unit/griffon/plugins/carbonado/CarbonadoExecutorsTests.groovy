@@ -0,0 +1,117 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.Repository
+import griffon.core.UIThreadManager
+import griffon.test.GriffonUnitTestCase
+
+import java.util.concurrent.*
+
+/**
+ * @author Andres Almiray
+ */
+class CarbonadoExecutorsTests extends GriffonUnitTestCase {
+    private TestApplication application
+    private CountDownLatch release
+
+    protected void setUp() {
+        super.setUp()
+        BootstrapCarbonado.reset()
+        release = new CountDownLatch(1)
+        application = new TestApplication('''
+            repositories {
+                queued {
+                    type = 'map'
+                    async { poolSize = 1; queueSize = 10 }
+                }
+                busy {
+                    type = 'map'
+                    async { poolSize = 1; queueSize = 1; rejection = 'callerRuns' }
+                }
+            }
+        ''')
+    }
+
+    protected void tearDown() {
+        release.countDown()
+        GroovySystem.metaClassRegistry.removeMetaClass(UIThreadManager)
+        application.disconnectAll()
+        super.tearDown()
+    }
+
+    void testQueuedCallsAreCancelledOnDisconnect() {
+        CountDownLatch started = new CountDownLatch(1)
+        Future<String> running = async('queued') { String rn, Repository r ->
+            started.countDown()
+            release.await(10, TimeUnit.SECONDS)
+            rn
+        }
+        assert started.await(10, TimeUnit.SECONDS)
+        List<Future<String>> queued = (1..3).collect { async('queued') { String rn, Repository r -> rn } }
+
+        CarbonadoConnector.instance.disconnect(application.app, application.carbonadoConfig, 'queued')
+        release.countDown()
+
+        assertEquals 'queued', running.get(10, TimeUnit.SECONDS)
+        assert queued.every { it.cancelled }
+        assertFalse RepositoryHolder.instance.isRepositoryConnected('queued')
+        assertEquals 1, BootstrapCarbonado.initCount('queued')
+    }
+
+    void testCallerRunsNeverRunsOnTheUIThread() {
+        CountDownLatch started = new CountDownLatch(1)
+        async('busy') { String rn, Repository r ->
+            started.countDown()
+            release.await(10, TimeUnit.SECONDS)
+        }
+        assert started.await(10, TimeUnit.SECONDS)
+        async('busy') { String rn, Repository r -> rn }
+
+        // a full queue runs the call on a regular caller
+        Future<Thread> ranOn = async('busy') { String rn, Repository r -> Thread.currentThread() }
+        assertSame Thread.currentThread(), ranOn.get()
+
+        UIThreadManager.metaClass.isUIThread = { -> true }
+        shouldFail(RejectedExecutionException) {
+            async('busy') { String rn, Repository r -> rn }
+        }
+    }
+
+    void testCallerRunsNeverRunsStreamsOnTheCaller() {
+        CountDownLatch started = new CountDownLatch(1)
+        async('busy') { String rn, Repository r ->
+            started.countDown()
+            release.await(10, TimeUnit.SECONDS)
+        }
+        assert started.await(10, TimeUnit.SECONDS)
+        async('busy') { String rn, Repository r -> rn }
+
+        List<Thread> readers = []
+        shouldFail(RejectedExecutionException) {
+            DefaultCarbonadoProvider.instance.withCarbonadoStream('busy', { String rn, Repository r ->
+                readers << Thread.currentThread()
+                r.storageFor(TestRecord).query().fetch()
+            } as RepositoryCallback, 10, [onPage: {}, onComplete: {}, onError: {}] as PageHandler)
+        }
+        assert readers.empty
+    }
+
+    private <R> Future<R> async(String repositoryName, Closure<R> closure) {
+        DefaultCarbonadoProvider.instance.withCarbonadoAsync(repositoryName, closure)
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.Repository
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder
+import griffon.test.GriffonUnitTestCase
+
+import javax.management.MBeanServer
+import javax.management.ObjectName
+import java.lang.management.ManagementFactory
+import java.util.concurrent.*
+
+/**
+ * @author Andres Almiray
+ */
+class CarbonadoMetricsTests extends GriffonUnitTestCase {
+    private static final String NAME = 'measured'
+    private static final ObjectName OBJECT_NAME = new ObjectName("griffon.plugins.carbonado:type=Repository,name=\"${NAME}\"")
+
+    private Repository repository
+    private InstrumentedCarbonadoProvider provider
+
+    protected void setUp() {
+        super.setUp()
+        repository = new MapRepositoryBuilder(name: NAME).build()
+        provider = new InstrumentedCarbonadoProvider(new TestProvider(repository: repository))
+    }
+
+    protected void tearDown() {
+        CarbonadoMetrics.instance.remove(NAME)
+        CarbonadoMetrics.instance.shutdown()
+        repository.close()
+        super.tearDown()
+    }
+
+    void testCallsAreCounted() {
+        5.times { provider.withCarbonado(NAME) { String rn, Repository r -> rn } }
+        2.times {
+            shouldFail(IllegalStateException) {
+                provider.withCarbonado(NAME, { String rn, Repository r -> throw new IllegalStateException('boom') } as RepositoryCallback)
+            }
+        }
+
+        CountDownLatch entered = new CountDownLatch(1)
+        CountDownLatch release = new CountDownLatch(1)
+        Thread caller = Thread.start {
+            provider.withCarbonado(NAME) { String rn, Repository r ->
+                entered.countDown()
+                release.await(10, TimeUnit.SECONDS)
+            }
+        }
+        assert entered.await(10, TimeUnit.SECONDS)
+        RepositoryMetrics metrics = CarbonadoMetrics.instance.metricsFor(NAME)
+        assertEquals 1, metrics.inFlight
+        release.countDown()
+        caller.join(10000L)
+
+        assertEquals 8L, metrics.callCount
+        assertEquals 2L, metrics.errorCount
+        assertEquals 0, metrics.inFlight
+    }
+
+    void testLatenciesCoverTheLastWindow() {
+        LatencyHistogram latency = new LatencyHistogram(400L)
+        10.times { latency.record(TimeUnit.MILLISECONDS.toNanos(8L)) }
+        // nothing is reported while the first window is open
+        assertEquals 0d, latency.getPercentileMillis(0.99d)
+
+        awaitNextWindow(latency)
+        assertEquals 10L, latency.count
+        assertEquals 8d, latency.getPercentileMillis(0.50d), 2d
+        assertEquals 8d, latency.maxMillis, 0d
+        10.times { latency.record(TimeUnit.MILLISECONDS.toNanos(1L)) }
+
+        awaitNextWindow(latency)
+        // the slow calls of the previous window no longer count
+        assertEquals 10L, latency.count
+        assertEquals 1d, latency.getPercentileMillis(0.99d), 0.25d
+        assertEquals 1d, latency.maxMillis, 0d
+
+        // a window without calls reports nothing
+        Thread.sleep(1000L)
+        assertEquals 0L, latency.count
+        assertEquals 0d, latency.getPercentileMillis(0.50d)
+        assertEquals 0d, latency.meanMillis
+    }
+
+    void testCallCountsOutliveWindows() {
+        RepositoryMetrics metrics = new RepositoryMetrics(NAME, 50L)
+        3.times { metrics.stop(metrics.start(), it == 0) }
+        Thread.sleep(200L)
+        assertEquals 0d, metrics.maxLatency
+        assertEquals 3L, metrics.callCount
+        assertEquals 1L, metrics.errorCount
+    }
+
+    void testZeroWindowIsCumulative() {
+        LatencyHistogram latency = new LatencyHistogram(0L)
+        latency.record(TimeUnit.MILLISECONDS.toNanos(4L))
+        assertEquals 4d, latency.maxMillis, 0d
+        Thread.sleep(50L)
+        assertEquals 4d, latency.getPercentileMillis(0.50d), 1d
+        assertEquals 1L, latency.count
+        latency.reset()
+        assertEquals 0d, latency.maxMillis
+        assertEquals 0L, latency.count
+    }
+
+    void testMBeansFollowTheRepository() {
+        MBeanServer server = ManagementFactory.platformMBeanServer
+        CarbonadoMetrics.instance.enable(true, 60000L)
+        provider.withCarbonado(NAME) { String rn, Repository r -> rn }
+
+        assertTrue server.isRegistered(OBJECT_NAME)
+        assertEquals 1L, server.getAttribute(OBJECT_NAME, 'CallCount')
+        assertEquals 60000L, server.getAttribute(OBJECT_NAME, 'LatencyWindow')
+
+        CarbonadoMetrics.instance.remove(NAME)
+        assertFalse server.isRegistered(OBJECT_NAME)
+        // metrics created again for the name register again
+        provider.withCarbonado(NAME) { String rn, Repository r -> rn }
+        assertTrue server.isRegistered(OBJECT_NAME)
+        CarbonadoMetrics.instance.shutdown()
+        assertFalse server.isRegistered(OBJECT_NAME)
+    }
+
+    void testMetricsArePublishedPeriodically() {
+        TestApplication application = new TestApplication('')
+        CarbonadoMetrics.instance.enable(false, 50L)
+        3.times { provider.withCarbonado(NAME) { String rn, Repository r -> rn } }
+        CarbonadoMetrics.instance.startPublishing(application.app, 50L)
+
+        long deadline = System.currentTimeMillis() + 10000L
+        Map<String, Object> figures = null
+        while (figures == null && System.currentTimeMillis() < deadline) {
+            figures = application.eventsNamed('CarbonadoMetrics').collectMany { it[0] }.find { it.repositoryName == NAME }
+            if (figures == null) Thread.sleep(10L)
+        }
+        assertNotNull figures
+        assertEquals 3L, figures.callCount
+        assertEquals 0L, figures.errorCount
+        assertEquals 50L, figures.latencyWindow
+        assertEquals(-1, figures.poolActive)
+    }
+
+    private static void awaitNextWindow(LatencyHistogram latency) {
+        Thread.sleep(latency.windowMillis + 50L)
+    }
+}
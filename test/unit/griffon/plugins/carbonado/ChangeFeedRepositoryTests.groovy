@@ -0,0 +1,218 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.*
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder
+import griffon.test.GriffonUnitTestCase
+
+import static griffon.plugins.carbonado.StorableChange.Kind.*
+
+/**
+ * @author Andres Almiray
+ */
+class ChangeFeedRepositoryTests extends GriffonUnitTestCase {
+    private Repository backing
+    private ChangeFeedRepository repository
+    private List<List<StorableChange>> batches = [].asSynchronized()
+
+    protected void setUp() {
+        super.setUp()
+        backing = new MapRepositoryBuilder(name: 'changes').build()
+        // nothing is published before stopPublishing unless a batch fills up
+        repository = feed(60000L, 1000)
+    }
+
+    protected void tearDown() {
+        repository.close()
+        super.tearDown()
+    }
+
+    void testCommittedChangesArePublished() {
+        Transaction txn = repository.enterTransaction()
+        try {
+            insert(1L, 'one')
+            insert(2L, 'two')
+            assertEquals 0, batches.size()
+            txn.commit()
+        } finally {
+            txn.exit()
+        }
+        assertEquals([[INSERTED, 1L], [INSERTED, 2L]], published())
+    }
+
+    void testRolledBackChangesAreDropped() {
+        Transaction txn = repository.enterTransaction()
+        try {
+            insert(1L, 'one')
+        } finally {
+            txn.exit()
+        }
+        assertNull load(1L)
+        assertEquals([], published())
+    }
+
+    void testNestedChangesWaitForTheOutermostCommit() {
+        Transaction outer = repository.enterTransaction()
+        try {
+            // a top transaction commits on its own
+            Transaction top = repository.enterTopTransaction(null)
+            try {
+                insert(4L, 'four')
+                top.commit()
+            } finally {
+                top.exit()
+            }
+            insert(1L, 'one')
+            Transaction inner = repository.enterTransaction()
+            try {
+                insert(2L, 'two')
+                inner.commit()
+            } finally {
+                inner.exit()
+            }
+            inner = repository.enterTransaction()
+            try {
+                insert(3L, 'three')
+            } finally {
+                inner.exit()
+            }
+            outer.commit()
+        } finally {
+            outer.exit()
+        }
+        assertEquals([[INSERTED, 4L], [INSERTED, 1L], [INSERTED, 2L]], published())
+    }
+
+    void testNestedChangesAreDroppedWithTheOutermostTransaction() {
+        Transaction outer = repository.enterTransaction()
+        try {
+            Transaction inner = repository.enterTransaction()
+            try {
+                insert(1L, 'one')
+                inner.commit()
+            } finally {
+                inner.exit()
+            }
+        } finally {
+            outer.exit()
+        }
+        assertEquals([], published())
+    }
+
+    void testWritesOutsideTransactionsArePublishedOnceCommitted() {
+        insert(1L, 'one')
+        insert(2L, 'two')
+        TestRecord fetched = repository.storageFor(TestRecord).query('id = ?').with(1L).loadOne()
+        fetched.name = 'renamed'
+        fetched.update()
+        assertEquals 'renamed', load(1L).name
+        load(2L).delete()
+        assertEquals([[INSERTED, 1L]], published())
+        assertEquals 'renamed', batches[0][0].storable.name
+    }
+
+    void testFailedWritesOutsideTransactionsAreDropped() {
+        // triggers run in the order they were added, this one runs after the
+        // change was seen and fails the write before it commits
+        repository.storageFor(TestRecord)
+        backing.storageFor(TestRecord).addTrigger(new Trigger<TestRecord>() {
+            void afterInsert(TestRecord record, Object state) {
+                if (record.name == 'failing') throw new PersistException('rejected')
+            }
+        })
+        shouldFail(PersistException) { insert(1L, 'failing') }
+        insert(2L, 'two')
+        assertNull load(1L)
+        assertEquals([[INSERTED, 2L]], published())
+    }
+
+    void testChangesAreFoldedWithinAWindow() {
+        // written before the feed follows the type
+        TestRecord existing = backing.storageFor(TestRecord).prepare()
+        existing.id = 3L
+        existing.name = 'three'
+        existing.insert()
+
+        insert(1L, 'one')
+        TestRecord record = load(1L)
+        record.name = 'renamed'
+        record.update()
+        // an insert and a delete cancel each other, a delete and an insert make an update
+        insert(2L, 'two')
+        load(2L).delete()
+        load(3L).delete()
+        insert(3L, 'again')
+
+        assertEquals([[INSERTED, 1L], [UPDATED, 3L]], published())
+        assertEquals(['renamed', 'again'], batches[0]*.storable*.name)
+    }
+
+    void testWindowsArePublishedSeparately() {
+        repository.close()
+        backing = new MapRepositoryBuilder(name: 'changes').build()
+        repository = feed(100L, 1000)
+        insert(1L, 'one')
+        awaitBatches(1)
+        insert(2L, 'two')
+        awaitBatches(2)
+        assertEquals([[[INSERTED, 1L]], [[INSERTED, 2L]]], batches.collect { summary(it) })
+    }
+
+    void testFullBatchesArePublishedEarly() {
+        repository.close()
+        backing = new MapRepositoryBuilder(name: 'changes').build()
+        repository = feed(60000L, 3)
+        (1L..3L).each { long id -> insert(id, "record ${id}".toString()) }
+        awaitBatches(1)
+        assertEquals([[INSERTED, 1L], [INSERTED, 2L], [INSERTED, 3L]], summary(batches[0]))
+    }
+
+    private ChangeFeedRepository feed(long window, int maxBatchSize) {
+        new ChangeFeedRepository(backing, [TestRecord], window, maxBatchSize, { String repositoryName, List<StorableChange> changes ->
+            batches << changes
+        } as ChangeFeedRepository.Listener)
+    }
+
+    private List<List> published() {
+        repository.stopPublishing()
+        batches.collectMany { summary(it) }
+    }
+
+    private static List<List> summary(List<StorableChange> changes) {
+        changes.collect { [it.kind, it.storable.id] }
+    }
+
+    private void awaitBatches(int count) {
+        long deadline = System.currentTimeMillis() + 10000L
+        while (batches.size() < count && System.currentTimeMillis() < deadline) Thread.sleep(10L)
+        assertEquals count, batches.size()
+    }
+
+    private void insert(long id, String name) {
+        TestRecord record = repository.storageFor(TestRecord).prepare()
+        record.id = id
+        record.name = name
+        record.insert()
+    }
+
+    private TestRecord load(long id) {
+        TestRecord record = repository.storageFor(TestRecord).prepare()
+        record.id = id
+        record.tryLoad() ? record : null
+    }
+}
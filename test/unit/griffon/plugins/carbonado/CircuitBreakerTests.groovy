@@ -0,0 +1,148 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.FetchException
+import com.amazon.carbonado.FetchTimeoutException
+import com.amazon.carbonado.PersistException
+import com.amazon.carbonado.Repository
+import com.amazon.carbonado.UniqueConstraintException
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder
+import griffon.test.GriffonUnitTestCase
+
+import java.sql.SQLException
+
+import static griffon.plugins.carbonado.CircuitBreaker.State.*
+
+/**
+ * @author Andres Almiray
+ */
+class CircuitBreakerTests extends GriffonUnitTestCase {
+    private static final String NAME = 'guarded'
+
+    private List<List> transitions
+    private CircuitBreaker breaker
+
+    protected void setUp() {
+        super.setUp()
+        transitions = []
+        breaker = new CircuitBreaker(NAME, 3, 60000L, 2, { String rn, CircuitBreaker.State from, CircuitBreaker.State to ->
+            transitions << [from, to]
+        } as CircuitBreaker.Listener)
+    }
+
+    protected void tearDown() {
+        CircuitBreakers.instance.remove(NAME)
+        super.tearDown()
+    }
+
+    void testConsecutiveFailuresOpen() {
+        2.times { failCall(new FetchException('down')) }
+        assertEquals CLOSED, breaker.state
+
+        // a success resets the count
+        assertFalse breaker.acquire()
+        breaker.success(false)
+        2.times { failCall(new FetchException('down')) }
+        assertEquals CLOSED, breaker.state
+
+        failCall(new SQLException('down'))
+        assertEquals OPEN, breaker.state
+        assertEquals([[CLOSED, OPEN]], transitions)
+        shouldFail(CarbonadoException) { breaker.acquire() }
+    }
+
+    void testOnlyUnavailabilityIsCounted() {
+        assert CircuitBreaker.isUnavailable(new FetchException('down'))
+        assert CircuitBreaker.isUnavailable(new PersistException('down'))
+        assert CircuitBreaker.isUnavailable(new FetchTimeoutException('slow'))
+        assert CircuitBreaker.isUnavailable(new CarbonadoException('wrapped', new SQLException('down')))
+        assert !CircuitBreaker.isUnavailable(new UniqueConstraintException('duplicate'))
+        assert !CircuitBreaker.isUnavailable(new IllegalArgumentException('bad call'))
+
+        5.times { failCall(new UniqueConstraintException('duplicate')) }
+        assertEquals CLOSED, breaker.state
+        // an exception that could not be captured counts
+        3.times { breaker.failure(breaker.acquire(), null) }
+        assertEquals OPEN, breaker.state
+    }
+
+    void testTrialsCloseOrReopen() {
+        breaker.trip()
+        breaker.probeSucceeded()
+        assertEquals HALF_OPEN, breaker.state
+
+        assertTrue breaker.acquire()
+        assertTrue breaker.acquire()
+        // every trial slot is taken
+        shouldFail(CarbonadoException) { breaker.acquire() }
+        breaker.success(true)
+        assertEquals HALF_OPEN, breaker.state
+        breaker.failure(true, new FetchException('down'))
+        assertEquals OPEN, breaker.state
+
+        breaker.probeSucceeded()
+        2.times { breaker.success(breaker.acquire()) }
+        assertEquals CLOSED, breaker.state
+        assertEquals([[CLOSED, OPEN], [OPEN, HALF_OPEN], [HALF_OPEN, OPEN], [OPEN, HALF_OPEN], [HALF_OPEN, CLOSED]], transitions)
+    }
+
+    void testOpenTimeoutLetsTrialsThrough() {
+        CircuitBreaker quick = new CircuitBreaker(NAME, 1, 500L, 1, null)
+        quick.trip()
+        shouldFail(CarbonadoException) { quick.acquire() }
+        Thread.sleep(600L)
+        assertTrue quick.acquire()
+        assertEquals HALF_OPEN, quick.state
+        // an answer that is not about availability still closes it
+        quick.failure(true, new UniqueConstraintException('duplicate'))
+        assertEquals CLOSED, quick.state
+    }
+
+    void testReleaseGivesBackTheTrialSlot() {
+        breaker.trip()
+        breaker.probeSucceeded()
+        2.times { assertTrue breaker.acquire() }
+        breaker.release(true)
+        assertTrue breaker.acquire()
+        assertEquals HALF_OPEN, breaker.state
+        // releasing an ordinary call records nothing
+        breaker.release(false)
+        assertEquals HALF_OPEN, breaker.state
+    }
+
+    void testProviderRecordsCheckedExceptions() {
+        CircuitBreakers.instance.configure(NAME, 1, 60000L, 1, null)
+        TestProvider provider = new TestProvider(repository: new MapRepositoryBuilder(name: NAME).build())
+        try {
+            // Groovy code may throw checked exceptions, which must reach the caller unchanged
+            shouldFail(SQLException) {
+                provider.withCarbonado(NAME) { String rn, Repository r -> throw new SQLException('down') }
+            }
+            assertEquals OPEN, CircuitBreakers.instance.breakerFor(NAME).state
+            shouldFail(CarbonadoException) {
+                provider.withCarbonado(NAME) { String rn, Repository r -> rn }
+            }
+        } finally {
+            provider.repository.close()
+        }
+    }
+
+    private void failCall(Throwable cause) {
+        breaker.failure(breaker.acquire(), cause)
+    }
+}
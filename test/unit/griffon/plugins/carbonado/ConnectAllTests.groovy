@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.Repository
+import griffon.test.GriffonUnitTestCase
+
+/**
+ * @author Andres Almiray
+ */
+class ConnectAllTests extends GriffonUnitTestCase {
+    private TestApplication application
+
+    protected void setUp() {
+        super.setUp()
+        BootstrapCarbonado.reset()
+        application = new TestApplication('''
+            repositories {
+                eager { type = 'map' }
+                background {
+                    type = 'map'
+                    lazy = true
+                }
+            }
+        ''')
+    }
+
+    protected void tearDown() {
+        application.disconnectAll()
+        super.tearDown()
+    }
+
+    void testConnectEventsKeepTwoArguments() {
+        CarbonadoConnector.instance.connect(application.app, application.carbonadoConfig, 'eager')
+
+        List end = application.eventsNamed('CarbonadoConnectEnd').find { it[0] == 'eager' }
+        assertEquals 2, end.size()
+        assert end[1] instanceof Repository
+        List time = application.eventsNamed('CarbonadoConnectTime').find { it[0] == 'eager' }
+        assert time[1] instanceof Long && time[1] >= 0L
+    }
+
+    void testFailedLazyConnectionIsReported() {
+        BootstrapCarbonado.onInit = { String repositoryName, Repository repository ->
+            if (repositoryName == 'background') throw new IllegalStateException('boom')
+        }
+        CarbonadoConnector.instance.connectAll(application.app, application.carbonadoConfig)
+
+        long deadline = System.currentTimeMillis() + 10000L
+        List failed = null
+        while (!failed && System.currentTimeMillis() < deadline) {
+            failed = application.eventsNamed('CarbonadoConnectFailed').find { it[0] == 'background' }
+            if (!failed) Thread.sleep(10L)
+        }
+        assertNotNull failed
+        assertEquals 'boom', failed[1].message
+        assertTrue RepositoryHolder.instance.isRepositoryConnected('eager')
+        assertFalse RepositoryHolder.instance.isRepositoryConnected('background')
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import griffon.test.GriffonUnitTestCase
+
+/**
+ * @author Andres Almiray
+ */
+class ConnectFailureTests extends GriffonUnitTestCase {
+    private static final String NAME = 'failing'
+
+    private TestApplication application
+    private File directory
+
+    protected void setUp() {
+        super.setUp()
+        BootstrapCarbonado.reset()
+        application = new TestApplication('''
+            repositories {
+                failing {
+                    type = 'scratch'
+                    scratch { deleteOnDisconnect = true }
+                }
+            }
+        ''')
+        directory = File.createTempFile('carbonado-failing', '')
+        directory.delete()
+        config.scratch.directory = directory
+    }
+
+    protected void tearDown() {
+        application.disconnectAll()
+        directory.deleteDir()
+        super.tearDown()
+    }
+
+    void testFailedChangeFeedReleasesTheRepository() {
+        config.changeFeed.enabled = true
+        config.changeFeed.types = ['no.such.Storable']
+        assertReleasedAfter(IllegalArgumentException)
+    }
+
+    void testFailedWriteBehindReleasesEveryLayer() {
+        config.changeFeed.enabled = true
+        config.writeBehind.enabled = true
+        config.writeBehind.queueSize = 'many'
+        assertReleasedAfter(NumberFormatException)
+        assertFalse Thread.allStackTraces.keySet().any { it.name == "carbonado-${NAME}-changes" && it.alive }
+    }
+
+    private void assertReleasedAfter(Class<? extends Throwable> failure) {
+        shouldFail(failure) {
+            CarbonadoConnector.instance.connect(application.app, application.carbonadoConfig, NAME)
+        }
+        // the JE environment was closed and its directory deleted
+        assertFalse directory.exists()
+        assertFalse RepositoryHolder.instance.isRepositoryConnected(NAME)
+        assertEquals 0, BootstrapCarbonado.initCount(NAME)
+
+        // nothing is left half connected, the name connects once the configuration is fixed
+        config.remove('changeFeed')
+        config.remove('writeBehind')
+        assertNotNull CarbonadoConnector.instance.connect(application.app, application.carbonadoConfig, NAME)
+        assertTrue directory.directory
+        assertEquals 1, BootstrapCarbonado.initCount(NAME)
+    }
+
+    private ConfigObject getConfig() {
+        application.carbonadoConfig.repositories[NAME]
+    }
+}
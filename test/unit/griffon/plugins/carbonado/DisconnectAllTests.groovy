@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.Repository
+import griffon.test.GriffonUnitTestCase
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * @author Andres Almiray
+ */
+class DisconnectAllTests extends GriffonUnitTestCase {
+    private static final List<String> NAMES = ['default', 'first', 'second', 'stuck']
+
+    private TestApplication application
+    private CountDownLatch release
+
+    protected void setUp() {
+        super.setUp()
+        BootstrapCarbonado.reset()
+        release = new CountDownLatch(1)
+        application = new TestApplication('''
+            repository { type = 'map' }
+            repositories {
+                first { type = 'map' }
+                second { type = 'map' }
+                stuck { type = 'map' }
+            }
+        ''')
+    }
+
+    protected void tearDown() {
+        release.countDown()
+        BootstrapCarbonado.onDestroy = null
+        awaitDisconnected('stuck')
+        BootstrapCarbonado.reset()
+        super.tearDown()
+    }
+
+    void testEveryRepositoryIsDisconnected() {
+        connectAll()
+        application.disconnectAll()
+
+        NAMES.each { String name ->
+            assertFalse RepositoryHolder.instance.isRepositoryConnected(name)
+            assertEquals 1, BootstrapCarbonado.destroyCount(name)
+        }
+        assertEquals NAMES.toSet(), application.eventsNamed('CarbonadoDisconnectEnd').collect { it[1] }.toSet()
+    }
+
+    void testHungRepositoryDoesNotHoldUpTheOthers() {
+        connectAll()
+        CountDownLatch stuck = new CountDownLatch(1)
+        BootstrapCarbonado.onDestroy = { String repositoryName, Repository repository ->
+            if (repositoryName != 'stuck') return
+            stuck.countDown()
+            // like a hung JDBC connection, interruption does not end it
+            while (true) {
+                try {
+                    if (release.await(10, TimeUnit.SECONDS)) return
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+
+        long start = System.currentTimeMillis()
+        CarbonadoConnector.instance.disconnectAll(application.app, application.carbonadoConfig, 500L)
+        long elapsed = System.currentTimeMillis() - start
+
+        assert stuck.await(0, TimeUnit.SECONDS)
+        assert elapsed < 5000L, "disconnectAll took ${elapsed}ms"
+        assert elapsed >= 500L
+        (NAMES - 'stuck').each { String name ->
+            assertFalse RepositoryHolder.instance.isRepositoryConnected(name)
+        }
+        assertTrue RepositoryHolder.instance.isRepositoryConnected('stuck')
+
+        // once the hook returns, the abandoned disconnect completes on its own
+        release.countDown()
+        awaitDisconnected('stuck')
+    }
+
+    private void connectAll() {
+        NAMES.each { CarbonadoConnector.instance.connect(application.app, application.carbonadoConfig, it) }
+        NAMES.each { assertTrue RepositoryHolder.instance.isRepositoryConnected(it) }
+    }
+
+    private static void awaitDisconnected(String repositoryName) {
+        long deadline = System.currentTimeMillis() + 10000L
+        while (RepositoryHolder.instance.isRepositoryConnected(repositoryName)) {
+            assert System.currentTimeMillis() < deadline, "${repositoryName} is still connected"
+            Thread.sleep(10L)
+        }
+    }
+}
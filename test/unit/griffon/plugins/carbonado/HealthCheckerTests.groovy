@@ -0,0 +1,73 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.Repository
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder
+import griffon.test.GriffonUnitTestCase
+
+import java.sql.Connection
+
+/**
+ * @author Andres Almiray
+ */
+class HealthCheckerTests extends GriffonUnitTestCase {
+    private static final String NAME = 'checked'
+
+    private Repository repository
+    private MeteredPoolingDataSource pool
+
+    protected void setUp() {
+        super.setUp()
+        repository = new MapRepositoryBuilder(name: NAME).build()
+        pool = DefaultDataSourceFactory.instance.createDataSource(NAME, [
+            driverClassName: 'org.h2.Driver',
+            url: "jdbc:h2:mem:${NAME}-${System.nanoTime()}",
+            pool: [maxActive: 1, maxWait: 100L]
+        ])
+    }
+
+    protected void tearDown() {
+        pool.close()
+        repository.close()
+        super.tearDown()
+    }
+
+    void testProbeDoesNotWaitOnAnExhaustedPool() {
+        Connection busy = pool.connection
+        try {
+            assertEquals 1, pool.numActive
+            HealthChecker.probe(repository, [(repository): pool], 1)
+            assertEquals 1, pool.numActive
+        } finally {
+            busy.close()
+        }
+    }
+
+    void testProbeBreakerStaysClosedUnderLoad() {
+        CircuitBreaker breaker = new CircuitBreaker(NAME, 1, 60000L, 1, null)
+        Connection busy = pool.connection
+        HealthChecker checker = new HealthChecker(NAME, repository, [(repository): pool], breaker, 10L, 1, 0, null)
+        try {
+            Thread.sleep(200L)
+            assertEquals CircuitBreaker.State.CLOSED, breaker.state
+        } finally {
+            checker.stop()
+            busy.close()
+        }
+    }
+}
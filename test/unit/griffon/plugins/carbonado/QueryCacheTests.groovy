@@ -0,0 +1,94 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.*
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder
+import griffon.test.GriffonUnitTestCase
+
+/**
+ * @author Andres Almiray
+ */
+class QueryCacheTests extends GriffonUnitTestCase {
+    private QueryCache cache = QueryCache.instance
+    private CountingRepository repository
+
+    protected void setUp() {
+        super.setUp()
+        repository = new CountingRepository(new MapRepositoryBuilder(name: 'queries').build())
+        cache.setMaxSize('queries', 3)
+    }
+
+    protected void tearDown() {
+        cache.clear('queries')
+        cache.setMaxSize('queries', QueryCache.DEFAULT_MAX_SIZE)
+        repository.close()
+        super.tearDown()
+    }
+
+    void testQueriesAreKeyedByFilterAndOrderings() {
+        Query<TestRecord> byName = query('name = ?')
+        assertSame byName, query('name = ?')
+        Query<TestRecord> ordered = query('name = ?', '-id')
+        assertNotSame byName, ordered
+        assertSame ordered, query('name = ?', '-id')
+        assertEquals '-id', ordered.toString().find(/-id/)
+        assertEquals 2, cache.size('queries')
+    }
+
+    void testLeastRecentlyUsedQueryIsDropped() {
+        query('id = ?')
+        query('name = ?')
+        query('amount = ?')
+        // id is now more recently used than name
+        query('id = ?')
+        query('amount > ?')
+        assertEquals 4, repository.planned
+        assertEquals 3, cache.size('queries')
+
+        query('id = ?')
+        assertEquals 4, repository.planned
+        query('name = ?')
+        assertEquals 5, repository.planned
+    }
+
+    void testLargeCachesStayBounded() {
+        cache.setMaxSize('queries', 100)
+        // distinct keys for the same filter
+        (0..<500).each { query("id${' ' * it} = ?") }
+        assertEquals 100, cache.size('queries')
+    }
+
+    private Query<TestRecord> query(String filter, String... orderings) {
+        cache.queryFor('queries', repository, TestRecord, filter, orderings)
+    }
+
+    // counts the queries planned by the cache, which gets a storage for each one
+    private static class CountingRepository extends DelegatingRepository {
+        int planned
+
+        CountingRepository(Repository delegate) {
+            super(delegate)
+        }
+
+        @Override
+        <S extends Storable> Storage<S> storageFor(Class<S> type) {
+            planned++
+            super.storageFor(type)
+        }
+    }
+}
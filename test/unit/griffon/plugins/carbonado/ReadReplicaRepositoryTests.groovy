@@ -0,0 +1,165 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.FetchException
+import com.amazon.carbonado.Repository
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder
+import griffon.test.GriffonUnitTestCase
+
+import javax.sql.DataSource
+import java.sql.Connection
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * @author Andres Almiray
+ */
+class ReadReplicaRepositoryTests extends GriffonUnitTestCase {
+    private static final String NAME = 'replicated'
+
+    private Repository primary
+    private List<Repository> replicas
+    private List<Object> failures
+    private ReadReplicaRepository repository
+    private TestProvider provider
+
+    protected void setUp() {
+        super.setUp()
+        primary = repositoryNamed('primary')
+        replicas = (1..3).collect { repositoryNamed("replica-${it}") }
+        // what getConnection throws for each replica, null when healthy
+        failures = new CopyOnWriteArrayList<Object>([null, null, null])
+        List<DataSource> dataSources = (0..<3).collect { int index -> dataSource(index) }
+        repository = new ReadReplicaRepository(primary, replicas, dataSources, false, 1L, 1)
+        provider = new TestProvider(repository: repository)
+    }
+
+    protected void tearDown() {
+        CircuitBreakers.instance.remove(NAME)
+        repository.close()
+        super.tearDown()
+    }
+
+    void testChecksSurviveAnyThrowable() {
+        failures[0] = new IllegalStateException('driver bug')
+        failures[1] = new AbstractMethodError('isValid')
+        awaitHealthy(1)
+
+        failures[0] = null
+        failures[1] = null
+        awaitHealthy(3)
+    }
+
+    void testReadsUnderLoad() {
+        int threads = 16
+        int readsPerThread = 500
+        ConcurrentMap<String, AtomicInteger> servedBy = new ConcurrentHashMap<String, AtomicInteger>()
+        List<Throwable> errors = new CopyOnWriteArrayList<Throwable>()
+        CountDownLatch start = new CountDownLatch(1)
+        ExecutorService pool = Executors.newFixedThreadPool(threads)
+        try {
+            List<Future<?>> readers = (1..threads).collect {
+                pool.submit({
+                    start.await()
+                    readsPerThread.times {
+                        try {
+                            String name = provider.withCarbonadoReadOnly(NAME, { String rn, Repository r ->
+                                r.storageFor(TestRecord).query().loadOne().name
+                            } as RepositoryCallback)
+                            servedBy.putIfAbsent(name, new AtomicInteger())
+                            servedBy[name].incrementAndGet()
+                        } catch (Throwable t) {
+                            errors << t
+                        }
+                    }
+                } as Runnable)
+            }
+            start.countDown()
+            // a replica drops and comes back while the readers run
+            failures[1] = new IllegalStateException('unreachable')
+            awaitHealthy(2)
+            failures[1] = null
+            readers*.get(60, TimeUnit.SECONDS)
+        } finally {
+            pool.shutdownNow()
+        }
+
+        assert errors.empty
+        assertEquals threads * readsPerThread, servedBy.values()*.get().sum()
+        assert servedBy.keySet().containsAll(['replica-1', 'replica-3'])
+        awaitHealthy(3)
+    }
+
+    void testOpenBreakerFailsReadsFast() {
+        CircuitBreaker breaker = CircuitBreakers.instance.configure(NAME, 1, 60000L, 1, null)
+        breaker.trip()
+        AtomicInteger calls = new AtomicInteger()
+        shouldFail(CarbonadoException) {
+            provider.withCarbonadoReadOnly(NAME, { String rn, Repository r -> calls.incrementAndGet() } as RepositoryCallback)
+        }
+        assertEquals 0, calls.get()
+    }
+
+    void testReplicaFailuresLeaveTheBreakerAlone() {
+        CircuitBreaker breaker = CircuitBreakers.instance.configure(NAME, 1, 60000L, 1, null)
+        3.times {
+            shouldFail(CarbonadoException) {
+                provider.withCarbonadoReadOnly(NAME, { String rn, Repository r ->
+                    throw new CarbonadoException('replica down', new FetchException('unreachable'))
+                } as RepositoryCallback)
+            }
+        }
+        assertEquals CircuitBreaker.State.CLOSED, breaker.state
+
+        // with no healthy replica reads go to the primary, whose failures count
+        (0..<3).each { failures[it] = new IllegalStateException('unreachable') }
+        awaitHealthy(0)
+        shouldFail(CarbonadoException) {
+            provider.withCarbonadoReadOnly(NAME, { String rn, Repository r ->
+                throw new CarbonadoException('primary down', new FetchException('unreachable'))
+            } as RepositoryCallback)
+        }
+        assertEquals CircuitBreaker.State.OPEN, breaker.state
+    }
+
+    private void awaitHealthy(int count) {
+        long deadline = System.currentTimeMillis() + 10000L
+        while (repository.healthyReplicaCount != count) {
+            assert System.currentTimeMillis() < deadline, "expected ${count} healthy replicas but got ${repository.healthyReplicaCount}"
+            Thread.sleep(5L)
+        }
+    }
+
+    private DataSource dataSource(int index) {
+        Connection connection = [isValid: { int timeout -> true }, close: {}] as Connection
+        [getConnection: { ->
+            Object failure = failures[index]
+            if (failure != null) throw failure
+            connection
+        }] as DataSource
+    }
+
+    private static Repository repositoryNamed(String name) {
+        Repository repository = new MapRepositoryBuilder(name: name).build()
+        TestRecord record = repository.storageFor(TestRecord).prepare()
+        record.id = 1L
+        record.name = name
+        record.insert()
+        repository
+    }
+}
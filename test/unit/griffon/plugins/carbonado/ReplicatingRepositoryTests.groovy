@@ -0,0 +1,152 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.Repository
+import com.amazon.carbonado.Storable
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder
+import com.amazon.carbonado.repo.replicated.ReplicatedRepositoryBuilder
+import griffon.test.GriffonUnitTestCase
+
+/**
+ * @author Andres Almiray
+ */
+class ReplicatingRepositoryTests extends GriffonUnitTestCase {
+    private ReplicatingRepository repository
+    private Repository master
+
+    protected void tearDown() {
+        repository?.close()
+        super.tearDown()
+    }
+
+    void testMasterWritesReachTheReplicaOnResync() {
+        replicating([TestRecord])
+        long initial = awaitResync(TestRecord, -1L)
+
+        write(master, 1L, 'inserted')
+        write(master, 2L, 'to update')
+        write(master, 3L, 'to delete')
+        // reads are served by the replica, which has not seen them yet
+        assertNull load(1L)
+        assertEquals 0L, repository.repairCount
+
+        resync()
+        long first = awaitResync(TestRecord, initial)
+        assertEquals 'inserted', load(1L).name
+        assertEquals 3L, repository.repairCount
+
+        TestRecord updated = master.storageFor(TestRecord).prepare()
+        updated.id = 2L
+        updated.load()
+        updated.name = 'updated'
+        updated.update()
+        TestRecord deleted = master.storageFor(TestRecord).prepare()
+        deleted.id = 3L
+        deleted.delete()
+        assertEquals 'to update', load(2L).name
+        assertNotNull load(3L)
+
+        resync()
+        awaitResync(TestRecord, first)
+        assertEquals 'updated', load(2L).name
+        assertNull load(3L)
+        assertEquals 5L, repository.repairCount
+        assertEquals 0L, repository.failureCount
+    }
+
+    void testWritesThroughTheRepositoryReachBoth() {
+        replicating([TestRecord])
+        long last = awaitResync(TestRecord, -1L)
+        write(repository, 1L, 'written')
+
+        assertEquals 'written', load(1L).name
+        TestRecord stored = master.storageFor(TestRecord).prepare()
+        stored.id = 1L
+        assertTrue stored.tryLoad()
+        assertEquals 'written', stored.name
+
+        resync()
+        awaitResync(TestRecord, last)
+        assertEquals 0L, repository.repairCount
+    }
+
+    void testLagGrowsUntilTheNextResync() {
+        replicating([TestRecord])
+        long last = awaitResync(TestRecord, -1L)
+
+        Thread.sleep(300L)
+        // nothing resyncs in between, the replica grows stale
+        assert repository.replicationLag >= 300L
+        assertEquals last, repository.getLastResyncTime(TestRecord)
+
+        resync()
+        awaitResync(TestRecord, last)
+        assert repository.replicationLag < 300L
+    }
+
+    void testLagIsUnknownWhileATypeFailsToResync() {
+        replicating([TestRecord, Unkeyed])
+        awaitResync(TestRecord, -1L)
+        long deadline = System.currentTimeMillis() + 10000L
+        while (repository.failureCount == 0L && System.currentTimeMillis() < deadline) Thread.sleep(10L)
+
+        assertEquals 1L, repository.failureCount
+        assertEquals(-1L, repository.getLastResyncTime(Unkeyed))
+        assertEquals(-1L, repository.replicationLag)
+    }
+
+    private void replicating(List<Class<? extends Storable>> types) {
+        ReplicatedRepositoryBuilder builder = new ReplicatedRepositoryBuilder()
+        builder.name = 'replicated'
+        builder.masterRepositoryBuilder = new MapRepositoryBuilder(name: 'master')
+        builder.replicaRepositoryBuilder = new MapRepositoryBuilder(name: 'replica')
+        // resynced once on start, then on request
+        repository = new ReplicatingRepository(builder.build(), types, 1, 1.0d, 600000L)
+        master = repository.masterRepository
+    }
+
+    private void resync() {
+        // resyncs are told apart by their start time
+        Thread.sleep(5L)
+        repository.resync()
+    }
+
+    /**
+     * Waits for a resync of {@code type} started after {@code previous}, returning its start.
+     */
+    private long awaitResync(Class<? extends Storable> type, long previous) {
+        long deadline = System.currentTimeMillis() + 10000L
+        while (repository.getLastResyncTime(type) == previous && System.currentTimeMillis() < deadline) Thread.sleep(10L)
+        long last = repository.getLastResyncTime(type)
+        assert last != previous
+        last
+    }
+
+    private static void write(Repository target, long id, String name) {
+        TestRecord record = target.storageFor(TestRecord).prepare()
+        record.id = id
+        record.name = name
+        record.insert()
+    }
+
+    private TestRecord load(long id) {
+        TestRecord record = repository.storageFor(TestRecord).prepare()
+        record.id = id
+        record.tryLoad() ? record : null
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.Repository
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder
+import griffon.test.GriffonUnitTestCase
+import griffon.util.CallableWithArgs
+
+import java.util.concurrent.*
+
+/**
+ * @author Andres Almiray
+ */
+class RepositoryCallbackTests extends GriffonUnitTestCase {
+    private Repository repository
+    private TestProvider provider
+    // what each call received, as [repositoryName, repository]
+    private List<List> calls
+    private RepositoryCallback<String> callback
+
+    protected void setUp() {
+        super.setUp()
+        // asynchronous calls read their executor settings from the application
+        new TestApplication("repositories { other { type = 'map' } }")
+        repository = new MapRepositoryBuilder(name: 'callbacks').build()
+        provider = new TestProvider(repository: repository)
+        calls = new CopyOnWriteArrayList<List>()
+        callback = { String repositoryName, Repository r ->
+            calls << [repositoryName, r]
+            repositoryName
+        } as RepositoryCallback
+    }
+
+    protected void tearDown() {
+        CarbonadoExecutors.instance.shutdown('other')
+        repository.close()
+        super.tearDown()
+    }
+
+    void testProviderPassesNameAndRepository() {
+        assertEquals 'default', provider.withCarbonado(callback)
+        assertEquals 'other', provider.withCarbonado('other', callback)
+        // a blank name stands for the default repository, as with closures
+        assertEquals 'default', provider.withCarbonado('', callback)
+        assertNull provider.withCarbonado('other', (RepositoryCallback) null)
+        assertEquals([['default', repository], ['other', repository], ['default', repository]], calls)
+    }
+
+    void testClosuresAndCallablesTakeTheSamePath() {
+        assertEquals 'other', provider.withCarbonado('other') { String rn, Repository r -> rn }
+        CallableWithArgs<String> callable = new CallableWithArgs<String>() {
+            String call(Object[] args) { args[0] }
+        }
+        assertEquals 'other', provider.withCarbonado('other', callable)
+        assertEquals 'other', provider.withCarbonadoTransaction('other', null, callback)
+        assertEquals 'other', provider.withCarbonadoReadOnly('other', callback)
+        assertEquals 'other', provider.withCarbonadoAsync('other', callback).get(10, TimeUnit.SECONDS)
+    }
+
+    void testOneCallbackIsSharedBetweenThreads() {
+        int threads = 8
+        ExecutorService pool = Executors.newFixedThreadPool(threads)
+        try {
+            List<Future<List<String>>> results = (1..threads).collect { int thread ->
+                pool.submit({
+                    (1..200).collect { provider.withCarbonado("repository-${thread}".toString(), callback) }
+                } as Callable)
+            }
+            results.eachWithIndex { Future<List<String>> result, int index ->
+                assertEquals(["repository-${index + 1}".toString()] * 200, result.get(30, TimeUnit.SECONDS))
+            }
+        } finally {
+            pool.shutdownNow()
+        }
+    }
+
+    void testEnhancedMethodsTakeCallbacks() {
+        Controller controller = new Controller()
+        CarbonadoEnhancer.enhance(controller.metaClass, provider)
+
+        assertEquals 'default', controller.withCarbonado(callback)
+        assertEquals 'other', controller.withCarbonado('other', callback)
+        assertEquals 'other', controller.withCarbonadoReadOnly('other', callback)
+        assertEquals 'other', controller.withCarbonadoAsync('other', callback).get(10, TimeUnit.SECONDS)
+        assertEquals(['default', 'other', 'other', 'other'], calls.collect { it[0] })
+        assert calls.every { it[1].is(repository) }
+    }
+
+    void testContributionAdapterTakesCallbacks() {
+        CarbonadoContributionAdapter adapter = new CarbonadoContributionAdapter()
+        adapter.carbonadoProvider = provider
+
+        assertEquals 'default', adapter.withCarbonado(callback)
+        assertEquals 'other', adapter.withCarbonado('other', callback)
+        assertEquals 'default', adapter.withCarbonadoReadOnly(callback)
+        assertEquals(['default', 'other', 'default'], calls.collect { it[0] })
+    }
+
+    static class Controller {
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.Query
+import com.amazon.carbonado.Repository
+import griffon.test.GriffonUnitTestCase
+
+import javax.management.ObjectName
+import java.lang.management.ManagementFactory
+import java.util.concurrent.*
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * @author Andres Almiray
+ */
+class RepositoryHolderTests extends GriffonUnitTestCase {
+    private static final int THREADS = 32
+    private static final List<String> NAMES = (1..8).collect { "lazy${it}".toString() }
+
+    private TestApplication application
+
+    protected void setUp() {
+        super.setUp()
+        BootstrapCarbonado.reset()
+        application = new TestApplication('''
+            repositories {
+                lazy1 { type = 'map' }
+                lazy2 { type = 'map' }
+                lazy3 { type = 'map' }
+                lazy4 { type = 'map' }
+                lazy5 { type = 'map' }
+                lazy6 { type = 'map' }
+                lazy7 { type = 'map' }
+                lazy8 { type = 'map' }
+                slow { type = 'map' }
+            }
+        ''')
+    }
+
+    protected void tearDown() {
+        application.disconnectAll()
+        super.tearDown()
+    }
+
+    void testConcurrentLookupsConnectEachRepositoryOnce() {
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS)
+        CyclicBarrier barrier = new CyclicBarrier(THREADS)
+        try {
+            List<Future<Map<String, Repository>>> futures = (1..THREADS).collect { int index ->
+                pool.submit({
+                    List<String> names = new ArrayList<String>(NAMES)
+                    Collections.shuffle(names, new Random(index))
+                    barrier.await()
+                    Map<String, Repository> seen = [:]
+                    1000.times {
+                        for (String name : names) {
+                            Repository repository = RepositoryHolder.instance.fetchRepository(name)
+                            assert seen.get(name, repository).is(repository)
+                        }
+                    }
+                    seen
+                } as Callable<Map<String, Repository>>)
+            }
+
+            List<Map<String, Repository>> results = futures*.get(30, TimeUnit.SECONDS)
+            for (String name : NAMES) {
+                assertEquals("${name} connected more than once", 1, BootstrapCarbonado.initCount(name))
+                Repository repository = RepositoryHolder.instance.getRepository(name)
+                assert results.every { it[name].is(repository) }
+            }
+        } finally {
+            pool.shutdownNow()
+        }
+    }
+
+    void testRepositoryIsPublishedOnceInitialized() {
+        CountDownLatch initStarted = new CountDownLatch(1)
+        CountDownLatch finishInit = new CountDownLatch(1)
+        BootstrapCarbonado.onInit = { String repositoryName, Repository repository ->
+            // the connecting thread sees the repository it initializes
+            assert RepositoryHolder.instance.fetchRepository(repositoryName).is(repository)
+            initStarted.countDown()
+            assert finishInit.await(10, TimeUnit.SECONDS)
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(2)
+        try {
+            Future<Repository> connecting = pool.submit({
+                RepositoryHolder.instance.fetchRepository('slow')
+            } as Callable<Repository>)
+            assert initStarted.await(10, TimeUnit.SECONDS)
+
+            assertNull RepositoryHolder.instance.getRepository('slow')
+            assertFalse RepositoryHolder.instance.isRepositoryConnected('slow')
+            Future<Repository> waiting = pool.submit({
+                RepositoryHolder.instance.fetchRepository('slow')
+            } as Callable<Repository>)
+            shouldFail(TimeoutException) { waiting.get(200, TimeUnit.MILLISECONDS) }
+
+            finishInit.countDown()
+            Repository repository = connecting.get(10, TimeUnit.SECONDS)
+            assertSame repository, waiting.get(10, TimeUnit.SECONDS)
+            assertSame repository, RepositoryHolder.instance.getRepository('slow')
+            assertEquals 1, BootstrapCarbonado.initCount('slow')
+        } finally {
+            finishInit.countDown()
+            pool.shutdownNow()
+        }
+    }
+
+    void testFailedInitDoesNotPublishRepository() {
+        BootstrapCarbonado.onInit = { String repositoryName, Repository repository ->
+            throw new IllegalStateException('boom')
+        }
+        shouldFail(IllegalStateException) { RepositoryHolder.instance.fetchRepository('lazy1') }
+        assertFalse RepositoryHolder.instance.isRepositoryConnected('lazy1')
+
+        BootstrapCarbonado.onInit = null
+        assertNotNull RepositoryHolder.instance.fetchRepository('lazy1')
+        assertEquals 2, BootstrapCarbonado.initCount('lazy1')
+    }
+
+    void testDisconnectLeavesNothingBehind() {
+        ObjectName mbean = new ObjectName("griffon.plugins.carbonado:type=Repository,name=${ObjectName.quote('lazy2')}")
+        CarbonadoMetrics.instance.enable(true)
+        try {
+            CarbonadoProvider provider = new InstrumentedCarbonadoProvider(DefaultCarbonadoProvider.instance)
+            provider.withCarbonado('lazy2') { String rn, Repository r -> rn }
+            assertNotNull provider.withQuery('lazy2', TestRecord, 'id = ?')
+            assertEquals 1, QueryCache.instance.size('lazy2')
+            assert ManagementFactory.platformMBeanServer.isRegistered(mbean)
+
+            CarbonadoConnector.instance.disconnect(application.app, application.carbonadoConfig, 'lazy2')
+
+            assertEquals 0, QueryCache.instance.size('lazy2')
+            assertFalse QueryCache.instance.@maxSizes.containsKey('lazy2')
+            assert !CarbonadoMetrics.instance.allMetrics.any { it.repositoryName == 'lazy2' }
+            assertFalse ManagementFactory.platformMBeanServer.isRegistered(mbean)
+            assertFalse RepositoryHolder.instance.@locks.containsKey('lazy2')
+            assertFalse RepositoryHolder.instance.@usages.containsKey('lazy2')
+        } finally {
+            CarbonadoMetrics.instance.shutdown()
+        }
+    }
+
+    void testDisconnectsRacingWithLookupsConnectOnceAtATime() {
+        AtomicInteger overlaps = new AtomicInteger()
+        BootstrapCarbonado.onInit = { String repositoryName, Repository repository ->
+            // the previous connection must be destroyed before the next one starts
+            if (BootstrapCarbonado.initCount(repositoryName) - BootstrapCarbonado.destroyCount(repositoryName) != 1) {
+                overlaps.incrementAndGet()
+            }
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(8)
+        CountDownLatch done = new CountDownLatch(1)
+        try {
+            List<Future<?>> users = (1..8).collect {
+                pool.submit({
+                    while (done.count > 0) {
+                        DefaultCarbonadoProvider.instance.withCarbonado('lazy3') { String rn, Repository r -> rn }
+                    }
+                } as Runnable)
+            }
+            50.times {
+                CarbonadoConnector.instance.disconnect(application.app, application.carbonadoConfig, 'lazy3')
+                Thread.yield()
+            }
+            done.countDown()
+            users*.get(30, TimeUnit.SECONDS)
+        } finally {
+            done.countDown()
+            pool.shutdownNow()
+        }
+        assertEquals 0, overlaps.get()
+    }
+
+    void testQueryCallbackHoldsTheRepository() {
+        RepositoryHolder.instance.fetchRepository('lazy4')
+        String result = DefaultCarbonadoProvider.instance.withQuery('lazy4', TestRecord, 'id = ?', ['-name'] as String[], { String rn, Query<TestRecord> query ->
+            // a held repository is never evicted
+            assertFalse RepositoryHolder.instance.evictIfIdle('lazy4', Long.MAX_VALUE) { throw new AssertionError('evicted') }
+            assertEquals 0L, query.with(1L).count()
+            rn
+        } as QueryCallback)
+        assertEquals 'lazy4', result
+        assertTrue RepositoryHolder.instance.evictIfIdle('lazy4', Long.MAX_VALUE) { String rn ->
+            CarbonadoConnector.instance.disconnect(application.app, application.carbonadoConfig, rn)
+        }
+    }
+}
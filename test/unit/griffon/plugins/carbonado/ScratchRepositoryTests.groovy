@@ -0,0 +1,65 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.Repository
+import com.amazon.carbonado.repo.sleepycat.EnvironmentCapability
+import griffon.test.GriffonUnitTestCase
+
+/**
+ * @author Andres Almiray
+ */
+class ScratchRepositoryTests extends GriffonUnitTestCase {
+    private TestApplication application
+
+    protected void setUp() {
+        super.setUp()
+        BootstrapCarbonado.reset()
+        application = new TestApplication('''
+            repositories {
+                first { type = 'scratch' }
+                second {
+                    type = 'scratch'
+                    scratch { cacheSize = 1024 * 1024 }
+                }
+            }
+        ''')
+    }
+
+    protected void tearDown() {
+        application.disconnectAll()
+        super.tearDown()
+    }
+
+    void testEachRepositoryGetsItsOwnTemporaryDirectoryDeletedOnDisconnect() {
+        File first = home(RepositoryHolder.instance.fetchRepository('first'))
+        File second = home(RepositoryHolder.instance.fetchRepository('second'))
+        assertTrue first.directory
+        assertTrue second.directory
+        assertFalse first == second
+        assertEquals new File(System.getProperty('java.io.tmpdir')).canonicalFile, first.canonicalFile.parentFile
+        assertTrue first.name.startsWith('carbonado-first-')
+
+        application.disconnectAll()
+        assertFalse first.exists()
+        assertFalse second.exists()
+    }
+
+    private static File home(Repository repository) {
+        repository.getCapability(EnvironmentCapability).environment.home
+    }
+}
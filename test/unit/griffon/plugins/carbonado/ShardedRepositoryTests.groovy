@@ -0,0 +1,182 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.*
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder
+import griffon.test.GriffonUnitTestCase
+
+/**
+ * @author Andres Almiray
+ */
+class ShardedRepositoryTests extends GriffonUnitTestCase {
+    private List<Repository> shards
+    private ShardedRepository repository
+    private Storage<TestRecord> storage
+
+    protected void setUp() {
+        super.setUp()
+        shards = (0..<3).collect { new MapRepositoryBuilder(name: "shard${it}").build() }
+        repository = new ShardedRepository('sharded', shards)
+        storage = repository.storageFor(TestRecord)
+        (1..30).each { insert(it, "record ${it}") }
+    }
+
+    protected void tearDown() {
+        repository.close()
+        super.tearDown()
+    }
+
+    void testStorageRoutesToTheOwningShard() {
+        assertSame storage, repository.storageFor(TestRecord)
+        (1..30).each { long id ->
+            TestRecord key = storage.prepare()
+            key.id = id
+            Storage<TestRecord> owner = shards[repository.shardIndex(key)].storageFor(TestRecord)
+            TestRecord stored = owner.prepare()
+            stored.id = id
+            assertTrue stored.tryLoad()
+            assertEquals "record ${id}".toString(), stored.name
+        }
+        assertEquals 30L, shards.sum { it.storageFor(TestRecord).query().count() }
+
+        TestRecord record = load(7)
+        record.name = 'changed'
+        record.update()
+        assertEquals 'changed', load(7).name
+        load(7).delete()
+        assertNull tryLoad(7)
+    }
+
+    void testQueriesSpanEveryShard() {
+        assertEquals 30L, storage.query().count()
+        List<Long> ids = storage.query('id > ?').with(20L).orderBy('-id').fetch().toList()*.id
+        assertEquals((30L..21L).toList(), ids)
+        assertEquals 'record 5', storage.query('id = ?').with(5L).loadOne().name
+
+        TestRecord fetched = storage.query('id = ?').with(6L).loadOne()
+        fetched.name = 'fetched'
+        fetched.update()
+        assertEquals 'fetched', load(6).name
+
+        storage.query('id <= ?').with(10L).deleteAll()
+        assertEquals 20L, storage.query().count()
+    }
+
+    void testTransactionsAreBoundToASingleShard() {
+        List<TestRecord> keys = (1..30).collect { long id ->
+            TestRecord key = storage.prepare()
+            key.id = id
+            key
+        }
+        TestRecord first = keys[0]
+        TestRecord sameShard = keys.find { it.id != first.id && repository.shardIndex(it) == repository.shardIndex(first) }
+        TestRecord otherShard = keys.find { repository.shardIndex(it) != repository.shardIndex(first) }
+
+        Transaction txn = repository.enterTransaction()
+        try {
+            first.load()
+            first.name = 'rolled back'
+            first.update()
+            sameShard.load()
+            shouldFail(IllegalStateException) { otherShard.load() }
+        } finally {
+            txn.exit()
+        }
+        assertEquals 'record 1', load(1).name
+
+        txn = repository.enterTransaction()
+        try {
+            TestRecord record = load(otherShard.id)
+            record.name = 'committed'
+            record.update()
+            txn.commit()
+        } finally {
+            txn.exit()
+        }
+        assertEquals 'committed', load(otherShard.id).name
+        // the binding ends with the transaction
+        assertEquals 'record 1', load(1).name
+    }
+
+    void testQueriesInsideTransactionsSeeTheirWrites() {
+        Transaction txn = repository.enterTransaction()
+        try {
+            insert(31L, 'uncommitted')
+            TestRecord record = tryLoad(31L)
+            long neighbourId = (1L..30L).find { long id ->
+                TestRecord key = storage.prepare()
+                key.id = id
+                repository.shardIndex(key) == repository.shardIndex(record)
+            }
+            TestRecord neighbour = load(neighbourId)
+            neighbour.name = 'renamed'
+            neighbour.update()
+
+            assertEquals 'uncommitted', storage.query('id = ?').with(31L).loadOne().name
+            assertEquals 'renamed', storage.query('id = ?').with(neighbour.id).loadOne().name
+            assertEquals 31L, storage.query().count()
+            assertEquals((31L..1L).toList(), storage.query().orderBy('-id').fetch().toList()*.id)
+            assertEquals 31, storage.query().fetch().toList().size()
+            assertEquals 31L, repository.count(TestRecord, null)
+            Cursor<TestRecord> cursor = repository.fetch(TestRecord, 'id > ?', [29L] as Object[], 'id')
+            try {
+                assertEquals([30L, 31L], cursor.toList()*.id)
+            } finally {
+                cursor.close()
+            }
+        } finally {
+            txn.exit()
+        }
+        assertNull tryLoad(31L)
+        assertEquals 30L, storage.query().count()
+    }
+
+    void testShardIndexIsStable() {
+        assertEquals ShardedRepository.encode(42), ShardedRepository.encode(42L)
+        assertEquals ShardedRepository.encode(42), ShardedRepository.encode(BigInteger.valueOf(42L))
+        assertEquals ShardedRepository.encode(new BigDecimal('1.50')), ShardedRepository.encode(new BigDecimal('1.5'))
+        assertEquals 'MILLISECONDS', ShardedRepository.encode(java.util.concurrent.TimeUnit.MILLISECONDS)
+        assertEquals '00ff', ShardedRepository.encode([0, -1] as byte[])
+
+        // CRC32 of "1\u0001" to "5\u0001" modulo 3, the same in every run
+        assertEquals([0, 1, 1, 2, 0], (1..5).collect { long id ->
+            TestRecord key = storage.prepare()
+            key.id = id
+            repository.shardIndex(key)
+        })
+    }
+
+    private void insert(long id, String name) {
+        TestRecord record = storage.prepare()
+        record.id = id
+        record.name = name
+        record.insert()
+    }
+
+    private TestRecord load(long id) {
+        TestRecord record = tryLoad(id)
+        assertNotNull record
+        record
+    }
+
+    private TestRecord tryLoad(long id) {
+        TestRecord record = storage.prepare()
+        record.id = id
+        record.tryLoad() ? record : null
+    }
+}
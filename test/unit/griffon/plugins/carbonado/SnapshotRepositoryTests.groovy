@@ -0,0 +1,93 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.*
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder
+import griffon.test.GriffonUnitTestCase
+
+/**
+ * @author Andres Almiray
+ */
+class SnapshotRepositoryTests extends GriffonUnitTestCase {
+    private File directory
+    private File file
+
+    protected void setUp() {
+        super.setUp()
+        directory = new File(System.getProperty('java.io.tmpdir'), "carbonado-snapshots-${System.nanoTime()}")
+        assert directory.mkdir()
+        file = new File(directory, 'records.snapshot')
+    }
+
+    protected void tearDown() {
+        directory.deleteDir()
+        super.tearDown()
+    }
+
+    void testRestoresAcrossMappingWindows() {
+        SnapshotRepository source = snapshotRepository(16)
+        Storage<TestRecord> records = source.storageFor(TestRecord)
+        (1..200).each { long id ->
+            TestRecord record = records.prepare()
+            record.id = id
+            record.name = 'x' * (id as int)
+            record.insert()
+        }
+        assertEquals 200L, source.writeSnapshot()
+        source.close()
+
+        // records straddle, and some exceed, the 16 byte windows
+        SnapshotRepository restored = snapshotRepository(16)
+        try {
+            assertEquals 200L, restored.restore()
+            TestRecord record = restored.storageFor(TestRecord).query('id = ?').with(150L).loadOne()
+            assertEquals 'x' * 150, record.name
+        } finally {
+            restored.close()
+        }
+    }
+
+    void testReplacingKeepsThePreviousSnapshotUntilDone() {
+        SnapshotRepository repository = snapshotRepository(1024)
+        insert(repository, 1L)
+        repository.writeSnapshot()
+        insert(repository, 2L)
+        repository.writeSnapshot()
+        repository.close()
+        assertFalse new File(file.path + '.bak').exists()
+
+        // a write interrupted between moving the snapshot aside and replacing it
+        assertTrue file.renameTo(new File(file.path + '.bak'))
+        SnapshotRepository restored = snapshotRepository(1024)
+        try {
+            assertEquals 2L, restored.restore()
+        } finally {
+            restored.close()
+        }
+    }
+
+    private SnapshotRepository snapshotRepository(int windowSize) {
+        new SnapshotRepository(new MapRepositoryBuilder(name: 'snapshot').build(), file, [TestRecord], false, windowSize)
+    }
+
+    private static void insert(Repository repository, long id) {
+        TestRecord record = repository.storageFor(TestRecord).prepare()
+        record.id = id
+        record.insert()
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import griffon.test.GriffonUnitTestCase
+
+/**
+ * @author Andres Almiray
+ */
+class SqlStatementReaderTests extends GriffonUnitTestCase {
+    void testSplitsOnDelimiters() {
+        assertEquals(['create table a (id int)', 'insert into a values (1)'],
+            statements('create table a (id int);\n\ninsert into a values (1);;\n'))
+        assertEquals(['select 1'], statements('select 1'))
+    }
+
+    void testIgnoresDelimitersInQuotesAndComments() {
+        assertEquals(["insert into a values ('x;y', \"a;b\", `c;d`, 'it''s;')", 'select 2'],
+            statements("insert into a values ('x;y', \"a;b\", `c;d`, 'it''s;');select 2"))
+        assertEquals(['select 1', 'select 2'],
+            statements('-- first; statement\nselect 1; /* second; */select 2;').collect { it.trim() })
+    }
+
+    void testDollarQuotes() {
+        String body = 'create function f() returns int as $body$ begin return 1; end; $body$ language plpgsql'
+        assertEquals([body, 'select $1'], statements("${body};select \$1;"))
+        assertEquals(['select $$a;b$$'], statements('select $$a;b$$;'))
+    }
+
+    void testDollarsInsideIdentifiersAreNotQuotes() {
+        assertEquals(['select a$b$c from t', 'select 2'], statements('select a$b$c from t;select 2;'))
+    }
+
+    void testDelimiterDirective() {
+        String script = '''
+            DELIMITER //
+            create procedure p() begin select 1; select 2; end//
+            delimiter ;
+            select delimiter from t;
+        '''
+        assertEquals(['create procedure p() begin select 1; select 2; end', 'select delimiter from t'],
+            statements(script))
+    }
+
+    void testBackslashEscapes() {
+        String script = "insert into a values ('it\\'s; x');select 2;"
+        assertEquals(["insert into a values ('it\\'s; x')", 'select 2'], statements(script, true))
+        // standard SQL has no backslash escapes
+        assertEquals(["insert into a values ('C:\\')", 'select 2'], statements("insert into a values ('C:\\');select 2;"))
+    }
+
+    void testLongStatementsAreReadInLinearTime() {
+        String statement = 'select ' + (1..200000).collect { 'c' }.join(' , ')
+        long start = System.currentTimeMillis()
+        assertEquals([statement], statements(statement + ';'))
+        assert System.currentTimeMillis() - start < 5000L
+    }
+
+    private static List<String> statements(String script, boolean backslashEscapes = false) {
+        SqlStatementReader reader = new SqlStatementReader(new StringReader(script), backslashEscapes)
+        List<String> result = []
+        String statement
+        while ((statement = reader.next()) != null) result << statement
+        result
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import griffon.core.GriffonApplication
+import griffon.util.ApplicationHolder
+
+import java.util.concurrent.CopyOnWriteArrayList
+
+/**
+ * Builds a minimal application around a carbonado configuration and
+ * records the events it receives.
+ *
+ * @author Andres Almiray
+ */
+class TestApplication {
+    final ConfigObject config = new ConfigObject()
+    final List<List> events = new CopyOnWriteArrayList<List>()
+    final GriffonApplication app
+
+    TestApplication(String carbonadoConfig) {
+        config.pluginConfig.carbonado = new ConfigSlurper().parse(carbonadoConfig)
+        Closure record = { String name, List args = [] -> events << [name, args] }
+        app = [
+            getConfig: { config },
+            event: record,
+            eventAsync: record,
+            isUIThread: { false },
+            execInsideUIAsync: { Runnable r -> r.run() },
+            execOutsideUI: { Runnable r -> r.run() }
+        ] as GriffonApplication
+        ApplicationHolder.application = app
+    }
+
+    ConfigObject getCarbonadoConfig() {
+        config.pluginConfig.carbonado
+    }
+
+    List eventsNamed(String name) {
+        events.findAll { it[0] == name }.collect { it[1] }
+    }
+
+    void disconnectAll() {
+        CarbonadoConnector.instance.disconnectAll(app, carbonadoConfig, 10000L)
+    }
+}
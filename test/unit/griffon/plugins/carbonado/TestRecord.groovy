@@ -0,0 +1,45 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.Nullable
+import com.amazon.carbonado.PrimaryKey
+import com.amazon.carbonado.Storable
+
+/**
+ * Storable used by the tests. Properties other than the key are nullable,
+ * as Carbonado 1.2.3 does not notice that required properties were set when
+ * running on current JVMs.
+ *
+ * @author Andres Almiray
+ */
+@PrimaryKey('id')
+interface TestRecord extends Storable<TestRecord> {
+    long getId()
+
+    void setId(long id)
+
+    @Nullable
+    String getName()
+
+    void setName(String name)
+
+    @Nullable
+    Integer getAmount()
+
+    void setAmount(Integer amount)
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import griffon.test.GriffonUnitTestCase
+
+/**
+ * @author Andres Almiray
+ */
+class WarmupTests extends GriffonUnitTestCase {
+    private TestApplication application
+
+    protected void setUp() {
+        super.setUp()
+        BootstrapCarbonado.reset()
+        application = new TestApplication('''
+            repositories {
+                warm {
+                    type = 'map'
+                    warmup {
+                        types = ['griffon.plugins.carbonado.TestRecord', 'griffon.plugins.carbonado.Unkeyed']
+                        threads = 2
+                    }
+                }
+                cold { type = 'map' }
+                unknown {
+                    type = 'map'
+                    warmup { types = ['no.such.Storable'] }
+                }
+            }
+        ''')
+    }
+
+    protected void tearDown() {
+        application.disconnectAll()
+        super.tearDown()
+    }
+
+    void testConfiguredTypesAreWarmedUp() {
+        CarbonadoConnector.instance.connect(application.app, application.carbonadoConfig, 'warm')
+
+        List end = awaitWarmupEnd()
+        assertEquals 'warm', end[0]
+        // a type that cannot be warmed up is left out, it does not stop the others
+        assertEquals([TestRecord.name], end[1].keySet().toList())
+        assert end[1][TestRecord.name] >= 0L
+        assert end[2] >= end[1][TestRecord.name]
+        assertEquals 1, application.eventsNamed('CarbonadoWarmupEnd').size()
+    }
+
+    void testRepositoriesWithoutTypesAreNotWarmedUp() {
+        CarbonadoConnector.instance.connect(application.app, application.carbonadoConfig, 'cold')
+        assertTrue RepositoryHolder.instance.isRepositoryConnected('cold')
+        Thread.sleep(100L)
+        assertEquals([], application.eventsNamed('CarbonadoWarmupEnd'))
+    }
+
+    void testUnknownTypesFailTheConnection() {
+        shouldFail(IllegalArgumentException) {
+            CarbonadoConnector.instance.connect(application.app, application.carbonadoConfig, 'unknown')
+        }
+        assertFalse RepositoryHolder.instance.isRepositoryConnected('unknown')
+    }
+
+    private List awaitWarmupEnd() {
+        long deadline = System.currentTimeMillis() + 10000L
+        List end = null
+        while (end == null && System.currentTimeMillis() < deadline) {
+            end = application.eventsNamed('CarbonadoWarmupEnd').find()
+            if (end == null) Thread.sleep(10L)
+        }
+        assertNotNull end
+        end
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2011-2013 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package griffon.plugins.carbonado
+
+import com.amazon.carbonado.*
+import com.amazon.carbonado.repo.map.MapRepositoryBuilder
+import griffon.test.GriffonUnitTestCase
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * @author Andres Almiray
+ */
+class WriteBehindRepositoryTests extends GriffonUnitTestCase {
+    private Repository backing
+    private WriteBehindRepository repository
+    private List<Storable> failures = [].asSynchronized()
+
+    protected void setUp() {
+        super.setUp()
+        backing = new MapRepositoryBuilder(name: 'writeBehind').build()
+        // nothing is written until flushed
+        repository = new WriteBehindRepository(backing, 100, 1000, 60000L, 10000L, { Storable storable, Throwable cause ->
+            failures << storable
+        } as WriteBehindRepository.FailureListener)
+    }
+
+    protected void tearDown() {
+        repository.close()
+        super.tearDown()
+    }
+
+    void testQueuedUpdatesAreMerged() {
+        insert(1L, 'record', 1)
+
+        repository.update(record(1L) { it.name = 'renamed' })
+        repository.update(record(1L) { it.amount = 42 })
+        assertEquals 1, repository.queueSize
+        assertTrue repository.flush(10000L)
+
+        TestRecord stored = load(1L)
+        assertEquals 'renamed', stored.name
+        assertEquals 42, stored.amount
+        assertEquals 1L, repository.coalescedCount
+        assertEquals 1L, repository.writtenCount
+    }
+
+    void testInsertFollowedByUpdatesIsASingleInsert() {
+        repository.insert(record(1L) { it.name = 'inserted'; it.amount = 1 })
+        repository.update(record(1L) { it.amount = 2 })
+        assertTrue repository.flush(10000L)
+
+        TestRecord stored = load(1L)
+        assertEquals 'inserted', stored.name
+        assertEquals 2, stored.amount
+        assertEquals 0L, repository.failedCount
+    }
+
+    void testFailedWritesAreReportedOneAtATime() {
+        insert(2L, 'existing', 0)
+        (1L..3L).each { long id -> repository.insert(record(id) { it.name = "queued ${id}".toString() }) }
+        assertTrue repository.flush(10000L)
+
+        assertEquals 1L, repository.failedCount
+        assertEquals([2L], failures*.id)
+        assertEquals 'queued 1', load(1L).name
+        assertEquals 'existing', load(2L).name
+        assertEquals 'queued 3', load(3L).name
+    }
+
+    void testCloseDrainsWithTheDrainTimeout() {
+        (1L..50L).each { long id -> repository.insert(record(id) { it.name = 'queued' }) }
+        repository.close()
+
+        assertEquals 50L, repository.writtenCount
+        assertEquals 0, repository.queueSize
+        shouldFail(IllegalStateException) { repository.insert(record(51L) { it.name = 'late' }) }
+    }
+
+    void testDrainLetsTheCurrentBatchFinish() {
+        repository.close()
+        backing = new MapRepositoryBuilder(name: 'writeBehind').build()
+        repository = new WriteBehindRepository(backing, 100, 1, 1L, 10000L, null)
+        CountDownLatch writing = new CountDownLatch(1)
+        CountDownLatch release = new CountDownLatch(1)
+        List<Boolean> interrupted = [].asSynchronized()
+        backing.storageFor(TestRecord).addTrigger(new Trigger<TestRecord>() {
+            Object beforeInsert(TestRecord record) {
+                if (record.id == 1L) {
+                    writing.countDown()
+                    release.await(10, TimeUnit.SECONDS)
+                    interrupted << Thread.currentThread().interrupted
+                }
+                null
+            }
+        })
+        (1L..5L).each { long id -> repository.insert(record(id) { it.name = 'queued' }) }
+        assertTrue writing.await(10, TimeUnit.SECONDS)
+
+        int dropped = -1
+        Thread drainer = Thread.start { dropped = repository.drain(1000L) }
+        // the drain timeout elapses while the first batch is being written
+        Thread.sleep(1300L)
+        assertTrue drainer.alive
+        release.countDown()
+        drainer.join(10000L)
+
+        assertEquals([false], interrupted)
+        assertEquals 4, dropped
+        assertEquals 4L, repository.droppedCount
+        assertEquals 1L, repository.writtenCount
+        assertEquals 'queued', load(1L).name
+        assertEquals 1L, backing.storageFor(TestRecord).query().count()
+        assertEquals 0, repository.queueSize
+    }
+
+    private TestRecord record(long id, Closure setter) {
+        TestRecord record = backing.storageFor(TestRecord).prepare()
+        record.id = id
+        setter(record)
+        record
+    }
+
+    private void insert(long id, String name, Integer amount) {
+        record(id) { it.name = name; it.amount = amount }.insert()
+    }
+
+    private TestRecord load(long id) {
+        TestRecord record = backing.storageFor(TestRecord).prepare()
+        record.id = id
+        record.load()
+        record
+    }
+}